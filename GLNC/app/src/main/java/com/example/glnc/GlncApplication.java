@@ -0,0 +1,51 @@
+package com.example.glnc;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.glnc.location.LastFixStore;
+
+/**
+ * Application entry point
+ * Loads process-wide state that every screen needs on a cold start
+ */
+public class GlncApplication extends Application {
+    private static final long MAX_COLD_START_MS = 60_000; // Longer: the process was started earlier (service)
+    private static boolean firstRowReported = false;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Last known fix is read once here and then served from memory
+        LastFixStore.get(this);
+    }
+
+    /**
+     * Cold-start time: process start to the first drawn delivery row (once per process)
+     * Logged and kept in GLNC_Prefs (last value, sum and count) to compare app versions
+     */
+    public static void reportFirstDeliveryRow(Context context) {
+        if (firstRowReported) {
+            return;
+        }
+        firstRowReported = true;
+        long elapsedMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        if (elapsedMs > MAX_COLD_START_MS) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        long sum = prefs.getLong("cold_start_first_row_sum_ms", 0) + elapsedMs;
+        int count = prefs.getInt("cold_start_first_row_count", 0) + 1;
+        prefs.edit()
+                .putLong("cold_start_first_row_ms", elapsedMs)
+                .putLong("cold_start_first_row_sum_ms", sum)
+                .putInt("cold_start_first_row_count", count)
+                .apply();
+        Log.d("GlncApplication", "Cold start: first delivery row after " + elapsedMs + " ms (mean " + sum / count
+                + " ms over " + count + " starts)");
+    }
+}
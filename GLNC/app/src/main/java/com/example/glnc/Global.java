@@ -1,11 +1,13 @@
 package com.example.glnc;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.location.Location;
 import android.location.LocationManager;
 import android.util.Log;
 
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
+
 /**
  * Global application configuration and location storage
  * Provides unified location storage matching Worktime-Famoco documentation
@@ -16,7 +18,7 @@ public class Global {
     public String serverUrl = "https://2ts.myrfid.nc/api";
     
     // Unified location storage (matches documentation: Globals.setLocation/getLocation)
-    private static Location currentLocation = null;
+    private static volatile Location currentLocation = null; // Written by the location worker thread
     
     /**
      * Store location in Global class for unified access
@@ -94,23 +96,19 @@ public class Global {
             }
         }
         
-        // Fallback: Try to get location from SharedPreferences
-        SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-        float latitude = prefs.getFloat("latitude", 0.0f);
-        float longitude = prefs.getFloat("longitude", 0.0f);
-        float altitude = prefs.getFloat("altitude", 0.0f);
-        long timestamp = prefs.getLong("location_timestamp", 0);
+        // Fallback: last accepted fix (in memory, loaded once at process start)
+        LocationSnapshot lastFix = LastFixStore.get(context).getLastFix();
         
-        if (latitude != 0.0f || longitude != 0.0f) {
-            long age = timestamp > 0 ? System.currentTimeMillis() - timestamp : Long.MAX_VALUE;
+        if (lastFix != null) {
+            long age = lastFix.timeMs > 0 ? lastFix.ageMs(System.currentTimeMillis()) : Long.MAX_VALUE;
             long maxAge = forceFresh ? 10000 : 300000;
             
             if (age <= maxAge) {
-                Log.d("Global", "Using location from SharedPreferences (age: " + (age / 1000) + "s)");
-                callback.onLocationReceived(latitude, longitude, altitude);
+                Log.d("Global", "Using last stored fix (age: " + (age / 1000) + "s)");
+                callback.onLocationReceived(lastFix.latitude, lastFix.longitude, lastFix.altitude);
                 return;
             } else {
-                Log.w("Global", "SharedPreferences location too old: " + (age / 1000) + "s");
+                Log.w("Global", "Last stored fix too old: " + (age / 1000) + "s");
             }
         }
         
@@ -0,0 +1,393 @@
+package com.example.glnc;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.glnc.location.HandlerScheduler;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.location.Scheduler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Optional live-tracking mode: streams accepted fixes to /app/live_location over one WebSocket
+ * - Backpressure: at most one fix waits to be sent; newer fixes replace it (latest wins)
+ * - Rate adaptation: the send interval doubles while the socket still has unsent bytes
+ *   and shrinks back step by step once the link keeps up (MIN..MAX_SEND_INTERVAL_MS)
+ * - Fallback: while disconnected, fixes are buffered and POSTed in batches to
+ *   /app/location_batch; the socket reconnects with exponential backoff
+ * All state is confined to the main thread (OkHttp callbacks are posted back to it)
+ */
+public class LiveLocationStreamer {
+    private static final long MIN_SEND_INTERVAL_MS = 1000;
+    private static final long MAX_SEND_INTERVAL_MS = 30000;
+    private static final long SEND_INTERVAL_STEP_MS = 1000;
+    private static final long MIN_RECONNECT_DELAY_MS = 2000;
+    private static final long MAX_RECONNECT_DELAY_MS = 2 * 60 * 1000;
+    private static final long BATCH_UPLOAD_INTERVAL_MS = 5 * 60 * 1000;
+    private static final int BATCH_CAPACITY = 720; // One hour at one fix per 5 seconds
+    private static final long STOP_SETTLE_TIMEOUT_MS = 30000; // Longest wait for the final batch
+    private static final int NORMAL_CLOSURE = 1000;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final String baseUrl;
+    private final String userId;
+    private final Scheduler scheduler = new HandlerScheduler(Looper.getMainLooper());
+
+    private WebSocket webSocket;
+    private boolean connected = false;
+    private boolean running = false;
+    private long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+    private Object reconnectToken;
+
+    // Live sending
+    private LocationSnapshot pending;
+    private Object sendToken;
+    private long sendIntervalMs = MIN_SEND_INTERVAL_MS;
+    private long lastSendMs = -1;
+    private long seq = 0;
+
+    // Fallback batches
+    private final ArrayDeque<LocationSnapshot> buffer = new ArrayDeque<>();
+    private Object batchToken;
+    private boolean batchInFlight = false;
+    private Runnable onStopped;
+    private Object stopTimeoutToken;
+
+    // Counters for the shift report
+    private int sent = 0;
+    private int conflated = 0;
+    private int batched = 0;
+    private int droppedFromBuffer = 0;
+    private int reconnects = 0;
+
+    /**
+     * @param client Shared HTTP client (a ping interval is added for the socket)
+     * @param baseUrl Backend base URL (http/https, as in Global.serverUrl)
+     * @param userId Driver user ID
+     */
+    public LiveLocationStreamer(OkHttpClient client, String baseUrl, String userId) {
+        this.client = client.newBuilder()
+                .pingInterval(20, TimeUnit.SECONDS) // Detect dead links while parked
+                .build();
+        this.baseUrl = baseUrl;
+        this.userId = userId;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        connect();
+    }
+
+    /**
+     * Stop streaming and upload the fixes still buffered
+     * @param onStopped Run on the main thread once the final batch settled (uploaded, or counted
+     *                  as dropped), after at most STOP_SETTLE_TIMEOUT_MS: the counters are final then
+     */
+    public void stop(Runnable onStopped) {
+        running = false;
+        scheduler.cancel(reconnectToken);
+        scheduler.cancel(sendToken);
+        scheduler.cancel(batchToken);
+        reconnectToken = null;
+        sendToken = null;
+        batchToken = null;
+        if (webSocket != null) {
+            webSocket.close(NORMAL_CLOSURE, "shift ended");
+            webSocket = null;
+        }
+        connected = false;
+        if (pending != null) {
+            bufferFix(pending);
+            pending = null;
+        }
+        uploadBatch(); // Last chance for the fixes buffered while offline
+        Log.d("LiveLocationStreamer", "Stopped: " + sent + " sent, " + conflated + " conflated, "
+                + batched + " batched, " + reconnects + " reconnects");
+        this.onStopped = onStopped;
+        stopTimeoutToken = scheduler.postDelayed(() -> {
+            stopTimeoutToken = null;
+            Log.w("LiveLocationStreamer", "Final batch still in flight, reporting the counters without it");
+            notifyStopped();
+        }, STOP_SETTLE_TIMEOUT_MS);
+        if (!batchInFlight) {
+            notifyStopped();
+        }
+    }
+
+    private void notifyStopped() {
+        scheduler.cancel(stopTimeoutToken);
+        stopTimeoutToken = null;
+        Runnable callback = onStopped;
+        onStopped = null;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /**
+     * A new accepted fix
+     */
+    public void offer(LocationSnapshot fix) {
+        if (!running || fix == null) {
+            return;
+        }
+        if (!connected) {
+            bufferFix(fix);
+            return;
+        }
+        if (pending != null) {
+            conflated++; // Link slower than fixes: keep only the latest
+        }
+        pending = fix;
+        trySend();
+    }
+
+    private void connect() {
+        String url = baseUrl.replaceFirst("^http", "ws") + "/app/live_location?user_id=" + userId;
+        Request request = new Request.Builder().url(url).build();
+        webSocket = client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket socket, Response response) {
+                scheduler.postDelayed(() -> onConnected(socket), 0);
+            }
+
+            @Override
+            public void onClosed(WebSocket socket, int code, String reason) {
+                scheduler.postDelayed(() -> onDisconnected(socket, "closed " + code), 0);
+            }
+
+            @Override
+            public void onFailure(WebSocket socket, Throwable t, Response response) {
+                scheduler.postDelayed(() -> onDisconnected(socket, t.getMessage()), 0);
+            }
+        });
+    }
+
+    private void onConnected(WebSocket socket) {
+        if (socket != webSocket || !running) {
+            return;
+        }
+        connected = true;
+        reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+        sendIntervalMs = MIN_SEND_INTERVAL_MS;
+        Log.d("LiveLocationStreamer", "Live tracking connected");
+        // Fixes collected while offline go up in one batch; live fixes restart with the newest,
+        // taken out of the batch so that it is sent once
+        if (!buffer.isEmpty()) {
+            pending = buffer.pollLast();
+            uploadBatch();
+        }
+        trySend();
+    }
+
+    private void onDisconnected(WebSocket socket, String reason) {
+        if (socket != webSocket) {
+            return;
+        }
+        Log.w("LiveLocationStreamer", "Live tracking disconnected: " + reason);
+        connected = false;
+        webSocket = null;
+        scheduler.cancel(sendToken);
+        sendToken = null;
+        if (pending != null) {
+            bufferFix(pending);
+            pending = null;
+        }
+        if (!running) {
+            return;
+        }
+        reconnects++;
+        reconnectToken = scheduler.postDelayed(() -> {
+            reconnectToken = null;
+            if (running) {
+                connect();
+            }
+        }, reconnectDelayMs);
+        reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+    }
+
+    private void trySend() {
+        if (pending == null || sendToken != null || !connected) {
+            return;
+        }
+        long nowMs = scheduler.elapsedRealtimeMs();
+        if (webSocket.queueSize() > 0) {
+            // Previous message not written yet: back off and keep conflating
+            sendIntervalMs = Math.min(sendIntervalMs * 2, MAX_SEND_INTERVAL_MS);
+            scheduleSend(sendIntervalMs);
+            return;
+        }
+        if (lastSendMs >= 0 && nowMs - lastSendMs < sendIntervalMs) {
+            scheduleSend(lastSendMs + sendIntervalMs - nowMs);
+            return;
+        }
+        try {
+            if (webSocket.send(toJson(pending).toString())) {
+                sent++;
+                lastSendMs = nowMs;
+                pending = null;
+                // Link keeps up: tighten the interval again (additive decrease)
+                sendIntervalMs = Math.max(MIN_SEND_INTERVAL_MS, sendIntervalMs - SEND_INTERVAL_STEP_MS);
+            }
+        } catch (JSONException e) {
+            Log.e("LiveLocationStreamer", "Error encoding fix", e);
+            pending = null;
+        }
+    }
+
+    private void scheduleSend(long delayMs) {
+        sendToken = scheduler.postDelayed(() -> {
+            sendToken = null;
+            trySend();
+        }, delayMs);
+    }
+
+    private void bufferFix(LocationSnapshot fix) {
+        if (buffer.size() >= BATCH_CAPACITY) {
+            buffer.pollFirst(); // Keep the most recent hour
+            droppedFromBuffer++;
+        }
+        buffer.addLast(fix);
+        if (batchToken == null && running) {
+            batchToken = scheduler.postDelayed(() -> {
+                batchToken = null;
+                uploadBatch();
+            }, BATCH_UPLOAD_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * POST the buffered fixes to /app/location_batch (they are put back if the upload fails)
+     */
+    private void uploadBatch() {
+        if (buffer.isEmpty() || batchInFlight) {
+            return;
+        }
+        final LocationSnapshot[] fixes = buffer.toArray(new LocationSnapshot[0]);
+        buffer.clear();
+        RequestBody body;
+        try {
+            JSONArray array = new JSONArray();
+            for (LocationSnapshot fix : fixes) {
+                array.put(toJson(fix));
+            }
+            JSONObject json = new JSONObject();
+            json.put("user_id", userId);
+            json.put("fixes", array);
+            body = RequestBody.create(json.toString(), JSON);
+        } catch (JSONException e) {
+            Log.e("LiveLocationStreamer", "Error encoding batch", e);
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(baseUrl + "/app/location_batch")
+                .post(body)
+                .addHeader("Content-Type", "application/json")
+                .build();
+        batchInFlight = true;
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e("LiveLocationStreamer", "Batch upload failed: " + e.getMessage());
+                scheduler.postDelayed(() -> onBatchDone(fixes, false), 0);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                boolean ok = response.isSuccessful();
+                if (!ok) {
+                    Log.e("LiveLocationStreamer", "Batch upload rejected: " + response.code());
+                }
+                response.close();
+                scheduler.postDelayed(() -> onBatchDone(fixes, ok), 0);
+            }
+        });
+    }
+
+    private void onBatchDone(LocationSnapshot[] fixes, boolean ok) {
+        batchInFlight = false;
+        if (ok) {
+            batched += fixes.length;
+            if (!running) {
+                uploadBatch(); // Fixes buffered while this batch was in flight when the stream stopped
+                if (!batchInFlight) {
+                    notifyStopped();
+                }
+            }
+            return;
+        }
+        if (!running) {
+            // Stopped stream: nothing will retry, count what is lost
+            int dropped = fixes.length + buffer.size();
+            droppedFromBuffer += dropped;
+            buffer.clear();
+            Log.w("LiveLocationStreamer", "Final batch upload failed, " + dropped + " fixes dropped");
+            notifyStopped();
+            return;
+        }
+        // Put the batch back in front of the fixes buffered meanwhile
+        for (int i = fixes.length - 1; i >= 0; i--) {
+            if (buffer.size() >= BATCH_CAPACITY) {
+                droppedFromBuffer++;
+                continue;
+            }
+            buffer.addFirst(fixes[i]);
+        }
+        if (batchToken == null) {
+            batchToken = scheduler.postDelayed(() -> {
+                batchToken = null;
+                uploadBatch();
+            }, BATCH_UPLOAD_INTERVAL_MS);
+        }
+    }
+
+    private JSONObject toJson(LocationSnapshot fix) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("seq", ++seq);
+        json.put("latitude", fix.latitude);
+        json.put("longitude", fix.longitude);
+        json.put("altitude", fix.altitude);
+        if (fix.hasAccuracy()) {
+            json.put("accuracy", fix.accuracy);
+        }
+        json.put("speed", fix.speed);
+        json.put("bearing", fix.bearing);
+        json.put("time", fix.timeMs);
+        return json;
+    }
+
+    /**
+     * Streaming counters for the end-of-shift report
+     */
+    public JSONObject statsToJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("sent", sent);
+        json.put("conflated", conflated);
+        json.put("batched", batched);
+        json.put("dropped", droppedFromBuffer);
+        json.put("reconnects", reconnects);
+        json.put("send_interval_ms", sendIntervalMs);
+        return json;
+    }
+}
@@ -4,152 +4,330 @@ import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.location.Criteria;
+import android.location.GnssStatus;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
+import android.location.LocationRequest;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
+import com.example.glnc.location.DeliveryIndex;
+import com.example.glnc.location.EnergyPolicy;
+import com.example.glnc.location.FreshFixRequest;
+import com.example.glnc.location.GeofenceEngine;
+import com.example.glnc.location.HandlerScheduler;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationMetrics;
+import com.example.glnc.location.LocationPipeline;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.location.LocationStream;
+import com.example.glnc.location.MockRuleConfig;
+import com.example.glnc.location.MockRuleEngine;
+import com.example.glnc.location.ProviderStateMachine;
+import com.example.glnc.location.ShiftTrack;
+import com.example.glnc.location.ShiftTrackingStats;
+import com.example.glnc.location.TripAnalytics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+
 /**
  * Continuous GPS Location Tracking Module
  * Based on Worktime-Famoco GPS Location Tracking Documentation
  * Uses Android's native LocationManager API (no Google Play Services required)
  * Provides continuous location updates (3 minutes / 30 meters threshold)
- * Location available via direct field access: location.latitude, location.longitude
+ * Accepted fixes are published as immutable snapshots on getLocationStream()
  * Stores location in Global class for unified access
+ * Fix filtering is done by LocationPipeline (also replayed on the JVM from recorded traces)
+ * Callbacks and persistence run on the "LocationWorker" thread; UI reads the latest snapshot lock-free
  */
 public class Location {
     private final Context context;
     private LocationManager locationManager = null;
     private String provider;
-    public double latitude;
-    public double longitude;
-    public double altitude;
-    private LocationListener listenerGPS;
+    private volatile LocationListener listenerGPS;
+    private volatile boolean tracking = false; // Set by the caller's thread, before the pipeline runs
+    
+    // Looper running listener callbacks, the pipeline and persistence (worker thread by default)
+    private final Looper pipelineLooper;
+    private final Handler pipelineHandler;
+    private static HandlerThread workerThread;
+    
+    // Fusion mode: GPS and network subscribed together, best fix selected per fix
+    private volatile boolean fusionEnabled = false;
+    
+    // Geofence engine for delivery stops (shared: stops are registered by HomeViewModel)
+    private static final GeofenceEngine geofenceEngine = new GeofenceEngine();
+    
+    // Spatial index of pending delivery destinations (nearest stop, stops around a position)
+    private static final DeliveryIndex deliveryIndex = new DeliveryIndex();
+    
+    // Positions of the current shift (breadcrumb trail on the map)
+    private static final ShiftTrack shiftTrack = new ShiftTrack();
     
-    // Track mock location rejections for automatic fallback to network
-    private int gpsMockRejectionCount = 0;
-    private static final int MAX_GPS_MOCK_REJECTIONS = 3; // Switch to network after 3 rejections
-    private boolean hasSwitchedToNetwork = false; // Track if we've already switched
+    // Stream of accepted fixes (shared: consumers subscribe instead of polling)
+    private static final LocationStream locationStream = new LocationStream();
     
-    // Timeout mechanism: Switch to network if no location received within timeout
-    private Handler timeoutHandler;
-    private Runnable timeoutRunnable;
-    private static final long GPS_TIMEOUT_MS = 30000; // 30 seconds timeout for GPS
-    private boolean hasValidLocation = false; // Track if we've received a valid location
+    // Mock-location rules, evaluated once per received fix
+    private final MockRuleEngine mockRuleEngine;
+    
+    // Mock rejection, GPS timeout, fusion, stats and geofence logic (LocationManager-independent)
+    private final LocationPipeline pipeline;
+    
+    // Optional shift metrics (set by LocationTrackingService)
+    private volatile LocationMetrics metrics;
+    private volatile ShiftTrackingStats trackingStats;
+    private GnssStatus.Callback gnssCallback;
+    private final Runnable gnssWindowEnd = this::unregisterGnssStatus;
+    
+    // Optional energy policy (set by LocationTrackingService); null = legacy 3 min / 30 m GPS request
+    private volatile EnergyPolicy energyPolicy;
+    private boolean energyDowngraded = false; // On network only because of the energy policy
+    
+    private static final long GPS_PROBE_INTERVAL_MS = 5000; // Fast GPS updates during a probe window
+    // GnssStatus wakes the app about once per second: sample only around the first fix
+    private static final long GNSS_SAMPLE_AFTER_FIX_MS = 30 * 1000;
+    private static final long GNSS_SAMPLE_MAX_MS = 2 * 60 * 1000;
 
     public Location(Context context) {
         this.context = context;
-        this.latitude = 0.0;
-        this.longitude = 0.0;
-        this.altitude = 0.0;
+        this.mockRuleEngine = createMockRuleEngine(context);
+        // Main looper only if disabled in preferences (to compare main-thread time per fix)
+        boolean background = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+            .getBoolean("location_pipeline_background", true);
+        this.pipelineLooper = background ? getWorkerLooper() : Looper.getMainLooper();
+        this.pipelineHandler = new Handler(pipelineLooper);
+        this.pipeline = new LocationPipeline(mockRuleEngine, new HandlerScheduler(pipelineLooper), geofenceEngine);
+        this.pipeline.setProviderController(new LocationPipeline.ProviderController() {
+            @Override
+            public void switchToNetwork() {
+                switchToNetworkProvider();
+            }
+
+            @Override
+            public void startGpsProbe() {
+                startGpsProbeUpdates();
+            }
+
+            @Override
+            public void stopGpsProbe() {
+                stopGpsProbeUpdates();
+            }
+
+            @Override
+            public void switchToGps() {
+                switchToGpsProvider();
+            }
+        });
     }
 
     /**
-     * Check if location is from mock provider (test/emulator location)
-     * Prevents using fake locations like Washington DC when in Tokyo/New Caledonia
-     * Enhanced detection for Famoco devices and mock location apps
+     * Shared worker thread for location callbacks (started once, lives with the process)
      */
-    private boolean isMockLocation(android.location.Location location) {
-        if (location == null) {
-            return false;
+    private static synchronized Looper getWorkerLooper() {
+        if (workerThread == null) {
+            workerThread = new HandlerThread("LocationWorker", Process.THREAD_PRIORITY_BACKGROUND);
+            workerThread.start();
         }
-        
-        double lat = location.getLatitude();
-        double lon = location.getLongitude();
-        
-        // Method 1: Direct Android API check (most reliable)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            try {
-                if (location.isFromMockProvider()) {
-                    Log.e("Location", "REJECTED: Location is from MOCK provider - " + lat + ", " + lon);
-                    return true;
-                }
-            } catch (Exception e) {
-                Log.w("Location", "Error checking mock provider", e);
-            }
+        return workerThread.getLooper();
+    }
+
+    /**
+     * Run on the pipeline looper (directly if already on it)
+     */
+    private void runOnPipeline(Runnable task) {
+        if (Looper.myLooper() == pipelineLooper) {
+            task.run();
+        } else {
+            pipelineHandler.post(task);
         }
-        
-        // Method 2: Check for suspicious accuracy patterns
-        // Real GPS accuracy is typically 5-20m and varies. Exactly 1.0m is suspicious (common in mock locations)
-        if (location.hasAccuracy()) {
-            float accuracy = location.getAccuracy();
-            // Accuracy of exactly 1.0m is a red flag (LDPlayer/emulators often use this)
-            if (accuracy == 1.0f) {
-                Log.w("Location", "Suspicious accuracy: exactly 1.0m (common in mock locations)");
-                // If combined with known mock coordinates, definitely reject
-                if ((Math.abs(lat - 38.907) < 0.01 && Math.abs(lon - (-77.036)) < 0.01)) {
-                    Log.e("Location", "REJECTED: Washington DC coordinates with suspicious 1.0m accuracy - " + lat + ", " + lon);
-                    return true;
-                }
-            }
-            // Accuracy < 0.1m is almost certainly mock
-            if (accuracy < 0.1f) {
-                Log.e("Location", "REJECTED: Absurdly precise accuracy: " + accuracy + "m");
-                return true;
+    }
+
+    /**
+     * Get the stream of accepted location fixes
+     * Observers are woken up only when a new fix is accepted
+     * @return The shared location stream
+     */
+    public static LocationStream getLocationStream() {
+        return locationStream;
+    }
+
+    /**
+     * Record wakeups, accepted fixes and gaps into the given shift statistics
+     * @param trackingStats The statistics to update, or null to stop recording
+     */
+    public void setTrackingStats(ShiftTrackingStats trackingStats) {
+        this.trackingStats = trackingStats;
+        pipeline.setTrackingStats(trackingStats);
+    }
+
+    /**
+     * Record TTFF, accuracy, provider switches, mock rejections and satellite status
+     * @param metrics The metrics to update, or null to stop recording
+     */
+    public void setMetrics(LocationMetrics metrics) {
+        this.metrics = metrics;
+        pipeline.setMetrics(metrics);
+    }
+
+    /**
+     * Choose interval, batching latency and provider from the energy policy
+     * Profile changes re-subscribe the listener on the pipeline looper
+     * @param energyPolicy The policy to follow, or null for the legacy request
+     */
+    public void setEnergyPolicy(EnergyPolicy energyPolicy) {
+        EnergyPolicy previous = this.energyPolicy;
+        if (previous != null) {
+            previous.setListener(null);
+        }
+        this.energyPolicy = energyPolicy;
+        pipeline.setEnergyPolicy(energyPolicy);
+        if (energyPolicy != null) {
+            // Posted: never re-subscribe from inside a fix being processed
+            energyPolicy.setListener(profile -> pipelineHandler.post(this::applyEnergyProfile));
+        }
+    }
+
+    /**
+     * Feed accepted fixes to the trip analytics (odometer, stops, dwell times)
+     * @param tripAnalytics The analytics to update, or null to stop recording
+     */
+    public void setTripAnalytics(TripAnalytics tripAnalytics) {
+        pipeline.setTripAnalytics(tripAnalytics);
+    }
+
+    /**
+     * Enable concurrent GPS + network fusion (takes effect on next initLocation)
+     * Indoors the network provider delivers a usable fix in seconds instead of waiting
+     * for the GPS timeout; each fix is arbitrated by accuracy, age and provider trust
+     * @param fusionEnabled true to subscribe to both providers
+     */
+    public void setFusionEnabled(boolean fusionEnabled) {
+        this.fusionEnabled = fusionEnabled;
+    }
+
+    /**
+     * Check if location updates are currently requested
+     * Set synchronously by initLocation(), so it is true right after the call even though
+     * the updates are requested later on the pipeline looper
+     * @return true between initLocation() and stopLocation(), false if updates could not be requested
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Actively acquire a fresh fix (independent of the continuous updates)
+     * Used for proof-of-delivery coordinates: bounded latency, best accuracy obtained
+     * @param context The context to use
+     * @param deadlineMs Maximum time to wait
+     * @param targetAccuracyM Accuracy that ends the request early
+     * @param callback Receives the best non-mock fix, or null (main thread)
+     * @return The running request, to cancel if the caller goes away
+     */
+    public static FreshFixRequest requestFreshFix(Context context, long deadlineMs, float targetAccuracyM,
+                                                  FreshFixRequest.Callback callback) {
+        FreshFixRequest request = new FreshFixRequest(context, createMockRuleEngine(context), deadlineMs, targetAccuracyM);
+        request.start(callback);
+        return request;
+    }
+
+    /**
+     * Get the geofence engine evaluating accepted fixes against delivery stops
+     * @return The shared geofence engine
+     */
+    public static GeofenceEngine getGeofenceEngine() {
+        return geofenceEngine;
+    }
+
+    /**
+     * Get the spatial index of pending delivery destinations
+     * @return The shared delivery index
+     */
+    public static DeliveryIndex getDeliveryIndex() {
+        return deliveryIndex;
+    }
+
+    /**
+     * Get the positions recorded during the current shift
+     * @return The shared shift track
+     */
+    public static ShiftTrack getShiftTrack() {
+        return shiftTrack;
+    }
+
+    /**
+     * Load mock rule configuration: pushed override, then bundled resource, then defaults
+     */
+    private static MockRuleConfig loadMockRuleConfig(Context context) {
+        try {
+            String override = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                .getString("mock_rules_json", null);
+            if (override != null) {
+                return MockRuleConfig.fromJson(override);
             }
+        } catch (Exception e) {
+            Log.w("Location", "Invalid mock rules override, using bundled rules", e);
         }
-        
-        // Method 3: Check for known mock/test location coordinates (LDPlayer default)
-        // Washington DC: 38.907, -77.036 (LDPlayer's default location)
-        // Only reject if accuracy is also suspicious (to avoid blocking real users in DC)
-        if ((Math.abs(lat - 38.907) < 0.01 && Math.abs(lon - (-77.036)) < 0.01)) {
-            // Washington DC coordinates - check if accuracy is suspicious
-            if (location.hasAccuracy() && location.getAccuracy() <= 1.0f) {
-                Log.e("Location", "REJECTED: Washington DC coordinates with suspicious accuracy - " + lat + ", " + lon + " (accuracy: " + location.getAccuracy() + "m)");
-                return true;
+        try (InputStream in = context.getResources().openRawResource(R.raw.mock_location_rules)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
             }
+            return MockRuleConfig.fromJson(out.toString("UTF-8"));
+        } catch (Exception e) {
+            Log.w("Location", "Could not load bundled mock rules, using defaults", e);
         }
-        
-        // Method 4: Check if mock locations are enabled in Developer Options
+        return MockRuleConfig.defaults();
+    }
+
+    private static MockRuleEngine createMockRuleEngine(Context context) {
+        return new MockRuleEngine(loadMockRuleConfig(context), () -> isMockSettingEnabled(context));
+    }
+
+    /**
+     * Check if mock locations are enabled in Developer Options (system query, cached by the engine)
+     */
+    private static boolean isMockSettingEnabled(Context context) {
         try {
-            if (android.provider.Settings.Secure.getInt(
+            return android.provider.Settings.Secure.getInt(
                     context.getContentResolver(),
                     android.provider.Settings.Secure.ALLOW_MOCK_LOCATION
-            ) == 1) {
-                // Mock locations are enabled - be more cautious
-                // Check for location age - very old locations might be cached mock
-                long age = System.currentTimeMillis() - location.getTime();
-                if (age > 86400000) { // Older than 24 hours
-                    Log.w("Location", "Possible mock: Very old location: " + (age / 3600000) + " hours");
-                    // Only reject if also has suspicious accuracy
-                    if (location.hasAccuracy() && location.getAccuracy() <= 1.0f) {
-                        Log.e("Location", "REJECTED: Very old location with suspicious accuracy");
-                        return true;
-                    }
-                }
-            }
+            ) == 1;
         } catch (Exception e) {
             Log.w("Location", "Could not check mock location setting", e);
+            return false;
         }
-        
-        return false;
     }
 
     /**
      * Initialize location tracking and start continuous updates
      * Matches Worktime-Famoco documentation implementation
      * Updates occur every 3 minutes OR when device moves 30+ meters
+     * (interval, provider and batching latency follow the energy policy if one is set)
+     * Callbacks, mock detection and persistence run on the pipeline looper, off the UI thread
      */
     public void initLocation() {
+        tracking = true;
+        runOnPipeline(this::startUpdates);
+    }
+
+    private void startUpdates() {
         // Clear any existing mock locations from storage on startup
         clearMockLocationFromStorage();
         
-        // Reset mock rejection counter when initializing
-        gpsMockRejectionCount = 0;
-        hasSwitchedToNetwork = false;
-        hasValidLocation = false;
-        
-        // Initialize timeout handler
-        if (timeoutHandler == null) {
-            timeoutHandler = new Handler(Looper.getMainLooper());
-        }
-        
         // Get LocationManager service
         if (locationManager == null) {
             locationManager = (LocationManager) context.getApplicationContext()
@@ -188,6 +366,20 @@ public class Location {
             }
         }
         
+        // Energy policy: network only while the battery is critical or in power save mode
+        EnergyPolicy policy = energyPolicy;
+        boolean gpsAllowed = policy == null || policy.getProfile().useGps;
+        if (!gpsAllowed && LocationManager.GPS_PROVIDER.equals(provider)
+                && locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
+            provider = LocationManager.NETWORK_PROVIDER;
+            energyDowngraded = true;
+            Log.d("Location", "Energy policy: using NETWORK_PROVIDER instead of GPS");
+        } else if (gpsAllowed && energyDowngraded) {
+            provider = LocationManager.GPS_PROVIDER;
+            energyDowngraded = false;
+            Log.d("Location", "Energy policy: back to GPS_PROVIDER");
+        }
+        
         // Check permissions
         if (provider != null) {
             if (ActivityCompat.checkSelfPermission(context.getApplicationContext(), 
@@ -196,6 +388,7 @@ public class Location {
                 ActivityCompat.checkSelfPermission(context.getApplicationContext(), 
                     Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
                 Log.d("Location", "No location permissions granted");
+                tracking = false;
                 return;
             }
             
@@ -212,58 +405,23 @@ public class Location {
             listenerGPS = new LocationListener() {
                 @Override
                 public void onLocationChanged(android.location.Location location) {
-                    // Log incoming location for debugging
-                    Log.d("Location", "onLocationChanged received: " + location.getLatitude() + ", " + 
-                          location.getLongitude() + " (provider: " + location.getProvider() + 
-                          ", accuracy: " + (location.hasAccuracy() ? location.getAccuracy() + "m" : "unknown") + ")");
-                    
-                    // Reject mock locations
-                    if (isMockLocation(location)) {
-                        Log.e("Location", "REJECTED: Mock location detected - " + 
-                              location.getLatitude() + ", " + location.getLongitude());
-                        
-                        // If GPS is returning mock locations, count rejections and switch to network
-                        if (LocationManager.GPS_PROVIDER.equals(provider) && !hasSwitchedToNetwork) {
-                            gpsMockRejectionCount++;
-                            Log.w("Location", "GPS mock rejection count: " + gpsMockRejectionCount + "/" + MAX_GPS_MOCK_REJECTIONS);
-                            
-                            // Switch to network provider after too many mock rejections
-                            if (gpsMockRejectionCount >= MAX_GPS_MOCK_REJECTIONS) {
-                                Log.w("Location", "GPS consistently returning mock locations. Switching to NETWORK_PROVIDER...");
-                                switchToNetworkProvider();
-                            }
-                        }
-                        return;
-                    }
-                    
-                    // Valid location received - cancel timeout and reset counters
-                    cancelGpsTimeout();
-                    hasValidLocation = true;
-                    
-                    if (gpsMockRejectionCount > 0) {
-                        Log.d("Location", "Valid location received, resetting mock rejection counter");
-                        gpsMockRejectionCount = 0;
+                    deliverFix(location, false);
+                }
+
+                @Override
+                public void onLocationChanged(List<android.location.Location> locations) {
+                    // API 31+: fixes batched in the GNSS FIFO arrive together, oldest first
+                    if (locations.size() == 1) {
+                        deliverFix(locations.get(0), false);
+                    } else {
+                        deliverBatch(locations);
                     }
-                    
-                    // Update direct fields for easy access
-                    latitude = location.getLatitude();
-                    longitude = location.getLongitude();
-                    altitude = location.getAltitude();
-                    
-                    Log.d("Location", "Location ACCEPTED and updated: " + latitude + ", " + longitude + 
-                          " (accuracy: " + (location.hasAccuracy() ? location.getAccuracy() + "m" : "unknown") + 
-                          ", provider: " + location.getProvider() + ")");
-                    
-                    // Store location in Global class for unified access
-                    Global.setLocation(location);
-                    
-                    // Also store in SharedPreferences for persistence
-                    storeLocation(location);
                 }
 
                 @Override
                 public void onProviderDisabled(String fournisseur) {
                     Log.d("Location", "Provider disabled: " + fournisseur);
+                    pipeline.onProviderDisabled(fournisseur);
                 }
 
                 @Override
@@ -287,55 +445,78 @@ public class Location {
                 }
             };
             
+            // Fusion mode: GPS and network are subscribed together (decided before cached fixes are delivered)
+            boolean fusionActive = fusionEnabled && LocationManager.GPS_PROVIDER.equals(provider)
+                && locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+            
+            // Reset mock rejection counter, timeout and fusion state (TTFF is measured from here)
+            pipeline.start(provider, fusionActive);
+            
             // Phase 4: Get cached location immediately (as per documentation)
             // BUT: Check if cached location is mock before using it
             android.location.Location cachedLocation = locationManager.getLastKnownLocation(provider);
             if (cachedLocation != null) {
-                if (isMockLocation(cachedLocation)) {
-                    Log.e("Location", "REJECTED cached location - detected as mock: " + 
-                          cachedLocation.getLatitude() + ", " + cachedLocation.getLongitude());
-                    // Clear the mock location from SharedPreferences if it exists
+                // Evaluated once here; a mock cached fix also clears stored mock coordinates
+                Log.d("Location", "Using cached location: " + cachedLocation.getLatitude() + ", " + cachedLocation.getLongitude());
+                if (!deliverFix(cachedLocation, true)) {
                     clearMockLocationFromStorage();
-                    Log.d("Location", "No valid cached location available (mock detected), waiting for fresh GPS fix");
-                } else {
-                    // Immediately notify listener with cached location
-                    Log.d("Location", "Using cached location: " + cachedLocation.getLatitude() + ", " + cachedLocation.getLongitude());
-                    hasValidLocation = true; // Mark as valid so timeout won't trigger
-                    listenerGPS.onLocationChanged(cachedLocation);
+                    Log.d("Location", "No valid cached location available, waiting for fresh GPS fix");
                 }
             } else {
                 Log.d("Location", "No cached location available, waiting for fresh GPS fix");
             }
             
             // Phase 5: Request continuous location updates
-            // Updates occur when EITHER condition is met:
+            // Updates occur when EITHER condition is met (legacy profile):
             // - Time elapsed: 3 minutes (180,000 ms)
             // - Distance moved: 30 meters
-            locationManager.requestLocationUpdates(
-                provider,              // Selected provider (gps/network/passive)
-                3 * 60 * 1000,        // minTime: 3 minutes (180,000 ms)
-                30,                    // minDistance: 30 meters
-                listenerGPS            // LocationListener callback
-            );
+            requestUpdates(provider);
             
-            Log.d("Location", "Location updates requested - Updates every 3 min or 30m movement");
+            if (LocationManager.GPS_PROVIDER.equals(provider)) {
+                registerGnssStatus();
+            }
             
-            // Start timeout: If GPS is used and no valid location yet, switch to network after timeout
-            if (LocationManager.GPS_PROVIDER.equals(provider) && !hasValidLocation && !hasSwitchedToNetwork) {
-                startGpsTimeout();
+            // Fusion mode: subscribe to network provider at the same time
+            if (fusionActive) {
+                // Cached network fix competes with the cached GPS fix
+                android.location.Location cachedNetworkLocation =
+                    locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+                if (cachedNetworkLocation != null) {
+                    deliverFix(cachedNetworkLocation, true);
+                }
+                
+                requestUpdates(LocationManager.NETWORK_PROVIDER);
+                Log.d("Location", "Fusion mode: GPS + NETWORK_PROVIDER subscribed together");
             }
+            
+            // Start timeout: If GPS is used and no valid location yet, switch to network after timeout
+            pipeline.startGpsTimeoutIfWaiting();
         } else {
             Log.e("Location", "No location provider available!");
+            tracking = false;
         }
     }
 
     /**
      * Stop location updates and clean up resources
-     * Should be called in Activity's onPause() method
+     * Called by LocationTrackingService when the shift ends
+     * @param onStopped Run on the pipeline looper right after the stop, once no fix can reach the
+     *                  pipeline any more (collectors can be read and detached there), or null
      */
-    public void stopLocation() {
+    public void stopLocation(Runnable onStopped) {
+        tracking = false;
+        runOnPipeline(() -> {
+            stopUpdates();
+            if (onStopped != null) {
+                onStopped.run();
+            }
+        });
+    }
+
+    private void stopUpdates() {
         // Cancel timeout
-        cancelGpsTimeout();
+        pipeline.stop();
+        unregisterGnssStatus();
         
         if (locationManager != null && listenerGPS != null) {
             try {
@@ -349,39 +530,190 @@ public class Location {
     }
     
     /**
-     * Start GPS timeout - switch to network if no location received within timeout period
+     * Request continuous updates from a provider with the current energy profile
+     * API 31+: LocationRequest with the profile's batching latency (maxUpdateDelay)
+     * Callbacks are delivered on the pipeline looper
      */
-    private void startGpsTimeout() {
-        // Cancel any existing timeout
-        cancelGpsTimeout();
-        
-        if (timeoutHandler == null) {
-            timeoutHandler = new Handler(Looper.getMainLooper());
+    private void requestUpdates(String requestedProvider) {
+        EnergyPolicy policy = energyPolicy;
+        EnergyPolicy.Profile profile = policy != null ? policy.getProfile() : EnergyPolicy.DEFAULT_PROFILE;
+        requestUpdates(requestedProvider, profile.intervalMs, profile.minDistanceM, profile.maxUpdateDelayMs,
+            profile.useGps);
+        Log.d("Location", "Location updates requested from " + requestedProvider + ": " + profile);
+    }
+
+    @SuppressWarnings("MissingPermission") // Checked by the callers
+    private void requestUpdates(String requestedProvider, long intervalMs, float minDistanceM, long maxUpdateDelayMs,
+                                boolean highAccuracy) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            LocationRequest request = new LocationRequest.Builder(intervalMs)
+                .setMinUpdateDistanceMeters(minDistanceM)
+                .setMaxUpdateDelayMillis(maxUpdateDelayMs)
+                .setQuality(highAccuracy ? LocationRequest.QUALITY_HIGH_ACCURACY
+                    : LocationRequest.QUALITY_BALANCED_POWER_ACCURACY)
+                .build();
+            locationManager.requestLocationUpdates(requestedProvider, request, pipelineHandler::post, listenerGPS);
+        } else {
+            locationManager.requestLocationUpdates(requestedProvider, intervalMs, minDistanceM,
+                listenerGPS, pipelineLooper);
+        }
+    }
+
+    /**
+     * Re-subscribe with the new energy profile (runs on the pipeline looper)
+     * A provider change restarts tracking; otherwise only the request parameters change
+     */
+    private void applyEnergyProfile() {
+        EnergyPolicy policy = energyPolicy;
+        if (policy == null || locationManager == null || listenerGPS == null) {
+            return; // Applied on the next initLocation
+        }
+        EnergyPolicy.Profile profile = policy.getProfile();
+        boolean onGps = LocationManager.GPS_PROVIDER.equals(provider);
+        if ((onGps && !profile.useGps) || (energyDowngraded && profile.useGps)) {
+            stopUpdates();
+            startUpdates();
+            return;
+        }
+        try {
+            locationManager.removeUpdates(listenerGPS);
+            requestUpdates(provider);
+            if (pipeline.isFusionActive()) {
+                requestUpdates(LocationManager.NETWORK_PROVIDER);
+            }
+            if (pipeline.getProviderState() == ProviderStateMachine.State.PROBING) {
+                startGpsProbeUpdates(); // removeUpdates also dropped the probe subscription
+            }
+        } catch (Exception e) {
+            Log.e("Location", "Error applying energy profile", e);
+        }
+    }
+
+    /**
+     * Pass a received fix to the pipeline, then publish it if accepted
+     * Used by the listener and for cached fixes (mock rules are evaluated once on either path)
+     * @param cached true for fixes from getLastKnownLocation
+     * @return true if the fix was accepted
+     */
+    private boolean deliverFix(android.location.Location location, boolean cached) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        boolean accepted = processFix(location, cached);
+        LocationMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.onFixProcessed(SystemClock.elapsedRealtimeNanos() - startNs,
+                Looper.myLooper() == Looper.getMainLooper());
+        }
+        return accepted;
+    }
+
+    private boolean processFix(android.location.Location location, boolean cached) {
+        LocationSnapshot snapshot = LocationSnapshot.from(location);
+        if (!pipeline.onFix(snapshot, cached)) {
+            return false;
+        }
+        publishFix(location, snapshot);
+        return true;
+    }
+
+    /**
+     * Deliver a hardware batch in bulk: every fix goes through the pipeline (odometer, geofences),
+     * but only the newest accepted one is published and persisted
+     */
+    private void deliverBatch(List<android.location.Location> locations) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        android.location.Location newest = null;
+        LocationSnapshot newestSnapshot = null;
+        for (android.location.Location location : locations) {
+            LocationSnapshot snapshot = LocationSnapshot.from(location);
+            if (pipeline.onFix(snapshot, false)) {
+                newest = location;
+                newestSnapshot = snapshot;
+            }
+        }
+        if (newest != null) {
+            publishFix(newest, newestSnapshot);
+        }
+        EnergyPolicy policy = energyPolicy;
+        if (policy != null) {
+            policy.onBatchDelivered(locations.size());
+        }
+        LocationMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.onFixProcessed(SystemClock.elapsedRealtimeNanos() - startNs,
+                Looper.myLooper() == Looper.getMainLooper());
         }
+        Log.d("Location", "Batch of " + locations.size() + " fixes delivered");
+    }
+
+    private void publishFix(android.location.Location location, LocationSnapshot snapshot) {
+        // Store location in Global class for unified access
+        Global.setLocation(location);
+        
+        // Record in the shift history before subscribers are woken up
+        shiftTrack.append(snapshot.latitude, snapshot.longitude);
+        
+        // Publish immutable snapshot to stream subscribers
+        locationStream.publish(snapshot);
         
-        timeoutRunnable = new Runnable() {
+        // Also persist for warm starts
+        storeLocation(snapshot);
+    }
+    
+    /**
+     * Subscribe to satellite status for the metrics (GPS provider only)
+     * Sampling window only: unregistered GNSS_SAMPLE_AFTER_FIX_MS after the first fix, or
+     * GNSS_SAMPLE_MAX_MS after registering, so that it does not undo the batching of the energy policy
+     */
+    private void registerGnssStatus() {
+        if (metrics == null || gnssCallback != null || locationManager == null) {
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(context.getApplicationContext(),
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        final LocationMetrics target = metrics;
+        gnssCallback = new GnssStatus.Callback() {
+            @Override
+            public void onFirstFix(int ttffMillis) {
+                target.onGnssFirstFix(ttffMillis);
+                pipelineHandler.removeCallbacks(gnssWindowEnd);
+                pipelineHandler.postDelayed(gnssWindowEnd, GNSS_SAMPLE_AFTER_FIX_MS);
+            }
+
             @Override
-            public void run() {
-                // Timeout expired - no location received from GPS
-                if (!hasValidLocation && LocationManager.GPS_PROVIDER.equals(provider) && !hasSwitchedToNetwork) {
-                    Log.w("Location", "GPS timeout (" + (GPS_TIMEOUT_MS / 1000) + "s) - no location received. Switching to NETWORK_PROVIDER...");
-                    switchToNetworkProvider();
+            public void onSatelliteStatusChanged(GnssStatus status) {
+                ShiftTrackingStats stats = trackingStats;
+                if (stats != null) {
+                    stats.onWakeup(SystemClock.elapsedRealtime());
+                }
+                int visible = status.getSatelliteCount();
+                int used = 0;
+                double cn0Sum = 0;
+                for (int i = 0; i < visible; i++) {
+                    if (status.usedInFix(i)) {
+                        used++;
+                        cn0Sum += status.getCn0DbHz(i);
+                    }
                 }
+                target.onSatelliteStatus(visible, used, used > 0 ? cn0Sum / used : Double.NaN);
             }
         };
-        
-        timeoutHandler.postDelayed(timeoutRunnable, GPS_TIMEOUT_MS);
-        Log.d("Location", "GPS timeout started: Will switch to network if no location received within " + (GPS_TIMEOUT_MS / 1000) + " seconds");
+        try {
+            locationManager.registerGnssStatusCallback(gnssCallback, pipelineHandler);
+            pipelineHandler.postDelayed(gnssWindowEnd, GNSS_SAMPLE_MAX_MS);
+        } catch (Exception e) {
+            Log.w("Location", "Could not register GNSS status callback", e);
+            gnssCallback = null;
+        }
     }
     
-    /**
-     * Cancel GPS timeout
-     */
-    private void cancelGpsTimeout() {
-        if (timeoutHandler != null && timeoutRunnable != null) {
-            timeoutHandler.removeCallbacks(timeoutRunnable);
-            timeoutRunnable = null;
+    private void unregisterGnssStatus() {
+        pipelineHandler.removeCallbacks(gnssWindowEnd);
+        if (gnssCallback != null && locationManager != null) {
+            locationManager.unregisterGnssStatusCallback(gnssCallback);
         }
+        gnssCallback = null;
     }
     
     /**
@@ -414,112 +746,109 @@ public class Location {
             locationManager.removeUpdates(listenerGPS);
             Log.d("Location", "Removed GPS location updates");
             
-            // Cancel GPS timeout
-            cancelGpsTimeout();
-            
-            // Switch to network provider
+            // Switch to network provider (cancels the GPS timeout and fusion, resets counters)
+            unregisterGnssStatus();
             provider = LocationManager.NETWORK_PROVIDER;
-            hasSwitchedToNetwork = true;
-            gpsMockRejectionCount = 0; // Reset counter
+            pipeline.onSwitchedToNetwork();
             
             Log.w("Location", "Switched to NETWORK_PROVIDER (GPS timeout or mock locations detected)");
             
             // Get cached network location if available
             android.location.Location cachedLocation = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-            if (cachedLocation != null && !isMockLocation(cachedLocation)) {
+            if (cachedLocation != null) {
                 Log.d("Location", "Using cached network location: " + cachedLocation.getLatitude() + ", " + cachedLocation.getLongitude());
-                listenerGPS.onLocationChanged(cachedLocation);
+                deliverFix(cachedLocation, true);
             }
             
             // Request continuous location updates from network provider
-            locationManager.requestLocationUpdates(
-                LocationManager.NETWORK_PROVIDER,  // Network provider
-                3 * 60 * 1000,                     // minTime: 3 minutes
-                30,                                // minDistance: 30 meters
-                listenerGPS                        // Same listener
-            );
-            
-            Log.d("Location", "Network location updates requested - Updates every 3 min or 30m movement");
+            requestUpdates(LocationManager.NETWORK_PROVIDER);
         } catch (Exception e) {
             Log.e("Location", "Error switching to network provider", e);
         }
     }
 
     /**
-     * Store location in SharedPreferences for persistence
-     * Never stores mock locations
+     * GPS probe window: subscribe to GPS with a fast interval next to the network provider
      */
-    private void storeLocation(android.location.Location location) {
+    private void startGpsProbeUpdates() {
+        if (locationManager == null || listenerGPS == null
+                || !locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+            return; // The probe window expires without fixes and backs off
+        }
         try {
-            // Don't store mock locations
-            if (isMockLocation(location)) {
-                Log.e("Location", "NOT storing mock location: " + location.getLatitude() + ", " + location.getLongitude());
-                return;
-            }
-            
-            android.content.SharedPreferences prefs = 
-                context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-            android.content.SharedPreferences.Editor editor = prefs.edit();
-            editor.putFloat("latitude", (float) location.getLatitude());
-            editor.putFloat("longitude", (float) location.getLongitude());
-            editor.putFloat("altitude", (float) location.getAltitude());
-            editor.putLong("location_timestamp", location.getTime());
-            if (location.hasAccuracy()) {
-                editor.putFloat("location_accuracy", location.getAccuracy());
-            }
-            editor.apply();
-            Log.d("Location", "Location stored in SharedPreferences: " + location.getLatitude() + ", " + location.getLongitude());
+            requestUpdates(LocationManager.GPS_PROVIDER, GPS_PROBE_INTERVAL_MS, 0, 0, true);
+            registerGnssStatus();
+            Log.d("Location", "GPS probe started");
         } catch (Exception e) {
-            Log.e("Location", "Error storing location", e);
+            Log.e("Location", "Error starting GPS probe", e);
         }
     }
+
+    /**
+     * GPS probe window over: keep the network subscription only
+     */
+    private void stopGpsProbeUpdates() {
+        if (locationManager == null || listenerGPS == null) {
+            return;
+        }
+        try {
+            locationManager.removeUpdates(listenerGPS);
+            unregisterGnssStatus();
+            requestUpdates(LocationManager.NETWORK_PROVIDER);
+            Log.d("Location", "GPS probe stopped");
+        } catch (Exception e) {
+            Log.e("Location", "Error stopping GPS probe", e);
+        }
+    }
+
+    /**
+     * GPS delivers good fixes again: back to the regular GPS request only
+     */
+    private void switchToGpsProvider() {
+        if (locationManager == null || listenerGPS == null) {
+            return;
+        }
+        try {
+            locationManager.removeUpdates(listenerGPS);
+            provider = LocationManager.GPS_PROVIDER;
+            requestUpdates(LocationManager.GPS_PROVIDER);
+            registerGnssStatus();
+            Log.w("Location", "Switched back to GPS_PROVIDER (GPS probe succeeded)");
+        } catch (Exception e) {
+            Log.e("Location", "Error switching back to GPS provider", e);
+        }
+    }
+
+    /**
+     * Store location in the last-fix store for warm starts
+     * Only called for fixes that passed mock detection
+     */
+    private void storeLocation(LocationSnapshot snapshot) {
+        LastFixStore.get(context).save(snapshot);
+    }
     
     /**
-     * Clear mock location from SharedPreferences and Global storage if it exists
+     * Clear mock location from the last-fix store and Global storage if it exists
      * Called when a mock location is detected or on app startup
      */
     private void clearMockLocationFromStorage() {
         try {
-            // Check SharedPreferences
-            android.content.SharedPreferences prefs = 
-                context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-            float lat = prefs.getFloat("latitude", 0.0f);
-            float lon = prefs.getFloat("longitude", 0.0f);
-            
-            boolean isMock = false;
-            
-            // Check if stored location matches known mock coordinates
-            if ((Math.abs(lat - 38.907f) < 0.01f && Math.abs(lon - (-77.036f)) < 0.01f) ||
-                (Math.abs(lat - 37.7749f) < 0.01f && Math.abs(lon - (-122.4194f)) < 0.01f) ||
-                (Math.abs(lat - 40.7128f) < 0.01f && Math.abs(lon - (-74.0060f)) < 0.01f)) {
-                isMock = true;
+            // Check stored last fix
+            LastFixStore store = LastFixStore.get(context);
+            LocationSnapshot lastFix = store.getLastFix();
+            if (lastFix != null && mockRuleEngine.isKnownMockCoordinate(lastFix.latitude, lastFix.longitude)) {
+                store.clear();
+                Log.w("Location", "Cleared mock location from last-fix store: " + lastFix);
             }
             
             // Also check Global storage
             android.location.Location globalLocation = Global.getLocation();
-            if (globalLocation != null) {
-                double globalLat = globalLocation.getLatitude();
-                double globalLon = globalLocation.getLongitude();
-                if ((Math.abs(globalLat - 38.907) < 0.01 && Math.abs(globalLon - (-77.036)) < 0.01) ||
-                    (Math.abs(globalLat - 37.7749) < 0.01 && Math.abs(globalLon - (-122.4194)) < 0.01) ||
-                    (Math.abs(globalLat - 40.7128) < 0.01 && Math.abs(globalLon - (-74.0060)) < 0.01)) {
-                    isMock = true;
-                    // Clear from Global storage
-                    Global.setLocation(null);
-                    Log.w("Location", "Cleared mock location from Global storage: " + globalLat + ", " + globalLon);
-                }
-            }
-            
-            // Clear from SharedPreferences if mock detected
-            if (isMock && (lat != 0.0f || lon != 0.0f)) {
-                android.content.SharedPreferences.Editor editor = prefs.edit();
-                editor.remove("latitude");
-                editor.remove("longitude");
-                editor.remove("altitude");
-                editor.remove("location_timestamp");
-                editor.remove("location_accuracy");
-                editor.apply();
-                Log.w("Location", "Cleared mock location from SharedPreferences: " + lat + ", " + lon);
+            if (globalLocation != null
+                    && mockRuleEngine.isKnownMockCoordinate(globalLocation.getLatitude(), globalLocation.getLongitude())) {
+                // Clear from Global storage
+                Global.setLocation(null);
+                Log.w("Location", "Cleared mock location from Global storage: " + 
+                      globalLocation.getLatitude() + ", " + globalLocation.getLongitude());
             }
         } catch (Exception e) {
             Log.e("Location", "Error clearing mock location from storage", e);
@@ -0,0 +1,559 @@
+package com.example.glnc;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import com.example.glnc.location.EnergyPolicy;
+import com.example.glnc.location.GeofenceEngine;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationMetrics;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.location.ShiftTrackingStats;
+import com.example.glnc.location.TripAnalytics;
+import com.example.glnc.ui.map.TileCacheManager;
+import com.example.glnc.ui.map.TilePrefetcher;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Foreground location tracking service
+ * Owns the com.example.glnc.Location lifecycle for the whole shift, independently of any activity:
+ * tracking keeps running while the driver uses the camera in SignActivity or switches apps
+ * Also owns the current_location telemetry, the optional live stream (LiveLocationStreamer),
+ * the geofence arrival recording and the end-of-shift report
+ * (continuity, location metrics, trip analytics, energy estimates)
+ * Battery and power save changes are forwarded to the EnergyPolicy driving the location requests
+ * Started by MainActivity after login, stopped on logout
+ */
+public class LocationTrackingService extends Service {
+    private static final String ACTION_START = "com.example.glnc.action.START_TRACKING";
+    private static final String CHANNEL_ID = "location_tracking_channel";
+    private static final int NOTIFICATION_ID = 1001;
+    static final String ARRIVAL_TIME_PREFIX = "arrival_time_"; // + delivery ID, in GLNC_Prefs
+    private static final long LOCATION_UPDATE_INTERVAL = 5 * 60 * 1000; // At most one upload per 5 minutes
+
+    private Location location;
+    private final ShiftTrackingStats trackingStats = new ShiftTrackingStats();
+    private final LocationMetrics metrics = new LocationMetrics();
+    private final TripAnalytics tripAnalytics = new TripAnalytics();
+    private final EnergyPolicy energyPolicy = new EnergyPolicy();
+    private BroadcastReceiver powerReceiver;
+    private LiveData<LocationSnapshot> locationUpdateStream;
+    private Observer<LocationSnapshot> locationUpdateObserver;
+    private LiveLocationStreamer liveStreamer;
+    private Observer<LocationSnapshot> liveObserver;
+    private volatile JSONObject liveStreamStats;
+    private final Object reportLock = new Object();
+    private int liveStreamsSettling = 0; // Stopped live streams whose final batch is still in flight
+    private Runnable reportWhenSettled;
+    private GeofenceEngine.Listener arrivalListener;
+    private boolean trackingStarted = false; // initLocation was called: there is a shift to report
+    private OkHttpClient httpClient;
+    private Global global = new Global();
+
+    /**
+     * Start (or refresh) the tracking service
+     * Does nothing if location permission is not granted yet
+     * @param context The context to use
+     */
+    public static void start(Context context) {
+        if (!hasLocationPermission(context)) {
+            Log.w("LocationTrackingService", "No location permission, tracking service not started");
+            return;
+        }
+        Intent intent = new Intent(context, LocationTrackingService.class);
+        intent.setAction(ACTION_START);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /**
+     * Stop the tracking service at the end of the shift
+     * @param context The context to use
+     */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, LocationTrackingService.class));
+    }
+
+    private static boolean hasLocationPermission(Context context) {
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED
+            || ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        httpClient = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+
+        // Enter foreground immediately (required within 5 seconds of startForegroundService)
+        createNotificationChannel();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+            } else {
+                startForeground(NOTIFICATION_ID, buildNotification());
+            }
+        } catch (Exception e) {
+            // Location permission revoked since the service was scheduled (sticky restart):
+            // background tracking is not allowed, no shift is started
+            Log.e("LocationTrackingService", "Cannot start foreground tracking", e);
+            stopSelf();
+            return;
+        }
+
+        trackingStats.startShift(SystemClock.elapsedRealtime());
+        Location.getShiftTrack().reset(); // Breadcrumb trail starts with the shift
+
+        // Take over location tracking from here on
+        location = new Location(getApplicationContext());
+        location.setTrackingStats(trackingStats);
+        location.setMetrics(metrics);
+        location.setTripAnalytics(tripAnalytics);
+        SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        // GPS + network fusion only when enabled in preferences (off: GPS only, as before)
+        location.setFusionEnabled(prefs.getBoolean("location_fusion_enabled", false));
+        // Battery-aware request profiles unless disabled in preferences
+        if (prefs.getBoolean("location_energy_policy_enabled", true)) {
+            location.setEnergyPolicy(energyPolicy);
+            registerPowerReceiver();
+        }
+
+        // Record arrival times automatically when the driver dwells at a delivery stop
+        arrivalListener = this::onGeofenceEvent;
+        Location.getGeofenceEngine().addListener(arrivalListener);
+        // Match detected stops to delivery IDs
+        Location.getGeofenceEngine().addListener(tripAnalytics);
+
+        startPeriodicLocationUpdates();
+        Log.d("LocationTrackingService", "Tracking service created");
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Start tracking, or retry if it could not start before (e.g. permission granted later)
+        if (location == null || !hasLocationPermission(this)) { // location is null if onCreate could not enter the foreground
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (!location.isTracking()) {
+            location.initLocation();
+            trackingStarted = true;
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        stopPeriodicLocationUpdates();
+        unregisterPowerReceiver();
+        Location.getGeofenceEngine().removeListener(arrivalListener);
+        Location.getGeofenceEngine().removeListener(tripAnalytics);
+
+        if (location != null) {
+            // Collectors stay attached until the pipeline stopped: it closes the open provider state
+            // and energy segment. The report is built right after, on the pipeline looper, so no
+            // in-flight fix races with endShift/finish (or later on the main thread, once the final
+            // live stream batch settled)
+            final Location stopped = location;
+            final boolean report = trackingStarted;
+            stopped.stopLocation(() -> {
+                stopped.setTrackingStats(null);
+                stopped.setMetrics(null);
+                stopped.setTripAnalytics(null);
+                stopped.setEnergyPolicy(null);
+                if (report) {
+                    runWhenLiveStreamSettled(this::finishShift);
+                } // Else stopped before tracking started (e.g. permission missing): no shift to report
+            });
+        } // Else the service never entered the foreground: no shift to report
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null; // Started service only
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                    CHANNEL_ID,
+                    getString(R.string.tracking_channel_name),
+                    NotificationManager.IMPORTANCE_LOW
+            );
+            channel.setDescription(getString(R.string.tracking_channel_description));
+            NotificationManager notificationManager = getSystemService(NotificationManager.class);
+            if (notificationManager != null) {
+                notificationManager.createNotificationChannel(channel);
+            }
+        }
+    }
+
+    private Notification buildNotification() {
+        Intent openIntent = new Intent(this, MainActivity.class);
+        openIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, openIntent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_map)
+                .setContentTitle(getString(R.string.tracking_notification_title))
+                .setContentText(getString(R.string.tracking_notification_text))
+                .setContentIntent(pendingIntent)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .build();
+    }
+
+    private void finishShift() {
+        trackingStats.endShift(SystemClock.elapsedRealtime());
+        tripAnalytics.finish();
+        reportShiftStats();
+        clearArrivalTimes();
+    }
+
+    /**
+     * Drop the arrival times of stops that were never signed or cancelled during the shift
+     */
+    private void clearArrivalTimes() {
+        SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(ARRIVAL_TIME_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Log and store the shift continuity report (gaps, wakeups per hour) with location metrics,
+     * trip analytics, map prefetch and tile cache metrics, then upload it once to /app/shift_report
+     * (logged by the backend)
+     */
+    private void reportShiftStats() {
+        try {
+            JSONObject report = trackingStats.toJson(SystemClock.elapsedRealtime());
+            report.put("location_metrics", metrics.toJson());
+            report.put("trip", tripAnalytics.toJson());
+            report.put("energy", energyPolicy.toJson(SystemClock.elapsedRealtime()));
+            if (liveStreamStats != null) {
+                report.put("live_stream", liveStreamStats);
+            }
+            report.put("map_prefetch", TilePrefetcher.get(this).statsToJson());
+            TileCacheManager tileCache = TileCacheManager.getIfCreated();
+            if (tileCache != null) {
+                report.put("tile_cache", tileCache.statsToJson());
+            }
+            SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+            prefs.edit()
+                    .putString("last_shift_tracking_report", report.toString())
+                    .apply();
+            Log.d("LocationTrackingService", "Shift tracking report: " + report);
+
+            String userId = prefs.getString("user_id", "");
+            if (!userId.isEmpty()) {
+                report.put("user_id", userId);
+                sendShiftReportToBackend(report);
+            }
+        } catch (Exception e) {
+            Log.e("LocationTrackingService", "Error building shift tracking report", e);
+        }
+    }
+
+    private void sendShiftReportToBackend(JSONObject report) {
+        RequestBody body = RequestBody.create(
+                report.toString(),
+                MediaType.parse("application/json; charset=utf-8")
+        );
+        Request request = new Request.Builder()
+                .url(global.serverUrl + "/app/shift_report")
+                .post(body)
+                .addHeader("Content-Type", "application/json")
+                .build();
+
+        // Asynchronous: the OkHttp dispatcher outlives the service
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e("LocationTrackingService", "Shift report send failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (!response.isSuccessful()) {
+                    Log.e("LocationTrackingService", "Shift report rejected: " + response.code());
+                } else {
+                    Log.d("LocationTrackingService", "Shift report uploaded");
+                }
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Follow battery level, charging state and power save mode
+     * ACTION_BATTERY_CHANGED is sticky: the current state is delivered right away
+     */
+    private void registerPowerReceiver() {
+        powerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onPowerStateChanged(intent);
+            }
+        };
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        registerReceiver(powerReceiver, filter);
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            energyPolicy.onPowerSaveChanged(powerManager.isPowerSaveMode(), SystemClock.elapsedRealtime());
+        }
+    }
+
+    private void unregisterPowerReceiver() {
+        if (powerReceiver != null) {
+            try {
+                unregisterReceiver(powerReceiver);
+            } catch (Exception e) {
+                Log.w("LocationTrackingService", "Power receiver already unregistered", e);
+            }
+            powerReceiver = null;
+        }
+    }
+
+    private void onPowerStateChanged(Intent intent) {
+        long nowMs = SystemClock.elapsedRealtime();
+        if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+            if (level >= 0 && scale > 0) {
+                energyPolicy.onBatteryChanged(level * 100 / scale, charging, nowMs);
+            }
+        } else {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            energyPolicy.onPowerSaveChanged(powerManager != null && powerManager.isPowerSaveMode(), nowMs);
+        }
+    }
+
+    /**
+     * Store the arrival time of a delivery stop once the driver dwelled there
+     * SignActivity sends it with the signature as arrival_time
+     */
+    private void onGeofenceEvent(GeofenceEngine.Event event) {
+        if (event.transition != GeofenceEngine.Transition.DWELL) {
+            return;
+        }
+
+        SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        String key = ARRIVAL_TIME_PREFIX + event.stopId;
+        if (prefs.contains(key)) {
+            return; // Keep the first arrival
+        }
+
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        String arrivalTime = sdf.format(new Date(event.enteredAtMs));
+        prefs.edit().putString(key, arrivalTime).apply();
+        Log.d("LocationTrackingService", "Arrival detected at delivery " + event.stopId + ": " + arrivalTime);
+    }
+
+    private void startPeriodicLocationUpdates() {
+        // Get user_id to verify user is logged in
+        SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        String userId = prefs.getString("user_id", "");
+
+        if (userId.isEmpty()) {
+            Log.w("LocationTrackingService", "No user logged in, skipping periodic location updates");
+            return;
+        }
+
+        // Stop any existing updates
+        stopPeriodicLocationUpdates();
+
+        // Send each new fix, conflated to at most one upload per interval (latest fix wins)
+        // Nothing is sent while no new fix is accepted
+        locationUpdateStream = Location.getLocationStream().conflated(LOCATION_UPDATE_INTERVAL, 0);
+        locationUpdateObserver = snapshot -> {
+            // Get current user_id (in case it changed)
+            String currentUserId = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                    .getString("user_id", "");
+
+            if (currentUserId.isEmpty()) {
+                Log.w("LocationTrackingService", "User logged out, stopping periodic location updates");
+                stopPeriodicLocationUpdates();
+                return;
+            }
+
+            if (snapshot != null) {
+                Log.d("LocationTrackingService", "Sending to backend: /app/current_location (new fix)");
+                sendLocationToBackend(currentUserId, snapshot.latitude, snapshot.longitude, snapshot.altitude);
+            }
+        };
+        locationUpdateStream.observeForever(locationUpdateObserver);
+
+        // Optional live tracking: every accepted fix streamed to dispatch over one connection
+        if (prefs.getBoolean("live_tracking_enabled", false)) {
+            liveStreamer = new LiveLocationStreamer(httpClient, global.serverUrl, userId);
+            liveStreamer.start();
+            liveObserver = liveStreamer::offer;
+            Location.getLocationStream().observeForever(liveObserver);
+        }
+
+        // No fix accepted yet - send stored location once so dispatch sees the driver immediately
+        if (Location.getLocationStream().getLatest() == null) {
+            sendStoredLocationToBackend(userId);
+        }
+    }
+
+    private void stopPeriodicLocationUpdates() {
+        if (locationUpdateStream != null && locationUpdateObserver != null) {
+            locationUpdateStream.removeObserver(locationUpdateObserver);
+            locationUpdateStream = null;
+            locationUpdateObserver = null;
+        }
+        if (liveStreamer != null) {
+            Location.getLocationStream().removeObserver(liveObserver);
+            final LiveLocationStreamer stopped = liveStreamer;
+            synchronized (reportLock) {
+                liveStreamsSettling++;
+            }
+            // Counters are final once the last batch upload settled
+            stopped.stop(() -> {
+                try {
+                    liveStreamStats = stopped.statsToJson();
+                } catch (Exception e) {
+                    Log.e("LocationTrackingService", "Error reading live stream stats", e);
+                }
+                Runnable task = null;
+                synchronized (reportLock) {
+                    liveStreamsSettling--;
+                    if (liveStreamsSettling == 0) {
+                        task = reportWhenSettled;
+                        reportWhenSettled = null;
+                    }
+                }
+                if (task != null) {
+                    task.run();
+                }
+            });
+            liveStreamer = null;
+            liveObserver = null;
+        }
+    }
+
+    /**
+     * Run a task (the shift report) once no stopped live stream is still uploading its final batch
+     */
+    private void runWhenLiveStreamSettled(Runnable task) {
+        synchronized (reportLock) {
+            if (liveStreamsSettling > 0) {
+                reportWhenSettled = task;
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private void sendStoredLocationToBackend(String userId) {
+        // Fallback: last stored fix
+        LocationSnapshot lastFix = LastFixStore.get(this).getLastFix();
+
+        if (lastFix != null) {
+            Log.d("LocationTrackingService", "Sending to backend: /app/current_location (from last stored fix)");
+            sendLocationToBackend(userId, lastFix.latitude, lastFix.longitude, lastFix.altitude);
+        } else {
+            Log.e("LocationTrackingService", "No location available (GPS not initialized or no stored location)");
+        }
+    }
+
+    private void sendLocationToBackend(String userId, double latitude, double longitude, double altitude) {
+        new Thread(() -> {
+            try {
+                // Create JSON body with user_id, latitude, longitude, altitude
+                JSONObject jsonBody = new JSONObject();
+                jsonBody.put("user_id", userId);
+                jsonBody.put("latitude", latitude);
+                jsonBody.put("longitude", longitude);
+                jsonBody.put("altitude", altitude);
+
+                RequestBody body = RequestBody.create(
+                        jsonBody.toString(),
+                        MediaType.parse("application/json; charset=utf-8")
+                );
+
+                // Build request
+                Request request = new Request.Builder()
+                        .url(global.serverUrl + "/app/current_location")
+                        .post(body)
+                        .addHeader("Content-Type", "application/json")
+                        .build();
+
+                // Execute request asynchronously
+                httpClient.newCall(request).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        Log.e("LocationTrackingService", "=== CURRENT LOCATION SEND FAILED ===");
+                        Log.e("LocationTrackingService", "Error: " + e.getMessage());
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) throws IOException {
+                        if (!response.isSuccessful()) {
+                            Log.e("LocationTrackingService", "Current location rejected: " + response.code());
+                        }
+                        response.close();
+                    }
+                });
+            } catch (Exception e) {
+                Log.e("LocationTrackingService", "Error sending current location: " + e.getMessage());
+            }
+        }).start();
+    }
+}
@@ -25,6 +25,8 @@ import androidx.core.content.ContextCompat;
 
 
 import com.example.glnc.databinding.ActivityLoginBinding;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
 
 import org.json.JSONObject;
 
@@ -360,18 +362,15 @@ public class LoginActivity extends AppCompatActivity {
                 pendingUserId = "";
             }
         } else {
-            // No location in Global storage yet - try SharedPreferences as fallback
-            SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-            float lat = prefs.getFloat("latitude", 0.0f);
-            float lon = prefs.getFloat("longitude", 0.0f);
-            float alt = prefs.getFloat("altitude", 0.0f);
+            // No location in Global storage yet - try the last stored fix as fallback
+            LocationSnapshot lastFix = LastFixStore.get(this).getLastFix();
             
-            if (lat != 0.0f || lon != 0.0f) {
-                currentLatitude = lat;
-                currentLongitude = lon;
-                currentAltitude = alt;
+            if (lastFix != null) {
+                currentLatitude = lastFix.latitude;
+                currentLongitude = lastFix.longitude;
+                currentAltitude = lastFix.altitude;
                 hasLocation = true;
-                Log.d("LoginActivity", "Location obtained from SharedPreferences: " + currentLatitude + ", " + currentLongitude);
+                Log.d("LoginActivity", "Location obtained from last stored fix: " + currentLatitude + ", " + currentLongitude);
                 
                 // If we have pending attendance data to send, send it now
                 if (pendingAttendanceData && !pendingUserId.isEmpty()) {
@@ -397,14 +396,12 @@ public class LoginActivity extends AppCompatActivity {
     }
 
     private void storeUserData(String userId, String userName) {
-        // Store user_id, user_name and location data in SharedPreferences for logout use
+        // Store user_id and user_name in SharedPreferences for logout use
+        // (the location itself is kept by LastFixStore)
         SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString("user_id", userId);
         editor.putString("user_name", userName);
-        editor.putFloat("latitude", (float) currentLatitude);
-        editor.putFloat("longitude", (float) currentLongitude);
-        editor.putFloat("altitude", (float) currentAltitude);
         editor.putBoolean("has_location", hasLocation);
         editor.apply();
     }
@@ -8,10 +8,7 @@ import android.content.pm.PackageManager;
 // Note: Using custom Location class, not android.location.Location
 import com.example.glnc.Location;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
-import org.osmdroid.config.Configuration;
 import android.view.View;
 import android.view.Menu;
 
@@ -28,6 +25,10 @@ import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.glnc.databinding.ActivityMainBinding;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.ui.map.OfflineMapUpdater;
+import com.example.glnc.ui.map.TilePrefetcher;
 
 import org.json.JSONObject;
 
@@ -53,10 +54,6 @@ public class MainActivity extends AppCompatActivity {
     private Global global = new Global();
     private boolean isLoggingOut = false;
     private NavController navController;
-    private Handler locationUpdateHandler;
-    private Runnable locationUpdateRunnable;
-    private static final long LOCATION_UPDATE_INTERVAL = 5 * 60 * 1000; // 5 minutes in milliseconds
-    public Location location; // Continuous GPS tracking instance (LocationManager-based)
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,10 +62,6 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        // Configure OSMDroid
-        Configuration.getInstance().load(this, getSharedPreferences("osmdroid", MODE_PRIVATE));
-        Configuration.getInstance().setUserAgentValue(getPackageName());
-        
         // Initialize OkHttpClient
         httpClient = new OkHttpClient.Builder()
                 .connectTimeout(10, TimeUnit.SECONDS)
@@ -76,8 +69,10 @@ public class MainActivity extends AppCompatActivity {
                 .writeTimeout(10, TimeUnit.SECONDS)
                 .build();
         
-        // Initialize continuous GPS tracking (LocationManager-based, no Google Play Services)
-        location = new Location(getApplicationContext());
+        // Refresh the offline map archive when on Wi-Fi
+        OfflineMapUpdater.checkForUpdate(this, httpClient, global.serverUrl);
+        
+        // Continuous GPS tracking runs in LocationTrackingService (started in onResume, survives onPause)
 
         setSupportActionBar(binding.appBarMain.toolbar);
         binding.appBarMain.fab.setOnClickListener(new View.OnClickListener() {
@@ -145,8 +140,8 @@ public class MainActivity extends AppCompatActivity {
         // Handle navigation item clicks and close drawer
         navigationView.setNavigationItemSelectedListener(item -> {
             if (item.getItemId() == R.id.nav_logout) {
-                // Stop periodic location updates
-                stopPeriodicLocationUpdates();
+                // End of shift: stop tracking service
+                LocationTrackingService.stop(this);
                 // Send logout attendance and navigate to LoginActivity
                 sendLogoutAttendance();
                 Intent intent = new Intent(MainActivity.this, LoginActivity.class);
@@ -163,9 +158,6 @@ public class MainActivity extends AppCompatActivity {
             }
             return handled;
         });
-        
-        // Start periodic location updates (every 5 minutes)
-        startPeriodicLocationUpdates();
     }
 
     @Override
@@ -213,30 +205,17 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        // Start continuous GPS tracking (WorkTime-style)
-        if (location != null) {
-            location.initLocation();
-        }
-        // Resume periodic location updates if not already running
-        if (locationUpdateHandler == null) {
-            startPeriodicLocationUpdates();
-        }
-    }
-    
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // Stop continuous GPS tracking to save battery
-        if (location != null) {
-            location.stopLocation();
-        }
-        // Don't stop periodic location updates on pause - keep them running in background
+        // Make sure tracking runs (no-op if the service already tracks, retries if permission was granted later)
+        LocationTrackingService.start(this);
     }
     
     @Override
     protected void onDestroy() {
-        // Stop periodic location updates
-        stopPeriodicLocationUpdates();
+        // Driver left the app for good: end the shift's tracking
+        // (the system destroying the activity in background keeps the service running)
+        if (isFinishing()) {
+            LocationTrackingService.stop(this);
+        }
         
         // Send logout attendance when activity is destroyed
         if (!isLoggingOut) {
@@ -250,6 +229,7 @@ public class MainActivity extends AppCompatActivity {
             return; // Prevent duplicate calls
         }
         isLoggingOut = true;
+        TilePrefetcher.get(this).cancel(); // Shift over: no more tiles for this route
 
         // Get stored user_id
         SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
@@ -264,12 +244,13 @@ public class MainActivity extends AppCompatActivity {
         double longitude = 0.0;
         double altitude = 0.0;
         
-        // Try to get location from Location instance first
-        if (location != null && location.latitude != 0.0 && location.longitude != 0.0) {
-            latitude = location.latitude;
-            longitude = location.longitude;
-            altitude = location.altitude;
-            Log.d("MainActivity", "=== LOGOUT - Using Location instance ===");
+        // Try to get latest fix from the location stream first
+        LocationSnapshot snapshot = Location.getLocationStream().getLatest();
+        if (snapshot != null) {
+            latitude = snapshot.latitude;
+            longitude = snapshot.longitude;
+            altitude = snapshot.altitude;
+            Log.d("MainActivity", "=== LOGOUT - Using location stream ===");
         } else {
             // Fallback to Global storage
             android.location.Location storedLocation = Global.getLocation();
@@ -279,11 +260,14 @@ public class MainActivity extends AppCompatActivity {
                 altitude = storedLocation.getAltitude();
                 Log.d("MainActivity", "=== LOGOUT - Using Global storage ===");
             } else {
-                // Final fallback: SharedPreferences
-                latitude = prefs.getFloat("latitude", 0.0f);
-                longitude = prefs.getFloat("longitude", 0.0f);
-                altitude = prefs.getFloat("altitude", 0.0f);
-                Log.d("MainActivity", "=== LOGOUT - Using SharedPreferences ===");
+                // Final fallback: last stored fix
+                LocationSnapshot lastFix = LastFixStore.get(this).getLastFix();
+                if (lastFix != null) {
+                    latitude = lastFix.latitude;
+                    longitude = lastFix.longitude;
+                    altitude = lastFix.altitude;
+                }
+                Log.d("MainActivity", "=== LOGOUT - Using last stored fix ===");
             }
         }
 
@@ -358,151 +342,4 @@ public class MainActivity extends AppCompatActivity {
             refreshHomeFragment();
         }
     }
-    
-    private void startPeriodicLocationUpdates() {
-        // Get user_id to verify user is logged in
-        SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-        String userId = prefs.getString("user_id", "");
-        
-        if (userId.isEmpty()) {
-            Log.w("MainActivity", "No user logged in, skipping periodic location updates");
-            return;
-        }
-        
-        // Stop any existing updates
-        stopPeriodicLocationUpdates();
-        
-        // Create handler on main thread
-        locationUpdateHandler = new Handler(Looper.getMainLooper());
-        
-        // Create runnable to send location periodically
-        locationUpdateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                // Get current user_id (in case it changed)
-                SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-                String userId = prefs.getString("user_id", "");
-                
-                if (userId.isEmpty()) {
-                    Log.w("MainActivity", "User logged out, stopping periodic location updates");
-                    stopPeriodicLocationUpdates();
-                    return;
-                }
-                
-                // Get current location and send it
-                sendCurrentLocationToBackend(userId);
-                
-                // Schedule next update
-                if (locationUpdateHandler != null) {
-                    locationUpdateHandler.postDelayed(this, LOCATION_UPDATE_INTERVAL);
-                }
-            }
-        };
-        
-        // Send first location immediately, then schedule periodic updates
-        locationUpdateHandler.post(locationUpdateRunnable);
-        
-
-        Log.d("MainActivity", "==========================================");
-    }
-    
-    private void stopPeriodicLocationUpdates() {
-        if (locationUpdateHandler != null && locationUpdateRunnable != null) {
-            locationUpdateHandler.removeCallbacks(locationUpdateRunnable);
-            locationUpdateHandler = null;
-            locationUpdateRunnable = null;
-        }
-    }
-    
-    private void sendCurrentLocationToBackend(String userId) {
-        // Get current location from Location instance or Global storage
-        double latitude = 0.0;
-        double longitude = 0.0;
-        double altitude = 0.0;
-        
-        // Try to get location from Location instance first
-        if (location != null && location.latitude != 0.0 && location.longitude != 0.0) {
-            latitude = location.latitude;
-            longitude = location.longitude;
-            altitude = location.altitude;
-            Log.d("MainActivity", "Sending to backend: /app/current_location (from Location instance)");
-        } else {
-            // Fallback to Global storage
-            android.location.Location storedLocation = Global.getLocation();
-            if (storedLocation != null) {
-                latitude = storedLocation.getLatitude();
-                longitude = storedLocation.getLongitude();
-                altitude = storedLocation.getAltitude();
-                Log.d("MainActivity", "Sending to backend: /app/current_location (from Global storage)");
-            } else {
-                // Final fallback: SharedPreferences
-                SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-                latitude = prefs.getFloat("latitude", 0.0f);
-                longitude = prefs.getFloat("longitude", 0.0f);
-                altitude = prefs.getFloat("altitude", 0.0f);
-                
-                if (latitude != 0.0 || longitude != 0.0) {
-                    Log.d("MainActivity", "Sending to backend: /app/current_location (from SharedPreferences)");
-                } else {
-                    Log.e("MainActivity", "No location available (GPS not initialized or no stored location)");
-                    return; // Don't send if no location available
-                }
-            }
-        }
-        
-        // Send location to backend
-        sendLocationToBackend(userId, latitude, longitude, altitude);
-    }
-    
-    private void sendLocationToBackend(String userId, double latitude, double longitude, double altitude) {
-        new Thread(() -> {
-            try {
-                // Create JSON body with user_id, latitude, longitude, altitude
-                JSONObject jsonBody = new JSONObject();
-                jsonBody.put("user_id", userId);
-                jsonBody.put("latitude", latitude);
-                jsonBody.put("longitude", longitude);
-                jsonBody.put("altitude", altitude);
-                
-
-                Log.d("MainActivity", "=================================");
-                
-                RequestBody body = RequestBody.create(
-                        jsonBody.toString(),
-                        MediaType.parse("application/json; charset=utf-8")
-                );
-                
-                // Build request
-                Request request = new Request.Builder()
-                        .url(global.serverUrl + "/app/current_location")
-                        .post(body)
-                        .addHeader("Content-Type", "application/json")
-                        .build();
-                
-                // Execute request asynchronously
-                httpClient.newCall(request).enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        Log.e("MainActivity", "=== CURRENT LOCATION SEND FAILED ===");
-                        Log.e("MainActivity", "Error: " + e.getMessage());
-                        Log.e("MainActivity", "====================================");
-                    }
-                    
-                    @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-                        final String responseBody = response.body() != null ? response.body().string() : "";
-                        if (response.isSuccessful()) {
-
-                            Log.d("MainActivity", "==========================================");
-                        } else {
-
-                            Log.e("MainActivity", "====================================");
-                        }
-                    }
-                });
-            } catch (Exception e) {
-                Log.e("MainActivity", "Error sending current location: " + e.getMessage());
-            }
-        }).start();
-    }
-}
\ No newline at end of file
+}
@@ -26,6 +26,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
@@ -64,6 +67,10 @@ public class SignActivity extends AppCompatActivity {
     private OkHttpClient httpClient;
     private Global global = new Global();
     private android.app.ProgressDialog progressDialog;
+    private LocationSnapshot latestFix; // Latest accepted fix pushed by the location stream
+    private static final long SIGN_FIX_MAX_AGE_MS = 10000; // Fix must be at most 10 seconds old
+    private static final long SIGN_FIX_DEADLINE_MS = 15000; // Wait at most 15 seconds for a fresh fix
+    private static final float SIGN_FIX_TARGET_ACCURACY_M = 20.0f; // Stop early once this accurate
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -103,6 +110,9 @@ public class SignActivity extends AppCompatActivity {
         cancelCommentInput = findViewById(R.id.cancel_comment_input);
         cancelButton = findViewById(R.id.cancel_button);
 
+        // Keep the latest accepted fix while this screen is visible (no polling)
+        Location.getLocationStream().observe(this, snapshot -> latestFix = snapshot);
+
         // Setup camera button - directly open camera
         cameraButton.setOnClickListener(v -> {
             if (checkCameraPermission()) {
@@ -407,6 +417,7 @@ public class SignActivity extends AppCompatActivity {
                         runOnUiThread(() -> {
                             dismissProgressDialog();
                             if (response.isSuccessful()) {
+                                clearArrivalTime();
                                 Toast.makeText(SignActivity.this,
                                         "Livraison annulée avec succès",
                                         Toast.LENGTH_SHORT).show();
@@ -452,6 +463,13 @@ public class SignActivity extends AppCompatActivity {
             // Convert satisfaction string to number: happy=1, neutral=2, sad=3
             int satisfactionNumber = getSatisfactionNumber(selectedSatisfaction);
             jsonBody.put("satisfaction", satisfactionNumber);
+            // Arrival time detected by the geofence engine (if the driver dwelled at the stop), stored
+            // by the backend as date_time_arrival instead of the signature time
+            String arrivalTime = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                    .getString(LocationTrackingService.ARRIVAL_TIME_PREFIX + deliveryId, "");
+            if (!arrivalTime.isEmpty()) {
+                jsonBody.put("arrival_time", arrivalTime);
+            }
 
             RequestBody body = RequestBody.create(
                     jsonBody.toString(),
@@ -483,6 +501,7 @@ public class SignActivity extends AppCompatActivity {
                     runOnUiThread(() -> {
                         dismissProgressDialog();
                         if (response.isSuccessful()) {
+                            clearArrivalTime(); // Sent with the signature
                             // Get current location and send to backend
                             sendSignCoordinate();
                             
@@ -508,6 +527,15 @@ public class SignActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * The delivery is closed: its detected arrival time is no longer needed
+     */
+    private void clearArrivalTime() {
+        getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE).edit()
+                .remove(LocationTrackingService.ARRIVAL_TIME_PREFIX + deliveryId)
+                .apply();
+    }
+
     private void showProgressDialog(String message) {
         runOnUiThread(() -> {
             if (progressDialog == null) {
@@ -531,41 +559,56 @@ public class SignActivity extends AppCompatActivity {
 
         Log.d("SignActivity", "Requesting GPS location for sign coordinate...");
         
-        // Get current location using GPS with force fresh (skip cached/mock locations)
-        Global.getCurrentLocation(this, new Global.LocationCallback() {
-            @Override
-            public void onLocationReceived(double latitude, double longitude, double altitude) {
+        // Use the fix pushed by the location stream if it is fresh and accurate enough
+        LocationSnapshot fix = latestFix;
+        if (fix != null && fix.ageMs(System.currentTimeMillis()) <= SIGN_FIX_MAX_AGE_MS
+                && fix.hasAccuracy() && fix.accuracy <= SIGN_FIX_TARGET_ACCURACY_M) {
+            Log.d("SignActivity", "Sending to backend: /app/sign_coordinate (stream fix)");
+            sendCoordinateToBackend(getApplicationContext(), httpClient, global.serverUrl, deliveryId,
+                    fix.latitude, fix.longitude, fix.altitude);
+            return;
+        }
 
-                Log.d("SignActivity", "Sending to backend: /app/sign_coordinate");
-                // Send location to backend
-                sendCoordinateToBackend(deliveryId, latitude, longitude, altitude);
-            }
+        requestFreshSignCoordinate(getApplicationContext(), httpClient, global.serverUrl, deliveryId);
+    }
 
-            @Override
-            public void onLocationError(String error) {
-                Log.e("SignActivity", "Failed to get location: " + error);
-                // Try to send with stored location as fallback
-                android.content.SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-                double latitude = prefs.getFloat("latitude", 0.0f);
-                double longitude = prefs.getFloat("longitude", 0.0f);
-                double altitude = prefs.getFloat("altitude", 0.0f);
-                
-                // Only send if we have a valid stored location
-                if (latitude != 0.0 || longitude != 0.0) {
-                    Log.w("SignActivity", "Using stored location as fallback: " + latitude + ", " + longitude);
-                    sendCoordinateToBackend(deliveryId, latitude, longitude, altitude);
-                } else {
-                    Log.e("SignActivity", "No location available (GPS failed and no stored location)");
-                }
+    /**
+     * Actively request a fresh fix, bounded by a deadline, and send it
+     * Static so the callback outlives this screen (which finishes right after submitting)
+     * without holding it: only the application context, the client and the ids are captured
+     */
+    private static void requestFreshSignCoordinate(Context appContext, OkHttpClient client, String serverUrl,
+                                                   String deliveryId) {
+        Location.requestFreshFix(appContext, SIGN_FIX_DEADLINE_MS, SIGN_FIX_TARGET_ACCURACY_M, (freshFix, metTarget) -> {
+            if (freshFix != null) {
+                Log.d("SignActivity", "Sending to backend: /app/sign_coordinate (fresh fix" +
+                      (metTarget ? "" : ", accuracy target not met") + ")");
+                sendCoordinateToBackend(appContext, client, serverUrl, deliveryId,
+                        freshFix.latitude, freshFix.longitude, freshFix.altitude);
+                return;
             }
-        }, true); // Force fresh GPS - skip cached/mock locations
+            
+            Log.e("SignActivity", "Failed to get a fresh fix before the deadline");
+            // Try to send with stored location as fallback
+            LocationSnapshot lastFix = LastFixStore.get(appContext).getLastFix();
+            
+            // Only send if we have a valid stored location
+            if (lastFix != null) {
+                Log.w("SignActivity", "Using stored location as fallback: " + lastFix.latitude + ", " + lastFix.longitude);
+                sendCoordinateToBackend(appContext, client, serverUrl, deliveryId,
+                        lastFix.latitude, lastFix.longitude, lastFix.altitude);
+            } else {
+                Log.e("SignActivity", "No location available (GPS failed and no stored location)");
+            }
+        });
     }
 
-    private void sendCoordinateToBackend(String deliveryId, double latitude, double longitude, double altitude) {
+    private static void sendCoordinateToBackend(Context appContext, OkHttpClient client, String serverUrl,
+                                                String deliveryId, double latitude, double longitude, double altitude) {
         new Thread(() -> {
             try {
                 // Get user_id from SharedPreferences
-                android.content.SharedPreferences prefs = getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+                android.content.SharedPreferences prefs = appContext.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
                 String userId = prefs.getString("user_id", "");
                 
                 if (userId.isEmpty()) {
@@ -591,13 +634,13 @@ public class SignActivity extends AppCompatActivity {
 
                 // Build request
                 Request request = new Request.Builder()
-                        .url(global.serverUrl + "/app/sign_coordinate")
+                        .url(serverUrl + "/app/sign_coordinate")
                         .post(body)
                         .addHeader("Content-Type", "application/json")
                         .build();
 
                 // Execute request asynchronously
-                httpClient.newCall(request).enqueue(new Callback() {
+                client.newCall(request).enqueue(new Callback() {
                     @Override
                     public void onFailure(@NonNull Call call, @NonNull IOException e) {
                         Log.e("SignActivity", "Failed to send coordinate: " + e.getMessage());
@@ -0,0 +1,445 @@
+package com.example.glnc.geocode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact address index of the service area (New Caledonia)
+ * Built offline from an OSM extract: the nodes and building ways tagged addr:housenumber and
+ * addr:street (ways at their centroid), exported as CSV with the columns
+ * street,housenumber,city,lat,lon (housenumber may be empty for plain street points)
+ * Stored as a gzipped binary file (write/read); addresses are kept in k-d tree order and the
+ * street trie and per-street lists are rebuilt when the file is read
+ * Read-only once built: lookups are safe from any thread
+ */
+public final class AddressIndex {
+    private static final int MAGIC = 0x474C4144; // "GLAD"
+    private static final int FORMAT = 1;
+    private static final double E7 = 1e7;
+
+    final String version;
+
+    // Cities
+    final String[] cityLabels;
+    final String[] cityNames; // Normalized
+
+    // Streets (the same name in two cities is two streets)
+    final String[] streetLabels;
+    final String[] streetNames; // Normalized
+    final int[] streetCity;
+
+    // Addresses, in k-d tree order
+    final int[] latE7;
+    final int[] lonE7;
+    final int[] addressStreet;
+    final String[] houseNumbers; // Normalized, null for plain street points
+
+    // Derived when loaded
+    final int[] streetStart; // Addresses of street s: streetAddresses[streetStart[s] .. streetStart[s + 1])
+    final int[] streetAddresses; // Sorted by house number value
+    final int[] streetCenter; // Address nearest to the street's mean position
+    final StreetTrie trie = new StreetTrie();
+    final KdTree kdTree;
+    final double cosLat;
+
+    private AddressIndex(String version, String[] cityLabels, String[] streetLabels, int[] streetCity,
+                         int[] latE7, int[] lonE7, int[] addressStreet, String[] houseNumbers) {
+        this.version = version;
+        this.cityLabels = cityLabels;
+        this.streetLabels = streetLabels;
+        this.streetCity = streetCity;
+        this.latE7 = latE7;
+        this.lonE7 = lonE7;
+        this.addressStreet = addressStreet;
+        this.houseNumbers = houseNumbers;
+
+        cityNames = new String[cityLabels.length];
+        for (int i = 0; i < cityLabels.length; i++) {
+            cityNames[i] = AddressNormalizer.normalize(cityLabels[i]);
+        }
+        streetNames = new String[streetLabels.length];
+        for (int s = 0; s < streetLabels.length; s++) {
+            streetNames[s] = AddressNormalizer.normalize(streetLabels[s]);
+            addStreetKeys(s);
+        }
+
+        double latSum = 0;
+        for (int lat : latE7) {
+            latSum += lat / E7;
+        }
+        cosLat = Math.cos(Math.toRadians(latE7.length == 0 ? 0 : latSum / latE7.length));
+        double[] x = new double[latE7.length];
+        double[] y = new double[latE7.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = lonE7[i] * cosLat;
+            y[i] = latE7[i];
+        }
+        kdTree = new KdTree(x, y);
+
+        // Per-street address lists (counting sort by street, then by house number)
+        streetStart = new int[streetLabels.length + 1];
+        for (int street : addressStreet) {
+            streetStart[street + 1]++;
+        }
+        for (int s = 0; s < streetLabels.length; s++) {
+            streetStart[s + 1] += streetStart[s];
+        }
+        streetAddresses = new int[addressStreet.length];
+        int[] fill = streetStart.clone();
+        for (int i = 0; i < addressStreet.length; i++) {
+            streetAddresses[fill[addressStreet[i]]++] = i;
+        }
+        streetCenter = new int[streetLabels.length];
+        for (int s = 0; s < streetLabels.length; s++) {
+            sortByHouseNumber(streetStart[s], streetStart[s + 1]);
+            streetCenter[s] = center(s);
+        }
+    }
+
+    /**
+     * Full name, plus each word suffix not starting with an article, so "rue de sebastopol"
+     * is found as "sebastopol"; suffix keys carry the odd value (2 * street + 1)
+     */
+    private void addStreetKeys(int street) {
+        String name = streetNames[street];
+        trie.add(name, street * 2);
+        int space = name.indexOf(' ');
+        while (space >= 0) {
+            String suffix = name.substring(space + 1);
+            int next = name.indexOf(' ', space + 1);
+            String word = next < 0 ? suffix : suffix.substring(0, next - space - 1);
+            if (word.length() > 2 && !isArticle(word)) {
+                trie.add(suffix, street * 2 + 1);
+            }
+            space = next;
+        }
+    }
+
+    private static boolean isArticle(String word) {
+        switch (word) {
+            case "des":
+            case "les":
+            case "aux":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void sortByHouseNumber(int from, int to) {
+        // Insertion sort: streets hold a few hundred addresses at most
+        for (int i = from + 1; i < to; i++) {
+            int address = streetAddresses[i];
+            int value = AddressNormalizer.houseNumberValue(houseNumbers[address]);
+            int j = i - 1;
+            while (j >= from && AddressNormalizer.houseNumberValue(houseNumbers[streetAddresses[j]]) > value) {
+                streetAddresses[j + 1] = streetAddresses[j];
+                j--;
+            }
+            streetAddresses[j + 1] = address;
+        }
+    }
+
+    private int center(int street) {
+        int from = streetStart[street];
+        int to = streetStart[street + 1];
+        if (from == to) {
+            return -1;
+        }
+        double lat = 0;
+        double lon = 0;
+        for (int i = from; i < to; i++) {
+            lat += latE7[streetAddresses[i]];
+            lon += lonE7[streetAddresses[i]];
+        }
+        lat /= to - from;
+        lon /= to - from;
+        int best = streetAddresses[from];
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            int address = streetAddresses[i];
+            double dx = (lonE7[address] - lon) * cosLat;
+            double dy = latE7[address] - lat;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = address;
+            }
+        }
+        return best;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int addressCount() {
+        return latE7.length;
+    }
+
+    public int streetCount() {
+        return streetLabels.length;
+    }
+
+    double latitude(int address) {
+        return latE7[address] / E7;
+    }
+
+    double longitude(int address) {
+        return lonE7[address] / E7;
+    }
+
+    /**
+     * Address nearest to the position, -1 if the index is empty
+     */
+    int nearest(double lat, double lon) {
+        return kdTree.nearest(Math.round(lon * E7) * cosLat, Math.round(lat * E7));
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(version);
+        out.writeInt(cityLabels.length);
+        for (String city : cityLabels) {
+            out.writeUTF(city);
+        }
+        out.writeInt(streetLabels.length);
+        for (int s = 0; s < streetLabels.length; s++) {
+            out.writeUTF(streetLabels[s]);
+            out.writeInt(streetCity[s]);
+        }
+        out.writeInt(latE7.length);
+        for (int i = 0; i < latE7.length; i++) {
+            out.writeInt(latE7[i]);
+            out.writeInt(lonE7[i]);
+            out.writeInt(addressStreet[i]);
+            out.writeUTF(houseNumbers[i] != null ? houseNumbers[i] : "");
+        }
+        out.flush();
+        out.close();
+    }
+
+    public static AddressIndex read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an address index");
+        }
+        int format = in.readInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported address index format " + format);
+        }
+        String version = in.readUTF();
+        String[] cities = new String[in.readInt()];
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = in.readUTF();
+        }
+        int streetCount = in.readInt();
+        String[] streets = new String[streetCount];
+        int[] streetCity = new int[streetCount];
+        for (int s = 0; s < streetCount; s++) {
+            streets[s] = in.readUTF();
+            streetCity[s] = in.readInt();
+        }
+        int count = in.readInt();
+        int[] lat = new int[count];
+        int[] lon = new int[count];
+        int[] street = new int[count];
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            lat[i] = in.readInt();
+            lon[i] = in.readInt();
+            street[i] = in.readInt();
+            String number = in.readUTF();
+            numbers[i] = number.isEmpty() ? null : number;
+            if (street[i] < 0 || street[i] >= streetCount) {
+                throw new IOException("Corrupt address index at address " + i);
+            }
+        }
+        return new AddressIndex(version, cities, streets, streetCity, lat, lon, street, numbers);
+    }
+
+    /**
+     * Collects address points and builds the index (k-d order is computed here)
+     */
+    public static final class Builder {
+        private final String version;
+        private final List<String> cities = new ArrayList<>();
+        private final Map<String, Integer> cityIds = new HashMap<>();
+        private final List<String> streets = new ArrayList<>();
+        private final List<Integer> streetCities = new ArrayList<>();
+        private final Map<String, Integer> streetIds = new HashMap<>();
+        private final Map<String, Integer> addressKeys = new HashMap<>();
+        private int[] lat = new int[1024];
+        private int[] lon = new int[1024];
+        private int[] street = new int[1024];
+        private String[] numbers = new String[1024];
+        private int count = 0;
+
+        /**
+         * @param version Identifies the extract (e.g. its date); cached misses of another version are retried
+         */
+        public Builder(String version) {
+            this.version = version;
+        }
+
+        /**
+         * Add one address point (or a plain street point when houseNumber is empty)
+         * A repeated street + number + city keeps the first position
+         */
+        public Builder add(String streetLabel, String houseNumber, String cityLabel, double latitude, double longitude) {
+            if (streetLabel == null || streetLabel.trim().isEmpty() || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                return this;
+            }
+            String city = cityLabel != null ? cityLabel.trim() : "";
+            Integer cityId = cityIds.get(AddressNormalizer.normalize(city));
+            if (cityId == null) {
+                cityId = cities.size();
+                cities.add(city);
+                cityIds.put(AddressNormalizer.normalize(city), cityId);
+            }
+            String streetKey = AddressNormalizer.normalize(streetLabel) + '\n' + cityId;
+            Integer streetId = streetIds.get(streetKey);
+            if (streetId == null) {
+                streetId = streets.size();
+                streets.add(streetLabel.trim());
+                streetCities.add(cityId);
+                streetIds.put(streetKey, streetId);
+            }
+            String number = AddressNormalizer.normalizeHouseNumber(houseNumber);
+            if (number != null && addressKeys.put(streetId + " " + number, count) != null) {
+                return this;
+            }
+            if (count == lat.length) {
+                lat = Arrays.copyOf(lat, count * 2);
+                lon = Arrays.copyOf(lon, count * 2);
+                street = Arrays.copyOf(street, count * 2);
+                numbers = Arrays.copyOf(numbers, count * 2);
+            }
+            lat[count] = (int) Math.round(latitude * E7);
+            lon[count] = (int) Math.round(longitude * E7);
+            street[count] = streetId;
+            numbers[count] = number;
+            count++;
+            return this;
+        }
+
+        /**
+         * Add the rows of a CSV export with a header naming the street, housenumber, city,
+         * lat and lon columns (any order, other columns ignored)
+         */
+        public Builder addCsv(Reader reader) throws IOException {
+            BufferedReader lines = new BufferedReader(reader);
+            String header = lines.readLine();
+            if (header == null) {
+                return this;
+            }
+            List<String> columns = splitCsv(header);
+            int streetColumn = columns.indexOf("street");
+            int numberColumn = columns.indexOf("housenumber");
+            int cityColumn = columns.indexOf("city");
+            int latColumn = columns.indexOf("lat");
+            int lonColumn = columns.indexOf("lon");
+            if (streetColumn < 0 || numberColumn < 0 || latColumn < 0 || lonColumn < 0) {
+                throw new IOException("CSV header must name street, housenumber, lat and lon: " + header);
+            }
+            String line;
+            int row = 1;
+            while ((line = lines.readLine()) != null) {
+                row++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                List<String> fields = splitCsv(line);
+                try {
+                    add(fields.get(streetColumn), fields.get(numberColumn),
+                            cityColumn >= 0 ? fields.get(cityColumn) : "",
+                            Double.parseDouble(fields.get(latColumn)), Double.parseDouble(fields.get(lonColumn)));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    throw new IOException("Bad CSV row " + row + ": " + line, e);
+                }
+            }
+            return this;
+        }
+
+        public AddressIndex build() {
+            double latSum = 0;
+            for (int i = 0; i < count; i++) {
+                latSum += lat[i] / E7;
+            }
+            double cosLat = Math.cos(Math.toRadians(count == 0 ? 0 : latSum / count));
+            double[] x = new double[count];
+            double[] y = new double[count];
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = lon[i] * cosLat;
+                y[i] = lat[i];
+                order[i] = i;
+            }
+            KdTree.arrange(x, y, order);
+
+            int[] sortedLat = new int[count];
+            int[] sortedLon = new int[count];
+            int[] sortedStreet = new int[count];
+            String[] sortedNumbers = new String[count];
+            for (int i = 0; i < count; i++) {
+                sortedLat[i] = lat[order[i]];
+                sortedLon[i] = lon[order[i]];
+                sortedStreet[i] = street[order[i]];
+                sortedNumbers[i] = numbers[order[i]];
+            }
+            int[] cityOfStreet = new int[streets.size()];
+            for (int s = 0; s < cityOfStreet.length; s++) {
+                cityOfStreet[s] = streetCities.get(s);
+            }
+            return new AddressIndex(version, cities.toArray(new String[0]), streets.toArray(new String[0]),
+                    cityOfStreet, sortedLat, sortedLon, sortedStreet, sortedNumbers);
+        }
+
+        /**
+         * Split one CSV line (double-quoted fields may hold commas and doubled quotes)
+         */
+        static List<String> splitCsv(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
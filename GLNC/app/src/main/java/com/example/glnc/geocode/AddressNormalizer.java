@@ -0,0 +1,149 @@
+package com.example.glnc.geocode;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Normal form of free-text addresses, shared by the index builder, the lookups and the cache
+ * - Lower case, accents removed, punctuation turned into spaces
+ * - Common French abbreviations expanded (av -> avenue, bd -> boulevard, ...)
+ * "12, Av. du Maréchal Foch" and "12 avenue du marechal foch" give the same key
+ */
+public final class AddressNormalizer {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern HOUSE_NUMBER = Pattern.compile("[0-9]+[a-z]?");
+    private static final Pattern POSTCODE = Pattern.compile("988[0-9]{2}");
+    private static final Map<String, String> ABBREVIATIONS = new HashMap<>();
+
+    static {
+        ABBREVIATIONS.put("av", "avenue");
+        ABBREVIATIONS.put("ave", "avenue");
+        ABBREVIATIONS.put("bd", "boulevard");
+        ABBREVIATIONS.put("bld", "boulevard");
+        ABBREVIATIONS.put("bvd", "boulevard");
+        ABBREVIATIONS.put("r", "rue");
+        ABBREVIATIONS.put("rte", "route");
+        ABBREVIATIONS.put("imp", "impasse");
+        ABBREVIATIONS.put("all", "allee");
+        ABBREVIATIONS.put("pl", "place");
+        ABBREVIATIONS.put("ch", "chemin");
+        ABBREVIATIONS.put("che", "chemin");
+        ABBREVIATIONS.put("sq", "square");
+        ABBREVIATIONS.put("res", "residence");
+        ABBREVIATIONS.put("st", "saint");
+        ABBREVIATIONS.put("ste", "sainte");
+        ABBREVIATIONS.put("gal", "general");
+        ABBREVIATIONS.put("mal", "marechal");
+        ABBREVIATIONS.put("prom", "promenade");
+    }
+
+    /**
+     * Free-text address split into its parts, all normalized
+     */
+    public static final class Parsed {
+        public final String houseNumber; // Null if none
+        public final String street;
+        public final String city; // Null if none
+
+        Parsed(String houseNumber, String street, String city) {
+            this.houseNumber = houseNumber;
+            this.street = street;
+            this.city = city;
+        }
+    }
+
+    private AddressNormalizer() {
+    }
+
+    /**
+     * Normalized form of any address text (cache key, index key)
+     */
+    public static String normalize(String text) {
+        return String.join(" ", tokens(text));
+    }
+
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        for (String token : SEPARATORS.split(plain.toLowerCase(Locale.ROOT))) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            String expanded = ABBREVIATIONS.get(token);
+            tokens.add(expanded != null ? expanded : token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Split "12 bis rue X, 98800 Noumea" into house number, street and city
+     * The city is whatever follows the first comma, postcodes removed; without a comma the
+     * geocoder tries the trailing words as city itself
+     */
+    public static Parsed parse(String text) {
+        if (text == null) {
+            return new Parsed(null, "", null);
+        }
+        int comma = text.indexOf(',');
+        List<String> street = tokens(comma >= 0 ? text.substring(0, comma) : text);
+        List<String> city = comma >= 0 ? tokens(text.substring(comma + 1)) : new ArrayList<>();
+
+        // "12, rue X": the number alone before the comma
+        if (comma >= 0 && street.size() == 1 && HOUSE_NUMBER.matcher(street.get(0)).matches() && !city.isEmpty()) {
+            street.addAll(city);
+            city.clear();
+        }
+
+        String houseNumber = null;
+        if (!street.isEmpty() && HOUSE_NUMBER.matcher(street.get(0)).matches()) {
+            houseNumber = street.remove(0);
+            if (!street.isEmpty() && (street.get(0).equals("bis") || street.get(0).equals("ter"))) {
+                houseNumber += street.remove(0).charAt(0); // 12 bis -> 12b, 12 ter -> 12t
+            }
+        }
+        city.removeIf(token -> POSTCODE.matcher(token).matches());
+        street.removeIf(token -> POSTCODE.matcher(token).matches());
+        return new Parsed(houseNumber, String.join(" ", street), city.isEmpty() ? null : String.join(" ", city));
+    }
+
+    /**
+     * Normalized house number as stored in the index ("12 bis" -> "12b"), null if empty
+     */
+    static String normalizeHouseNumber(String text) {
+        List<String> tokens = tokens(text);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        StringBuilder number = new StringBuilder(tokens.get(0));
+        for (int i = 1; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            number.append(token.equals("bis") || token.equals("ter") ? token.substring(0, 1) : token);
+        }
+        return number.toString();
+    }
+
+    /**
+     * Numeric part of a house number ("12b" -> 12), -1 if there is none
+     */
+    static int houseNumberValue(String houseNumber) {
+        if (houseNumber == null) {
+            return -1;
+        }
+        int value = 0;
+        int i = 0;
+        while (i < houseNumber.length() && Character.isDigit(houseNumber.charAt(i)) && i < 9) {
+            value = value * 10 + (houseNumber.charAt(i) - '0');
+            i++;
+        }
+        return i == 0 ? -1 : value;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.glnc.geocode;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent geocoding results, keyed by normalized address (AddressNormalizer.normalize)
+ * - Append-only text file, one tab-separated entry per line, last entry of a key wins;
+ *   rewritten compactly when stale lines outnumber live ones
+ * - Misses are cached too, with the index version: a new index retries them
+ * Thread-safe
+ */
+public class GeocodeCache {
+    private static final String MISS = "-";
+    private static final int MAX_VALUE_LENGTH = 512;
+
+    private final File file;
+    private final Map<String, String[]> entries = new HashMap<>();
+    private int lines = 0;
+
+    public GeocodeCache(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Cached result of the key, OfflineGeocoder.MISS_RESULT for a miss cached with the same
+     * index version, null if unknown
+     */
+    public synchronized OfflineGeocoder.Result get(String key, String indexVersion) {
+        String[] entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (MISS.equals(entry[1])) {
+            return indexVersion.equals(entry[0]) ? OfflineGeocoder.MISS_RESULT : null;
+        }
+        try {
+            return new OfflineGeocoder.Result(Double.parseDouble(entry[2]), Double.parseDouble(entry[3]),
+                    OfflineGeocoder.Precision.valueOf(entry[1]), entry[4], 0);
+        } catch (IllegalArgumentException e) {
+            return null; // Entry from an older app version
+        }
+    }
+
+    /**
+     * Store a result (null or MISS_RESULT for a miss)
+     */
+    public synchronized void put(String key, String indexVersion, OfflineGeocoder.Result result) {
+        String[] entry;
+        if (result == null || result == OfflineGeocoder.MISS_RESULT) {
+            entry = new String[]{clean(indexVersion), MISS, "", "", ""};
+        } else {
+            entry = new String[]{clean(indexVersion), result.precision.name(), Double.toString(result.latitude),
+                    Double.toString(result.longitude), clean(result.label)};
+        }
+        String cleanKey = clean(key);
+        if (cleanKey.isEmpty()) {
+            return;
+        }
+        entries.put(cleanKey, entry);
+        if (lines > 64 && lines > 2 * entries.size()) {
+            rewrite();
+        } else {
+            append(cleanKey, entry);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 6) { // Skips a line cut short by a crash
+                    entries.put(fields[0], new String[]{fields[1], fields[2], fields[3], fields[4], fields[5]});
+                    lines++;
+                }
+            }
+        } catch (IOException e) {
+            Log.e("GeocodeCache", "Cannot read " + file, e);
+        }
+    }
+
+    private void append(String key, String[] entry) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writeLine(writer, key, entry);
+            lines++;
+        } catch (IOException e) {
+            Log.e("GeocodeCache", "Cannot write " + file, e);
+        }
+    }
+
+    private void rewrite() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+                writeLine(writer, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.e("GeocodeCache", "Cannot compact " + file, e);
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(file)) {
+            lines = entries.size();
+        } else {
+            temp.delete();
+        }
+    }
+
+    private static void writeLine(Writer writer, String key, String[] entry) throws IOException {
+        writer.write(key);
+        for (String field : entry) {
+            writer.write('\t');
+            writer.write(field);
+        }
+        writer.write('\n');
+    }
+
+    private static String clean(String text) {
+        if (text == null) {
+            return "";
+        }
+        String flat = text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        return flat.length() > MAX_VALUE_LENGTH ? flat.substring(0, MAX_VALUE_LENGTH) : flat;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.glnc.geocode;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Process-wide offline geocoder
+ * The address index is read on first use from filesDir/geocode/addresses.bin if present
+ * (a newer extract, downloaded by OfflineMapUpdater), else from the bundled asset; without
+ * either, geocoding is disabled
+ * Results are cached in filesDir/geocode_cache.tsv
+ */
+public class Geocoding {
+    static final String ASSET_NAME = "geocode/addresses.bin";
+    static final String CACHE_NAME = "geocode_cache.tsv";
+
+    private static OfflineGeocoder instance;
+    private static boolean loaded = false;
+
+    private Geocoding() {
+    }
+
+    /**
+     * Get the shared geocoder, reading the index on first call (slow: call off the main thread)
+     * @param context Any context (the application context is used)
+     * @return The geocoder, or null if no address index is installed
+     */
+    public static synchronized OfflineGeocoder get(Context context) {
+        if (!loaded) {
+            loaded = true;
+            Context appContext = context.getApplicationContext();
+            long start = System.nanoTime();
+            AddressIndex index = readIndex(appContext);
+            if (index != null) {
+                instance = new OfflineGeocoder(index, new GeocodeCache(new File(appContext.getFilesDir(), CACHE_NAME)));
+                Log.d("Geocoding", "Address index " + index.getVersion() + ": " + index.addressCount() + " addresses, "
+                        + index.streetCount() + " streets, loaded in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Where a downloaded index is installed
+     */
+    public static File getIndexFile(Context context) {
+        return new File(context.getFilesDir(), ASSET_NAME);
+    }
+
+    /**
+     * A new index was installed: read it again on next get()
+     */
+    public static synchronized void invalidate() {
+        loaded = false;
+        instance = null;
+    }
+
+    private static AddressIndex readIndex(Context context) {
+        File downloaded = getIndexFile(context);
+        if (downloaded.exists()) {
+            try (InputStream in = new FileInputStream(downloaded)) {
+                return AddressIndex.read(in);
+            } catch (IOException e) {
+                Log.e("Geocoding", "Unreadable address index " + downloaded + ", using the bundled one", e);
+            }
+        }
+        try (InputStream in = context.getAssets().open(ASSET_NAME)) {
+            return AddressIndex.read(in);
+        } catch (IOException e) {
+            Log.w("Geocoding", "No address index, offline geocoding disabled: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.glnc.geocode;
+
+/**
+ * Implicit 2-d tree for nearest-point queries
+ * The points are stored in tree order: in any range, the middle point splits the range on
+ * x (even depth) or y (odd depth), so the tree needs no node arrays at all
+ * arrange() puts points in that order once, when the index is built
+ * Read-only after construction: queries are safe from any thread
+ */
+final class KdTree {
+    private final double[] x;
+    private final double[] y;
+
+    /**
+     * @param x Planar coordinates of points already in tree order (see arrange)
+     * @param y Planar coordinates of points already in tree order (see arrange)
+     */
+    KdTree(double[] x, double[] y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Reorder the permutation so that x[order[i]], y[order[i]] are in tree order
+     */
+    static void arrange(double[] x, double[] y, int[] order) {
+        arrange(x, y, order, 0, order.length, 0);
+    }
+
+    private static void arrange(double[] x, double[] y, int[] order, int lo, int hi, int axis) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(axis == 0 ? x : y, order, lo, hi - 1, mid);
+            arrange(x, y, order, mid + 1, hi, axis ^ 1);
+            hi = mid; // Left half without recursion
+            axis ^= 1;
+        }
+    }
+
+    /**
+     * Quickselect: order[k] gets the k-th smallest key of [lo, hi], smaller keys before it
+     */
+    private static void select(double[] keys, int[] order, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return x.length;
+    }
+
+    /**
+     * Index of the point closest to (qx, qy), -1 if the tree is empty
+     */
+    int nearest(double qx, double qy) {
+        double[] best = {Double.MAX_VALUE, -1};
+        search(0, x.length, 0, qx, qy, best);
+        return (int) best[1];
+    }
+
+    private void search(int lo, int hi, int axis, double qx, double qy, double[] best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = qx - x[mid];
+        double dy = qy - y[mid];
+        double distance = dx * dx + dy * dy;
+        if (distance < best[0]) {
+            best[0] = distance;
+            best[1] = mid;
+        }
+        double split = axis == 0 ? dx : dy;
+        if (split < 0) {
+            search(lo, mid, axis ^ 1, qx, qy, best);
+            if (split * split < best[0]) {
+                search(mid + 1, hi, axis ^ 1, qx, qy, best);
+            }
+        } else {
+            search(mid + 1, hi, axis ^ 1, qx, qy, best);
+            if (split * split < best[0]) {
+                search(lo, mid, axis ^ 1, qx, qy, best);
+            }
+        }
+    }
+}
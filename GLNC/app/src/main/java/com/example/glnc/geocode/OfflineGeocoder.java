@@ -0,0 +1,198 @@
+package com.example.glnc.geocode;
+
+import com.example.glnc.location.GeofenceEngine;
+
+/**
+ * Forward (address text -> position) and reverse (position -> address) geocoding against
+ * the local AddressIndex, without network
+ * Forward results, misses included, go through the GeocodeCache keyed by normalized address
+ * Thread-safe
+ */
+public class OfflineGeocoder {
+    static final int MAX_CANDIDATES = 32;
+    public static final double MAX_REVERSE_METERS = 250;
+
+    public enum Precision {
+        ADDRESS,        // The house number itself
+        NEAREST_NUMBER, // Closest house number of the street (same side if possible)
+        STREET          // Middle of the street
+    }
+
+    public static final class Result {
+        public final double latitude;
+        public final double longitude;
+        public final Precision precision;
+        public final String label; // "12 Rue de Sébastopol, Nouméa"
+        public final double distanceMeters; // Reverse lookups only
+
+        public Result(double latitude, double longitude, Precision precision, String label, double distanceMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.precision = precision;
+            this.label = label;
+            this.distanceMeters = distanceMeters;
+        }
+    }
+
+    /**
+     * Marker for a cached miss, never returned by forward()
+     */
+    static final Result MISS_RESULT = new Result(Double.NaN, Double.NaN, Precision.STREET, "", 0);
+
+    private final AddressIndex index;
+    private final GeocodeCache cache; // May be null
+
+    public OfflineGeocoder(AddressIndex index, GeocodeCache cache) {
+        this.index = index;
+        this.cache = cache;
+    }
+
+    public AddressIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Position of a free-text address
+     * @return null if no street of the index matches
+     */
+    public Result forward(String address) {
+        String key = AddressNormalizer.normalize(address);
+        if (key.isEmpty()) {
+            return null;
+        }
+        if (cache != null) {
+            Result cached = cache.get(key, index.version);
+            if (cached != null) {
+                return cached == MISS_RESULT ? null : cached;
+            }
+        }
+        Result result = lookup(AddressNormalizer.parse(address));
+        if (cache != null) {
+            cache.put(key, index.version, result);
+        }
+        return result;
+    }
+
+    /**
+     * Address closest to the position
+     * @return null if there is none within MAX_REVERSE_METERS
+     */
+    public Result reverse(double latitude, double longitude) {
+        int address = index.nearest(latitude, longitude);
+        if (address < 0) {
+            return null;
+        }
+        double lat = index.latitude(address);
+        double lon = index.longitude(address);
+        double distance = GeofenceEngine.distanceMeters(latitude, longitude, lat, lon);
+        if (distance > MAX_REVERSE_METERS) {
+            return null;
+        }
+        int street = index.addressStreet[address];
+        String number = index.houseNumbers[address];
+        return new Result(lat, lon, number != null ? Precision.ADDRESS : Precision.STREET,
+                label(street, number), distance);
+    }
+
+    private Result lookup(AddressNormalizer.Parsed parsed) {
+        int street = findStreet(parsed);
+        if (street < 0) {
+            return null;
+        }
+        int from = index.streetStart[street];
+        int to = index.streetStart[street + 1];
+        if (parsed.houseNumber != null) {
+            int wanted = AddressNormalizer.houseNumberValue(parsed.houseNumber);
+            int nearest = -1;
+            int nearestGap = Integer.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                int address = index.streetAddresses[i];
+                String number = index.houseNumbers[address];
+                if (number == null) {
+                    continue;
+                }
+                if (number.equals(parsed.houseNumber)) {
+                    return result(address, street, Precision.ADDRESS, number);
+                }
+                int value = AddressNormalizer.houseNumberValue(number);
+                // Odd and even numbers are on opposite sides: prefer the same side
+                int gap = Math.abs(value - wanted) * 2 + ((value - wanted) % 2 != 0 ? 1_000_000 : 0);
+                if (value >= 0 && gap < nearestGap) {
+                    nearestGap = gap;
+                    nearest = address;
+                }
+            }
+            if (nearest >= 0) {
+                return result(nearest, street, Precision.NEAREST_NUMBER, index.houseNumbers[nearest]);
+            }
+        }
+        return result(index.streetCenter[street], street, Precision.STREET, null);
+    }
+
+    private Result result(int address, int street, Precision precision, String number) {
+        return new Result(index.latitude(address), index.longitude(address), precision, label(street, number), 0);
+    }
+
+    /**
+     * Best street for the parsed text
+     * Without a comma the city may trail the street ("rue x noumea"): trailing words are
+     * dropped one by one and tried as the city
+     * Among candidates: city match first, then full name over word suffix, then shortest name
+     */
+    private int findStreet(AddressNormalizer.Parsed parsed) {
+        String[] words = parsed.street.isEmpty() ? new String[0] : parsed.street.split(" ");
+        int[] candidates = new int[MAX_CANDIDATES];
+        for (int end = words.length; end >= 1; end--) {
+            String name = join(words, 0, end);
+            String city = end < words.length ? join(words, end, words.length) : parsed.city;
+            int count = index.trie.exact(name, candidates);
+            if (count == 0 && end == words.length) {
+                count = index.trie.withPrefix(name, candidates); // Truncated name
+            }
+            if (count > 0) {
+                return best(candidates, count, city);
+            }
+        }
+        return -1;
+    }
+
+    private int best(int[] candidates, int count, String city) {
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int street = candidates[i] >> 1;
+            boolean suffix = (candidates[i] & 1) != 0;
+            int score = (cityMatches(street, city) ? 4 : 0) + (suffix ? 0 : 2);
+            if (score > bestScore || score == bestScore
+                    && index.streetNames[street].length() < index.streetNames[best].length()) {
+                best = street;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private boolean cityMatches(int street, String city) {
+        if (city == null) {
+            return false;
+        }
+        String streetCity = index.cityNames[index.streetCity[street]];
+        return !streetCity.isEmpty() && (city.equals(streetCity) || city.contains(streetCity) || streetCity.startsWith(city));
+    }
+
+    private String label(int street, String number) {
+        String city = index.cityLabels[index.streetCity[street]];
+        return (number != null ? number + " " : "") + index.streetLabels[street] + (city.isEmpty() ? "" : ", " + city);
+    }
+
+    private static String join(String[] words, int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                text.append(' ');
+            }
+            text.append(words[i]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.glnc.geocode;
+
+import java.util.Arrays;
+
+/**
+ * Prefix trie over normalized street names, in primitive arrays (one entry per node,
+ * children as first-child / next-sibling links) so a whole country fits in a few hundred KB
+ * Each key carries int values (street ids); a key may carry several values
+ * Built once, then read-only: lookups are safe from any thread
+ */
+final class StreetTrie {
+    private static final int NONE = -1;
+
+    private char[] labels = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] firstValue = new int[1024];
+    private int nodeCount = 0;
+
+    private int[] values = new int[256];
+    private int[] nextValue = new int[256];
+    private int valueCount = 0;
+
+    StreetTrie() {
+        newNode('\0'); // Root
+    }
+
+    void add(String key, int value) {
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int child = child(node, c);
+            if (child == NONE) {
+                child = newNode(c);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            }
+            node = child;
+        }
+        for (int v = firstValue[node]; v != NONE; v = nextValue[v]) {
+            if (values[v] == value) {
+                return;
+            }
+        }
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+            nextValue = Arrays.copyOf(nextValue, valueCount * 2);
+        }
+        values[valueCount] = value;
+        nextValue[valueCount] = firstValue[node];
+        firstValue[node] = valueCount++;
+    }
+
+    /**
+     * Values of exactly this key
+     * @return The number of values written to out (at most out.length)
+     */
+    int exact(String key, int[] out) {
+        int node = find(key);
+        return node == NONE ? 0 : collect(node, out, 0);
+    }
+
+    /**
+     * Values of the keys starting with the prefix, shortest keys first
+     * @return The number of values written to out (at most out.length)
+     */
+    int withPrefix(String prefix, int[] out) {
+        int start = find(prefix);
+        if (start == NONE) {
+            return 0;
+        }
+        int count = 0;
+        int[] queue = new int[64];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail && count < out.length) {
+            int node = queue[head++];
+            count = collect(node, out, count);
+            for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+                if (tail == queue.length) {
+                    if (head > 0) { // Reuse the consumed front of the queue
+                        System.arraycopy(queue, head, queue, 0, tail - head);
+                        tail -= head;
+                        head = 0;
+                    } else {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                }
+                queue[tail++] = c;
+            }
+        }
+        return count;
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    private int find(String key) {
+        int node = 0;
+        for (int i = 0; i < key.length() && node != NONE; i++) {
+            node = child(node, key.charAt(i));
+        }
+        return node;
+    }
+
+    private int collect(int node, int[] out, int count) {
+        for (int v = firstValue[node]; v != NONE && count < out.length; v = nextValue[v]) {
+            out[count++] = values[v];
+        }
+        return count;
+    }
+
+    private int child(int node, char c) {
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            if (labels[child] == c) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    private int newNode(char label) {
+        if (nodeCount == labels.length) {
+            int capacity = nodeCount * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            firstValue = Arrays.copyOf(firstValue, capacity);
+        }
+        labels[nodeCount] = label;
+        firstChild[nodeCount] = NONE;
+        nextSibling[nodeCount] = NONE;
+        firstValue[nodeCount] = NONE;
+        return nodeCount++;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.glnc.location;
+
+/**
+ * Rate limiter for a stream of fixes
+ * Delivers the first fix immediately, then at most one fix per minIntervalMs (the latest one
+ * received in the window). Fixes closer than minDistanceM to the last delivered fix are dropped.
+ * Used by LocationStream.conflated() on device and directly by JVM replays (e.g. to measure
+ * how many /app/current_location uploads a trace produces)
+ */
+public class Conflator {
+
+    public interface Sink {
+        void deliver(LocationSnapshot snapshot);
+    }
+
+    private final long minIntervalMs;
+    private final float minDistanceM;
+    private final Scheduler scheduler;
+    private final Sink sink;
+    private final Runnable flushRunnable = this::flush;
+    private LocationSnapshot pending;
+    private LocationSnapshot lastDelivered;
+    private long lastDeliveredAt;
+    private Object flushToken;
+    private boolean paused = false;
+
+    /**
+     * @param minIntervalMs Minimum time between two deliveries (0 = no time conflation)
+     * @param minDistanceM Minimum movement between two deliveries (0 = deliver unchanged positions)
+     */
+    public Conflator(long minIntervalMs, float minDistanceM, Scheduler scheduler, Sink sink) {
+        this.minIntervalMs = minIntervalMs;
+        this.minDistanceM = minDistanceM;
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    public void offer(LocationSnapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        if (lastDelivered != null && minDistanceM > 0 && snapshot.distanceTo(lastDelivered) < minDistanceM) {
+            return; // Position unchanged - nothing to deliver
+        }
+
+        long wait = lastDelivered == null ? 0 : lastDeliveredAt + minIntervalMs - scheduler.elapsedRealtimeMs();
+        if (wait <= 0 && !paused) {
+            deliver(snapshot);
+        } else {
+            // Keep only the latest fix of the window
+            pending = snapshot;
+            if (flushToken == null && !paused) {
+                flushToken = scheduler.postDelayed(flushRunnable, wait);
+            }
+        }
+    }
+
+    /**
+     * Stop delivering; the latest pending fix is kept for resume()
+     */
+    public void pause() {
+        paused = true;
+        scheduler.cancel(flushToken);
+        flushToken = null;
+    }
+
+    /**
+     * Resume delivering, flushing the pending fix immediately
+     */
+    public void resume() {
+        paused = false;
+        if (pending != null) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        flushToken = null;
+        if (pending != null) {
+            deliver(pending);
+        }
+    }
+
+    private void deliver(LocationSnapshot snapshot) {
+        pending = null;
+        lastDelivered = snapshot;
+        lastDeliveredAt = scheduler.elapsedRealtimeMs();
+        sink.deliver(snapshot);
+    }
+}
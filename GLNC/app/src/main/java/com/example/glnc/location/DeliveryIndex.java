@@ -0,0 +1,395 @@
+package com.example.glnc.location;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * In-memory spatial index over delivery destinations
+ * Destinations are stored in primitive arrays (index = slot) and bucketed in a uniform grid of
+ * square cells (cellSizeM at the reference latitude). Queries only visit the cells around the
+ * position, ring by ring, so their cost depends on the local stop density, not on the list size:
+ * - nearest(lat, lon, k): the k closest destinations
+ * - withinRadius(lat, lon, radiusM): all destinations within a radius
+ * update() applies a new delivery list incrementally: only added, moved and removed
+ * destinations touch the grid
+ * Thread-safe
+ */
+public class DeliveryIndex {
+    public static final double DEFAULT_CELL_SIZE_M = 500.0;
+
+    private static final double EARTH_RADIUS_M = 6371000.0;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_M * Math.PI / 180.0;
+    private static final double BOUND_SAFETY = 0.99; // Great circle is slightly shorter than the parallel arc
+
+    /**
+     * A query result
+     */
+    public static final class Neighbor {
+        public final String id;
+        public final double latitude;
+        public final double longitude;
+        public final double distanceM;
+
+        Neighbor(String id, double latitude, double longitude, double distanceM) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.distanceM = distanceM;
+        }
+    }
+
+    /**
+     * Slots of one grid cell (unordered, swap-remove)
+     */
+    private static final class Cell {
+        int[] slots = new int[2];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(slots, 0, grown, 0, size);
+                slots = grown;
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final double cellSizeM;
+
+    // Destinations stored as primitive arrays (index = slot); free slots are reused
+    private String[] ids = new String[16];
+    private double[] lats = new double[16];
+    private double[] lons = new double[16];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private final HashMap<String, Integer> slotById = new HashMap<>();
+
+    // Grid: cell key -> slots in that cell
+    private final HashMap<Long, Cell> grid = new HashMap<>();
+    private double cellLatDeg;
+    private double cellLonDeg;
+    private double minCellM;   // Shortest cell side over the indexed latitudes (pruning bound)
+    private double maxAbsLat = -1;
+    private boolean referenceSet = false;
+
+    // Bounding box of the occupied cells (grows on insert, recomputed by update())
+    private long minRow = Long.MAX_VALUE;
+    private long maxRow = Long.MIN_VALUE;
+    private long minCol = Long.MAX_VALUE;
+    private long maxCol = Long.MIN_VALUE;
+
+    public DeliveryIndex() {
+        this(DEFAULT_CELL_SIZE_M);
+    }
+
+    public DeliveryIndex(double cellSizeM) {
+        if (cellSizeM <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSizeM);
+        }
+        this.cellSizeM = cellSizeM;
+    }
+
+    /**
+     * Replace the indexed destinations with a new delivery list, incrementally
+     * @param newIds Delivery IDs
+     * @param newLats Destination latitudes
+     * @param newLons Destination longitudes
+     */
+    public synchronized void update(String[] newIds, double[] newLats, double[] newLons) {
+        int count = newIds.length;
+        if (newLats.length != count || newLons.length != count) {
+            throw new IllegalArgumentException("ids, lats and lons must have the same length");
+        }
+        Set<String> kept = new HashSet<>();
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            kept.add(newIds[i]);
+            if (putLocked(newIds[i], newLats[i], newLons[i])) {
+                changed++;
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String id : slotById.keySet()) {
+            if (!kept.contains(id)) {
+                removed.add(id);
+            }
+        }
+        for (String id : removed) {
+            removeLocked(id);
+        }
+        if (!removed.isEmpty() || changed > 0) {
+            recomputeBounds();
+        }
+        Log.d("DeliveryIndex", "Indexed " + slotById.size() + " destinations (" + changed + " added/moved, "
+            + removed.size() + " removed) in " + grid.size() + " cells");
+    }
+
+    /**
+     * Add a destination, or move it if the ID is already indexed
+     */
+    public synchronized void put(String id, double latitude, double longitude) {
+        putLocked(id, latitude, longitude);
+    }
+
+    /**
+     * Remove a destination
+     * @return true if it was indexed
+     */
+    public synchronized boolean remove(String id) {
+        return removeLocked(id);
+    }
+
+    public synchronized int size() {
+        return slotById.size();
+    }
+
+    /**
+     * The k destinations closest to a position
+     * @return Up to k neighbors, closest first
+     */
+    public synchronized List<Neighbor> nearest(double latitude, double longitude, int k) {
+        if (k <= 0 || slotById.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Max-heap on distance holding the best k candidates so far
+        PriorityQueue<Neighbor> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distanceM, a.distanceM));
+        long row = cellRow(latitude);
+        long col = cellCol(longitude);
+        long maxRing = Math.max(Math.max(Math.abs(row - minRow), Math.abs(maxRow - row)),
+            Math.max(Math.abs(col - minCol), Math.abs(maxCol - col)));
+        for (long ring = 0; ring <= maxRing; ring++) {
+            // Stops in ring n are at least n-1 full cells away: stop once the k-th best is closer
+            if (best.size() == k && best.peek().distanceM <= (ring - 1) * minCellM * BOUND_SAFETY) {
+                break;
+            }
+            if ((2 * ring + 1) * (2 * ring + 1) > 4L * grid.size()) {
+                // Ring area exceeds the occupied cells (isolated query): scanning all stops is cheaper
+                best.clear();
+                scanAll(latitude, longitude, best, k);
+                break;
+            }
+            for (long r = row - ring; r <= row + ring; r++) {
+                boolean edgeRow = r == row - ring || r == row + ring;
+                long step = edgeRow ? 1 : 2 * ring; // Inner rows: only the two border cells
+                for (long c = col - ring; c <= col + ring; c += step) {
+                    Cell cell = grid.get(cellKey(r, c));
+                    if (cell != null) {
+                        offerCell(cell, latitude, longitude, best, k);
+                    }
+                }
+            }
+        }
+        List<Neighbor> result = new ArrayList<>(best);
+        Collections.sort(result, (a, b) -> Double.compare(a.distanceM, b.distanceM));
+        return result;
+    }
+
+    /**
+     * All destinations within a radius of a position
+     * @return The neighbors within radiusM, closest first
+     */
+    public synchronized List<Neighbor> withinRadius(double latitude, double longitude, double radiusM) {
+        List<Neighbor> result = new ArrayList<>();
+        if (slotById.isEmpty() || radiusM < 0) {
+            return result;
+        }
+        long cellsAway = (long) Math.ceil(radiusM / (minCellM * BOUND_SAFETY));
+        if (cellsAway > 4096 || (2 * cellsAway + 1) * (2 * cellsAway + 1) > grid.size()) {
+            // Radius covers more cells than are occupied: walk the occupied cells instead
+            for (Cell cell : grid.values()) {
+                collectCell(cell, latitude, longitude, radiusM, result);
+            }
+        } else {
+            long row = cellRow(latitude);
+            long col = cellCol(longitude);
+            for (long r = row - cellsAway; r <= row + cellsAway; r++) {
+                for (long c = col - cellsAway; c <= col + cellsAway; c++) {
+                    Cell cell = grid.get(cellKey(r, c));
+                    if (cell != null) {
+                        collectCell(cell, latitude, longitude, radiusM, result);
+                    }
+                }
+            }
+        }
+        Collections.sort(result, (a, b) -> Double.compare(a.distanceM, b.distanceM));
+        return result;
+    }
+
+    private boolean putLocked(String id, double latitude, double longitude) {
+        if (!referenceSet) {
+            setReference(latitude);
+        }
+        Integer existing = slotById.get(id);
+        if (existing != null) {
+            int slot = existing;
+            if (lats[slot] == latitude && lons[slot] == longitude) {
+                return false;
+            }
+            gridRemove(slot);
+            lats[slot] = latitude;
+            lons[slot] = longitude;
+            gridAdd(slot);
+            return true;
+        }
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+        ensureCapacity(slotCount);
+        ids[slot] = id;
+        lats[slot] = latitude;
+        lons[slot] = longitude;
+        slotById.put(id, slot);
+        gridAdd(slot);
+        return true;
+    }
+
+    private boolean removeLocked(String id) {
+        Integer existing = slotById.remove(id);
+        if (existing == null) {
+            return false;
+        }
+        int slot = existing;
+        gridRemove(slot);
+        ids[slot] = null;
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeCount * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = slot;
+        return true;
+    }
+
+    /**
+     * Fix the grid geometry: square cells at the latitude of the first destination
+     */
+    private void setReference(double latitude) {
+        cellLatDeg = cellSizeM / METERS_PER_DEGREE;
+        cellLonDeg = cellSizeM / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+        referenceSet = true;
+    }
+
+    private void gridAdd(int slot) {
+        long row = cellRow(lats[slot]);
+        long col = cellCol(lons[slot]);
+        extendBounds(row, col);
+        long key = cellKey(row, col);
+        Cell cell = grid.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            grid.put(key, cell);
+        }
+        cell.add(slot);
+        double absLat = Math.abs(lats[slot]);
+        if (absLat > maxAbsLat) {
+            // Cells shrink in meters towards the poles: keep the pruning bound conservative
+            maxAbsLat = absLat;
+            double widthM = cellLonDeg * METERS_PER_DEGREE * Math.cos(Math.toRadians(Math.min(maxAbsLat + cellLatDeg, 90)));
+            minCellM = Math.max(Math.min(cellLatDeg * METERS_PER_DEGREE, widthM), 1e-3);
+        }
+    }
+
+    private void gridRemove(int slot) {
+        long key = cellKey(cellRow(lats[slot]), cellCol(lons[slot]));
+        Cell cell = grid.get(key);
+        if (cell != null) {
+            cell.remove(slot);
+            if (cell.size == 0) {
+                grid.remove(key);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int size = Math.max(capacity, ids.length * 2);
+        String[] newIds = new String[size];
+        double[] newLats = new double[size];
+        double[] newLons = new double[size];
+        System.arraycopy(ids, 0, newIds, 0, ids.length);
+        System.arraycopy(lats, 0, newLats, 0, lats.length);
+        System.arraycopy(lons, 0, newLons, 0, lons.length);
+        ids = newIds;
+        lats = newLats;
+        lons = newLons;
+    }
+
+    private void recomputeBounds() {
+        minRow = Long.MAX_VALUE;
+        maxRow = Long.MIN_VALUE;
+        minCol = Long.MAX_VALUE;
+        maxCol = Long.MIN_VALUE;
+        for (long key : grid.keySet()) {
+            extendBounds(key >> 32, (int) key);
+        }
+    }
+
+    private void extendBounds(long row, long col) {
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minCol = Math.min(minCol, col);
+        maxCol = Math.max(maxCol, col);
+    }
+
+    private void offerCell(Cell cell, double latitude, double longitude, PriorityQueue<Neighbor> best, int k) {
+        for (int i = 0; i < cell.size; i++) {
+            offer(cell.slots[i], latitude, longitude, best, k);
+        }
+    }
+
+    private void scanAll(double latitude, double longitude, PriorityQueue<Neighbor> best, int k) {
+        for (int slot : slotById.values()) {
+            offer(slot, latitude, longitude, best, k);
+        }
+    }
+
+    private void offer(int slot, double latitude, double longitude, PriorityQueue<Neighbor> best, int k) {
+        double distance = GeofenceEngine.distanceMeters(latitude, longitude, lats[slot], lons[slot]);
+        if (best.size() < k) {
+            best.add(new Neighbor(ids[slot], lats[slot], lons[slot], distance));
+        } else if (distance < best.peek().distanceM) {
+            best.poll();
+            best.add(new Neighbor(ids[slot], lats[slot], lons[slot], distance));
+        }
+    }
+
+    private void collectCell(Cell cell, double latitude, double longitude, double radiusM, List<Neighbor> result) {
+        for (int i = 0; i < cell.size; i++) {
+            int slot = cell.slots[i];
+            double distance = GeofenceEngine.distanceMeters(latitude, longitude, lats[slot], lons[slot]);
+            if (distance <= radiusM) {
+                result.add(new Neighbor(ids[slot], lats[slot], lons[slot], distance));
+            }
+        }
+    }
+
+    private long cellRow(double latitude) {
+        return (long) Math.floor(latitude / cellLatDeg);
+    }
+
+    private long cellCol(double longitude) {
+        return (long) Math.floor(longitude / cellLonDeg);
+    }
+
+    private static long cellKey(long row, long col) {
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+}
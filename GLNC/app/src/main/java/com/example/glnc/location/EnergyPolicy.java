@@ -0,0 +1,282 @@
+package com.example.glnc.location;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Picks the location request profile (provider, interval, batching latency) from the battery
+ * level, charging state, power save mode and shift phase
+ * - Charging or acquiring the first fix: legacy GPS request, no batching
+ * - Driving or parked: GPS, no batching (dispatch follows the truck live)
+ *   A parked truck already gets no fixes (minimum distance of the request): batching would
+ *   only hold back the first fixes when it drives off (geofence exit, live stream, follow mode)
+ *   Parked is detected from the time since the last move (LocationPipeline calls onNoFix()
+ *   PARKED_AFTER_MS after each fix) and reported as parked time
+ * - Low battery: longer interval and batching; critical battery or power save: network only
+ * Batching (maxUpdateDelay) needs API 31+, older devices only get the interval and provider
+ * Also estimates app wakeups and GPS-on time per shift from the profiles applied
+ * All times are monotonic (SystemClock.elapsedRealtime) milliseconds
+ */
+public class EnergyPolicy {
+    public static final int LOW_BATTERY_PCT = 30;
+    public static final int CRITICAL_BATTERY_PCT = 15;
+    public static final long PARKED_AFTER_MS = 5 * 60 * 1000; // No movement for 5 minutes = parked
+    public static final double PARKED_RADIUS_M = 60.0;
+
+    public enum ShiftPhase { ACQUIRING, DRIVING, PARKED }
+
+    /**
+     * Location request parameters
+     */
+    public static final class Profile {
+        public final String name;
+        public final boolean useGps;
+        public final long intervalMs;
+        public final float minDistanceM;
+        public final long maxUpdateDelayMs; // 0 = deliver each fix immediately
+
+        Profile(String name, boolean useGps, long intervalMs, float minDistanceM, long maxUpdateDelayMs) {
+            this.name = name;
+            this.useGps = useGps;
+            this.intervalMs = intervalMs;
+            this.minDistanceM = minDistanceM;
+            this.maxUpdateDelayMs = maxUpdateDelayMs;
+        }
+
+        /**
+         * Expected time between two app wakeups
+         */
+        long wakeupPeriodMs() {
+            return Math.max(intervalMs, maxUpdateDelayMs);
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + (useGps ? "gps" : "network") + ", " + intervalMs / 1000 + "s/"
+                + minDistanceM + "m, batch " + maxUpdateDelayMs / 1000 + "s)";
+        }
+    }
+
+    // Legacy request: every 3 minutes or 30 meters
+    public static final Profile DEFAULT_PROFILE = new Profile("normal", true, 3 * 60 * 1000, 30, 0);
+    static final Profile LOW_BATTERY = new Profile("low_battery", true, 5 * 60 * 1000, 50, 15 * 60 * 1000);
+    static final Profile SAVER = new Profile("saver", false, 10 * 60 * 1000, 100, 30 * 60 * 1000);
+
+    public interface Listener {
+        /**
+         * The profile changed; called on the thread that reported the change
+         */
+        void onProfileChanged(Profile profile);
+    }
+
+    private Listener listener;
+    private int batteryPct = 100;
+    private boolean charging = false;
+    private boolean powerSave = false;
+    private ShiftPhase phase = ShiftPhase.ACQUIRING;
+    private Profile profile = DEFAULT_PROFILE;
+
+    // Parked detection
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorMs = -1;
+    private long parkedSinceMs;
+    private long parkedMs = 0;
+
+    // Shift accounting
+    private boolean tracking = false;
+    private long segmentStartMs;
+    private long gpsOnMs = 0;
+    private double estimatedWakeups = 0;
+    private int profileChanges = 0;
+    private int batches = 0;
+    private int batchedFixes = 0;
+    private final Map<String, Long> profileMs = new LinkedHashMap<>();
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized Profile getProfile() {
+        return profile;
+    }
+
+    public synchronized ShiftPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Time spent parked while tracking during the shift
+     */
+    public synchronized long getParkedMs(long nowMs) {
+        return parkedMs + (phase == ShiftPhase.PARKED && tracking ? Math.max(0, nowMs - parkedSinceMs) : 0);
+    }
+
+    /**
+     * Battery level or charging state changed (ACTION_BATTERY_CHANGED)
+     */
+    public void onBatteryChanged(int batteryPct, boolean charging, long nowMs) {
+        synchronized (this) {
+            this.batteryPct = batteryPct;
+            this.charging = charging;
+        }
+        update(nowMs);
+    }
+
+    /**
+     * Power save mode toggled (PowerManager.ACTION_POWER_SAVE_MODE_CHANGED)
+     */
+    public void onPowerSaveChanged(boolean powerSave, long nowMs) {
+        synchronized (this) {
+            this.powerSave = powerSave;
+        }
+        update(nowMs);
+    }
+
+    /**
+     * Location updates were requested: waiting for a first fix again
+     */
+    public void onTrackingStarted(long nowMs) {
+        synchronized (this) {
+            closeSegment(nowMs);
+            setPhase(ShiftPhase.ACQUIRING, nowMs);
+            tracking = true;
+            anchorMs = -1;
+        }
+        update(nowMs);
+    }
+
+    /**
+     * Location updates were removed
+     */
+    public synchronized void onTrackingStopped(long nowMs) {
+        closeSegment(nowMs);
+        if (phase == ShiftPhase.PARKED && tracking) {
+            parkedMs += Math.max(0, nowMs - parkedSinceMs);
+            parkedSinceMs = nowMs;
+        }
+        tracking = false;
+    }
+
+    /**
+     * An accepted fix: update the shift phase (driving / parked)
+     */
+    public void onFix(LocationSnapshot fix, long nowMs) {
+        synchronized (this) {
+            if (anchorMs < 0 || GeofenceEngine.distanceMeters(anchorLat, anchorLon, fix.latitude, fix.longitude) > PARKED_RADIUS_M) {
+                anchorLat = fix.latitude;
+                anchorLon = fix.longitude;
+                anchorMs = nowMs;
+                setPhase(ShiftPhase.DRIVING, nowMs);
+            } else if (nowMs - anchorMs >= PARKED_AFTER_MS) {
+                setPhase(ShiftPhase.PARKED, nowMs);
+            }
+        }
+        update(nowMs);
+    }
+
+    /**
+     * No fix accepted for PARKED_AFTER_MS: the truck has not moved the request's minimum distance
+     */
+    public void onNoFix(long nowMs) {
+        synchronized (this) {
+            if (phase == ShiftPhase.DRIVING && nowMs - anchorMs >= PARKED_AFTER_MS) {
+                setPhase(ShiftPhase.PARKED, nowMs);
+            }
+        }
+        update(nowMs);
+    }
+
+    /**
+     * Several fixes were delivered by one callback (hardware batching)
+     */
+    public synchronized void onBatchDelivered(int size) {
+        batches++;
+        batchedFixes += size;
+    }
+
+    private void update(long nowMs) {
+        Profile changed = null;
+        Listener target;
+        synchronized (this) {
+            Profile selected = select();
+            if (selected != profile) {
+                closeSegment(nowMs);
+                profile = selected;
+                profileChanges++;
+                changed = selected;
+            }
+            target = listener;
+        }
+        // Notify outside the lock
+        if (changed != null && target != null) {
+            target.onProfileChanged(changed);
+        }
+    }
+
+    private Profile select() {
+        if (charging) {
+            return DEFAULT_PROFILE;
+        }
+        if (batteryPct <= CRITICAL_BATTERY_PCT || powerSave) {
+            return SAVER;
+        }
+        if (phase == ShiftPhase.ACQUIRING) {
+            return DEFAULT_PROFILE; // Do not delay the first fix
+        }
+        if (batteryPct <= LOW_BATTERY_PCT) {
+            return LOW_BATTERY;
+        }
+        return DEFAULT_PROFILE;
+    }
+
+    private void setPhase(ShiftPhase next, long nowMs) {
+        if (phase == next) {
+            return;
+        }
+        if (phase == ShiftPhase.PARKED && tracking) {
+            parkedMs += Math.max(0, nowMs - parkedSinceMs);
+        }
+        if (next == ShiftPhase.PARKED) {
+            parkedSinceMs = nowMs;
+        }
+        phase = next;
+    }
+
+    private void closeSegment(long nowMs) {
+        if (tracking) {
+            long duration = Math.max(0, nowMs - segmentStartMs);
+            if (profile.useGps) {
+                gpsOnMs += duration;
+            }
+            estimatedWakeups += (double) duration / profile.wakeupPeriodMs();
+            Long total = profileMs.get(profile.name);
+            profileMs.put(profile.name, (total == null ? 0 : total) + duration);
+        }
+        segmentStartMs = nowMs;
+    }
+
+    /**
+     * Export the energy estimates for the end-of-shift report
+     */
+    public synchronized JSONObject toJson(long nowMs) throws JSONException {
+        closeSegment(nowMs);
+        JSONObject json = new JSONObject();
+        json.put("profile", profile.name);
+        json.put("profile_changes", profileChanges);
+        json.put("parked_min", getParkedMs(nowMs) / 60000);
+        json.put("gps_on_min", gpsOnMs / 60000);
+        json.put("estimated_wakeups", Math.round(estimatedWakeups));
+        json.put("batches", batches);
+        json.put("batched_fixes", batchedFixes);
+        JSONObject perProfile = new JSONObject();
+        for (Map.Entry<String, Long> entry : profileMs.entrySet()) {
+            perProfile.put(entry.getKey(), entry.getValue() / 60000);
+        }
+        json.put("profile_min", perProfile);
+        return json;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.glnc.location;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Active single-shot acquisition of a fresh fix with a deadline
+ * Requests single updates from GPS and network in parallel (getCurrentLocation on API 30+,
+ * requestSingleUpdate below), re-requesting GPS until a fix meets the accuracy target or
+ * the deadline expires. The callback then receives the most accurate non-mock fix obtained
+ * All callbacks run on the main thread
+ */
+public class FreshFixRequest {
+
+    public interface Callback {
+        /**
+         * @param fix The most accurate fix obtained, or null if none before the deadline
+         * @param metTarget true if the fix meets the accuracy target
+         */
+        void onFreshFix(LocationSnapshot fix, boolean metTarget);
+    }
+
+    private static final long RETRY_DELAY_MS = 1000; // Pause between two GPS single updates
+
+    private final Context context;
+    private final MockRuleEngine mockRuleEngine;
+    private final long deadlineMs;
+    private final float targetAccuracyM;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<CancellationSignal> signals = new ArrayList<>();
+    private final List<LocationListener> listeners = new ArrayList<>();
+    private LocationManager locationManager;
+    private Callback callback;
+    private LocationSnapshot best;
+    private boolean finished = false;
+
+    /**
+     * @param deadlineMs Maximum time to wait for a fix
+     * @param targetAccuracyM Stop as soon as a fix is at least this accurate
+     */
+    public FreshFixRequest(Context context, MockRuleEngine mockRuleEngine, long deadlineMs, float targetAccuracyM) {
+        this.context = context.getApplicationContext();
+        this.mockRuleEngine = mockRuleEngine;
+        this.deadlineMs = deadlineMs;
+        this.targetAccuracyM = targetAccuracyM;
+    }
+
+    /**
+     * Start acquiring; must be called on the main thread and only once
+     */
+    public void start(Callback callback) {
+        this.callback = callback;
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
+                && ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.w("FreshFixRequest", "No location permissions granted");
+            finish(false);
+            return;
+        }
+
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        boolean requested = false;
+        for (String provider : new String[]{LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER}) {
+            if (locationManager != null && locationManager.isProviderEnabled(provider)) {
+                requestSingle(provider);
+                requested = true;
+            }
+        }
+        if (!requested) {
+            Log.w("FreshFixRequest", "No location provider enabled");
+            finish(false);
+            return;
+        }
+        handler.postDelayed(() -> finish(false), deadlineMs);
+        Log.d("FreshFixRequest", "Fresh fix requested (deadline " + deadlineMs + "ms, target " + targetAccuracyM + "m)");
+    }
+
+    /**
+     * Stop acquiring without calling the callback (e.g. activity destroyed)
+     */
+    public void cancel() {
+        finished = true;
+        release();
+    }
+
+    @SuppressWarnings("MissingPermission") // Checked in start()
+    private void requestSingle(String provider) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                CancellationSignal signal = new CancellationSignal();
+                signals.add(signal);
+                locationManager.getCurrentLocation(provider, signal, ContextCompat.getMainExecutor(context),
+                    location -> onResult(provider, location));
+            } else {
+                LocationListener listener = new LocationListener() {
+                    @Override
+                    public void onLocationChanged(android.location.Location location) {
+                        listeners.remove(this);
+                        onResult(provider, location);
+                    }
+
+                    @Override
+                    public void onStatusChanged(String provider, int status, Bundle extras) {
+                    }
+
+                    @Override
+                    public void onProviderEnabled(String provider) {
+                    }
+
+                    @Override
+                    public void onProviderDisabled(String provider) {
+                    }
+                };
+                listeners.add(listener);
+                locationManager.requestSingleUpdate(provider, listener, Looper.getMainLooper());
+            }
+        } catch (Exception e) {
+            Log.w("FreshFixRequest", "Could not request single update from " + provider, e);
+        }
+    }
+
+    private void onResult(String provider, android.location.Location location) {
+        if (finished) {
+            return;
+        }
+        if (location != null) {
+            LocationSnapshot fix = LocationSnapshot.from(location);
+            MockVerdict verdict = mockRuleEngine.evaluate(fix);
+            if (verdict.isMock) {
+                Log.e("FreshFixRequest", "REJECTED (" + verdict.ruleName + "): " + verdict.reason + " - " + fix);
+            } else if (isBetter(fix)) {
+                best = fix;
+                if (fix.hasAccuracy() && fix.accuracy <= targetAccuracyM) {
+                    finish(true);
+                    return;
+                }
+            }
+        }
+        // GPS keeps improving as it tracks more satellites: ask again until the deadline
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            handler.postDelayed(() -> {
+                if (!finished) {
+                    requestSingle(provider);
+                }
+            }, RETRY_DELAY_MS);
+        }
+    }
+
+    private boolean isBetter(LocationSnapshot fix) {
+        if (best == null) {
+            return true;
+        }
+        return fix.hasAccuracy() && (!best.hasAccuracy() || fix.accuracy < best.accuracy);
+    }
+
+    private void finish(boolean metTarget) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        release();
+        Log.d("FreshFixRequest", "Fresh fix result: " + (best != null ? best : "none") + (metTarget ? "" : " (target not met)"));
+        if (callback != null) {
+            callback.onFreshFix(best, metTarget);
+        }
+    }
+
+    private void release() {
+        handler.removeCallbacksAndMessages(null);
+        for (CancellationSignal signal : signals) {
+            signal.cancel();
+        }
+        signals.clear();
+        if (locationManager != null) {
+            for (LocationListener listener : listeners) {
+                locationManager.removeUpdates(listener);
+            }
+        }
+        listeners.clear();
+    }
+}
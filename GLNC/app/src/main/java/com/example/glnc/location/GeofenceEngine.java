@@ -0,0 +1,319 @@
+package com.example.glnc.location;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * On-device geofence engine for automatic arrival detection at delivery stops
+ * Stops are bucketed in a uniform lat/lon grid whose cell size is at least the exit radius,
+ * so each accepted fix only inspects the 3x3 cells around it plus the stops it is currently inside.
+ * Evaluation cost per fix therefore stays constant as the number of stops grows.
+ *
+ * Hysteresis:
+ * - ENTER when the fix is within the enter radius
+ * - DWELL once the driver stayed inside for the dwell time (arrival confirmed), on a fix or
+ *   from checkDwell when no fix arrives while parked
+ * - EXIT only when the fix is beyond the larger exit radius
+ */
+public class GeofenceEngine {
+
+    public enum Transition { ENTER, DWELL, EXIT }
+
+    /**
+     * Immutable geofence transition event
+     */
+    public static final class Event {
+        public final String stopId;
+        public final Transition transition;
+        public final long timeMs;     // Fix time that triggered the transition
+        public final long enteredAtMs; // Fix time of the ENTER transition (arrival time)
+
+        Event(String stopId, Transition transition, long timeMs, long enteredAtMs) {
+            this.stopId = stopId;
+            this.transition = transition;
+            this.timeMs = timeMs;
+            this.enteredAtMs = enteredAtMs;
+        }
+    }
+
+    public interface Listener {
+        void onGeofenceEvent(Event event);
+    }
+
+    public static final double DEFAULT_ENTER_RADIUS_M = 100.0;
+    public static final double DEFAULT_EXIT_RADIUS_M = 150.0; // Larger than enter radius to avoid flapping
+    public static final long DEFAULT_DWELL_MS = 2 * 60 * 1000; // 2 minutes inside = arrived
+    public static final float MAX_ACCURACY_M = 150.0f; // Fixes less accurate than this are ignored
+
+    private static final double METERS_PER_DEGREE = 111320.0;
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    private static final byte STATE_OUTSIDE = 0;
+    private static final byte STATE_INSIDE = 1;
+    private static final byte STATE_DWELLING = 2;
+
+    private final double enterRadiusM;
+    private final double exitRadiusM;
+    private final long dwellMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Stops stored as primitive arrays (index = stop slot)
+    private String[] stopIds = new String[0];
+    private double[] stopLats = new double[0];
+    private double[] stopLons = new double[0];
+    private byte[] states = new byte[0];
+    private long[] enteredAt = new long[0];
+
+    // Grid index: cell key -> stop slots in that cell
+    private final HashMap<Long, int[]> grid = new HashMap<>();
+    private double cellLatDeg = 1.0;
+    private double cellLonDeg = 1.0;
+
+    // Stops currently inside (small set, checked on every fix for EXIT)
+    private final ArrayList<Integer> activeSlots = new ArrayList<>();
+
+    public GeofenceEngine() {
+        this(DEFAULT_ENTER_RADIUS_M, DEFAULT_EXIT_RADIUS_M, DEFAULT_DWELL_MS);
+    }
+
+    public GeofenceEngine(double enterRadiusM, double exitRadiusM, long dwellMs) {
+        if (exitRadiusM < enterRadiusM) {
+            throw new IllegalArgumentException("Exit radius must be >= enter radius");
+        }
+        this.enterRadiusM = enterRadiusM;
+        this.exitRadiusM = exitRadiusM;
+        this.dwellMs = dwellMs;
+    }
+
+    public void addListener(Listener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replace the monitored stops
+     * State of stops that are still present (same id) is preserved, so refreshing the
+     * delivery list does not re-trigger ENTER for a stop the driver is already at
+     * @param ids Stop identifiers (delivery IDs)
+     * @param lats Stop latitudes
+     * @param lons Stop longitudes
+     */
+    public synchronized void setStops(String[] ids, double[] lats, double[] lons) {
+        int count = ids.length;
+        if (lats.length != count || lons.length != count) {
+            throw new IllegalArgumentException("ids, lats and lons must have the same length");
+        }
+
+        // Keep state of stops that survive the update
+        HashMap<String, Integer> previous = new HashMap<>();
+        for (int i = 0; i < stopIds.length; i++) {
+            previous.put(stopIds[i], i);
+        }
+
+        byte[] newStates = new byte[count];
+        long[] newEnteredAt = new long[count];
+        activeSlots.clear();
+        double minCos = 1.0;
+        for (int i = 0; i < count; i++) {
+            Integer old = previous.get(ids[i]);
+            if (old != null && stopLats[old] == lats[i] && stopLons[old] == lons[i]) {
+                newStates[i] = states[old];
+                newEnteredAt[i] = enteredAt[old];
+                if (newStates[i] != STATE_OUTSIDE) {
+                    activeSlots.add(i);
+                }
+            }
+            minCos = Math.min(minCos, Math.cos(Math.toRadians(lats[i])));
+        }
+
+        stopIds = ids.clone();
+        stopLats = lats.clone();
+        stopLons = lons.clone();
+        states = newStates;
+        enteredAt = newEnteredAt;
+
+        // Cell size >= exit radius, so any stop within exit radius is in the 3x3 neighbourhood
+        cellLatDeg = exitRadiusM / METERS_PER_DEGREE;
+        cellLonDeg = exitRadiusM / (METERS_PER_DEGREE * Math.max(minCos, 0.01));
+
+        grid.clear();
+        HashMap<Long, ArrayList<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            long key = cellKey(cellRow(stopLats[i]), cellCol(stopLons[i]));
+            ArrayList<Integer> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                buckets.put(key, bucket);
+            }
+            bucket.add(i);
+        }
+        for (Map.Entry<Long, ArrayList<Integer>> entry : buckets.entrySet()) {
+            ArrayList<Integer> bucket = entry.getValue();
+            int[] slots = new int[bucket.size()];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = bucket.get(i);
+            }
+            grid.put(entry.getKey(), slots);
+        }
+
+        Log.d("GeofenceEngine", "Monitoring " + count + " stops in " + grid.size() + " grid cells");
+    }
+
+    /**
+     * Remove all monitored stops
+     */
+    public synchronized void clear() {
+        setStops(new String[0], new double[0], new double[0]);
+    }
+
+    public synchronized int getStopCount() {
+        return stopIds.length;
+    }
+
+    /**
+     * Evaluate an accepted fix against the monitored stops
+     * @param latitude Fix latitude
+     * @param longitude Fix longitude
+     * @param accuracy Fix accuracy in meters (negative if unknown)
+     * @param timeMs Fix time (wall clock, ms)
+     */
+    public void onLocation(double latitude, double longitude, float accuracy, long timeMs) {
+        if (accuracy > MAX_ACCURACY_M) {
+            return; // Too inaccurate to decide anything
+        }
+
+        ArrayList<Event> events = null;
+        synchronized (this) {
+            if (stopIds.length == 0) {
+                return;
+            }
+
+            // Step 1: ENTER - only stops in the 3x3 neighbourhood can be within the enter radius
+            long row = cellRow(latitude);
+            long col = cellCol(longitude);
+            for (long r = row - 1; r <= row + 1; r++) {
+                for (long c = col - 1; c <= col + 1; c++) {
+                    int[] slots = grid.get(cellKey(r, c));
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (int slot : slots) {
+                        if (states[slot] == STATE_OUTSIDE
+                                && distanceMeters(latitude, longitude, stopLats[slot], stopLons[slot]) <= enterRadiusM) {
+                            states[slot] = STATE_INSIDE;
+                            enteredAt[slot] = timeMs;
+                            activeSlots.add(slot);
+                            events = addEvent(events, new Event(stopIds[slot], Transition.ENTER, timeMs, timeMs));
+                        }
+                    }
+                }
+            }
+
+            // Step 2: DWELL / EXIT for stops the driver is currently inside
+            for (int i = activeSlots.size() - 1; i >= 0; i--) {
+                int slot = activeSlots.get(i);
+                double distance = distanceMeters(latitude, longitude, stopLats[slot], stopLons[slot]);
+                if (distance > exitRadiusM) {
+                    states[slot] = STATE_OUTSIDE;
+                    activeSlots.remove(i);
+                    events = addEvent(events, new Event(stopIds[slot], Transition.EXIT, timeMs, enteredAt[slot]));
+                } else if (states[slot] == STATE_INSIDE && timeMs - enteredAt[slot] >= dwellMs) {
+                    states[slot] = STATE_DWELLING;
+                    events = addEvent(events, new Event(stopIds[slot], Transition.DWELL, timeMs, enteredAt[slot]));
+                }
+            }
+        }
+
+        // Notify outside the lock
+        notifyListeners(events);
+    }
+
+    /**
+     * Confirm DWELL for stops entered at least the dwell time ago, without a new fix
+     * The default energy profile delivers no fixes while the truck is parked, so the pipeline
+     * calls this from a timer instead of waiting for the fix that comes when the truck leaves
+     * @param timeMs Current time on the fix clock (wall clock, ms)
+     */
+    public void checkDwell(long timeMs) {
+        ArrayList<Event> events = null;
+        synchronized (this) {
+            for (int slot : activeSlots) {
+                if (states[slot] == STATE_INSIDE && timeMs - enteredAt[slot] >= dwellMs) {
+                    states[slot] = STATE_DWELLING;
+                    events = addEvent(events, new Event(stopIds[slot], Transition.DWELL, timeMs, enteredAt[slot]));
+                }
+            }
+        }
+        notifyListeners(events);
+    }
+
+    /**
+     * @return Fix time (wall clock, ms) at which the next DWELL is due, or -1 if no stop waits for one
+     */
+    public synchronized long getNextDwellTimeMs() {
+        long next = -1;
+        for (int slot : activeSlots) {
+            if (states[slot] == STATE_INSIDE) {
+                long due = enteredAt[slot] + dwellMs;
+                if (next < 0 || due < next) {
+                    next = due;
+                }
+            }
+        }
+        return next;
+    }
+
+    private void notifyListeners(ArrayList<Event> events) {
+        if (events == null) {
+            return;
+        }
+        for (Event event : events) {
+            Log.d("GeofenceEngine", event.transition + " stop " + event.stopId);
+            for (Listener listener : listeners) {
+                listener.onGeofenceEvent(event);
+            }
+        }
+    }
+
+    private static ArrayList<Event> addEvent(ArrayList<Event> events, Event event) {
+        if (events == null) {
+            events = new ArrayList<>(2);
+        }
+        events.add(event);
+        return events;
+    }
+
+    private long cellRow(double latitude) {
+        return (long) Math.floor(latitude / cellLatDeg);
+    }
+
+    private long cellCol(double longitude) {
+        return (long) Math.floor(longitude / cellLonDeg);
+    }
+
+    private static long cellKey(long row, long col) {
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+
+    /**
+     * Great-circle distance (haversine) in meters
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
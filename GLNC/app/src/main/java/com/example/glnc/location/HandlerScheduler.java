@@ -0,0 +1,39 @@
+package com.example.glnc.location;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Scheduler backed by a Handler and the device clocks
+ */
+public class HandlerScheduler implements Scheduler {
+    private final Handler handler;
+
+    public HandlerScheduler(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    @Override
+    public long elapsedRealtimeMs() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Object postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+        return task;
+    }
+
+    @Override
+    public void cancel(Object token) {
+        if (token != null) {
+            handler.removeCallbacks((Runnable) token);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.glnc.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Last accepted fix, persisted in a small fixed-layout binary file
+ * Loaded once per process (GlncApplication) and then served from memory, so warm-start
+ * consumers never parse GLNC_Prefs XML on the main thread. Unlike the preference floats,
+ * coordinates keep double precision, and accuracy, provider and monotonic time are kept
+ *
+ * File layout (big endian, RECORD_SIZE bytes):
+ *   int magic, int version, double latitude, double longitude, double altitude,
+ *   float accuracy, long timeMs, long elapsedRealtimeNanos, byte provider, byte mock
+ */
+public class LastFixStore {
+    static final String FILE_NAME = "last_fix.bin";
+    static final int MAGIC = 0x474C4E43; // "GLNC"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 8 + 8 + 1 + 1;
+
+    private static final String[] PROVIDERS = {null, "gps", "network", "passive", "fused"};
+
+    private static LastFixStore instance;
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private volatile LocationSnapshot lastFix;
+
+    LastFixStore(File file) {
+        this.file = file;
+        this.lastFix = read(file);
+    }
+
+    /**
+     * Get the process-wide store, loading the file on first call
+     * @param context Any context (the application context is kept)
+     * @return The shared store
+     */
+    public static synchronized LastFixStore get(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new LastFixStore(new File(appContext.getFilesDir(), FILE_NAME));
+            if (instance.lastFix == null) {
+                instance.importLegacyPrefs(appContext);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get the last accepted fix (memory only, never touches disk)
+     * @return The last fix, or null if none was ever stored
+     */
+    public LocationSnapshot getLastFix() {
+        return lastFix;
+    }
+
+    /**
+     * Replace the last fix; the file is written in the background
+     * @param fix The accepted fix
+     */
+    public void save(LocationSnapshot fix) {
+        lastFix = fix;
+        writer.execute(() -> write(file, fix));
+    }
+
+    /**
+     * Forget the last fix (e.g. when it turns out to be a mock location)
+     */
+    public void clear() {
+        lastFix = null;
+        writer.execute(() -> {
+            if (file.exists() && !file.delete()) {
+                Log.w("LastFixStore", "Could not delete " + file);
+            }
+        });
+    }
+
+    static byte[] encode(LocationSnapshot fix) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(fix.latitude);
+        buffer.putDouble(fix.longitude);
+        buffer.putDouble(fix.altitude);
+        buffer.putFloat(fix.accuracy);
+        buffer.putLong(fix.timeMs);
+        buffer.putLong(fix.elapsedRealtimeNanos);
+        buffer.put(providerCode(fix.provider));
+        buffer.put((byte) (fix.fromMockProvider ? 1 : 0));
+        return buffer.array();
+    }
+
+    /**
+     * @return The decoded fix, or null if the record is truncated or of another version
+     */
+    static LocationSnapshot decode(byte[] data, int length) {
+        if (length != RECORD_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        double latitude = buffer.getDouble();
+        double longitude = buffer.getDouble();
+        double altitude = buffer.getDouble();
+        float accuracy = buffer.getFloat();
+        long timeMs = buffer.getLong();
+        long elapsedRealtimeNanos = buffer.getLong();
+        byte provider = buffer.get();
+        boolean mock = buffer.get() != 0;
+        return new LocationSnapshot(latitude, longitude, altitude, accuracy, 0.0f, 0.0f,
+            provider >= 0 && provider < PROVIDERS.length ? PROVIDERS[provider] : null,
+            timeMs, elapsedRealtimeNanos, mock);
+    }
+
+    private static byte providerCode(String provider) {
+        for (int i = 1; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(provider)) {
+                return (byte) i;
+            }
+        }
+        return 0;
+    }
+
+    private static LocationSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = new byte[RECORD_SIZE + 1]; // One extra byte detects oversized files
+        try (FileInputStream in = new FileInputStream(file)) {
+            int length = 0;
+            int read;
+            while (length < data.length && (read = in.read(data, length, data.length - length)) != -1) {
+                length += read;
+            }
+            LocationSnapshot fix = decode(data, length);
+            if (fix == null) {
+                Log.w("LastFixStore", "Ignoring invalid last fix file (" + length + " bytes)");
+            }
+            return fix;
+        } catch (IOException e) {
+            Log.e("LastFixStore", "Error reading last fix", e);
+            return null;
+        }
+    }
+
+    private static void write(File file, LocationSnapshot fix) {
+        // Write to a temporary file then rename, so a crash never leaves a torn record
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(encode(fix));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e("LastFixStore", "Error writing last fix", e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e("LastFixStore", "Could not replace " + file);
+        }
+    }
+
+    /**
+     * One-time migration of the location previously stored as GLNC_Prefs floats
+     */
+    private void importLegacyPrefs(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        if (!prefs.contains("latitude") || !prefs.contains("longitude")) {
+            return;
+        }
+        float latitude = prefs.getFloat("latitude", 0.0f);
+        float longitude = prefs.getFloat("longitude", 0.0f);
+        if (latitude == 0.0f && longitude == 0.0f) {
+            return;
+        }
+        LocationSnapshot fix = new LocationSnapshot(
+            latitude,
+            longitude,
+            prefs.getFloat("altitude", 0.0f),
+            prefs.getFloat("location_accuracy", -1.0f),
+            0.0f, 0.0f, null,
+            prefs.getLong("location_timestamp", 0),
+            0, false);
+        save(fix);
+        prefs.edit()
+            .remove("latitude")
+            .remove("longitude")
+            .remove("altitude")
+            .remove("location_timestamp")
+            .remove("location_accuracy")
+            .apply();
+        Log.d("LastFixStore", "Imported last location from SharedPreferences: " + fix);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.glnc.location;
+
+/**
+ * Per-fix arbitration between concurrent providers (GPS + network)
+ * Each fix gets an error score in meters:
+ *   score = accuracy / providerTrust + age * AGE_PENALTY_M_PER_S
+ * A candidate replaces the current best fix when its score is lower or equal, so a fresh
+ * network fix wins over a stale GPS fix indoors, and a fresh GPS fix wins back outdoors
+ * Ages are computed from elapsedRealtimeNanos (monotonic) of the fixes
+ */
+public class LocationFusion {
+    public static final float GPS_TRUST = 1.0f;
+    public static final float NETWORK_TRUST = 0.7f;  // Network accuracy estimates are optimistic
+    public static final float OTHER_TRUST = 0.5f;    // Passive/unknown providers
+    public static final float UNKNOWN_ACCURACY_M = 500.0f;
+    public static final double AGE_PENALTY_M_PER_S = 5.0; // Roughly urban driving speed: stale fixes drift
+    public static final long MAX_BACKWARDS_NS = 2L * 60 * 1000000000L; // Never go back to fixes older than 2 min
+
+    private LocationSnapshot best;
+
+    /**
+     * Decide whether the candidate fix should be accepted
+     * @param candidate The fix received from any provider
+     * @return true if the candidate is now the best fix
+     */
+    public synchronized boolean accept(LocationSnapshot candidate) {
+        if (best == null) {
+            best = candidate;
+            return true;
+        }
+
+        long deltaNs = candidate.elapsedRealtimeNanos - best.elapsedRealtimeNanos;
+        if (deltaNs < -MAX_BACKWARDS_NS) {
+            return false; // Out-of-order old fix (e.g. cached location)
+        }
+
+        // Compare both fixes at the time of the newest one
+        long nowNs = Math.max(candidate.elapsedRealtimeNanos, best.elapsedRealtimeNanos);
+        if (score(candidate, nowNs) <= score(best, nowNs)) {
+            best = candidate;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget the current best fix (e.g. when tracking restarts)
+     */
+    public synchronized void reset() {
+        best = null;
+    }
+
+    public synchronized LocationSnapshot getBest() {
+        return best;
+    }
+
+    /**
+     * Error score in meters (lower is better)
+     */
+    static double score(LocationSnapshot fix, long nowNs) {
+        float accuracy = fix.hasAccuracy() ? fix.accuracy : UNKNOWN_ACCURACY_M;
+        double ageS = Math.max(0, nowNs - fix.elapsedRealtimeNanos) / 1e9;
+        return accuracy / trust(fix.provider) + ageS * AGE_PENALTY_M_PER_S;
+    }
+
+    static float trust(String provider) {
+        if ("gps".equals(provider)) {
+            return GPS_TRUST;
+        }
+        if ("network".equals(provider)) {
+            return NETWORK_TRUST;
+        }
+        return OTHER_TRUST;
+    }
+}
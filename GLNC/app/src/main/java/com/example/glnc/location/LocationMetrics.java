@@ -0,0 +1,251 @@
+package com.example.glnc.location;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Location health instrumentation for one driver shift
+ * - TTFF: time from initLocation to the first fresh (non cached) accepted fix
+ * - Accuracy distribution of accepted fixes, fixes per provider
+ * - GPS timeouts, provider switches and mock rejections per rule
+ * - Time spent per provider state (GPS / NETWORK / PROBING) and GPS probes
+ * - Satellites visible/used and mean C/N0 from GnssStatus callbacks (sampled around the first fix)
+ * - Processing time per fix, split by main thread / worker thread
+ * All times are monotonic (SystemClock.elapsedRealtime) milliseconds
+ */
+public class LocationMetrics {
+    static final long[] TTFF_BOUNDS_MS = {2000, 5000, 10000, 20000, 30000, 60000, 120000};
+    static final long[] ACCURACY_BOUNDS_M = {5, 10, 20, 50, 100, 500};
+
+    /**
+     * Fixed-bucket histogram; bucket i counts values <= bounds[i], the last bucket the rest
+     */
+    static final class Histogram {
+        private final long[] bounds;
+        private final int[] counts;
+        private int total;
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new int[bounds.length + 1];
+        }
+
+        void add(double value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            counts[i]++;
+            total++;
+        }
+
+        int getTotal() {
+            return total;
+        }
+
+        JSONArray toJson() throws JSONException {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < counts.length; i++) {
+                JSONObject bucket = new JSONObject();
+                if (i < bounds.length) {
+                    bucket.put("le", bounds[i]);
+                } else {
+                    bucket.put("le", "inf");
+                }
+                bucket.put("count", counts[i]);
+                array.put(bucket);
+            }
+            return array;
+        }
+    }
+
+    private final Histogram ttff = new Histogram(TTFF_BOUNDS_MS);
+    private final Histogram accuracy = new Histogram(ACCURACY_BOUNDS_M);
+    private final Histogram gnssTtff = new Histogram(TTFF_BOUNDS_MS);
+    private final Map<String, Integer> fixesPerProvider = new HashMap<>();
+    private final Map<String, Integer> mockRejections = new HashMap<>();
+    private final Map<String, Integer> providerSwitches = new HashMap<>(); // "gps->network" -> count
+    private final Map<String, Long> providerStateMs = new HashMap<>();
+    private int gpsProbes = 0;
+    private long sessionStartMs = -1; // Waiting for the first fresh fix since this time
+    private int sessions = 0;
+    private int cachedStarts = 0;
+    private int unknownAccuracy = 0;
+    private int gpsTimeouts = 0;
+    private int satelliteSamples = 0;
+    private long satellitesVisibleSum = 0;
+    private long satellitesUsedSum = 0;
+    private int satellitesUsedMax = 0;
+    private double cn0Sum = 0;
+    private int cn0Samples = 0;
+    private int mainThreadFixes = 0;
+    private long mainThreadNs = 0;
+    private int workerFixes = 0;
+    private long workerNs = 0;
+
+    /**
+     * Location updates were requested (initLocation)
+     */
+    public synchronized void onTrackingStarted(long nowMs) {
+        sessionStartMs = nowMs;
+        sessions++;
+    }
+
+    /**
+     * A fix was accepted
+     * @param cached true if it came from getLastKnownLocation (does not end the TTFF wait)
+     */
+    public synchronized void onFix(LocationSnapshot fix, boolean cached, long nowMs) {
+        if (cached) {
+            cachedStarts++;
+        } else if (sessionStartMs >= 0) {
+            ttff.add(nowMs - sessionStartMs);
+            sessionStartMs = -1;
+        }
+        if (fix.hasAccuracy()) {
+            accuracy.add(fix.accuracy);
+        } else {
+            unknownAccuracy++;
+        }
+        increment(fixesPerProvider, fix.provider != null ? fix.provider : "unknown");
+    }
+
+    public synchronized void onGpsTimeout() {
+        gpsTimeouts++;
+    }
+
+    public synchronized void onProviderSwitch(String from, String to) {
+        increment(providerSwitches, from + "->" + to);
+    }
+
+    /**
+     * Time spent in a provider state (ProviderStateMachine), reported when the state is left
+     */
+    public synchronized void onProviderStateTime(String state, long durationMs) {
+        Long total = providerStateMs.get(state);
+        providerStateMs.put(state, (total == null ? 0 : total) + durationMs);
+    }
+
+    public synchronized void onGpsProbe() {
+        gpsProbes++;
+    }
+
+    public synchronized long getProviderStateMs(String state) {
+        Long total = providerStateMs.get(state);
+        return total == null ? 0 : total;
+    }
+
+    public synchronized void onMockRejected(String ruleName) {
+        increment(mockRejections, ruleName);
+    }
+
+    /**
+     * Time to first fix reported by the GNSS chip (GnssStatus.Callback.onFirstFix)
+     */
+    public synchronized void onGnssFirstFix(int ttffMs) {
+        gnssTtff.add(ttffMs);
+    }
+
+    /**
+     * Satellite status sample (GnssStatus.Callback.onSatelliteStatusChanged)
+     * @param meanCn0DbHz Mean carrier-to-noise density of used satellites, NaN if none
+     */
+    public synchronized void onSatelliteStatus(int visible, int usedInFix, double meanCn0DbHz) {
+        satelliteSamples++;
+        satellitesVisibleSum += visible;
+        satellitesUsedSum += usedInFix;
+        satellitesUsedMax = Math.max(satellitesUsedMax, usedInFix);
+        if (!Double.isNaN(meanCn0DbHz)) {
+            cn0Sum += meanCn0DbHz;
+            cn0Samples++;
+        }
+    }
+
+    /**
+     * Time spent handling one received fix (pipeline, publishing, persistence)
+     * @param onMainThread true if it ran on the UI thread
+     */
+    public synchronized void onFixProcessed(long durationNs, boolean onMainThread) {
+        if (onMainThread) {
+            mainThreadFixes++;
+            mainThreadNs += durationNs;
+        } else {
+            workerFixes++;
+            workerNs += durationNs;
+        }
+    }
+
+    public synchronized long getMainThreadNs() {
+        return mainThreadNs;
+    }
+
+    public synchronized int getTtffCount() {
+        return ttff.getTotal();
+    }
+
+    public synchronized int getGpsTimeouts() {
+        return gpsTimeouts;
+    }
+
+    public synchronized int getMockRejections() {
+        int total = 0;
+        for (int count : mockRejections.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Export the metrics for the end-of-shift report
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("sessions", sessions);
+        json.put("cached_starts", cachedStarts);
+        json.put("ttff_ms", ttff.toJson());
+        json.put("gnss_ttff_ms", gnssTtff.toJson());
+        json.put("accuracy_m", accuracy.toJson());
+        json.put("accuracy_unknown", unknownAccuracy);
+        json.put("fixes_per_provider", new JSONObject(fixesPerProvider));
+        json.put("gps_timeouts", gpsTimeouts);
+        json.put("provider_switches", new JSONObject(providerSwitches));
+        JSONObject stateSeconds = new JSONObject();
+        for (Map.Entry<String, Long> entry : providerStateMs.entrySet()) {
+            stateSeconds.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue() / 1000);
+        }
+        json.put("provider_state_s", stateSeconds);
+        json.put("gps_probes", gpsProbes);
+        json.put("mock_rejections", new JSONObject(mockRejections));
+
+        JSONObject satellites = new JSONObject();
+        satellites.put("samples", satelliteSamples);
+        if (satelliteSamples > 0) {
+            satellites.put("visible_mean", (double) satellitesVisibleSum / satelliteSamples);
+            satellites.put("used_mean", (double) satellitesUsedSum / satelliteSamples);
+            satellites.put("used_max", satellitesUsedMax);
+        }
+        if (cn0Samples > 0) {
+            satellites.put("cn0_mean_dbhz", cn0Sum / cn0Samples);
+        }
+        json.put("satellites", satellites);
+
+        JSONObject processing = new JSONObject();
+        processing.put("main_thread_fixes", mainThreadFixes);
+        processing.put("main_thread_ms_total", mainThreadNs / 1e6);
+        processing.put("main_thread_ms_per_fix", mainThreadFixes > 0 ? mainThreadNs / 1e6 / mainThreadFixes : 0.0);
+        processing.put("worker_fixes", workerFixes);
+        processing.put("worker_ms_per_fix", workerFixes > 0 ? workerNs / 1e6 / workerFixes : 0.0);
+        json.put("fix_processing", processing);
+        return json;
+    }
+}
@@ -0,0 +1,419 @@
+package com.example.glnc.location;
+
+import android.util.Log;
+
+/**
+ * Per-fix decision logic of the location tracker, independent of LocationManager
+ * - Mock detection (MockRuleEngine), with a switch to the network provider after
+ *   MAX_GPS_MOCK_REJECTIONS consecutive mock GPS fixes
+ * - GPS timeout: switch to network if no fix is accepted within GPS_TIMEOUT_MS
+ * - GPS re-promotion after a fallback to network (ProviderStateMachine probe windows), and
+ *   back to network if a promoted GPS stays silent for GPS_SILENCE_MS (driver went indoors) while
+ *   the truck is not parked, or if the GPS provider is disabled
+ * - Fusion arbitration when GPS and network are subscribed together
+ * - Shift statistics, metrics, geofence evaluation and trip analytics of accepted fixes
+ * - Dwell timer: geofence DWELL is confirmed while parked, when no fix arrives
+ * com.example.glnc.Location feeds it platform fixes; TraceReplaySource feeds it recorded
+ * traces on the JVM. Provider changes are requested through ProviderController
+ * Not thread-safe: all calls must come from the same thread (the pipeline looper)
+ */
+public class LocationPipeline {
+    public static final int MAX_GPS_MOCK_REJECTIONS = 3; // Switch to network after 3 rejections
+    public static final long GPS_TIMEOUT_MS = 30000;     // 30 seconds timeout for GPS
+    public static final long GPS_SILENCE_MS = 10 * 60 * 1000; // No GPS fix this long after a promotion = back to network
+    static final String GPS = "gps";
+    static final String NETWORK = "network";
+
+    /**
+     * Performs provider changes requested by the pipeline
+     */
+    public interface ProviderController {
+        /**
+         * GPS timed out or keeps returning mock fixes; subscribe to the network provider
+         * and call onSwitchedToNetwork() once done
+         */
+        void switchToNetwork();
+
+        /**
+         * Probe window: subscribe to GPS (fast interval) in addition to the network provider
+         */
+        void startGpsProbe();
+
+        /**
+         * Probe window over: back to the network provider only
+         */
+        void stopGpsProbe();
+
+        /**
+         * Probe succeeded: subscribe to GPS only, with the regular request
+         */
+        void switchToGps();
+    }
+
+    private final MockRuleEngine mockRuleEngine;
+    private final Scheduler scheduler;
+    private final GeofenceEngine geofenceEngine;
+    private final LocationFusion fusion = new LocationFusion();
+    private final ProviderStateMachine providerStates;
+    private ProviderController providerController;
+    private volatile ShiftTrackingStats trackingStats; // Set from the main thread
+    private volatile LocationMetrics metrics;
+    private volatile TripAnalytics tripAnalytics;
+    private volatile EnergyPolicy energyPolicy;
+
+    private String provider;
+    private boolean fusionActive = false;
+    private int gpsMockRejectionCount = 0;
+    private boolean hasSwitchedToNetwork = false;
+    private boolean hasValidLocation = false;
+    private boolean promotedToGps = false;
+    private Object timeoutToken;
+    private Object silenceToken;
+    private Object stillToken;
+    private Object dwellToken;
+    private long dwellFixTimeMs;    // Fix time of the last fix evaluated by the geofences
+    private long dwellFixElapsedMs; // Elapsed time when it was evaluated
+
+    public LocationPipeline(MockRuleEngine mockRuleEngine, Scheduler scheduler, GeofenceEngine geofenceEngine) {
+        this.mockRuleEngine = mockRuleEngine;
+        this.scheduler = scheduler;
+        this.geofenceEngine = geofenceEngine;
+        this.providerStates = new ProviderStateMachine(scheduler, new ProviderStateMachine.Actions() {
+            @Override
+            public void startGpsProbe() {
+                if (providerController != null) {
+                    providerController.startGpsProbe();
+                }
+            }
+
+            @Override
+            public void stopGpsProbe() {
+                if (providerController != null) {
+                    providerController.stopGpsProbe();
+                }
+            }
+
+            @Override
+            public void promoteToGps() {
+                onPromotedToGps();
+            }
+        });
+    }
+
+    public void setProviderController(ProviderController providerController) {
+        this.providerController = providerController;
+    }
+
+    public void setTrackingStats(ShiftTrackingStats trackingStats) {
+        this.trackingStats = trackingStats;
+    }
+
+    public void setMetrics(LocationMetrics metrics) {
+        this.metrics = metrics;
+        providerStates.setMetrics(metrics);
+    }
+
+    public void setTripAnalytics(TripAnalytics tripAnalytics) {
+        this.tripAnalytics = tripAnalytics;
+    }
+
+    public void setEnergyPolicy(EnergyPolicy energyPolicy) {
+        this.energyPolicy = energyPolicy;
+    }
+
+    /**
+     * Location updates were requested: reset the per-session state
+     * @param provider The primary provider
+     * @param fusionActive true if GPS and network are subscribed together
+     */
+    public void start(String provider, boolean fusionActive) {
+        cancelGpsTimeout();
+        cancelGpsWatchdog();
+        cancelStillTimer();
+        cancelDwellTimer();
+        this.provider = provider;
+        this.fusionActive = fusionActive;
+        gpsMockRejectionCount = 0;
+        hasSwitchedToNetwork = false;
+        hasValidLocation = false;
+        promotedToGps = false;
+        fusion.reset();
+        providerStates.reset(GPS.equals(provider));
+        if (metrics != null) {
+            metrics.onTrackingStarted(scheduler.elapsedRealtimeMs());
+        }
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null) {
+            energyPolicy.onTrackingStarted(scheduler.elapsedRealtimeMs());
+        }
+    }
+
+    /**
+     * Start the GPS timeout if still waiting for a first fix (call after cached fixes were delivered)
+     * Not needed in fusion mode: network fixes already arrive in parallel
+     */
+    public void startGpsTimeoutIfWaiting() {
+        if (!GPS.equals(provider) || hasValidLocation || hasSwitchedToNetwork || fusionActive) {
+            return;
+        }
+        cancelGpsTimeout();
+        timeoutToken = scheduler.postDelayed(this::onGpsTimeout, GPS_TIMEOUT_MS);
+        Log.d("LocationPipeline", "GPS timeout started: Will switch to network if no location received within " + (GPS_TIMEOUT_MS / 1000) + " seconds");
+    }
+
+    /**
+     * Location updates were removed
+     */
+    public void stop() {
+        cancelGpsTimeout();
+        cancelGpsWatchdog();
+        cancelStillTimer();
+        cancelDwellTimer();
+        providerStates.stop();
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null) {
+            energyPolicy.onTrackingStopped(scheduler.elapsedRealtimeMs());
+        }
+    }
+
+    /**
+     * The controller switched to the network provider
+     */
+    public void onSwitchedToNetwork() {
+        cancelGpsTimeout();
+        cancelGpsWatchdog();
+        promotedToGps = false;
+        if (metrics != null) {
+            metrics.onProviderSwitch(provider, NETWORK);
+        }
+        provider = NETWORK;
+        hasSwitchedToNetwork = true;
+        fusionActive = false; // Network only from now on
+        fusion.reset();
+        gpsMockRejectionCount = 0;
+        providerStates.onFallbackToNetwork(); // Schedules the first GPS probe
+    }
+
+    /**
+     * Check a received fix once against the mock rules, then accept it
+     * @param fix The received fix
+     * @param cached true for fixes from getLastKnownLocation (not a wakeup, no TTFF)
+     * @return true if the fix was accepted and should be published
+     */
+    public boolean onFix(LocationSnapshot fix, boolean cached) {
+        long nowMs = scheduler.elapsedRealtimeMs();
+        ShiftTrackingStats trackingStats = this.trackingStats;
+        LocationMetrics metrics = this.metrics;
+        if (!cached && trackingStats != null) {
+            trackingStats.onWakeup(nowMs);
+        }
+
+        MockVerdict verdict = mockRuleEngine.evaluate(fix, scheduler.currentTimeMillis());
+        boolean probeFix = providerStates.getState() == ProviderStateMachine.State.PROBING && GPS.equals(fix.provider);
+        if (verdict.isMock) {
+            Log.e("LocationPipeline", "REJECTED (" + verdict.ruleName + "): " + verdict.reason + " - " + fix);
+            if (metrics != null) {
+                metrics.onMockRejected(verdict.ruleName);
+            }
+            // If GPS is returning mock locations, count rejections and switch to network
+            String fixProvider = fusionActive ? fix.provider : provider;
+            if (GPS.equals(fixProvider) && !hasSwitchedToNetwork) {
+                gpsMockRejectionCount++;
+                Log.w("LocationPipeline", "GPS mock rejection count: " + gpsMockRejectionCount + "/" + MAX_GPS_MOCK_REJECTIONS);
+                if (gpsMockRejectionCount >= MAX_GPS_MOCK_REJECTIONS) {
+                    Log.w("LocationPipeline", "GPS consistently returning mock locations. Switching to NETWORK_PROVIDER...");
+                    requestNetwork();
+                }
+            }
+            if (probeFix) {
+                providerStates.onGpsFix(fix, true);
+            }
+            return false;
+        }
+
+        // Fusion mode: keep the fix only if it beats the current best one
+        if (fusionActive && !fusion.accept(fix)) {
+            Log.d("LocationPipeline", "Fusion: discarded " + fix.provider + " fix, current fix is better");
+            return false;
+        }
+
+        // Valid location received - cancel timeout and reset counters
+        cancelGpsTimeout();
+        hasValidLocation = true;
+        gpsMockRejectionCount = 0;
+        if (trackingStats != null) {
+            trackingStats.onFix(nowMs);
+        }
+        if (metrics != null) {
+            metrics.onFix(fix, cached, nowMs);
+        }
+        Log.d("LocationPipeline", "Location ACCEPTED: " + fix);
+        if (promotedToGps && GPS.equals(fix.provider)) {
+            armGpsWatchdog();
+        }
+        if (probeFix) {
+            providerStates.onGpsFix(fix, false);
+        }
+
+        // Evaluate delivery stop geofences (arrival detection)
+        if (geofenceEngine != null) {
+            geofenceEngine.onLocation(fix.latitude, fix.longitude, fix.accuracy, fix.timeMs);
+            dwellFixTimeMs = fix.timeMs;
+            dwellFixElapsedMs = nowMs;
+            armDwellTimer();
+        }
+        // After the geofences: stops are matched to the delivery entered on this fix
+        TripAnalytics tripAnalytics = this.tripAnalytics;
+        if (tripAnalytics != null) {
+            tripAnalytics.onFix(fix);
+        }
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null) {
+            energyPolicy.onFix(fix, nowMs);
+            cancelStillTimer();
+            stillToken = scheduler.postDelayed(this::onStill, EnergyPolicy.PARKED_AFTER_MS);
+        }
+        return true;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public boolean isFusionActive() {
+        return fusionActive;
+    }
+
+    public boolean hasSwitchedToNetwork() {
+        return hasSwitchedToNetwork;
+    }
+
+    public boolean hasValidLocation() {
+        return hasValidLocation;
+    }
+
+    public ProviderStateMachine.State getProviderState() {
+        return providerStates.getState();
+    }
+
+    private void onPromotedToGps() {
+        provider = GPS;
+        hasSwitchedToNetwork = false;
+        promotedToGps = true;
+        gpsMockRejectionCount = 0;
+        if (providerController != null) {
+            providerController.switchToGps();
+        }
+        armGpsWatchdog();
+    }
+
+    /**
+     * (Re)start the silence watchdog of a promoted GPS, on every accepted GPS fix
+     * Never shorter than two wakeups of the energy profile: batched fixes are not silence
+     */
+    private void armGpsWatchdog() {
+        cancelGpsWatchdog();
+        long delay = GPS_SILENCE_MS;
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null) {
+            delay = Math.max(delay, 2 * energyPolicy.getProfile().wakeupPeriodMs());
+        }
+        silenceToken = scheduler.postDelayed(this::onGpsSilence, delay);
+    }
+
+    private void onGpsSilence() {
+        silenceToken = null;
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null && energyPolicy.getPhase() == EnergyPolicy.ShiftPhase.PARKED) {
+            // The minimum distance suppresses fixes while parked: not a silent GPS.
+            // The next accepted fix (truck moving again) re-arms the watchdog
+            Log.d("LocationPipeline", "Promoted GPS silent while parked, keeping GPS");
+            return;
+        }
+        if (GPS.equals(provider) && !hasSwitchedToNetwork) {
+            Log.w("LocationPipeline", "Promoted GPS went silent, no fix received. Switching to NETWORK_PROVIDER...");
+            if (metrics != null) {
+                metrics.onGpsTimeout();
+            }
+            requestNetwork();
+        }
+    }
+
+    /**
+     * A provider was disabled (LocationListener.onProviderDisabled)
+     * A promoted GPS falls back to network right away instead of waiting for the watchdog,
+     * which does not run while parked
+     */
+    public void onProviderDisabled(String disabledProvider) {
+        if (GPS.equals(disabledProvider) && promotedToGps && GPS.equals(provider) && !hasSwitchedToNetwork) {
+            Log.w("LocationPipeline", "Promoted GPS disabled. Switching to NETWORK_PROVIDER...");
+            cancelGpsWatchdog();
+            requestNetwork();
+        }
+    }
+
+    private void onStill() {
+        stillToken = null;
+        EnergyPolicy energyPolicy = this.energyPolicy;
+        if (energyPolicy != null) {
+            energyPolicy.onNoFix(scheduler.elapsedRealtimeMs());
+        }
+    }
+
+    /**
+     * (Re)start the dwell timer for the next stop waiting for its DWELL
+     * Times are on the fix clock, advanced by the elapsed time since the last evaluated fix
+     */
+    private void armDwellTimer() {
+        cancelDwellTimer();
+        long dueMs = geofenceEngine.getNextDwellTimeMs();
+        if (dueMs < 0) {
+            return;
+        }
+        long nowFixMs = dwellFixTimeMs + scheduler.elapsedRealtimeMs() - dwellFixElapsedMs;
+        dwellToken = scheduler.postDelayed(this::onDwellTimer, dueMs - nowFixMs);
+    }
+
+    private void onDwellTimer() {
+        dwellToken = null;
+        geofenceEngine.checkDwell(dwellFixTimeMs + scheduler.elapsedRealtimeMs() - dwellFixElapsedMs);
+        armDwellTimer(); // Other stops entered later may still be waiting
+    }
+
+    private void onGpsTimeout() {
+        timeoutToken = null;
+        if (!hasValidLocation && GPS.equals(provider) && !hasSwitchedToNetwork) {
+            Log.w("LocationPipeline", "GPS timeout (" + (GPS_TIMEOUT_MS / 1000) + "s) - no location received. Switching to NETWORK_PROVIDER...");
+            if (metrics != null) {
+                metrics.onGpsTimeout();
+            }
+            requestNetwork();
+        }
+    }
+
+    private void requestNetwork() {
+        if (providerController != null) {
+            providerController.switchToNetwork();
+        }
+    }
+
+    private void cancelGpsTimeout() {
+        scheduler.cancel(timeoutToken);
+        timeoutToken = null;
+    }
+
+    private void cancelGpsWatchdog() {
+        scheduler.cancel(silenceToken);
+        silenceToken = null;
+    }
+
+    private void cancelStillTimer() {
+        scheduler.cancel(stillToken);
+        stillToken = null;
+    }
+
+    private void cancelDwellTimer() {
+        scheduler.cancel(dwellToken);
+        dwellToken = null;
+    }
+}
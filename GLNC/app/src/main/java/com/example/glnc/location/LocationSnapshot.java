@@ -0,0 +1,83 @@
+package com.example.glnc.location;
+
+/**
+ * Immutable snapshot of an accepted location fix
+ * Published by com.example.glnc.Location through LocationStream; safe to share across threads
+ */
+public final class LocationSnapshot {
+    public final double latitude;
+    public final double longitude;
+    public final double altitude;
+    public final float accuracy;        // Meters, -1 if unknown
+    public final float speed;           // Meters/second, 0 if unknown
+    public final float bearing;         // Degrees, 0 if unknown
+    public final String provider;
+    public final long timeMs;           // Wall clock time of the fix
+    public final long elapsedRealtimeNanos; // Monotonic time of the fix
+    public final boolean fromMockProvider;
+
+    public LocationSnapshot(double latitude, double longitude, double altitude, float accuracy,
+                            float speed, float bearing, String provider, long timeMs,
+                            long elapsedRealtimeNanos, boolean fromMockProvider) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+        this.provider = provider;
+        this.timeMs = timeMs;
+        this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+        this.fromMockProvider = fromMockProvider;
+    }
+
+    /**
+     * Copy an Android location into an immutable snapshot
+     * @param location The platform location (must not be null)
+     * @return The snapshot
+     */
+    public static LocationSnapshot from(android.location.Location location) {
+        boolean mock = false;
+        try {
+            mock = location.isFromMockProvider();
+        } catch (Exception e) {
+            // Not available on this device
+        }
+        return new LocationSnapshot(
+            location.getLatitude(),
+            location.getLongitude(),
+            location.getAltitude(),
+            location.hasAccuracy() ? location.getAccuracy() : -1.0f,
+            location.hasSpeed() ? location.getSpeed() : 0.0f,
+            location.hasBearing() ? location.getBearing() : 0.0f,
+            location.getProvider(),
+            location.getTime(),
+            location.getElapsedRealtimeNanos(),
+            mock
+        );
+    }
+
+    public boolean hasAccuracy() {
+        return accuracy >= 0.0f;
+    }
+
+    /**
+     * Age of the fix relative to the given wall clock time
+     */
+    public long ageMs(long nowMs) {
+        return nowMs - timeMs;
+    }
+
+    /**
+     * Distance in meters to another snapshot
+     */
+    public double distanceTo(LocationSnapshot other) {
+        return GeofenceEngine.distanceMeters(latitude, longitude, other.latitude, other.longitude);
+    }
+
+    @Override
+    public String toString() {
+        return latitude + ", " + longitude + " (provider: " + provider
+            + ", accuracy: " + (hasAccuracy() ? accuracy + "m" : "unknown") + ")";
+    }
+}
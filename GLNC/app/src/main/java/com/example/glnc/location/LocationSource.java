@@ -0,0 +1,20 @@
+package com.example.glnc.location;
+
+/**
+ * Source of raw location fixes feeding the location pipeline
+ * The platform LocationManager is the production source (see com.example.glnc.Location);
+ * TraceReplaySource replays recorded traces for tests and benchmarks
+ */
+public interface LocationSource {
+
+    interface Callback {
+        /**
+         * A raw fix was received (not yet checked for mock/fusion)
+         */
+        void onLocation(LocationSnapshot fix);
+    }
+
+    void start(Callback callback);
+
+    void stop();
+}
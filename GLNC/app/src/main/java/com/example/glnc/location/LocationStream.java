@@ -0,0 +1,73 @@
+package com.example.glnc.location;
+
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+
+/**
+ * Push-based stream of accepted location fixes
+ * Lifecycle-aware (LiveData): observers only wake up when a new fix is published,
+ * and stop receiving updates when their lifecycle owner is stopped or destroyed
+ * Use conflated() to get a view that delivers at most one fix per interval (latest wins, see Conflator)
+ */
+public class LocationStream extends LiveData<LocationSnapshot> {
+    // Written by the pipeline thread before postValue: readers never wait for the main looper
+    private volatile LocationSnapshot latest;
+
+    /**
+     * Publish a new accepted fix to all active observers
+     * Safe to call from any thread
+     * @param snapshot The accepted fix
+     */
+    public void publish(LocationSnapshot snapshot) {
+        latest = snapshot;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            setValue(snapshot);
+        } else {
+            postValue(snapshot);
+        }
+    }
+
+    /**
+     * Latest published fix without subscribing (lock-free, any thread)
+     * @return The latest fix, or null if none yet
+     */
+    public LocationSnapshot getLatest() {
+        return latest;
+    }
+
+    /**
+     * Conflated view of the stream
+     * Delivers the first fix immediately, then at most one fix per minIntervalMs (the latest one
+     * received in the window). Fixes closer than minDistanceM to the last delivered fix are dropped.
+     * @param minIntervalMs Minimum time between two deliveries (0 = no time conflation)
+     * @param minDistanceM Minimum movement between two deliveries (0 = deliver unchanged positions)
+     * @return A LiveData to observe instead of the raw stream
+     */
+    public LiveData<LocationSnapshot> conflated(long minIntervalMs, float minDistanceM) {
+        return new ConflatedLiveData(this, minIntervalMs, minDistanceM);
+    }
+
+    private static final class ConflatedLiveData extends MediatorLiveData<LocationSnapshot> {
+        private final Conflator conflator;
+
+        ConflatedLiveData(LiveData<LocationSnapshot> source, long minIntervalMs, float minDistanceM) {
+            conflator = new Conflator(minIntervalMs, minDistanceM,
+                new HandlerScheduler(Looper.getMainLooper()), this::setValue);
+            addSource(source, conflator::offer);
+        }
+
+        @Override
+        protected void onInactive() {
+            super.onInactive();
+            conflator.pause();
+        }
+
+        @Override
+        protected void onActive() {
+            super.onActive();
+            conflator.resume();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.glnc.location;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Recorded location trace (ordered fixes) loaded from GPX or CSV
+ *
+ * GPX: trkpt elements with lat/lon attributes, optional ele, time (ISO 8601) and hdop
+ * (accuracy is estimated as hdop * HDOP_TO_METERS)
+ *
+ * CSV: one fix per line, header row naming the columns:
+ *   time_ms or time (ISO 8601), lat, lon, and optionally accuracy, provider, altitude, speed, bearing
+ * Without a header the columns are time_ms,lat,lon[,accuracy[,provider]]
+ */
+public class LocationTrace {
+    public static final float HDOP_TO_METERS = 5.0f;
+
+    private static final Pattern ISO_TIME = Pattern.compile(
+        "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})(\\.\\d+)?(Z|[+-]\\d{2}:?\\d{2})?");
+
+    private final List<LocationSnapshot> fixes;
+
+    public LocationTrace(List<LocationSnapshot> fixes) {
+        this.fixes = Collections.unmodifiableList(new ArrayList<>(fixes));
+    }
+
+    public List<LocationSnapshot> getFixes() {
+        return fixes;
+    }
+
+    public int size() {
+        return fixes.size();
+    }
+
+    /**
+     * Duration between the first and last fix
+     */
+    public long getDurationMs() {
+        if (fixes.size() < 2) {
+            return 0;
+        }
+        return fixes.get(fixes.size() - 1).timeMs - fixes.get(0).timeMs;
+    }
+
+    /**
+     * Parse a GPX track
+     * @param in The GPX document (not closed)
+     * @param provider Provider name given to the fixes (e.g. "gps")
+     */
+    public static LocationTrace fromGpx(InputStream in, String provider) throws IOException {
+        final List<LocationSnapshot> fixes = new ArrayList<>();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, new DefaultHandler() {
+                private final StringBuilder text = new StringBuilder();
+                private boolean inPoint;
+                private double lat;
+                private double lon;
+                private double ele;
+                private long time;
+                private float accuracy;
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    text.setLength(0);
+                    if ("trkpt".equals(name(localName, qName))) {
+                        inPoint = true;
+                        lat = Double.parseDouble(attributes.getValue("lat"));
+                        lon = Double.parseDouble(attributes.getValue("lon"));
+                        ele = 0;
+                        time = 0;
+                        accuracy = -1.0f;
+                    }
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    text.append(ch, start, length);
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    if (!inPoint) {
+                        return;
+                    }
+                    String value = text.toString().trim();
+                    switch (name(localName, qName)) {
+                        case "ele":
+                            ele = Double.parseDouble(value);
+                            break;
+                        case "time":
+                            time = parseIsoTime(value);
+                            break;
+                        case "hdop":
+                            accuracy = Float.parseFloat(value) * HDOP_TO_METERS;
+                            break;
+                        case "trkpt":
+                            fixes.add(new LocationSnapshot(lat, lon, ele, accuracy, 0.0f, 0.0f,
+                                provider, time, time * 1000000L, false));
+                            inPoint = false;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Invalid GPX trace", e);
+        }
+        return new LocationTrace(fixes);
+    }
+
+    /**
+     * Parse a CSV trace
+     * @param in The CSV document (not closed)
+     * @param defaultProvider Provider used when the trace has no provider column
+     */
+    public static LocationTrace fromCsv(InputStream in, String defaultProvider) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<LocationSnapshot> fixes = new ArrayList<>();
+        Map<String, Integer> columns = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (columns == null) {
+                columns = new HashMap<>();
+                if (!isNumber(fields[0].trim())) {
+                    // Header row
+                    for (int i = 0; i < fields.length; i++) {
+                        columns.put(fields[i].trim().toLowerCase(), i);
+                    }
+                    continue;
+                }
+                String[] defaults = {"time_ms", "lat", "lon", "accuracy", "provider"};
+                for (int i = 0; i < defaults.length; i++) {
+                    columns.put(defaults[i], i);
+                }
+            }
+            try {
+                String timeMs = field(fields, columns, "time_ms");
+                long time = timeMs != null ? Long.parseLong(timeMs) : parseIsoTime(field(fields, columns, "time"));
+                String accuracy = field(fields, columns, "accuracy");
+                String provider = field(fields, columns, "provider");
+                String altitude = field(fields, columns, "altitude");
+                String speed = field(fields, columns, "speed");
+                String bearing = field(fields, columns, "bearing");
+                fixes.add(new LocationSnapshot(
+                    Double.parseDouble(field(fields, columns, "lat")),
+                    Double.parseDouble(field(fields, columns, "lon")),
+                    altitude != null ? Double.parseDouble(altitude) : 0.0,
+                    accuracy != null ? Float.parseFloat(accuracy) : -1.0f,
+                    speed != null ? Float.parseFloat(speed) : 0.0f,
+                    bearing != null ? Float.parseFloat(bearing) : 0.0f,
+                    provider != null ? provider : defaultProvider,
+                    time,
+                    time * 1000000L,
+                    false));
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid CSV trace at line " + lineNumber + ": " + line, e);
+            }
+        }
+        return new LocationTrace(fixes);
+    }
+
+    /**
+     * @return The trimmed field, or null if the column is absent or empty
+     */
+    private static String field(String[] fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.length) {
+            return null;
+        }
+        String value = fields[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String name(String localName, String qName) {
+        return localName != null && !localName.isEmpty() ? localName : qName;
+    }
+
+    /**
+     * Parse an ISO 8601 date-time (java.time is not available below API 26)
+     * @return Epoch milliseconds
+     */
+    static long parseIsoTime(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing time");
+        }
+        Matcher m = ISO_TIME.matcher(value.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid time: " + value);
+        }
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1, Integer.parseInt(m.group(3)),
+            Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)));
+        long ms = calendar.getTimeInMillis();
+        if (m.group(7) != null) {
+            String fraction = (m.group(7).substring(1) + "00").substring(0, 3);
+            ms += Integer.parseInt(fraction);
+        }
+        String zone = m.group(8);
+        if (zone != null && !"Z".equals(zone)) {
+            String digits = zone.replace(":", "");
+            int offsetMin = Integer.parseInt(digits.substring(1, 3)) * 60 + Integer.parseInt(digits.substring(3, 5));
+            ms -= (zone.charAt(0) == '-' ? -1 : 1) * offsetMin * 60000L;
+        }
+        return ms;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.glnc.location;
+
+/**
+ * A single mock-location detection rule
+ * Rules run in stage order: cheap field checks first, expensive (system) checks last,
+ * and evaluation stops at the first rule that flags the fix
+ */
+public interface MockRule {
+    int STAGE_CHEAP = 0;     // Checks on the fix fields only
+    int STAGE_EXPENSIVE = 1; // Checks that query the system (results cached)
+
+    String getName();
+
+    int getStage();
+
+    /**
+     * Check a fix
+     * @param fix The fix to check
+     * @param nowMs Current wall clock time
+     * @return Reason if the fix is flagged as mock, null otherwise
+     */
+    String check(LocationSnapshot fix, long nowMs);
+}
@@ -0,0 +1,95 @@
+package com.example.glnc.location;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Configuration of the mock-location rule engine
+ * Loaded from JSON (res/raw/mock_location_rules.json, or the "mock_rules_json" preference
+ * when an override is pushed), so thresholds, known mock coordinates and enabled rules
+ * can change without a code change
+ */
+public class MockRuleConfig {
+
+    /**
+     * Known default location of an emulator or mock app
+     * Every coordinate cleans stored locations; only those with rejectFixes also reject
+     * live fixes with suspicious accuracy
+     */
+    public static final class Coordinate {
+        public final String name;
+        public final double latitude;
+        public final double longitude;
+        public final boolean rejectFixes;
+
+        public Coordinate(String name, double latitude, double longitude, boolean rejectFixes) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.rejectFixes = rejectFixes;
+        }
+    }
+
+    public float minAccuracyM = 0.1f;          // Accuracy below this is absurdly precise
+    public float suspiciousAccuracyM = 1.0f;   // Accuracy at or below this is suspicious
+    public double coordinateToleranceDeg = 0.01;
+    public long staleFixAgeMs = 24L * 60 * 60 * 1000; // Fix older than 24 hours
+    public long systemCheckTtlMs = 60 * 1000;         // Re-query system settings at most once a minute
+    public final List<Coordinate> knownMockCoordinates = new ArrayList<>();
+    public final Set<String> disabledRules = new HashSet<>();
+
+    /**
+     * Built-in defaults (same thresholds and coordinates as before the rule engine: only the
+     * Washington DC default rejects live fixes, all three clean stored locations)
+     */
+    public static MockRuleConfig defaults() {
+        MockRuleConfig config = new MockRuleConfig();
+        config.knownMockCoordinates.add(new Coordinate("Washington DC (LDPlayer default)", 38.907, -77.036, true));
+        config.knownMockCoordinates.add(new Coordinate("San Francisco (emulator default)", 37.7749, -122.4194, false));
+        config.knownMockCoordinates.add(new Coordinate("New York", 40.7128, -74.0060, false));
+        return config;
+    }
+
+    /**
+     * Parse a configuration; missing fields keep their default value
+     * @param json The JSON configuration
+     * @return The parsed configuration
+     */
+    public static MockRuleConfig fromJson(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        MockRuleConfig config = new MockRuleConfig();
+        config.minAccuracyM = (float) root.optDouble("min_accuracy_m", config.minAccuracyM);
+        config.suspiciousAccuracyM = (float) root.optDouble("suspicious_accuracy_m", config.suspiciousAccuracyM);
+        config.coordinateToleranceDeg = root.optDouble("coordinate_tolerance_deg", config.coordinateToleranceDeg);
+        config.staleFixAgeMs = root.optLong("stale_fix_age_s", config.staleFixAgeMs / 1000) * 1000;
+        config.systemCheckTtlMs = root.optLong("system_check_ttl_s", config.systemCheckTtlMs / 1000) * 1000;
+
+        JSONArray coordinates = root.optJSONArray("known_mock_coordinates");
+        if (coordinates != null) {
+            for (int i = 0; i < coordinates.length(); i++) {
+                JSONObject coordinate = coordinates.getJSONObject(i);
+                config.knownMockCoordinates.add(new Coordinate(
+                    coordinate.optString("name", "unnamed"),
+                    coordinate.getDouble("lat"),
+                    coordinate.getDouble("lon"),
+                    coordinate.optBoolean("reject_fixes", true)));
+            }
+        } else {
+            config.knownMockCoordinates.addAll(defaults().knownMockCoordinates);
+        }
+
+        JSONArray disabled = root.optJSONArray("disabled_rules");
+        if (disabled != null) {
+            for (int i = 0; i < disabled.length(); i++) {
+                config.disabledRules.add(disabled.getString(i));
+            }
+        }
+        return config;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.glnc.location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Staged mock-location detection
+ * Rules run in stage order (cheap field checks first, system queries last) and evaluation
+ * stops at the first rule that flags the fix, so a genuine fix normally never reaches the
+ * expensive stage. System settings are queried at most once per TTL
+ */
+public class MockRuleEngine {
+    private final MockRuleConfig config;
+    private final List<MockRule> rules = new ArrayList<>();
+    private final Map<String, Integer> rejections = new HashMap<>();
+
+    public MockRuleEngine(MockRuleConfig config, BooleanSupplier mockSettingEnabled) {
+        this.config = config;
+        BooleanSupplier cachedSetting = new CachedCheck(mockSettingEnabled, config.systemCheckTtlMs);
+        addRule(new MockRules.MockProviderFlag());
+        addRule(new MockRules.AbsurdAccuracy(config));
+        addRule(new MockRules.KnownMockCoordinates(config));
+        addRule(new MockRules.StaleFixWithMockSetting(config, cachedSetting));
+    }
+
+    /**
+     * Register an additional rule (ignored if disabled in the configuration)
+     */
+    public synchronized void addRule(MockRule rule) {
+        if (config.disabledRules.contains(rule.getName())) {
+            return;
+        }
+        rules.add(rule);
+        // Stable sort: rules of the same stage keep their registration order
+        Collections.sort(rules, (a, b) -> Integer.compare(a.getStage(), b.getStage()));
+    }
+
+    /**
+     * Evaluate a fix against all enabled rules
+     * @param fix The fix to check
+     * @return The verdict of the first rule that flags the fix, or GENUINE
+     */
+    public MockVerdict evaluate(LocationSnapshot fix) {
+        return evaluate(fix, System.currentTimeMillis());
+    }
+
+    /**
+     * Evaluate a fix at the given wall clock time (replayed traces use a simulated clock)
+     */
+    public synchronized MockVerdict evaluate(LocationSnapshot fix, long nowMs) {
+        for (MockRule rule : rules) {
+            String reason = rule.check(fix, nowMs);
+            if (reason != null) {
+                Integer count = rejections.get(rule.getName());
+                rejections.put(rule.getName(), count == null ? 1 : count + 1);
+                return MockVerdict.mock(rule.getName(), reason);
+            }
+        }
+        return MockVerdict.GENUINE;
+    }
+
+    /**
+     * Check if stored coordinates match a known mock location
+     * Stored locations have no accuracy, so only the coordinates are compared
+     */
+    public boolean isKnownMockCoordinate(double latitude, double longitude) {
+        return MockRules.KnownMockCoordinates.match(config, latitude, longitude) != null;
+    }
+
+    /**
+     * Number of rejected fixes per rule name since creation
+     */
+    public synchronized Map<String, Integer> getRejectionCounts() {
+        return new HashMap<>(rejections);
+    }
+
+    /**
+     * Boolean system query whose result is reused for a fixed time
+     */
+    static final class CachedCheck implements BooleanSupplier {
+        private final BooleanSupplier delegate;
+        private final long ttlNs;
+        private boolean value;
+        private long checkedAtNs;
+        private boolean checked;
+
+        CachedCheck(BooleanSupplier delegate, long ttlMs) {
+            this.delegate = delegate;
+            this.ttlNs = ttlMs * 1000000L;
+        }
+
+        @Override
+        public synchronized boolean getAsBoolean() {
+            long now = System.nanoTime();
+            if (!checked || now - checkedAtNs >= ttlNs) {
+                value = delegate.getAsBoolean();
+                checkedAtNs = now;
+                checked = true;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.glnc.location;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Built-in mock-location rules
+ * Each rule is configured from MockRuleConfig and can be disabled by name
+ */
+public final class MockRules {
+    public static final String MOCK_PROVIDER_FLAG = "mock_provider_flag";
+    public static final String ABSURD_ACCURACY = "absurd_accuracy";
+    public static final String KNOWN_MOCK_COORDINATES = "known_mock_coordinates";
+    public static final String STALE_FIX_WITH_MOCK_SETTING = "stale_fix_with_mock_setting";
+
+    private MockRules() {
+    }
+
+    /**
+     * Android flags the fix as coming from a mock provider (most reliable)
+     */
+    public static final class MockProviderFlag implements MockRule {
+        @Override
+        public String getName() {
+            return MOCK_PROVIDER_FLAG;
+        }
+
+        @Override
+        public int getStage() {
+            return STAGE_CHEAP;
+        }
+
+        @Override
+        public String check(LocationSnapshot fix, long nowMs) {
+            return fix.fromMockProvider ? "Location is from MOCK provider" : null;
+        }
+    }
+
+    /**
+     * Real GPS accuracy is typically 5-20m; below the configured minimum is almost certainly mock
+     */
+    public static final class AbsurdAccuracy implements MockRule {
+        private final float minAccuracyM;
+
+        public AbsurdAccuracy(MockRuleConfig config) {
+            this.minAccuracyM = config.minAccuracyM;
+        }
+
+        @Override
+        public String getName() {
+            return ABSURD_ACCURACY;
+        }
+
+        @Override
+        public int getStage() {
+            return STAGE_CHEAP;
+        }
+
+        @Override
+        public String check(LocationSnapshot fix, long nowMs) {
+            return fix.hasAccuracy() && fix.accuracy < minAccuracyM ? "Absurdly precise accuracy" : null;
+        }
+    }
+
+    /**
+     * Known emulator/mock app default coordinates combined with suspicious accuracy
+     * Only rejected when accuracy is also suspicious, to avoid blocking real users there
+     */
+    public static final class KnownMockCoordinates implements MockRule {
+        private final MockRuleConfig config;
+
+        public KnownMockCoordinates(MockRuleConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public String getName() {
+            return KNOWN_MOCK_COORDINATES;
+        }
+
+        @Override
+        public int getStage() {
+            return STAGE_CHEAP;
+        }
+
+        @Override
+        public String check(LocationSnapshot fix, long nowMs) {
+            if (!fix.hasAccuracy() || fix.accuracy > config.suspiciousAccuracyM) {
+                return null;
+            }
+            MockRuleConfig.Coordinate match = match(config, fix.latitude, fix.longitude);
+            return match != null && match.rejectFixes ? match.name + " coordinates with suspicious accuracy" : null;
+        }
+
+        /**
+         * Find the known mock coordinate matching a position (no accuracy condition)
+         * Used to clean stored locations that only have coordinates
+         * @return The matching coordinate, or null
+         */
+        public static MockRuleConfig.Coordinate match(MockRuleConfig config, double latitude, double longitude) {
+            for (MockRuleConfig.Coordinate coordinate : config.knownMockCoordinates) {
+                if (Math.abs(latitude - coordinate.latitude) < config.coordinateToleranceDeg
+                        && Math.abs(longitude - coordinate.longitude) < config.coordinateToleranceDeg) {
+                    return coordinate;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Very old fix with suspicious accuracy while mock locations are enabled in Developer Options
+     * The cheap age/accuracy preconditions run first; the system setting query is only made
+     * when they match, and its result is cached by the engine
+     */
+    public static final class StaleFixWithMockSetting implements MockRule {
+        private final MockRuleConfig config;
+        private final BooleanSupplier mockSettingEnabled;
+
+        public StaleFixWithMockSetting(MockRuleConfig config, BooleanSupplier mockSettingEnabled) {
+            this.config = config;
+            this.mockSettingEnabled = mockSettingEnabled;
+        }
+
+        @Override
+        public String getName() {
+            return STALE_FIX_WITH_MOCK_SETTING;
+        }
+
+        @Override
+        public int getStage() {
+            return STAGE_EXPENSIVE;
+        }
+
+        @Override
+        public String check(LocationSnapshot fix, long nowMs) {
+            if (fix.ageMs(nowMs) <= config.staleFixAgeMs
+                    || !fix.hasAccuracy() || fix.accuracy > config.suspiciousAccuracyM) {
+                return null;
+            }
+            return mockSettingEnabled.getAsBoolean()
+                ? "Very old location with suspicious accuracy while mock locations are enabled" : null;
+        }
+    }
+}
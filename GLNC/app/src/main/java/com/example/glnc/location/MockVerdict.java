@@ -0,0 +1,28 @@
+package com.example.glnc.location;
+
+/**
+ * Result of the mock-location rule engine for one fix
+ * Records which rule flagged the fix and why
+ */
+public final class MockVerdict {
+    public static final MockVerdict GENUINE = new MockVerdict(false, null, null);
+
+    public final boolean isMock;
+    public final String ruleName; // Rule that flagged the fix, null if genuine
+    public final String reason;   // Human-readable reason, null if genuine
+
+    MockVerdict(boolean isMock, String ruleName, String reason) {
+        this.isMock = isMock;
+        this.ruleName = ruleName;
+        this.reason = reason;
+    }
+
+    static MockVerdict mock(String ruleName, String reason) {
+        return new MockVerdict(true, ruleName, reason);
+    }
+
+    @Override
+    public String toString() {
+        return isMock ? "MOCK [" + ruleName + "] " + reason : "GENUINE";
+    }
+}
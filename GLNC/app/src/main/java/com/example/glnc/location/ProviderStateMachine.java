@@ -0,0 +1,191 @@
+package com.example.glnc.location;
+
+import android.util.Log;
+
+/**
+ * Provider arbitration after a fallback from GPS to the network provider
+ * - GPS: primary provider
+ * - NETWORK: GPS timed out or returned mock fixes; a GPS probe is scheduled after a backoff
+ * - PROBING: GPS subscribed again next to network for PROBE_WINDOW_MS; PROMOTE_GOOD_FIXES
+ *   consecutive accurate GPS fixes promote back to GPS, otherwise back to NETWORK
+ * Hysteresis: the probe backoff doubles after every failed probe, and after a promotion
+ * that falls back again within STABLE_MS, so an indoor/outdoor boundary does not flap
+ * Not thread-safe: driven by LocationPipeline on the pipeline looper
+ */
+public class ProviderStateMachine {
+    public static final long PROBE_BACKOFF_MS = 5 * 60 * 1000;      // First probe 5 minutes after a fallback
+    public static final long MAX_PROBE_BACKOFF_MS = 40 * 60 * 1000;
+    public static final long PROBE_WINDOW_MS = 60 * 1000;
+    public static final int PROMOTE_GOOD_FIXES = 3;
+    public static final float PROBE_ACCURACY_M = 30.0f;
+    public static final long STABLE_MS = 15 * 60 * 1000;           // GPS kept this long = successful promotion
+
+    public enum State { GPS, NETWORK, PROBING }
+
+    /**
+     * Subscription changes requested by the state machine
+     */
+    public interface Actions {
+        /** Subscribe to GPS in addition to the network provider */
+        void startGpsProbe();
+
+        /** Remove the probe GPS subscription (network only) */
+        void stopGpsProbe();
+
+        /** GPS delivers good fixes again: subscribe to GPS only */
+        void promoteToGps();
+    }
+
+    private final Scheduler scheduler;
+    private final Actions actions;
+    private volatile LocationMetrics metrics; // Set from the main thread
+    private State state = State.GPS;
+    private boolean running = false;
+    private boolean probingAllowed = false;
+    private long stateSinceMs;
+    private long backoffMs = PROBE_BACKOFF_MS;
+    private long promotedAtMs = -1;
+    private int goodFixes = 0;
+    private Object timerToken;
+
+    public ProviderStateMachine(Scheduler scheduler, Actions actions) {
+        this.scheduler = scheduler;
+        this.actions = actions;
+    }
+
+    public void setMetrics(LocationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Tracking (re)started on the given provider
+     * @param onGps true if GPS is the subscribed provider; probes only follow a fallback from GPS
+     */
+    public void reset(boolean onGps) {
+        stop();
+        running = true;
+        state = onGps ? State.GPS : State.NETWORK;
+        stateSinceMs = scheduler.elapsedRealtimeMs();
+        probingAllowed = false;
+        backoffMs = PROBE_BACKOFF_MS;
+        promotedAtMs = -1;
+        goodFixes = 0;
+    }
+
+    /**
+     * Tracking stopped: close the time of the current state
+     */
+    public void stop() {
+        cancelTimer();
+        recordStateTime(scheduler.elapsedRealtimeMs());
+        running = false;
+    }
+
+    /**
+     * The pipeline fell back from GPS to the network provider
+     */
+    public void onFallbackToNetwork() {
+        long nowMs = scheduler.elapsedRealtimeMs();
+        if (promotedAtMs >= 0 && nowMs - promotedAtMs < STABLE_MS) {
+            backoffMs = Math.min(backoffMs * 2, MAX_PROBE_BACKOFF_MS); // Promotion did not hold
+        } else {
+            backoffMs = PROBE_BACKOFF_MS;
+        }
+        promotedAtMs = -1;
+        probingAllowed = true;
+        transition(State.NETWORK);
+        scheduleProbe();
+    }
+
+    /**
+     * A GPS fix was received while probing
+     * @param fix The fix
+     * @param mock true if the mock rules rejected it (aborts the probe)
+     */
+    public void onGpsFix(LocationSnapshot fix, boolean mock) {
+        if (state != State.PROBING) {
+            return;
+        }
+        if (mock) {
+            Log.w("ProviderStateMachine", "GPS probe returned a mock fix, staying on network");
+            endProbe(false);
+            return;
+        }
+        if (fix.hasAccuracy() && fix.accuracy <= PROBE_ACCURACY_M) {
+            goodFixes++;
+            if (goodFixes >= PROMOTE_GOOD_FIXES) {
+                endProbe(true);
+            }
+        } else {
+            goodFixes = 0; // Consecutive good fixes only
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getBackoffMs() {
+        return backoffMs;
+    }
+
+    private void scheduleProbe() {
+        cancelTimer();
+        timerToken = scheduler.postDelayed(this::startProbe, backoffMs);
+        Log.d("ProviderStateMachine", "GPS probe in " + (backoffMs / 1000) + " seconds");
+    }
+
+    private void startProbe() {
+        timerToken = null;
+        if (state != State.NETWORK || !probingAllowed) {
+            return;
+        }
+        goodFixes = 0;
+        transition(State.PROBING);
+        if (metrics != null) {
+            metrics.onGpsProbe();
+        }
+        actions.startGpsProbe();
+        timerToken = scheduler.postDelayed(() -> {
+            timerToken = null;
+            endProbe(false);
+        }, PROBE_WINDOW_MS);
+    }
+
+    private void endProbe(boolean promote) {
+        cancelTimer();
+        if (promote) {
+            Log.d("ProviderStateMachine", "GPS probe succeeded, promoting back to GPS");
+            promotedAtMs = scheduler.elapsedRealtimeMs();
+            transition(State.GPS);
+            if (metrics != null) {
+                metrics.onProviderSwitch(LocationPipeline.NETWORK, LocationPipeline.GPS);
+            }
+            actions.promoteToGps();
+        } else {
+            backoffMs = Math.min(backoffMs * 2, MAX_PROBE_BACKOFF_MS);
+            transition(State.NETWORK);
+            actions.stopGpsProbe();
+            scheduleProbe();
+        }
+    }
+
+    private void transition(State next) {
+        long nowMs = scheduler.elapsedRealtimeMs();
+        recordStateTime(nowMs);
+        Log.d("ProviderStateMachine", state + " -> " + next);
+        state = next;
+        stateSinceMs = nowMs;
+    }
+
+    private void recordStateTime(long nowMs) {
+        if (running && metrics != null) {
+            metrics.onProviderStateTime(state.name(), nowMs - stateSinceMs);
+        }
+    }
+
+    private void cancelTimer() {
+        scheduler.cancel(timerToken);
+        timerToken = null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.glnc.location;
+
+/**
+ * Clock and delayed task execution used by the location pipeline
+ * HandlerScheduler runs on the looper of the pipeline (the "LocationWorker" HandlerThread by default);
+ * VirtualScheduler runs on the JVM with a simulated clock, so replayed traces can be processed
+ * faster than real time
+ */
+public interface Scheduler {
+
+    /**
+     * Monotonic time in milliseconds (SystemClock.elapsedRealtime on device)
+     */
+    long elapsedRealtimeMs();
+
+    /**
+     * Wall clock time in milliseconds (System.currentTimeMillis on device)
+     */
+    long currentTimeMillis();
+
+    /**
+     * Run a task after a delay
+     * @return A token to pass to cancel()
+     */
+    Object postDelayed(Runnable task, long delayMs);
+
+    /**
+     * Cancel a task posted with postDelayed (no-op if already run or null)
+     */
+    void cancel(Object token);
+}
@@ -0,0 +1,57 @@
+package com.example.glnc.location;
+
+import java.util.Arrays;
+
+/**
+ * Positions of the accepted fixes of the current shift, in order (on-device history)
+ * Primitive arrays that grow by doubling; readers copy the points they have not seen yet
+ * Thread-safe: appended on the pipeline thread, read by the map on the main thread
+ */
+public class ShiftTrack {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private double[] lats = new double[INITIAL_CAPACITY];
+    private double[] lons = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    private int generation = 0;
+
+    /**
+     * New shift: forget the previous positions
+     */
+    public synchronized void reset() {
+        size = 0;
+        generation++;
+    }
+
+    public synchronized void append(double lat, double lon) {
+        if (size == lats.length) {
+            lats = Arrays.copyOf(lats, size * 2);
+            lons = Arrays.copyOf(lons, size * 2);
+        }
+        lats[size] = lat;
+        lons[size] = lon;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Incremented by reset(): a reader holding an older generation must start again from 0
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Copy points [from, from + outLats.length) into the given arrays
+     * @return The number of points copied
+     */
+    public synchronized int copy(int from, double[] outLats, double[] outLons) {
+        int count = Math.max(0, Math.min(outLats.length, size - from));
+        System.arraycopy(lats, from, outLats, 0, count);
+        System.arraycopy(lons, from, outLons, 0, count);
+        return count;
+    }
+}
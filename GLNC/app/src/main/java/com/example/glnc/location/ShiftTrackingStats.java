@@ -0,0 +1,135 @@
+package com.example.glnc.location;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Track continuity statistics for one driver shift
+ * - Gaps: intervals between accepted fixes longer than GAP_THRESHOLD_MS
+ * - Continuity: share of the shift not covered by gaps
+ * - Wakeups: location callbacks delivered to the app (accepted or rejected) and GNSS status samples
+ * All times are monotonic (SystemClock.elapsedRealtime) milliseconds
+ */
+public class ShiftTrackingStats {
+    public static final long GAP_THRESHOLD_MS = 10 * 60 * 1000; // No fix for 10 minutes = gap
+
+    private long shiftStartMs = -1;
+    private long shiftEndMs = -1;
+    private long lastFixMs = -1;
+    private int fixCount = 0;
+    private int wakeupCount = 0;
+    private int gapCount = 0;
+    private long totalGapMs = 0;
+    private long longestGapMs = 0;
+
+    /**
+     * Start a new shift and reset all counters
+     */
+    public synchronized void startShift(long nowMs) {
+        shiftStartMs = nowMs;
+        shiftEndMs = -1;
+        lastFixMs = nowMs; // Waiting for the first fix counts towards a gap too
+        fixCount = 0;
+        wakeupCount = 0;
+        gapCount = 0;
+        totalGapMs = 0;
+        longestGapMs = 0;
+    }
+
+    /**
+     * End the shift, closing any trailing gap
+     */
+    public synchronized void endShift(long nowMs) {
+        if (shiftStartMs < 0 || shiftEndMs >= 0) {
+            return;
+        }
+        recordInterval(nowMs);
+        shiftEndMs = nowMs;
+    }
+
+    /**
+     * A location callback woke up the app
+     */
+    public synchronized void onWakeup(long nowMs) {
+        wakeupCount++;
+    }
+
+    /**
+     * A fix was accepted
+     */
+    public synchronized void onFix(long nowMs) {
+        if (shiftStartMs < 0) {
+            return;
+        }
+        recordInterval(nowMs);
+        lastFixMs = nowMs;
+        fixCount++;
+    }
+
+    private void recordInterval(long nowMs) {
+        long interval = nowMs - lastFixMs;
+        if (interval > GAP_THRESHOLD_MS) {
+            gapCount++;
+            totalGapMs += interval;
+            longestGapMs = Math.max(longestGapMs, interval);
+        }
+    }
+
+    public synchronized long getDurationMs(long nowMs) {
+        if (shiftStartMs < 0) {
+            return 0;
+        }
+        return (shiftEndMs >= 0 ? shiftEndMs : nowMs) - shiftStartMs;
+    }
+
+    public synchronized int getFixCount() {
+        return fixCount;
+    }
+
+    public synchronized int getWakeupCount() {
+        return wakeupCount;
+    }
+
+    public synchronized int getGapCount() {
+        return gapCount;
+    }
+
+    public synchronized long getLongestGapMs() {
+        return longestGapMs;
+    }
+
+    /**
+     * Share of the shift covered by fixes (1.0 = no gap)
+     */
+    public synchronized double getContinuity(long nowMs) {
+        long duration = getDurationMs(nowMs);
+        if (duration <= 0) {
+            return 1.0;
+        }
+        return Math.max(0.0, 1.0 - (double) totalGapMs / duration);
+    }
+
+    public synchronized double getWakeupsPerHour(long nowMs) {
+        long duration = getDurationMs(nowMs);
+        if (duration <= 0) {
+            return 0.0;
+        }
+        return wakeupCount * 3600000.0 / duration;
+    }
+
+    /**
+     * Export the shift statistics for the end-of-shift report
+     */
+    public synchronized JSONObject toJson(long nowMs) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("duration_s", getDurationMs(nowMs) / 1000);
+        json.put("fixes", fixCount);
+        json.put("wakeups", wakeupCount);
+        json.put("wakeups_per_hour", getWakeupsPerHour(nowMs));
+        json.put("gaps", gapCount);
+        json.put("gap_total_s", totalGapMs / 1000);
+        json.put("gap_longest_s", longestGapMs / 1000);
+        json.put("continuity", getContinuity(nowMs));
+        return json;
+    }
+}
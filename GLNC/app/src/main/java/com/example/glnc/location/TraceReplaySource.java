@@ -0,0 +1,82 @@
+package com.example.glnc.location;
+
+import java.util.List;
+
+/**
+ * Replays a recorded trace as a location source
+ * Fixes are delivered on the scheduler with their recorded spacing divided by the speed factor
+ * (1 = real time). Timestamps are rebased on the scheduler clocks, so age-based logic
+ * (fusion, mock rules, timeouts) sees the trace as if it was happening now
+ */
+public class TraceReplaySource implements LocationSource {
+    private final LocationTrace trace;
+    private final Scheduler scheduler;
+    private final double speed;
+    private Callback callback;
+    private Object pendingTask;
+    private int nextIndex;
+    private long startElapsedMs;
+
+    /**
+     * @param speed Replay speed factor (1 = real time, 60 = one hour per minute)
+     */
+    public TraceReplaySource(LocationTrace trace, Scheduler scheduler, double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Replay speed must be positive: " + speed);
+        }
+        this.trace = trace;
+        this.scheduler = scheduler;
+        this.speed = speed;
+    }
+
+    @Override
+    public void start(Callback callback) {
+        stop();
+        this.callback = callback;
+        nextIndex = 0;
+        startElapsedMs = scheduler.elapsedRealtimeMs();
+        scheduleNext();
+    }
+
+    @Override
+    public void stop() {
+        scheduler.cancel(pendingTask);
+        pendingTask = null;
+        callback = null;
+    }
+
+    /**
+     * @return true once every fix of the trace was delivered
+     */
+    public boolean isFinished() {
+        return nextIndex >= trace.size();
+    }
+
+    private void scheduleNext() {
+        List<LocationSnapshot> fixes = trace.getFixes();
+        if (nextIndex >= fixes.size()) {
+            pendingTask = null;
+            return;
+        }
+        long offsetMs = (long) ((fixes.get(nextIndex).timeMs - fixes.get(0).timeMs) / speed);
+        long delay = startElapsedMs + offsetMs - scheduler.elapsedRealtimeMs();
+        pendingTask = scheduler.postDelayed(this::deliverNext, delay);
+    }
+
+    private void deliverNext() {
+        Callback target = callback;
+        if (target == null) {
+            return;
+        }
+        LocationSnapshot recorded = trace.getFixes().get(nextIndex++);
+        target.onLocation(new LocationSnapshot(
+            recorded.latitude, recorded.longitude, recorded.altitude, recorded.accuracy,
+            recorded.speed, recorded.bearing, recorded.provider,
+            scheduler.currentTimeMillis(),
+            scheduler.elapsedRealtimeMs() * 1000000L,
+            recorded.fromMockProvider));
+        if (callback == target) {
+            scheduleNext();
+        }
+    }
+}
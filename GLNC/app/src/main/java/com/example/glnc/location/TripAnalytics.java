@@ -0,0 +1,222 @@
+package com.example.glnc.location;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental trip analytics over the accepted fixes of one driver shift
+ * - Odometer: haversine distance between counted positions, ignoring steps below the noise floor
+ *   (max of MIN_STEP_M and the fix accuracy) so GPS jitter while parked adds nothing
+ * - Moving / stationary time: intervals ending on a counted step are moving time
+ * - Stops: fixes staying within STOP_RADIUS_M of an anchor for at least MIN_STOP_MS,
+ *   matched to the delivery stop the geofence engine reports the driver inside
+ * Every fix is processed in O(1); only closed stops are kept (at most MAX_STOPS detailed)
+ * Times are fix wall clock milliseconds
+ */
+public class TripAnalytics implements GeofenceEngine.Listener {
+    public static final double MIN_STEP_M = 15.0;          // Noise floor of the odometer
+    public static final float MAX_ACCURACY_M = 100.0f;     // Less accurate fixes are ignored
+    public static final double MAX_SPEED_MPS = 55.0;       // ~200 km/h: faster steps are position jumps
+    public static final double STOP_RADIUS_M = 60.0;       // Stop cluster radius around its anchor
+    public static final long MIN_STOP_MS = 2 * 60 * 1000;  // Shorter halts (traffic lights) are not stops
+    public static final int MAX_STOPS = 200;               // Detailed stops kept for the report
+
+    /**
+     * A closed stop
+     */
+    public static final class Stop {
+        public final double latitude;
+        public final double longitude;
+        public final long arrivedMs;
+        public final long departedMs;
+        public final String deliveryId; // Null if not at a known delivery stop
+
+        Stop(double latitude, double longitude, long arrivedMs, long departedMs, String deliveryId) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.arrivedMs = arrivedMs;
+            this.departedMs = departedMs;
+            this.deliveryId = deliveryId;
+        }
+
+        public long getDwellMs() {
+            return departedMs - arrivedMs;
+        }
+    }
+
+    private final List<Stop> stops = new ArrayList<>();
+    private double odometerM = 0;
+    private long movingMs = 0;
+    private long stationaryMs = 0;
+    private int fixCount = 0;
+    private int jumpCount = 0;
+    private int stopCount = 0;
+    private int matchedStopCount = 0;
+    private long totalDwellMs = 0;
+    private long longestDwellMs = 0;
+
+    // Last counted odometer position
+    private boolean hasPosition = false;
+    private double lastLat;
+    private double lastLon;
+    private long lastFixMs;
+
+    // Current stop candidate (anchor = first fix of the cluster)
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorStartMs;
+    private long anchorLastMs;
+    private String anchorDeliveryId;
+
+    // Delivery stop the driver is currently inside (from geofence events)
+    private String insideDeliveryId;
+
+    /**
+     * Process an accepted fix
+     */
+    public synchronized void onFix(LocationSnapshot fix) {
+        if (!fix.hasAccuracy() || fix.accuracy > MAX_ACCURACY_M) {
+            return;
+        }
+        fixCount++;
+        if (!hasPosition) {
+            hasPosition = true;
+            lastLat = fix.latitude;
+            lastLon = fix.longitude;
+            lastFixMs = fix.timeMs;
+            startCandidate(fix);
+            return;
+        }
+
+        long intervalMs = Math.max(0, fix.timeMs - lastFixMs);
+        lastFixMs = fix.timeMs;
+        double step = GeofenceEngine.distanceMeters(lastLat, lastLon, fix.latitude, fix.longitude);
+        if (intervalMs > 0 && step / (intervalMs / 1000.0) > MAX_SPEED_MPS) {
+            // Position jump (e.g. first fix after a tunnel): restart from here without counting it
+            jumpCount++;
+            lastLat = fix.latitude;
+            lastLon = fix.longitude;
+        } else if (step > Math.max(MIN_STEP_M, fix.accuracy)) {
+            odometerM += step;
+            movingMs += intervalMs;
+            lastLat = fix.latitude;
+            lastLon = fix.longitude;
+        } else {
+            stationaryMs += intervalMs; // Keep the counted position: slow drift accumulates until it exceeds the floor
+        }
+
+        if (GeofenceEngine.distanceMeters(anchorLat, anchorLon, fix.latitude, fix.longitude) <= STOP_RADIUS_M) {
+            anchorLastMs = fix.timeMs;
+            if (anchorDeliveryId == null) {
+                anchorDeliveryId = insideDeliveryId;
+            }
+        } else {
+            closeCandidate();
+            startCandidate(fix);
+        }
+    }
+
+    /**
+     * Track the delivery stop the driver is inside, to match detected stops to deliveries
+     * Must be called before onFix for the same fix (GeofenceEngine runs first in the pipeline)
+     */
+    @Override
+    public synchronized void onGeofenceEvent(GeofenceEngine.Event event) {
+        if (event.transition == GeofenceEngine.Transition.EXIT) {
+            if (event.stopId.equals(insideDeliveryId)) {
+                insideDeliveryId = null;
+            }
+        } else {
+            insideDeliveryId = event.stopId;
+        }
+    }
+
+    /**
+     * End of shift: close the current stop if the driver is still halted
+     */
+    public synchronized void finish() {
+        if (hasPosition) {
+            closeCandidate();
+            hasPosition = false;
+        }
+    }
+
+    private void startCandidate(LocationSnapshot fix) {
+        anchorLat = fix.latitude;
+        anchorLon = fix.longitude;
+        anchorStartMs = fix.timeMs;
+        anchorLastMs = fix.timeMs;
+        anchorDeliveryId = insideDeliveryId;
+    }
+
+    private void closeCandidate() {
+        long dwellMs = anchorLastMs - anchorStartMs;
+        if (dwellMs < MIN_STOP_MS) {
+            return;
+        }
+        stopCount++;
+        totalDwellMs += dwellMs;
+        longestDwellMs = Math.max(longestDwellMs, dwellMs);
+        if (anchorDeliveryId != null) {
+            matchedStopCount++;
+        }
+        if (stops.size() < MAX_STOPS) {
+            stops.add(new Stop(anchorLat, anchorLon, anchorStartMs, anchorLastMs, anchorDeliveryId));
+        }
+    }
+
+    public synchronized double getOdometerMeters() {
+        return odometerM;
+    }
+
+    public synchronized long getMovingMs() {
+        return movingMs;
+    }
+
+    public synchronized long getStationaryMs() {
+        return stationaryMs;
+    }
+
+    public synchronized int getStopCount() {
+        return stopCount;
+    }
+
+    public synchronized List<Stop> getStops() {
+        return new ArrayList<>(stops);
+    }
+
+    /**
+     * Compact summary for the end-of-shift report
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("distance_km", Math.round(odometerM / 10.0) / 100.0);
+        json.put("moving_s", movingMs / 1000);
+        json.put("stationary_s", stationaryMs / 1000);
+        json.put("fixes", fixCount);
+        json.put("jumps_ignored", jumpCount);
+        json.put("stop_count", stopCount);
+        json.put("matched_stop_count", matchedStopCount);
+        json.put("dwell_total_s", totalDwellMs / 1000);
+        json.put("dwell_longest_s", longestDwellMs / 1000);
+
+        JSONArray stopArray = new JSONArray();
+        for (Stop stop : stops) {
+            JSONObject item = new JSONObject();
+            if (stop.deliveryId != null) {
+                item.put("delivery_id", stop.deliveryId);
+            }
+            item.put("lat", Math.round(stop.latitude * 1e5) / 1e5);
+            item.put("lon", Math.round(stop.longitude * 1e5) / 1e5);
+            item.put("arrived", stop.arrivedMs / 1000);
+            item.put("dwell_s", stop.getDwellMs() / 1000);
+            stopArray.put(item);
+        }
+        json.put("stops", stopArray);
+        return json;
+    }
+}
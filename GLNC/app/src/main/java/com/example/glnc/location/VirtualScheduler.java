@@ -0,0 +1,98 @@
+package com.example.glnc.location;
+
+import java.util.PriorityQueue;
+
+/**
+ * Scheduler with a simulated clock for JVM replays and tests
+ * Time only moves when advanceBy/advanceTo/runAll is called; due tasks then run in order
+ * on the calling thread, so a full-shift trace replays in milliseconds and deterministically
+ */
+public class VirtualScheduler implements Scheduler {
+
+    private static final class Task implements Comparable<Task> {
+        final long dueMs;
+        final long sequence; // Keeps posting order for tasks due at the same time
+        final Runnable runnable;
+        boolean cancelled;
+
+        Task(long dueMs, long sequence, Runnable runnable) {
+            this.dueMs = dueMs;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (dueMs != other.dueMs) {
+                return Long.compare(dueMs, other.dueMs);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final long wallClockOffsetMs;
+    private long nowMs = 0;
+    private long nextSequence = 0;
+
+    /**
+     * @param startWallClockMs Wall clock time at elapsed time 0
+     */
+    public VirtualScheduler(long startWallClockMs) {
+        this.wallClockOffsetMs = startWallClockMs;
+    }
+
+    @Override
+    public long elapsedRealtimeMs() {
+        return nowMs;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return wallClockOffsetMs + nowMs;
+    }
+
+    @Override
+    public Object postDelayed(Runnable task, long delayMs) {
+        Task scheduled = new Task(nowMs + Math.max(0, delayMs), nextSequence++, task);
+        tasks.add(scheduled);
+        return scheduled;
+    }
+
+    @Override
+    public void cancel(Object token) {
+        if (token instanceof Task) {
+            ((Task) token).cancelled = true;
+        }
+    }
+
+    /**
+     * Move the clock forward, running every task due on the way
+     */
+    public void advanceBy(long deltaMs) {
+        advanceTo(nowMs + deltaMs);
+    }
+
+    /**
+     * Move the clock to the given elapsed time, running every task due on the way
+     */
+    public void advanceTo(long targetMs) {
+        while (!tasks.isEmpty() && tasks.peek().dueMs <= targetMs) {
+            Task task = tasks.poll();
+            nowMs = Math.max(nowMs, task.dueMs);
+            if (!task.cancelled) {
+                task.runnable.run();
+            }
+        }
+        nowMs = Math.max(nowMs, targetMs);
+    }
+
+    /**
+     * Run tasks until none is left (tasks posted while running are run too)
+     */
+    public void runAll() {
+        while (!tasks.isEmpty()) {
+            advanceTo(tasks.peek().dueMs);
+        }
+    }
+}
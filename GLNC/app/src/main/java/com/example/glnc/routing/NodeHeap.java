@@ -0,0 +1,115 @@
+package com.example.glnc.routing;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of graph nodes with decrease-key (each node at most once)
+ * Sized for the whole graph once; clear() only touches the nodes still queued
+ */
+final class NodeHeap {
+    private final int[] nodes;
+    private final double[] keys;
+    private final int[] position; // Index in the heap, -1 if not queued
+    private int size = 0;
+
+    NodeHeap(int capacity) {
+        nodes = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[nodes[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Queue the node, or move it to a new key if already queued
+     */
+    void push(int node, double key) {
+        int i = position[node];
+        if (i < 0) {
+            i = size++;
+        } else if (key > keys[i]) {
+            keys[i] = key;
+            down(i);
+            return;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+        position[node] = i;
+        up(i);
+    }
+
+    double peekKey() {
+        return keys[0];
+    }
+
+    int pop() {
+        int top = nodes[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            nodes[0] = nodes[size];
+            keys[0] = keys[size];
+            position[nodes[0]] = 0;
+            down(0);
+        }
+        return top;
+    }
+
+    private void up(int i) {
+        int node = nodes[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+        position[node] = i;
+    }
+
+    private void down(int i) {
+        int node = nodes[i];
+        double key = keys[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+        position[node] = i;
+    }
+
+    private void move(int from, int to) {
+        nodes[to] = nodes[from];
+        keys[to] = keys[from];
+        position[nodes[to]] = to;
+    }
+}
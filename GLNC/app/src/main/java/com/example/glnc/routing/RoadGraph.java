@@ -0,0 +1,343 @@
+package com.example.glnc.routing;
+
+import com.example.glnc.location.GeofenceEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Directed road graph of the service area in CSR form (compressed sparse rows), memory-mapped
+ * The graph is preprocessed offline from the OSM extract (drivable ways split at junctions,
+ * one-ways kept directed, travel time from the way's speed) and written by Builder
+ *
+ * File layout (big endian ints, HEADER_INTS then the arrays):
+ *   magic, format, nodeCount, edgeCount, maxSpeedMmPerS
+ *   nodeLatE7[n], nodeLonE7[n]
+ *   firstEdge[n + 1], edgeTarget[m], edgeTimeMs[m], edgeLengthDm[m]      (outgoing edges)
+ *   firstInEdge[n + 1], inEdge[m], inSource[m]                            (incoming, as edge ids)
+ * Only the spatial grid used to snap positions to nodes lives on the heap
+ * Read-only: safe from any thread
+ */
+public final class RoadGraph {
+    static final int MAGIC = 0x474C5247; // "GLRG"
+    static final int FORMAT = 1;
+    static final int HEADER_INTS = 5;
+    private static final double E7 = 1e7;
+    private static final double CELL_DEG = 0.005; // About 500 m
+
+    private final int nodeCount;
+    private final int edgeCount;
+    private final double maxSpeedMps;
+    private final IntBuffer nodeLat;
+    private final IntBuffer nodeLon;
+    private final IntBuffer firstEdge;
+    private final IntBuffer edgeTarget;
+    private final IntBuffer edgeTime;
+    private final IntBuffer edgeLength;
+    private final IntBuffer firstInEdge;
+    private final IntBuffer inEdge;
+    private final IntBuffer inSource;
+
+    // Snapping grid: nodes of cell c are gridNodes[gridStart[c] .. gridStart[c + 1])
+    private final double minLat;
+    private final double minLon;
+    private final int gridColumns;
+    private final int gridRows;
+    private final int[] gridStart;
+    private final int[] gridNodes;
+
+    private RoadGraph(IntBuffer ints) throws IOException {
+        if (ints.get(0) != MAGIC) {
+            throw new IOException("Not a road graph");
+        }
+        if (ints.get(1) != FORMAT) {
+            throw new IOException("Unsupported road graph format " + ints.get(1));
+        }
+        nodeCount = ints.get(2);
+        edgeCount = ints.get(3);
+        maxSpeedMps = ints.get(4) / 1000.0;
+        long expected = HEADER_INTS + 2L * nodeCount + 2L * (nodeCount + 1) + 5L * edgeCount;
+        if (nodeCount < 0 || edgeCount < 0 || ints.capacity() < expected) {
+            throw new IOException("Truncated road graph");
+        }
+        int position = HEADER_INTS;
+        nodeLat = slice(ints, position, nodeCount);
+        nodeLon = slice(ints, position += nodeCount, nodeCount);
+        firstEdge = slice(ints, position += nodeCount, nodeCount + 1);
+        edgeTarget = slice(ints, position += nodeCount + 1, edgeCount);
+        edgeTime = slice(ints, position += edgeCount, edgeCount);
+        edgeLength = slice(ints, position += edgeCount, edgeCount);
+        firstInEdge = slice(ints, position += edgeCount, nodeCount + 1);
+        inEdge = slice(ints, position += nodeCount + 1, edgeCount);
+        inSource = slice(ints, position + edgeCount, edgeCount);
+
+        // Grid over the node bounding box
+        double latLow = Double.MAX_VALUE;
+        double lonLow = Double.MAX_VALUE;
+        double latHigh = -Double.MAX_VALUE;
+        double lonHigh = -Double.MAX_VALUE;
+        for (int v = 0; v < nodeCount; v++) {
+            latLow = Math.min(latLow, latitude(v));
+            latHigh = Math.max(latHigh, latitude(v));
+            lonLow = Math.min(lonLow, longitude(v));
+            lonHigh = Math.max(lonHigh, longitude(v));
+        }
+        minLat = nodeCount > 0 ? latLow : 0;
+        minLon = nodeCount > 0 ? lonLow : 0;
+        gridRows = nodeCount > 0 ? (int) ((latHigh - latLow) / CELL_DEG) + 1 : 1;
+        gridColumns = nodeCount > 0 ? (int) ((lonHigh - lonLow) / CELL_DEG) + 1 : 1;
+        gridStart = new int[gridRows * gridColumns + 1];
+        int[] cellOf = new int[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            cellOf[v] = row(latitude(v)) * gridColumns + column(longitude(v));
+            gridStart[cellOf[v] + 1]++;
+        }
+        for (int c = 0; c < gridRows * gridColumns; c++) {
+            gridStart[c + 1] += gridStart[c];
+        }
+        gridNodes = new int[nodeCount];
+        int[] fill = Arrays.copyOf(gridStart, gridStart.length - 1);
+        for (int v = 0; v < nodeCount; v++) {
+            gridNodes[fill[cellOf[v]]++] = v;
+        }
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int position, int length) {
+        IntBuffer view = ints.duplicate();
+        view.position(position);
+        view.limit(position + length);
+        return view.slice();
+    }
+
+    /**
+     * Map a graph file written by Builder
+     */
+    public static RoadGraph map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RoadGraph(buffer.asIntBuffer());
+        }
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Fastest speed on any edge (bound used by the A* heuristic)
+     */
+    double maxSpeedMps() {
+        return maxSpeedMps;
+    }
+
+    public double latitude(int node) {
+        return nodeLat.get(node) / E7;
+    }
+
+    public double longitude(int node) {
+        return nodeLon.get(node) / E7;
+    }
+
+    int firstEdge(int node) {
+        return firstEdge.get(node);
+    }
+
+    int edgeTarget(int edge) {
+        return edgeTarget.get(edge);
+    }
+
+    int edgeTimeMs(int edge) {
+        return edgeTime.get(edge);
+    }
+
+    int edgeLengthDm(int edge) {
+        return edgeLength.get(edge);
+    }
+
+    int firstInEdge(int node) {
+        return firstInEdge.get(node);
+    }
+
+    int inEdge(int index) {
+        return inEdge.get(index);
+    }
+
+    int inSource(int index) {
+        return inSource.get(index);
+    }
+
+    /**
+     * Node nearest to the position, searched ring by ring in the grid
+     * @return -1 if there is none within maxMeters
+     */
+    public int nearestNode(double lat, double lon, double maxMeters) {
+        if (nodeCount == 0) {
+            return -1;
+        }
+        int row = row(lat);
+        int column = column(lon);
+        double cellMeters = CELL_DEG * 111320.0 * Math.cos(Math.toRadians(lat));
+        int maxRing = (int) Math.ceil(maxMeters / cellMeters) + 1;
+        int best = -1;
+        double bestDistance = maxMeters;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Nodes beyond this ring are at least (ring - 1) cells away
+            if (best >= 0 && (ring - 1) * cellMeters > bestDistance) {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                for (int c = column - ring; c <= column + ring; c++) {
+                    if (Math.max(Math.abs(r - row), Math.abs(c - column)) != ring
+                            || r < 0 || c < 0 || r >= gridRows || c >= gridColumns) {
+                        continue; // Inner rings were done already
+                    }
+                    int cell = r * gridColumns + c;
+                    for (int i = gridStart[cell]; i < gridStart[cell + 1]; i++) {
+                        int v = gridNodes[i];
+                        double distance = GeofenceEngine.distanceMeters(lat, lon, latitude(v), longitude(v));
+                        if (distance <= bestDistance) {
+                            bestDistance = distance;
+                            best = v;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private int row(double lat) {
+        return (int) Math.floor((lat - minLat) / CELL_DEG);
+    }
+
+    private int column(double lon) {
+        return (int) Math.floor((lon - minLon) / CELL_DEG);
+    }
+
+    /**
+     * Collects nodes and road segments, then writes the CSR file
+     */
+    public static final class Builder {
+        private int[] lats = new int[1024];
+        private int[] lons = new int[1024];
+        private int nodes = 0;
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private int[] times = new int[1024];
+        private int[] lengths = new int[1024];
+        private int edges = 0;
+        private double maxSpeedMps = 0;
+
+        public int addNode(double lat, double lon) {
+            if (nodes == lats.length) {
+                lats = Arrays.copyOf(lats, nodes * 2);
+                lons = Arrays.copyOf(lons, nodes * 2);
+            }
+            lats[nodes] = (int) Math.round(lat * E7);
+            lons[nodes] = (int) Math.round(lon * E7);
+            return nodes++;
+        }
+
+        /**
+         * Add a road segment between two nodes, its length being the straight line between them
+         * (split curved ways at their shape points)
+         * @param oneWay true if it may only be driven from a to b
+         */
+        public Builder addRoad(int a, int b, double speedKmh, boolean oneWay) {
+            double meters = GeofenceEngine.distanceMeters(lats[a] / E7, lons[a] / E7, lats[b] / E7, lons[b] / E7);
+            addEdge(a, b, meters, speedKmh);
+            if (!oneWay) {
+                addEdge(b, a, meters, speedKmh);
+            }
+            return this;
+        }
+
+        private void addEdge(int a, int b, double meters, double speedKmh) {
+            if (a < 0 || b < 0 || a >= nodes || b >= nodes || speedKmh <= 0) {
+                throw new IllegalArgumentException("Bad road " + a + " -> " + b + " at " + speedKmh + " km/h");
+            }
+            if (edges == from.length) {
+                from = Arrays.copyOf(from, edges * 2);
+                to = Arrays.copyOf(to, edges * 2);
+                times = Arrays.copyOf(times, edges * 2);
+                lengths = Arrays.copyOf(lengths, edges * 2);
+            }
+            double speedMps = speedKmh / 3.6;
+            maxSpeedMps = Math.max(maxSpeedMps, speedMps);
+            from[edges] = a;
+            to[edges] = b;
+            times[edges] = (int) Math.round(meters / speedMps * 1000);
+            lengths[edges] = (int) Math.round(meters * 10);
+            edges++;
+        }
+
+        public void write(File file) throws IOException {
+            // Outgoing edges grouped by source (counting sort), incoming edges grouped by target
+            int[] firstOut = new int[nodes + 1];
+            int[] firstIn = new int[nodes + 1];
+            for (int e = 0; e < edges; e++) {
+                firstOut[from[e] + 1]++;
+                firstIn[to[e] + 1]++;
+            }
+            for (int v = 0; v < nodes; v++) {
+                firstOut[v + 1] += firstOut[v];
+                firstIn[v + 1] += firstIn[v];
+            }
+            int[] order = new int[edges];
+            int[] fill = Arrays.copyOf(firstOut, nodes);
+            for (int e = 0; e < edges; e++) {
+                order[fill[from[e]]++] = e;
+            }
+            int[] incoming = new int[edges];
+            int[] incomingSource = new int[edges];
+            fill = Arrays.copyOf(firstIn, nodes);
+            for (int csr = 0; csr < edges; csr++) {
+                int slot = fill[to[order[csr]]]++;
+                incoming[slot] = csr;
+                incomingSource[slot] = from[order[csr]];
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(nodes);
+                out.writeInt(edges);
+                out.writeInt((int) Math.ceil(maxSpeedMps * 1000));
+                writeInts(out, lats, nodes);
+                writeInts(out, lons, nodes);
+                writeInts(out, firstOut, nodes + 1);
+                for (int csr = 0; csr < edges; csr++) {
+                    out.writeInt(to[order[csr]]);
+                }
+                for (int csr = 0; csr < edges; csr++) {
+                    out.writeInt(times[order[csr]]);
+                }
+                for (int csr = 0; csr < edges; csr++) {
+                    out.writeInt(lengths[order[csr]]);
+                }
+                writeInts(out, firstIn, nodes + 1);
+                writeInts(out, incoming, edges);
+                writeInts(out, incomingSource, edges);
+            }
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+    }
+}
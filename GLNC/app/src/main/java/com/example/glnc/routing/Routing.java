@@ -0,0 +1,92 @@
+package com.example.glnc.routing;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Process-wide routing engine over the service-area road graph
+ * The graph is memory-mapped from filesDir/routing/road_graph.bin, installed there by
+ * OfflineMapUpdater or, on first use, copied from the bundled asset (assets cannot be mapped);
+ * without either, routing is disabled
+ */
+public class Routing {
+    static final String GRAPH_NAME = "routing/road_graph.bin";
+
+    private static RoutingEngine instance;
+    private static boolean loaded = false;
+
+    private Routing() {
+    }
+
+    /**
+     * Get the shared engine, mapping the graph on first call (may copy the asset: call off the main thread)
+     * @param context Any context (the application context is used)
+     * @return The engine, or null if no road graph is installed
+     */
+    public static synchronized RoutingEngine get(Context context) {
+        if (!loaded) {
+            loaded = true;
+            Context appContext = context.getApplicationContext();
+            long start = System.nanoTime();
+            File file = getGraphFile(appContext);
+            try {
+                if (!file.exists() && !copyAsset(appContext, file)) {
+                    Log.w("Routing", "No road graph, offline routing disabled");
+                    return null;
+                }
+                RoadGraph graph = RoadGraph.map(file);
+                instance = new RoutingEngine(graph);
+                Log.d("Routing", "Road graph: " + graph.nodeCount() + " nodes, " + graph.edgeCount()
+                        + " edges, ready in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                Log.e("Routing", "Unreadable road graph " + file, e);
+                file.delete(); // Copied again from the asset next process
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Where the graph is installed
+     */
+    public static File getGraphFile(Context context) {
+        return new File(context.getFilesDir(), GRAPH_NAME);
+    }
+
+    /**
+     * A new graph was installed: map it on next get() (engines already handed out keep the old mapping)
+     */
+    public static synchronized void invalidate() {
+        loaded = false;
+        instance = null;
+    }
+
+    private static boolean copyAsset(Context context, File file) throws IOException {
+        InputStream in;
+        try {
+            in = context.getAssets().open(GRAPH_NAME);
+        } catch (IOException e) {
+            return false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        file.getParentFile().mkdirs();
+        try (InputStream source = in; OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = source.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot install " + file);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.glnc.routing;
+
+import com.example.glnc.location.GeofenceEngine;
+
+import java.util.Arrays;
+
+/**
+ * Road routing on a RoadGraph, fastest path by travel time
+ * - Point to point: bidirectional A* with the average potential of the two directions
+ *   (straight-line time at the graph's top speed), so both searches stay consistent and
+ *   the usual bidirectional stop rule applies
+ * - One to many: a single Dijkstra from the origin that stops once every target is settled
+ * Positions are snapped to the nearest node; the gap is driven in a straight line at ACCESS_SPEED_MPS
+ * Search state is allocated once per engine and reset lazily (generation stamps), so a query
+ * costs the nodes it touches only; queries are serialized (synchronized)
+ */
+public class RoutingEngine {
+    static final double MAX_SNAP_METERS = 500;
+    static final double ACCESS_SPEED_MPS = 5; // Parking lots, driveways
+    private static final double METERS_PER_DEGREE = 111320.0;
+    private static final double HEURISTIC_SLACK = 0.99; // Equirectangular distance errors must not overestimate
+
+    /**
+     * Fastest road route between two positions
+     */
+    public static final class Route {
+        public final double durationSeconds;
+        public final double distanceMeters;
+        public final double[] lats; // Road nodes along the route
+        public final double[] lons;
+
+        Route(double durationSeconds, double distanceMeters, double[] lats, double[] lons) {
+            this.durationSeconds = durationSeconds;
+            this.distanceMeters = distanceMeters;
+            this.lats = lats;
+            this.lons = lons;
+        }
+    }
+
+    /**
+     * Durations and distances from one origin, NaN where a target cannot be reached
+     */
+    public static final class Table {
+        public final double[] durationSeconds;
+        public final double[] distanceMeters;
+
+        Table(int size) {
+            durationSeconds = new double[size];
+            distanceMeters = new double[size];
+            Arrays.fill(durationSeconds, Double.NaN);
+            Arrays.fill(distanceMeters, Double.NaN);
+        }
+    }
+
+    /**
+     * Per-direction search state, valid for a node only if stamp[node] == generation
+     */
+    private static final class Search {
+        final int[] stamp;
+        final double[] cost; // Travel time in ms
+        final int[] lengthDm;
+        final int[] parent;
+        final boolean[] settled;
+        final NodeHeap heap;
+
+        Search(int nodes) {
+            stamp = new int[nodes];
+            cost = new double[nodes];
+            lengthDm = new int[nodes];
+            parent = new int[nodes];
+            settled = new boolean[nodes];
+            heap = new NodeHeap(nodes);
+        }
+
+        boolean reached(int node, int generation) {
+            return stamp[node] == generation;
+        }
+
+        void reach(int node, int generation, double nodeCost, int nodeLength, int nodeParent, double key) {
+            if (stamp[node] != generation) {
+                stamp[node] = generation;
+                settled[node] = false;
+            }
+            cost[node] = nodeCost;
+            lengthDm[node] = nodeLength;
+            parent[node] = nodeParent;
+            heap.push(node, key);
+        }
+    }
+
+    private final RoadGraph graph;
+    private final Search forward;
+    private final Search backward;
+    private final double msPerMeter; // Heuristic: fastest possible time per meter
+    private int generation = 0;
+
+    // Targets of the current one-to-many query
+    private final int[] targetStamp;
+    private int lastSettled = 0;
+
+    public RoutingEngine(RoadGraph graph) {
+        this.graph = graph;
+        forward = new Search(graph.nodeCount());
+        backward = new Search(graph.nodeCount());
+        targetStamp = new int[graph.nodeCount()];
+        msPerMeter = graph.maxSpeedMps() > 0 ? HEURISTIC_SLACK * 1000 / graph.maxSpeedMps() : 0;
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Nodes settled by the last query (for benchmarks and logs)
+     */
+    public synchronized int getLastSettled() {
+        return lastSettled;
+    }
+
+    /**
+     * Fastest route between two positions
+     * @return null if either position is more than MAX_SNAP_METERS from a road, or there is no route
+     */
+    public synchronized Route route(double fromLat, double fromLon, double toLat, double toLon) {
+        int source = graph.nearestNode(fromLat, fromLon, MAX_SNAP_METERS);
+        int target = graph.nearestNode(toLat, toLon, MAX_SNAP_METERS);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+        double accessMeters = GeofenceEngine.distanceMeters(fromLat, fromLon, graph.latitude(source), graph.longitude(source))
+                + GeofenceEngine.distanceMeters(toLat, toLon, graph.latitude(target), graph.longitude(target));
+        int meeting = bidirectionalAStar(source, target);
+        if (meeting < 0) {
+            return null;
+        }
+        double costMs = forward.cost[meeting] + backward.cost[meeting];
+        int lengthDm = forward.lengthDm[meeting] + backward.lengthDm[meeting];
+        int[] nodes = pathNodes(meeting);
+        double[] lats = new double[nodes.length];
+        double[] lons = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            lats[i] = graph.latitude(nodes[i]);
+            lons[i] = graph.longitude(nodes[i]);
+        }
+        return new Route(costMs / 1000 + accessMeters / ACCESS_SPEED_MPS, lengthDm / 10.0 + accessMeters, lats, lons);
+    }
+
+    /**
+     * Road durations and distances from one position to many (stops of the shift)
+     * Targets off the road network, or unreachable, are NaN
+     */
+    public synchronized Table oneToMany(double fromLat, double fromLon, double[] toLats, double[] toLons) {
+        Table table = new Table(toLats.length);
+        int source = graph.nearestNode(fromLat, fromLon, MAX_SNAP_METERS);
+        if (source < 0) {
+            return table;
+        }
+        int[] targets = new int[toLats.length];
+        int gen = nextGeneration();
+        int remaining = 0;
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = graph.nearestNode(toLats[i], toLons[i], MAX_SNAP_METERS);
+            if (targets[i] >= 0 && targetStamp[targets[i]] != gen) {
+                targetStamp[targets[i]] = gen;
+                remaining++;
+            }
+        }
+
+        // Plain Dijkstra: no single goal to aim at
+        Search search = forward;
+        search.heap.clear();
+        search.reach(source, gen, 0, 0, -1, 0);
+        int settled = 0;
+        while (remaining > 0 && !search.heap.isEmpty()) {
+            int u = search.heap.pop();
+            search.settled[u] = true;
+            settled++;
+            if (targetStamp[u] == gen) {
+                targetStamp[u] = 0;
+                remaining--;
+            }
+            for (int e = graph.firstEdge(u), end = graph.firstEdge(u + 1); e < end; e++) {
+                int v = graph.edgeTarget(e);
+                double cost = search.cost[u] + graph.edgeTimeMs(e);
+                if (!search.reached(v, gen) || !search.settled[v] && cost < search.cost[v]) {
+                    search.reach(v, gen, cost, search.lengthDm[u] + graph.edgeLengthDm(e), u, cost);
+                }
+            }
+        }
+        lastSettled = settled;
+
+        double sourceAccess = GeofenceEngine.distanceMeters(fromLat, fromLon, graph.latitude(source), graph.longitude(source));
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (t >= 0 && search.reached(t, gen) && search.settled[t]) {
+                double access = sourceAccess + GeofenceEngine.distanceMeters(toLats[i], toLons[i], graph.latitude(t), graph.longitude(t));
+                table.durationSeconds[i] = search.cost[t] / 1000 + access / ACCESS_SPEED_MPS;
+                table.distanceMeters[i] = search.lengthDm[t] / 10.0 + access;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return The node where the best forward and backward paths meet, -1 if unreachable
+     */
+    private int bidirectionalAStar(int source, int target) {
+        int gen = nextGeneration();
+        double sourceLat = graph.latitude(source);
+        double sourceLon = graph.longitude(source);
+        double targetLat = graph.latitude(target);
+        double targetLon = graph.longitude(target);
+        double cosLat = Math.cos(Math.toRadians((sourceLat + targetLat) / 2));
+
+        forward.heap.clear();
+        backward.heap.clear();
+        forward.reach(source, gen, 0, 0, -1, potential(source, sourceLat, sourceLon, targetLat, targetLon, cosLat));
+        backward.reach(target, gen, 0, 0, -1, -potential(target, sourceLat, sourceLon, targetLat, targetLon, cosLat));
+        if (source == target) {
+            lastSettled = 0;
+            return source;
+        }
+
+        double best = Double.MAX_VALUE;
+        int meeting = -1;
+        int settled = 0;
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()) {
+            // Stop rule for consistent average potentials: no shorter path can meet any more
+            if (forward.heap.peekKey() + backward.heap.peekKey() >= best) {
+                break;
+            }
+            boolean isForward = forward.heap.size() <= backward.heap.size();
+            Search search = isForward ? forward : backward;
+            Search other = isForward ? backward : forward;
+            int u = search.heap.pop();
+            search.settled[u] = true;
+            settled++;
+            if (isForward) {
+                for (int e = graph.firstEdge(u), end = graph.firstEdge(u + 1); e < end; e++) {
+                    int v = graph.edgeTarget(e);
+                    double cost = search.cost[u] + graph.edgeTimeMs(e);
+                    if (!search.reached(v, gen) || !search.settled[v] && cost < search.cost[v]) {
+                        search.reach(v, gen, cost, search.lengthDm[u] + graph.edgeLengthDm(e), u,
+                                cost + potential(v, sourceLat, sourceLon, targetLat, targetLon, cosLat));
+                    }
+                    if (other.reached(v, gen) && cost + other.cost[v] < best) {
+                        best = cost + other.cost[v];
+                        meeting = v;
+                    }
+                }
+            } else {
+                for (int i = graph.firstInEdge(u), end = graph.firstInEdge(u + 1); i < end; i++) {
+                    int e = graph.inEdge(i);
+                    int v = graph.inSource(i);
+                    double cost = search.cost[u] + graph.edgeTimeMs(e);
+                    if (!search.reached(v, gen) || !search.settled[v] && cost < search.cost[v]) {
+                        search.reach(v, gen, cost, search.lengthDm[u] + graph.edgeLengthDm(e), u,
+                                cost - potential(v, sourceLat, sourceLon, targetLat, targetLon, cosLat));
+                    }
+                    if (other.reached(v, gen) && cost + other.cost[v] < best) {
+                        best = cost + other.cost[v];
+                        meeting = v;
+                    }
+                }
+            }
+        }
+        lastSettled = settled;
+        return meeting;
+    }
+
+    /**
+     * Forward potential: half of (time still to go to the target - time already from the source)
+     * in ms; the backward search uses its opposite
+     */
+    private double potential(int node, double sourceLat, double sourceLon, double targetLat, double targetLon,
+                             double cosLat) {
+        double lat = graph.latitude(node);
+        double lon = graph.longitude(node);
+        double toTarget = Math.hypot(lat - targetLat, (lon - targetLon) * cosLat);
+        double fromSource = Math.hypot(lat - sourceLat, (lon - sourceLon) * cosLat);
+        return (toTarget - fromSource) * METERS_PER_DEGREE * msPerMeter / 2;
+    }
+
+    private int nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) { // Never in practice: restart the stamps
+            Arrays.fill(forward.stamp, 0);
+            Arrays.fill(backward.stamp, 0);
+            Arrays.fill(targetStamp, 0);
+            generation = 1;
+        }
+        return generation;
+    }
+
+    /**
+     * Source to meeting node along forward parents, then on to the target along backward parents
+     */
+    private int[] pathNodes(int meeting) {
+        int head = 0;
+        for (int v = meeting; v >= 0; v = forward.parent[v]) {
+            head++;
+        }
+        int tail = 0;
+        for (int v = backward.parent[meeting]; v >= 0; v = backward.parent[v]) {
+            tail++;
+        }
+        int[] nodes = new int[head + tail];
+        int i = head;
+        for (int v = meeting; v >= 0; v = forward.parent[v]) {
+            nodes[--i] = v;
+        }
+        i = head;
+        for (int v = backward.parent[meeting]; v >= 0; v = backward.parent[v]) {
+            nodes[i++] = v;
+        }
+        return nodes;
+    }
+}
@@ -8,10 +8,31 @@ public class Delivery {
     private String address;
     private String contact;
     private String detail;
+    private double latitude = Double.NaN; // Stop coordinates, NaN when the backend doesn't provide them
+    private double longitude = Double.NaN;
+    private double roadEtaSeconds = Double.NaN; // Road travel time from the truck, NaN when unknown
+    private double roadDistanceMeters = Double.NaN;
 
     public Delivery() {
     }
 
+    /**
+     * Copy, enriched off the main thread while the original is displayed
+     */
+    public Delivery(Delivery other) {
+        id = other.id;
+        time = other.time;
+        client = other.client;
+        status = other.status;
+        address = other.address;
+        contact = other.contact;
+        detail = other.detail;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        roadEtaSeconds = other.roadEtaSeconds;
+        roadDistanceMeters = other.roadDistanceMeters;
+    }
+
     public Delivery(String id, String time, String client, String status) {
         this.id = id;
         this.time = time;
@@ -86,5 +107,35 @@ public class Delivery {
     public void setDetail(String detail) {
         this.detail = detail;
     }
-}
 
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setCoordinates(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public boolean hasCoordinates() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude)
+                && (latitude != 0.0 || longitude != 0.0);
+    }
+
+    public double getRoadEtaSeconds() {
+        return roadEtaSeconds;
+    }
+
+    public double getRoadDistanceMeters() {
+        return roadDistanceMeters;
+    }
+
+    public void setRoad(double etaSeconds, double distanceMeters) {
+        this.roadEtaSeconds = etaSeconds;
+        this.roadDistanceMeters = distanceMeters;
+    }
+}
@@ -103,6 +103,7 @@ public class DeliveryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         private TextView deliveryTime;
         private TextView deliveryClient;
         private TextView statusBadge;
+        private TextView roadEta;
 
         public DeliveryViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -110,12 +111,22 @@ public class DeliveryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
             deliveryTime = itemView.findViewById(R.id.delivery_time);
             deliveryClient = itemView.findViewById(R.id.delivery_client);
             statusBadge = itemView.findViewById(R.id.status_badge);
+            roadEta = itemView.findViewById(R.id.delivery_road_eta);
         }
 
         public void bind(Delivery delivery, OnItemClickListener itemListener) {
             deliveryTime.setText(delivery.getTime());
             deliveryClient.setText(delivery.getClient());
 
+            // Road ETA from the truck, once computed (in-progress stops only)
+            if (delivery.isInProgress() && !Double.isNaN(delivery.getRoadEtaSeconds())) {
+                roadEta.setText(itemView.getContext().getString(R.string.delivery_road_eta,
+                        (int) Math.ceil(delivery.getRoadEtaSeconds() / 60), delivery.getRoadDistanceMeters() / 1000));
+                roadEta.setVisibility(View.VISIBLE);
+            } else {
+                roadEta.setVisibility(View.GONE);
+            }
+
             // Make entire card clickable
             itemView.setOnClickListener(v -> {
                 if (itemListener != null) {
@@ -11,6 +11,7 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.widget.Button;
 import android.widget.ProgressBar;
@@ -26,6 +27,7 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.glnc.Global;
+import com.example.glnc.GlncApplication;
 import com.example.glnc.R;
 import com.example.glnc.databinding.DialogDeliveryDetailsBinding;
 import com.example.glnc.databinding.FragmentHomeBinding;
@@ -54,7 +56,8 @@ public class HomeFragment extends Fragment {
 
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
-        homeViewModel = new ViewModelProvider(this).get(HomeViewModel.class);
+        // Activity scope: the map screen plots the same delivery list
+        homeViewModel = new ViewModelProvider(requireActivity()).get(HomeViewModel.class);
 
         binding = FragmentHomeBinding.inflate(inflater, container, false);
         View root = binding.getRoot();
@@ -83,6 +86,7 @@ public class HomeFragment extends Fragment {
                 deliveryAdapter.setDeliveries(deliveries);
                 binding.emptyStateText.setVisibility(View.GONE);
                 binding.deliveryRecyclerView.setVisibility(View.VISIBLE);
+                reportFirstRowDrawn(binding.deliveryRecyclerView);
             } else {
                 binding.emptyStateText.setVisibility(View.VISIBLE);
                 binding.deliveryRecyclerView.setVisibility(View.GONE);
@@ -115,6 +119,21 @@ public class HomeFragment extends Fragment {
         return root;
     }
 
+    /**
+     * Cold-start measurement: time to the frame that draws the first delivery rows
+     */
+    private void reportFirstRowDrawn(View list) {
+        final Context appContext = list.getContext().getApplicationContext();
+        list.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                list.getViewTreeObserver().removeOnPreDrawListener(this);
+                GlncApplication.reportFirstDeliveryRow(appContext);
+                return true;
+            }
+        });
+    }
+
     private void showDeliveryDetailsDialog(Delivery delivery) {
         Dialog dialog = new Dialog(requireContext());
         dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
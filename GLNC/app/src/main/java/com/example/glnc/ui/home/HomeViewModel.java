@@ -9,6 +9,14 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.glnc.Global;
+import com.example.glnc.Location;
+import com.example.glnc.geocode.Geocoding;
+import com.example.glnc.geocode.OfflineGeocoder;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.routing.Routing;
+import com.example.glnc.routing.RoutingEngine;
+import com.example.glnc.ui.map.TilePrefetcher;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -18,7 +26,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -29,6 +40,12 @@ import okhttp3.Response;
 
 public class HomeViewModel extends ViewModel {
 
+    // Geocoding and road ETAs off the OkHttp threads (loads the address index, maps the road graph)
+    private static final ExecutorService enrichExecutor = Executors.newSingleThreadExecutor();
+    // Incremented by every fetch: results of an older fetch are dropped (the stop indexes are shared)
+    private static final AtomicInteger fetchGeneration = new AtomicInteger();
+    private static final Object publishLock = new Object();
+
     private MutableLiveData<List<Delivery>> deliveriesLiveData;
     private MutableLiveData<Boolean> isLoadingLiveData;
     private MutableLiveData<String> errorLiveData;
@@ -66,6 +83,7 @@ public class HomeViewModel extends ViewModel {
         // Get user_id from SharedPreferences
         SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
         String userId = prefs.getString("user_id", "");
+        final Context appContext = context.getApplicationContext();
 
         if (userId.isEmpty()) {
             errorLiveData.setValue("User not logged in");
@@ -73,6 +91,7 @@ public class HomeViewModel extends ViewModel {
             return;
         }
 
+        final int generation = fetchGeneration.incrementAndGet();
         new Thread(() -> {
             try {
                 // Create JSON body with user_id
@@ -127,7 +146,14 @@ public class HomeViewModel extends ViewModel {
                                     }
                                 });
                                 
-                                deliveriesLiveData.postValue(deliveries);
+                                // Show the list and monitor in-progress stops (arrival detection, nearest-stop queries)
+                                if (!publish(generation, appContext, deliveries, true)) {
+                                    Log.d("HomeViewModel", "Dropped the deliveries of an older fetch");
+                                    return;
+                                }
+                                
+                                // After the first render: may read the address index and map the road graph
+                                enrichExecutor.execute(() -> enrichDeliveries(generation, appContext, deliveries));
                             } catch (Exception e) {
                                 errorLiveData.postValue("Failed to parse deliveries: " + e.getMessage());
                                 Log.e("HomeViewModel", "Failed to parse deliveries", e);
@@ -145,6 +171,153 @@ public class HomeViewModel extends ViewModel {
         }).start();
     }
 
+    /**
+     * Post a delivery list (and update the stop indexes) unless a newer fetch started meanwhile
+     * @return false if the list is outdated and was dropped
+     */
+    private boolean publish(int generation, Context context, List<Delivery> deliveries, boolean updateIndexes) {
+        synchronized (publishLock) {
+            if (generation != fetchGeneration.get()) {
+                return false;
+            }
+            deliveriesLiveData.postValue(deliveries);
+            if (updateIndexes) {
+                updateStopIndexes(context, deliveries);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Register in-progress deliveries that have coordinates with the geofence engine
+     * and the delivery index (updated incrementally), pin and prefetch the map tiles along them
+     * Completed and cancelled stops are no longer monitored
+     */
+    private void updateStopIndexes(Context context, List<Delivery> deliveries) {
+        List<Delivery> stops = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.isInProgress() && delivery.hasCoordinates() && delivery.getId() != null) {
+                stops.add(delivery);
+            }
+        }
+        
+        String[] ids = new String[stops.size()];
+        double[] lats = new double[stops.size()];
+        double[] lons = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            ids[i] = stops.get(i).getId();
+            lats[i] = stops.get(i).getLatitude();
+            lons[i] = stops.get(i).getLongitude();
+        }
+        Location.getGeofenceEngine().setStops(ids, lats, lons);
+        Location.getDeliveryIndex().update(ids, lats, lons);
+
+        if (lats.length > 0) {
+            // Route starts at the truck (last known fix), or at the first stop before any fix
+            LocationSnapshot position = Location.getLocationStream().getLatest();
+            if (position == null) {
+                position = LastFixStore.get(context).getLastFix();
+            }
+            double startLat = position != null ? position.latitude : lats[0];
+            double startLon = position != null ? position.longitude : lons[0];
+            TilePrefetcher.get(context).setStops(startLat, startLon, lats, lons);
+        }
+    }
+
+    /**
+     * Complete the displayed list off the critical path, on copies (the posted deliveries are
+     * never modified), and post it again if anything was added and no newer fetch started
+     */
+    private void enrichDeliveries(int generation, Context context, List<Delivery> deliveries) {
+        if (generation != fetchGeneration.get()) {
+            return; // A newer list is on its way
+        }
+        List<Delivery> enriched = new ArrayList<>(deliveries.size());
+        for (Delivery delivery : deliveries) {
+            enriched.add(new Delivery(delivery));
+        }
+        boolean geocoded = geocodeMissingCoordinates(context, enriched) > 0;
+        boolean routed = updateRoadEtas(context, enriched) > 0;
+        if ((geocoded || routed) && !publish(generation, context, enriched, geocoded)) {
+            Log.d("HomeViewModel", "Dropped the enrichment of an older fetch");
+        }
+    }
+
+    /**
+     * Give coordinates to the deliveries the backend sent without any, from their address
+     * (offline geocoder, results cached per normalized address)
+     * @return The number of deliveries geocoded
+     */
+    private int geocodeMissingCoordinates(Context context, List<Delivery> deliveries) {
+        OfflineGeocoder geocoder = null;
+        int geocoded = 0;
+        int missed = 0;
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates() || delivery.getAddress() == null || delivery.getAddress().trim().isEmpty()) {
+                continue;
+            }
+            if (geocoder == null) {
+                geocoder = Geocoding.get(context);
+                if (geocoder == null) {
+                    return 0; // No address index installed
+                }
+            }
+            OfflineGeocoder.Result result = geocoder.forward(delivery.getAddress());
+            if (result != null) {
+                delivery.setCoordinates(result.latitude, result.longitude);
+                geocoded++;
+            } else {
+                missed++;
+            }
+        }
+        if (geocoded + missed > 0) {
+            Log.d("HomeViewModel", "Geocoded " + geocoded + " delivery addresses offline, " + missed + " not found");
+        }
+        return geocoded;
+    }
+
+    /**
+     * Road travel time and distance from the truck to each in-progress stop (offline road graph)
+     * @return The number of stops given a road ETA
+     */
+    private int updateRoadEtas(Context context, List<Delivery> deliveries) {
+        List<Delivery> stops = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.isInProgress() && delivery.hasCoordinates()) {
+                stops.add(delivery);
+            }
+        }
+        if (stops.isEmpty()) {
+            return 0;
+        }
+        LocationSnapshot position = Location.getLocationStream().getLatest();
+        if (position == null) {
+            position = LastFixStore.get(context).getLastFix();
+        }
+        RoutingEngine engine = position != null ? Routing.get(context) : null;
+        if (engine == null) {
+            return 0; // No position yet, or no road graph installed
+        }
+        double[] lats = new double[stops.size()];
+        double[] lons = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            lats[i] = stops.get(i).getLatitude();
+            lons[i] = stops.get(i).getLongitude();
+        }
+        long start = System.nanoTime();
+        RoutingEngine.Table table = engine.oneToMany(position.latitude, position.longitude, lats, lons);
+        int routed = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            stops.get(i).setRoad(table.durationSeconds[i], table.distanceMeters[i]);
+            if (!Double.isNaN(table.durationSeconds[i])) {
+                routed++;
+            }
+        }
+        Log.d("HomeViewModel", "Road ETAs for " + routed + "/" + stops.size() + " stops in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return routed;
+    }
+
     private List<Delivery> parseDeliveries(String responseBody) throws Exception {
         List<Delivery> deliveries = new ArrayList<>();
         
@@ -232,6 +405,14 @@ public class HomeViewModel extends ViewModel {
                     delivery.setDetail(deliveryObj.getString("description"));
                 }
                 
+                // Parse stop coordinates (optional - used for geofence arrival detection)
+                // The backend sends where the last delivery to the address was signed, or null
+                if (!deliveryObj.isNull("latitude") && !deliveryObj.isNull("longitude")) {
+                    delivery.setCoordinates(deliveryObj.optDouble("latitude"), deliveryObj.optDouble("longitude"));
+                } else if (!deliveryObj.isNull("lati") && !deliveryObj.isNull("longi")) {
+                    delivery.setCoordinates(deliveryObj.optDouble("lati"), deliveryObj.optDouble("longi"));
+                }
+                
                 // Determine status based on date_time_arrival and return_flag
                 // Backend format:
                 // - return_flag: 1 (if ReturnFlag is true) or 0 (if ReturnFlag is false)
@@ -0,0 +1,369 @@
+package com.example.glnc.ui.map;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.example.glnc.location.ShiftTrack;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.Arrays;
+
+/**
+ * Trail of the truck during the shift (ShiftTrack)
+ * - One simplified polyline per zoom level in LEVEL_ZOOMS, each with a tolerance of
+ *   TOLERANCE_PX at its zoom; points are appended incrementally (no full re-simplification),
+ *   and no dropped point is ever farther than the tolerance from the drawn line
+ * - Each polyline is split into CHUNK-point chunks with a bounding box; only chunks that
+ *   intersect the viewport are projected and drawn
+ * Drawing cost follows the visible part of the trail at the current zoom, not the shift length
+ * Main thread only
+ */
+public class BreadcrumbOverlay extends Overlay {
+    static final int[] LEVEL_ZOOMS = {8, 10, 12, 14, 16, 18};
+    static final float TOLERANCE_PX = 1.5f;
+    static final int CHUNK = 64;
+    private static final int TILE_PX = 256;
+    private static final int SYNC_BATCH = 256;
+
+    /**
+     * Polyline simplified for one zoom level, in normalized Web Mercator (0..1)
+     * The last point (candidate) is tentative: it is dropped when the segment from the last kept
+     * point to the next point still passes within the tolerance of every point dropped since
+     * (sector test): each dropped point at distance d narrows the allowed directions from the
+     * kept point to its own direction +- asin(tolerance / d), and the segment must reach at
+     * least as far as the farthest dropped point so that their projections fall on it
+     */
+    static final class Level {
+        final double tolerance;
+        double[] x = new double[CHUNK];
+        double[] y = new double[CHUNK];
+        int size = 0;
+        boolean hasCandidate = false;
+        double candidateX;
+        double candidateY;
+
+        // Sector of the points dropped since the last kept point: angles relative to sectorAxis
+        boolean hasSector = false;
+        double sectorAxis;
+        double sectorLow;
+        double sectorHigh;
+        double sectorReach; // Distance of the farthest constraining point
+
+        // Chunk bounding boxes (a chunk includes the first point of the next one)
+        double[] minX = new double[4];
+        double[] minY = new double[4];
+        double[] maxX = new double[4];
+        double[] maxY = new double[4];
+
+        // Area changed since the last dirty-rect query
+        double dirtyMinX = Double.MAX_VALUE;
+        double dirtyMinY = Double.MAX_VALUE;
+        double dirtyMaxX = -Double.MAX_VALUE;
+        double dirtyMaxY = -Double.MAX_VALUE;
+
+        Level(int zoom) {
+            tolerance = TOLERANCE_PX / ((double) TILE_PX * (1L << zoom));
+        }
+
+        void append(double px, double py) {
+            markDirty(px, py);
+            if (size == 0) {
+                keep(px, py);
+                return;
+            }
+            double kx = x[size - 1];
+            double ky = y[size - 1];
+            markDirty(kx, ky);
+            if (!hasCandidate) {
+                setCandidate(px, py);
+                return;
+            }
+            markDirty(candidateX, candidateY);
+            if (!dropCandidate(kx, ky, px, py)) {
+                keep(candidateX, candidateY);
+                hasSector = false;
+            }
+            setCandidate(px, py);
+        }
+
+        /**
+         * Narrow the sector with the candidate if the segment to (px, py) stays within the tolerance
+         * of it and of the points dropped before
+         * @return false (sector unchanged) if the candidate must be kept
+         */
+        private boolean dropCandidate(double kx, double ky, double px, double py) {
+            double candidateDistance = Math.hypot(candidateX - kx, candidateY - ky);
+            if (candidateDistance <= tolerance) {
+                // Within the tolerance of the kept point, hence of any segment starting there
+                return !hasSector || fitsSector(kx, ky, px, py, sectorAxis, sectorLow, sectorHigh, sectorReach);
+            }
+            double direction = Math.atan2(candidateY - ky, candidateX - kx);
+            double halfWidth = Math.asin(tolerance / candidateDistance);
+            double axis = hasSector ? sectorAxis : direction;
+            double center = relativeAngle(direction, axis);
+            double low = hasSector ? Math.max(sectorLow, center - halfWidth) : center - halfWidth;
+            double high = hasSector ? Math.min(sectorHigh, center + halfWidth) : center + halfWidth;
+            double reach = hasSector ? Math.max(sectorReach, candidateDistance) : candidateDistance;
+            if (low > high || !fitsSector(kx, ky, px, py, axis, low, high, reach)) {
+                return false;
+            }
+            hasSector = true;
+            sectorAxis = axis;
+            sectorLow = low;
+            sectorHigh = high;
+            sectorReach = reach;
+            return true;
+        }
+
+        private static boolean fitsSector(double kx, double ky, double px, double py,
+                                          double axis, double low, double high, double reach) {
+            if (Math.hypot(px - kx, py - ky) < reach) {
+                return false;
+            }
+            double angle = relativeAngle(Math.atan2(py - ky, px - kx), axis);
+            return angle >= low && angle <= high;
+        }
+
+        /**
+         * Angle from axis to direction, in [-pi, pi)
+         */
+        private static double relativeAngle(double direction, double axis) {
+            double angle = direction - axis;
+            while (angle >= Math.PI) {
+                angle -= 2 * Math.PI;
+            }
+            while (angle < -Math.PI) {
+                angle += 2 * Math.PI;
+            }
+            return angle;
+        }
+
+        int pointCount() {
+            return size + (hasCandidate ? 1 : 0);
+        }
+
+        int chunkCount() {
+            return (size + CHUNK - 1) / CHUNK;
+        }
+
+        void clear() {
+            size = 0;
+            hasCandidate = false;
+            hasSector = false;
+        }
+
+        private void setCandidate(double px, double py) {
+            candidateX = px;
+            candidateY = py;
+            hasCandidate = true;
+        }
+
+        private void keep(double px, double py) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+            }
+            x[size] = px;
+            y[size] = py;
+            int chunk = size / CHUNK;
+            if (chunk == minX.length) {
+                minX = Arrays.copyOf(minX, chunk * 2);
+                minY = Arrays.copyOf(minY, chunk * 2);
+                maxX = Arrays.copyOf(maxX, chunk * 2);
+                maxY = Arrays.copyOf(maxY, chunk * 2);
+            }
+            if (size % CHUNK == 0) {
+                minX[chunk] = maxX[chunk] = px;
+                minY[chunk] = maxY[chunk] = py;
+                if (chunk > 0) {
+                    expand(chunk - 1, px, py); // Segment joining the previous chunk to this one
+                }
+            } else {
+                expand(chunk, px, py);
+            }
+            size++;
+        }
+
+        private void expand(int chunk, double px, double py) {
+            minX[chunk] = Math.min(minX[chunk], px);
+            minY[chunk] = Math.min(minY[chunk], py);
+            maxX[chunk] = Math.max(maxX[chunk], px);
+            maxY[chunk] = Math.max(maxY[chunk], py);
+        }
+
+        private void markDirty(double px, double py) {
+            dirtyMinX = Math.min(dirtyMinX, px);
+            dirtyMinY = Math.min(dirtyMinY, py);
+            dirtyMaxX = Math.max(dirtyMaxX, px);
+            dirtyMaxY = Math.max(dirtyMaxY, py);
+        }
+
+        void clearDirty() {
+            dirtyMinX = dirtyMinY = Double.MAX_VALUE;
+            dirtyMaxX = dirtyMaxY = -Double.MAX_VALUE;
+        }
+
+        /**
+         * Distance from point (px, py) to segment (ax, ay)-(bx, by)
+         */
+        static double deviation(double px, double py, double ax, double ay, double bx, double by) {
+            double dx = bx - ax;
+            double dy = by - ay;
+            double lengthSq = dx * dx + dy * dy;
+            double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq));
+            return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+        }
+    }
+
+    private final Level[] levels = new Level[LEVEL_ZOOMS.length];
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float strokePx;
+    private final GeoPoint point = new GeoPoint(0.0, 0.0);
+    private final Point pixels = new Point();
+    private final Point corner = new Point();
+    private final float[] lines = new float[(CHUNK + 1) * 4];
+    private final double[] syncLats = new double[SYNC_BATCH];
+    private final double[] syncLons = new double[SYNC_BATCH];
+    private int consumed = 0;
+    private int generation = -1;
+
+    public BreadcrumbOverlay(float density) {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Level(LEVEL_ZOOMS[i]);
+        }
+        strokePx = 4 * density;
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(strokePx);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setColor(Color.parseColor("#B36200EE"));
+    }
+
+    /**
+     * Append the points recorded since the last call (all of them the first time)
+     * @return true if the trail changed
+     */
+    public boolean sync(ShiftTrack track) {
+        if (track.getGeneration() != generation) {
+            generation = track.getGeneration(); // New shift
+            consumed = 0;
+            for (Level level : levels) {
+                level.clear();
+            }
+        }
+        boolean changed = false;
+        int copied;
+        while ((copied = track.copy(consumed, syncLats, syncLons)) > 0) {
+            for (int i = 0; i < copied; i++) {
+                double px = DeliveryOverlay.mercatorX(syncLons[i]);
+                double py = DeliveryOverlay.mercatorY(syncLats[i]);
+                for (Level level : levels) {
+                    level.append(px, py);
+                }
+            }
+            consumed += copied;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Screen area changed by the points appended since the last call, at the drawn zoom level
+     * @return false if nothing changed
+     */
+    public boolean takeDirtyRect(MapView mapView, Rect out) {
+        Level level = levelFor(mapView.getZoomLevelDouble());
+        boolean dirty = level.dirtyMinX <= level.dirtyMaxX;
+        if (dirty) {
+            Projection projection = mapView.getProjection();
+            toPixels(projection, level.dirtyMinX, level.dirtyMinY, pixels);
+            toPixels(projection, level.dirtyMaxX, level.dirtyMaxY, corner);
+            int pad = (int) Math.ceil(strokePx);
+            out.set(Math.min(pixels.x, corner.x) - pad, Math.min(pixels.y, corner.y) - pad,
+                    Math.max(pixels.x, corner.x) + pad, Math.max(pixels.y, corner.y) + pad);
+        }
+        for (Level each : levels) {
+            each.clearDirty();
+        }
+        return dirty;
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        if (shadow || !isEnabled()) {
+            return;
+        }
+        Level level = levelFor(mapView.getZoomLevelDouble());
+        if (level.pointCount() < 2) {
+            return;
+        }
+        Projection projection = mapView.getProjection();
+        BoundingBox box = projection.getBoundingBox();
+        double viewMinX = DeliveryOverlay.mercatorX(box.getLonWest()) - level.tolerance;
+        double viewMaxX = DeliveryOverlay.mercatorX(box.getLonEast()) + level.tolerance;
+        double viewMinY = DeliveryOverlay.mercatorY(box.getLatNorth()) - level.tolerance;
+        double viewMaxY = DeliveryOverlay.mercatorY(box.getLatSouth()) + level.tolerance;
+
+        int chunks = level.chunkCount();
+        for (int c = 0; c < chunks; c++) {
+            boolean last = c == chunks - 1;
+            if ((level.maxX[c] < viewMinX || level.minX[c] > viewMaxX
+                    || level.maxY[c] < viewMinY || level.minY[c] > viewMaxY)
+                    && !(last && level.hasCandidate && level.candidateX >= viewMinX && level.candidateX <= viewMaxX
+                        && level.candidateY >= viewMinY && level.candidateY <= viewMaxY)) {
+                continue; // Culled
+            }
+            int start = c * CHUNK;
+            int end = Math.min(level.size - 1, start + CHUNK); // First point of the next chunk closes it
+            drawRange(canvas, projection, level, start, end, last);
+        }
+    }
+
+    /**
+     * Draw kept points [start, end], plus the segment to the candidate after the last chunk
+     */
+    private void drawRange(Canvas canvas, Projection projection, Level level, int start, int end, boolean last) {
+        int count = 0;
+        toPixels(projection, level.x[start], level.y[start], corner);
+        for (int i = start + 1; i <= end + (last && level.hasCandidate ? 1 : 0); i++) {
+            if (i <= end) {
+                toPixels(projection, level.x[i], level.y[i], pixels);
+            } else {
+                toPixels(projection, level.candidateX, level.candidateY, pixels);
+            }
+            lines[count++] = corner.x;
+            lines[count++] = corner.y;
+            lines[count++] = pixels.x;
+            lines[count++] = pixels.y;
+            corner.set(pixels.x, pixels.y);
+        }
+        if (count > 0) {
+            canvas.drawLines(lines, 0, count, paint);
+        }
+    }
+
+    private void toPixels(Projection projection, double mercatorX, double mercatorY, Point out) {
+        point.setCoords(DeliveryOverlay.latitude(mercatorY), DeliveryOverlay.longitude(mercatorX));
+        projection.toPixels(point, out);
+    }
+
+    /**
+     * Finest level not finer than the current zoom
+     */
+    private Level levelFor(double zoom) {
+        int index = 0;
+        for (int i = 0; i < LEVEL_ZOOMS.length; i++) {
+            if (LEVEL_ZOOMS[i] <= zoom) {
+                index = i;
+            }
+        }
+        return levels[index];
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.glnc.ui.map;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.view.MotionEvent;
+
+import com.example.glnc.ui.home.Delivery;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivery stops on the map, coloured by status (in progress / livré / annulé)
+ * Below CLUSTER_MAX_ZOOM, stops in the same CLUSTER_CELL_PX screen grid cell are drawn as one
+ * circle with a count; the grid pass only runs when the integer zoom level or the stop list
+ * changes, drawing a frame only projects the clusters and allocates nothing
+ * Tapping a cluster zooms in on it
+ */
+public class DeliveryOverlay extends Overlay {
+    static final int CLUSTER_MAX_ZOOM = 17; // Every stop drawn on its own from this zoom
+    static final int CLUSTER_CELL_PX = 64;
+    private static final int TILE_PX = 256;
+    private static final byte IN_PROGRESS = 0;
+    private static final byte COMPLETED = 1;
+    private static final byte CANCELLED = 2;
+
+    private final float density;
+    private final Paint[] fills = new Paint[3];
+    private final Paint outline = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint label = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Point pixels = new Point();
+    private final GeoPoint point = new GeoPoint(0.0, 0.0);
+
+    // Stops (normalized Web Mercator, 0..1)
+    private double[] stopX = new double[0];
+    private double[] stopY = new double[0];
+    private byte[] stopStatus = new byte[0];
+
+    // Clusters for clusteredZoom
+    private int clusteredZoom = -1;
+    private int clusterCount = 0;
+    private double[] clusterLat = new double[0];
+    private double[] clusterLon = new double[0];
+    private int[] clusterSize = new int[0];
+    private byte[] clusterStatus = new byte[0];
+    private String[] clusterLabel = new String[0];
+
+    public DeliveryOverlay(float density) {
+        this.density = density;
+        int[] colors = {Color.parseColor("#FF018786"), Color.parseColor("#FF9E9E9E"), Color.parseColor("#FFD32F2F")};
+        for (int i = 0; i < fills.length; i++) {
+            fills[i] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            fills[i].setStyle(Paint.Style.FILL);
+            fills[i].setColor(colors[i]);
+        }
+        outline.setStyle(Paint.Style.STROKE);
+        outline.setStrokeWidth(2 * density);
+        outline.setColor(Color.WHITE);
+        label.setColor(Color.WHITE);
+        label.setTextAlign(Paint.Align.CENTER);
+        label.setTextSize(12 * density);
+        label.setFakeBoldText(true);
+    }
+
+    /**
+     * Replace the stops (stops without coordinates are skipped); call from the main thread
+     */
+    public void setDeliveries(List<Delivery> deliveries) {
+        List<Delivery> located = new ArrayList<>();
+        if (deliveries != null) {
+            for (Delivery delivery : deliveries) {
+                if (delivery.hasCoordinates()) {
+                    located.add(delivery);
+                }
+            }
+        }
+        stopX = new double[located.size()];
+        stopY = new double[located.size()];
+        stopStatus = new byte[located.size()];
+        for (int i = 0; i < located.size(); i++) {
+            Delivery delivery = located.get(i);
+            stopX[i] = mercatorX(delivery.getLongitude());
+            stopY[i] = mercatorY(delivery.getLatitude());
+            stopStatus[i] = delivery.isCancelled() ? CANCELLED : delivery.isCompleted() ? COMPLETED : IN_PROGRESS;
+        }
+        clusteredZoom = -1; // Recluster on the next frame
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        if (shadow || !isEnabled() || stopX.length == 0) {
+            return;
+        }
+        int zoom = (int) Math.floor(mapView.getZoomLevelDouble());
+        if (zoom != clusteredZoom) {
+            cluster(zoom);
+        }
+        Projection projection = mapView.getProjection();
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        float stopRadius = 7 * density;
+        for (int i = 0; i < clusterCount; i++) {
+            point.setCoords(clusterLat[i], clusterLon[i]);
+            projection.toPixels(point, pixels);
+            float radius = clusterSize[i] == 1 ? stopRadius : radiusFor(clusterSize[i]);
+            if (pixels.x + radius < 0 || pixels.y + radius < 0 || pixels.x - radius > width || pixels.y - radius > height) {
+                continue;
+            }
+            canvas.drawCircle(pixels.x, pixels.y, radius, fills[clusterStatus[i]]);
+            canvas.drawCircle(pixels.x, pixels.y, radius, outline);
+            if (clusterLabel[i] != null) {
+                canvas.drawText(clusterLabel[i], pixels.x, pixels.y - (label.descent() + label.ascent()) / 2, label);
+            }
+        }
+    }
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent event, MapView mapView) {
+        Projection projection = mapView.getProjection();
+        for (int i = clusterCount - 1; i >= 0; i--) {
+            if (clusterSize[i] < 2) {
+                continue;
+            }
+            point.setCoords(clusterLat[i], clusterLon[i]);
+            projection.toPixels(point, pixels);
+            float radius = radiusFor(clusterSize[i]);
+            float dx = event.getX() - pixels.x;
+            float dy = event.getY() - pixels.y;
+            if (dx * dx + dy * dy <= radius * radius) {
+                mapView.getController().animateTo(new GeoPoint(clusterLat[i], clusterLon[i]),
+                        Math.min(mapView.getZoomLevelDouble() + 2, CLUSTER_MAX_ZOOM), null);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grid pass: stops in the same screen cell at this zoom become one cluster at their centroid
+     * The cluster takes the in-progress colour if any stop is still to deliver, otherwise the
+     * most frequent status
+     */
+    private void cluster(int zoom) {
+        clusteredZoom = zoom;
+        int count = stopX.length;
+        double worldCells = (double) TILE_PX * (1L << zoom) / CLUSTER_CELL_PX;
+        boolean clustering = zoom < CLUSTER_MAX_ZOOM;
+        Map<Long, Integer> cellToCluster = new HashMap<>();
+        double[] sumX = new double[count];
+        double[] sumY = new double[count];
+        int[] size = new int[count];
+        int[][] statusCounts = new int[count][3];
+        int clusters = 0;
+        for (int i = 0; i < count; i++) {
+            int index;
+            if (clustering) {
+                long cellX = (long) (stopX[i] * worldCells);
+                long cellY = (long) (stopY[i] * worldCells);
+                Long key = (cellY << 32) | cellX;
+                Integer existing = cellToCluster.get(key);
+                if (existing == null) {
+                    index = clusters++;
+                    cellToCluster.put(key, index);
+                } else {
+                    index = existing;
+                }
+            } else {
+                index = clusters++;
+            }
+            sumX[index] += stopX[i];
+            sumY[index] += stopY[i];
+            size[index]++;
+            statusCounts[index][stopStatus[i]]++;
+        }
+
+        if (clusterLat.length < clusters) {
+            clusterLat = new double[count];
+            clusterLon = new double[count];
+            clusterSize = new int[count];
+            clusterStatus = new byte[count];
+            clusterLabel = new String[count];
+        }
+        for (int c = 0; c < clusters; c++) {
+            clusterLat[c] = latitude(sumY[c] / size[c]);
+            clusterLon[c] = longitude(sumX[c] / size[c]);
+            clusterSize[c] = size[c];
+            int[] counts = statusCounts[c];
+            if (counts[IN_PROGRESS] > 0) {
+                clusterStatus[c] = IN_PROGRESS;
+            } else {
+                clusterStatus[c] = counts[CANCELLED] > counts[COMPLETED] ? CANCELLED : COMPLETED;
+            }
+            clusterLabel[c] = size[c] > 1 ? String.valueOf(size[c]) : null;
+        }
+        clusterCount = clusters;
+    }
+
+    private float radiusFor(int size) {
+        return (float) (12 + 12 * Math.log10(size)) * density; // About 15.6 dp for 2 stops, 24 dp for 10, 36 dp for 100
+    }
+
+    static double mercatorX(double lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+    static double mercatorY(double lat) {
+        double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, lat))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double longitude(double x) {
+        return x * 360.0 - 180.0;
+    }
+
+    static double latitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.glnc.ui.map;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.example.glnc.location.LocationSnapshot;
+
+import org.osmdroid.api.IGeoPoint;
+
+/**
+ * Smooth marker and camera between fixes, driven by the Choreographer (display refresh rate)
+ * - Dead reckoning: from the last fix, the position moves on at its speed and bearing for at
+ *   most MAX_EXTRAPOLATION_NS (not below MIN_SPEED_MPS, where bearings are noise)
+ * - A new fix does not jump: the gap between the displayed and the predicted position is
+ *   blended away over BLEND_NS
+ * - Bearing turns the short way round
+ * - The camera only moves when the marker leaves the central safe area (SAFE_AREA of the
+ *   half-view): it then eases back onto the marker (CAMERA_TAU_NS) until it is within
+ *   SETTLED_AREA of the center, and stays still again; a still camera lets the map redraw
+ *   only around the marker
+ * Frames are only requested while something moves; only already accepted fixes are used,
+ * so GPS requests are unchanged
+ * Main thread only
+ */
+class FollowController implements Choreographer.FrameCallback {
+    static final long BLEND_NS = 1_000_000_000L;
+    static final long MAX_EXTRAPOLATION_NS = 4_000_000_000L;
+    static final float MIN_SPEED_MPS = 1.0f;
+    static final double CAMERA_TAU_NS = 350_000_000.0;
+    static final double BEARING_TAU_NS = 300_000_000.0;
+    private static final double METERS_PER_DEGREE = 111320.0;
+    static final double SAFE_AREA = 0.5;
+    static final double SETTLED_AREA = 0.05;
+
+    interface Renderer {
+        /**
+         * Draw one frame
+         * @param moveCamera true if the camera must be centered on cameraLat/cameraLon
+         */
+        void onFollowFrame(double lat, double lon, float bearing, boolean moveCamera, double cameraLat, double cameraLon);
+
+        /**
+         * Where a point is on the map view: 0 at the center, 1 on the edge (farthest axis), more outside
+         */
+        double offCenter(double lat, double lon);
+
+        /**
+         * Center of the map view, where the camera starts from when it moves again
+         */
+        IGeoPoint getMapCenter();
+    }
+
+    private final Renderer renderer;
+    private boolean resumed = false;
+    private boolean frameRequested = false;
+    private boolean following = true;
+    private boolean recentering = false;
+
+    // Last fix, with its time on the System.nanoTime() base used by the Choreographer
+    private boolean hasFix = false;
+    private double fixLat;
+    private double fixLon;
+    private float fixSpeed;
+    private float fixBearing;
+    private long fixNanos;
+
+    // Dead-reckoned position (predict) and gap to blend away since the last fix
+    private double predictedLat;
+    private double predictedLon;
+    private double errorLat;
+    private double errorLon;
+    private long blendStartNanos;
+
+    // Displayed state
+    private double lat;
+    private double lon;
+    private float bearing;
+    private double cameraLat;
+    private double cameraLon;
+    private long lastFrameNanos;
+
+    FollowController(Renderer renderer) {
+        this.renderer = renderer;
+    }
+
+    void onFix(LocationSnapshot fix) {
+        long now = System.nanoTime();
+        // Fixes arrive late (and batched fixes very late): date them from their own clock
+        long ageNanos = Math.max(0, SystemClock.elapsedRealtimeNanos() - fix.elapsedRealtimeNanos);
+        boolean first = !hasFix;
+        hasFix = true;
+        fixLat = fix.latitude;
+        fixLon = fix.longitude;
+        fixSpeed = ageNanos < MAX_EXTRAPOLATION_NS ? fix.speed : 0; // Stale fix (warm start): no dead reckoning
+        fixBearing = fix.bearing;
+        fixNanos = now - ageNanos;
+        if (first) {
+            lat = fixLat;
+            lon = fixLon;
+            bearing = fixBearing;
+            errorLat = 0;
+            errorLon = 0;
+        } else {
+            predict(now);
+            errorLat = lat - predictedLat;
+            errorLon = lon - predictedLon;
+        }
+        blendStartNanos = now;
+        lastFrameNanos = now;
+        requestFrame();
+    }
+
+    void setFollowing(boolean following, double centerLat, double centerLon) {
+        this.following = following;
+        recentering = following;
+        if (following) {
+            cameraLat = centerLat; // Ease from where the map is now
+            cameraLon = centerLon;
+            lastFrameNanos = System.nanoTime();
+            requestFrame();
+        }
+    }
+
+    boolean isFollowing() {
+        return following;
+    }
+
+    void resume() {
+        resumed = true;
+        lastFrameNanos = System.nanoTime();
+        requestFrame();
+    }
+
+    void pause() {
+        resumed = false;
+        if (frameRequested) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            frameRequested = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameRequested = false;
+        if (!resumed || !hasFix) {
+            return;
+        }
+        long dt = Math.max(0, frameTimeNanos - lastFrameNanos);
+        lastFrameNanos = frameTimeNanos;
+
+        boolean extrapolating = predict(frameTimeNanos);
+        double blend = 1.0 - Math.min(1.0, (double) (frameTimeNanos - blendStartNanos) / BLEND_NS);
+        blend = blend * blend * (3 - 2 * blend); // Smoothstep: no velocity jump at either end
+        lat = predictedLat + errorLat * blend;
+        lon = predictedLon + errorLon * blend;
+
+        float targetBearing = fixSpeed >= MIN_SPEED_MPS ? fixBearing : bearing;
+        float turn = ((targetBearing - bearing) % 360 + 540) % 360 - 180; // -180..180
+        bearing = (bearing + turn * (float) ease(dt, BEARING_TAU_NS) + 360) % 360;
+
+        if (following) {
+            double offCenter = renderer.offCenter(lat, lon); // Camera of the previous frame
+            if (recentering && offCenter <= SETTLED_AREA) {
+                recentering = false;
+            } else if (!recentering && offCenter > SAFE_AREA) {
+                IGeoPoint center = renderer.getMapCenter();
+                cameraLat = center.getLatitude();
+                cameraLon = center.getLongitude();
+                recentering = true;
+            }
+            if (recentering) {
+                double k = ease(dt, CAMERA_TAU_NS);
+                cameraLat += (lat - cameraLat) * k;
+                cameraLon += (lon - cameraLon) * k;
+            }
+        }
+
+        renderer.onFollowFrame(lat, lon, bearing, following && recentering, cameraLat, cameraLon);
+
+        if (extrapolating || blend > 0 || (following && recentering) || Math.abs(turn) > 0.5f) {
+            requestFrame();
+        }
+    }
+
+    /**
+     * Dead-reckoned position at the given time
+     * @return true while the position is still being extrapolated
+     */
+    private boolean predict(long nanos) {
+        long elapsed = nanos - fixNanos;
+        boolean moving = fixSpeed >= MIN_SPEED_MPS && elapsed < MAX_EXTRAPOLATION_NS;
+        double seconds = fixSpeed >= MIN_SPEED_MPS ? Math.min(Math.max(0, elapsed), MAX_EXTRAPOLATION_NS) / 1e9 : 0;
+        double distance = fixSpeed * seconds;
+        double rad = Math.toRadians(fixBearing);
+        predictedLat = fixLat + distance * Math.cos(rad) / METERS_PER_DEGREE;
+        predictedLon = fixLon + distance * Math.sin(rad) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(fixLat)));
+        return moving;
+    }
+
+    /**
+     * Share of the remaining distance covered in dt for an exponential approach
+     */
+    private static double ease(long dtNanos, double tauNanos) {
+        return 1.0 - Math.exp(-dtNanos / tauNanos);
+    }
+
+    private void requestFrame() {
+        if (resumed && !frameRequested) {
+            Choreographer.getInstance().postFrameCallback(this);
+            frameRequested = true;
+        }
+    }
+}
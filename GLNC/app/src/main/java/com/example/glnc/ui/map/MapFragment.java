@@ -1,84 +1,117 @@
 package com.example.glnc.ui.map;
 
 import android.Manifest;
-import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.example.glnc.Location;
-import com.example.glnc.MainActivity;
 import com.example.glnc.R;
 import com.example.glnc.databinding.FragmentMapBinding;
+import com.example.glnc.location.LastFixStore;
+import com.example.glnc.location.LocationSnapshot;
+import com.example.glnc.ui.home.HomeViewModel;
 
+import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.api.IMapController;
-import org.osmdroid.config.Configuration;
-import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.mylocation.GpsMyLocationProvider;
-import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.Locale;
 
 public class MapFragment extends Fragment {
 
     private FragmentMapBinding binding;
     private MapView mapView;
     private IMapController mapController;
-    private MyLocationNewOverlay myLocationOverlay;
     private Marker currentLocationMarker;
+    private DeliveryOverlay deliveryOverlay;
+    private BreadcrumbOverlay breadcrumbOverlay;
+    private final Rect trailRect = new Rect();
+    private FollowController followController;
+    private final GeoPoint cameraPoint = new GeoPoint(0.0, 0.0);
+    private final GeoPoint probePoint = new GeoPoint(0.0, 0.0);
+    private final Point probePixels = new Point();
+    private boolean markerShown = false;
+    private final Point markerPixels = new Point();
+    private final Rect dirtyRect = new Rect();
+    private final Rect newMarkerRect = new Rect();
+    private final MapFrameStats frameStats = new MapFrameStats();
+    private MbTilesArchive offlineArchive;
     private boolean isMapReady = false;
-    private Handler locationUpdateHandler;
-    private Runnable locationUpdateRunnable;
-    private static final long LOCATION_UPDATE_INTERVAL = 2000; // Update map every 2 seconds
+    private static final float MIN_MARKER_MOVE_M = 1.0f; // Ignore fixes that don't move the marker
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        // Configure OSMDroid
-        Context ctx = requireContext().getApplicationContext();
-        Configuration.getInstance().load(ctx, ctx.getSharedPreferences("osmdroid", Context.MODE_PRIVATE));
-        Configuration.getInstance().setUserAgentValue(ctx.getPackageName());
+        // Configure osmdroid in the background while the view is being created
+        OsmdroidInit.start(requireContext());
     }
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
         binding = FragmentMapBinding.inflate(inflater, container, false);
-        View root = binding.getRoot();
+        OsmdroidInit.whenReady(requireContext(), this::createMap);
+        return binding.getRoot();
+    }
+
+    /**
+     * Build the map once osmdroid is configured (the MapView reads its configuration when created)
+     */
+    private void createMap() {
+        if (binding == null || mapView != null) {
+            return; // View destroyed while osmdroid was being configured, or map already built
+        }
+        mapView = new MapView(requireContext());
+        binding.mapContainer.addView(mapView, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
 
-        // Initialize map
-        mapView = binding.mapView;
-        mapView.setTileSource(TileSourceFactory.MAPNIK);
+        // Offline archive first, then the managed tile cache, online MAPNIK for the gaps
+        offlineArchive = MbTilesArchive.open(OfflineMaps.getArchiveFile(requireContext()));
+        mapView.setTileProvider(OfflineMaps.createTileProvider(requireContext(), offlineArchive));
         mapView.setMultiTouchControls(true);
         
         // Get map controller
         mapController = mapView.getController();
         mapController.setZoom(15.0); // Set initial zoom level
+        setupLocationMarker();
+        setupBreadcrumbOverlay();
+        setupDeliveryOverlay();
+        setupFollowMode();
+        frameStats.start(requireActivity().getWindow());
         
         // Check location permission
         if (ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_FINE_LOCATION)
                 == PackageManager.PERMISSION_GRANTED ||
             ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_COARSE_LOCATION)
                 == PackageManager.PERMISSION_GRANTED) {
-            setupLocationOverlay();
             startLocationUpdates();
         } else {
             Log.w("MapFragment", "Location permission not granted");
         }
 
-        return root;
+        if (isResumed()) { // Configuration finished after onResume()
+            mapView.onResume();
+            followController.resume();
+        }
     }
 
     @Override
@@ -87,146 +120,260 @@ public class MapFragment extends Fragment {
         if (mapView != null) {
             mapView.onResume();
         }
-        
-        // Start location updates when fragment resumes
-        startLocationUpdates();
+        if (followController != null) {
+            followController.resume();
+        }
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        if (followController != null) {
+            followController.pause(); // No frames while the map is not visible
+        }
         if (mapView != null) {
             mapView.onPause();
         }
-        
-        // Stop location updates when fragment pauses
-        stopLocationUpdates();
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        // Stop location updates
-        stopLocationUpdates();
         
+        frameStats.stop();
+        OfflineMaps.recordStats(requireContext(), offlineArchive);
+        offlineArchive = null;
         if (mapView != null) {
-            mapView.onDetach();
+            TileCacheManager.get(requireContext()).trimAsync();
+            mapView.onDetach(); // Also closes the offline archive
         }
+        mapView = null;
+        mapController = null;
+        currentLocationMarker = null;
+        deliveryOverlay = null;
+        breadcrumbOverlay = null;
+        followController = null;
+        markerShown = false;
+        isMapReady = false;
         binding = null;
     }
 
-    private void setupLocationOverlay() {
-        // Create location overlay for showing current location
-        myLocationOverlay = new MyLocationNewOverlay(new GpsMyLocationProvider(requireContext()), mapView);
-        myLocationOverlay.enableMyLocation();
-        mapView.getOverlays().add(myLocationOverlay);
+    /**
+     * Trail of the current shift, caught up from the shift track and extended on each fix
+     */
+    private void setupBreadcrumbOverlay() {
+        breadcrumbOverlay = new BreadcrumbOverlay(getResources().getDisplayMetrics().density);
+        breadcrumbOverlay.sync(Location.getShiftTrack());
+        mapView.getOverlays().add(breadcrumbOverlay);
     }
 
     /**
-     * Start continuous location updates from MainActivity's Location instance
-     * Updates map every 2 seconds with current GPS coordinates
+     * Plot the stops of the shared delivery list (HomeViewModel is activity-scoped)
      */
-    private void startLocationUpdates() {
-        // Stop any existing updates
-        stopLocationUpdates();
-        
-        // Create handler on main thread
-        locationUpdateHandler = new Handler(Looper.getMainLooper());
-        
-        // Create runnable to update map with current location
-        locationUpdateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                // Get Location instance from MainActivity
-                MainActivity mainActivity = (MainActivity) getActivity();
-                if (mainActivity != null && mainActivity.location != null) {
-                    Location location = mainActivity.location;
-                    
-                    // Check if location is available (not 0,0)
-                    if (location.latitude != 0.0 && location.longitude != 0.0) {
-                        updateMapWithLocation(location.latitude, location.longitude);
-                    } else {
-                        // Try to use stored location as fallback
-                        android.content.SharedPreferences prefs = 
-                            requireContext().getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
-                        float latitude = prefs.getFloat("latitude", 0.0f);
-                        float longitude = prefs.getFloat("longitude", 0.0f);
-                        
-                        if (latitude != 0.0f || longitude != 0.0f) {
-                            Log.d("MapFragment", "Using stored location: " + latitude + ", " + longitude);
-                            updateMapWithLocation(latitude, longitude);
-                        } else {
-                            Log.d("MapFragment", "Waiting for GPS location...   " + latitude);
-                        }
-                    }
-                }
-                
-                // Schedule next update
-                if (locationUpdateHandler != null) {
-                    locationUpdateHandler.postDelayed(this, LOCATION_UPDATE_INTERVAL);
-                }
+    private void setupDeliveryOverlay() {
+        deliveryOverlay = new DeliveryOverlay(getResources().getDisplayMetrics().density);
+        mapView.getOverlays().add(deliveryOverlay); // Below the location overlays added later
+        HomeViewModel homeViewModel = new ViewModelProvider(requireActivity()).get(HomeViewModel.class);
+        homeViewModel.getDeliveries().observe(getViewLifecycleOwner(), deliveries -> {
+            if (deliveryOverlay != null && mapView != null) {
+                deliveryOverlay.setDeliveries(deliveries);
+                mapView.invalidate();
             }
-        };
-        
-        // Start updates immediately, then schedule periodic updates
-        locationUpdateHandler.post(locationUpdateRunnable);
-        Log.d("MapFragment", "Started continuous location updates for map");
+        });
+        if (homeViewModel.getDeliveries().getValue() == null) {
+            homeViewModel.fetchDeliveries(requireContext());
+        }
     }
 
     /**
-     * Stop location updates
+     * Subscribe to the location stream for the lifetime of the view
+     * The map is only updated when a new fix is accepted (no polling); the observer
+     * is paused automatically while the fragment is stopped
      */
-    private void stopLocationUpdates() {
-        if (locationUpdateHandler != null && locationUpdateRunnable != null) {
-            locationUpdateHandler.removeCallbacks(locationUpdateRunnable);
-            locationUpdateHandler = null;
-            locationUpdateRunnable = null;
-            Log.d("MapFragment", "Stopped location updates");
+    private void startLocationUpdates() {
+        // Show last stored location until the first fix arrives
+        if (Location.getLocationStream().getLatest() == null) {
+            LocationSnapshot lastFix = LastFixStore.get(requireContext()).getLastFix();
+            
+            if (lastFix != null) {
+                Log.d("MapFragment", "Using stored location: " + lastFix.latitude + ", " + lastFix.longitude);
+                followController.onFix(lastFix); // Too old to be dead-reckoned: shown as is
+            } else {
+                Log.d("MapFragment", "Waiting for GPS location...");
+            }
+        }
+        
+        Location.getLocationStream()
+            .conflated(0, MIN_MARKER_MOVE_M)
+            .observe(getViewLifecycleOwner(), this::onLocationSnapshot);
+        Log.d("MapFragment", "Subscribed to location stream for map");
+    }
+
+    private void onLocationSnapshot(LocationSnapshot snapshot) {
+        if (snapshot != null) {
+            if (breadcrumbOverlay != null) {
+                breadcrumbOverlay.sync(Location.getShiftTrack());
+            }
+            followController.onFix(snapshot);
         }
     }
 
     /**
-     * Update map with given coordinates
+     * One Choreographer frame of the follow controller: move the marker, and the camera when it
+     * recenters (a camera move redraws the whole map, a marker move only its own area)
      */
-    private void updateMapWithLocation(double latitude, double longitude) {
-        if (mapView == null || mapController == null) {
+    private void onFollowFrame(double lat, double lon, float bearing, boolean moveCamera,
+                               double cameraLat, double cameraLon) {
+        if (mapView == null || currentLocationMarker == null) {
             return;
         }
-        
-        Log.d("MapFragment", "Updating map with location: " + latitude + ", " + longitude);
-        
-        // Create GeoPoint for the location
-        GeoPoint currentLocation = new GeoPoint(latitude, longitude);
-        
-        // Remove existing marker if any
-        if (currentLocationMarker != null) {
-            mapView.getOverlays().remove(currentLocationMarker);
+        currentLocationMarker.setRotation(-bearing); // Marker rotation is counter-clockwise
+        updateMapWithLocation(lat, lon);
+        if (moveCamera && isMapReady) {
+            cameraPoint.setCoords(cameraLat, cameraLon);
+            mapController.setCenter(cameraPoint);
+            frameStats.onCameraMove();
         }
-        
-        // Create and add marker for current location
+    }
+
+    /**
+     * Position of a point relative to the map view: 0 at the center, 1 on the nearest edge
+     */
+    private double offCenter(double lat, double lon) {
+        if (mapView == null || !isMapReady || mapView.getWidth() == 0 || mapView.getHeight() == 0) {
+            return 0;
+        }
+        probePoint.setCoords(lat, lon);
+        mapView.getProjection().toPixels(probePoint, probePixels);
+        double halfWidth = mapView.getWidth() / 2.0;
+        double halfHeight = mapView.getHeight() / 2.0;
+        return Math.max(Math.abs(probePixels.x - halfWidth) / halfWidth, Math.abs(probePixels.y - halfHeight) / halfHeight);
+    }
+
+    /**
+     * Follow mode: on by default, off as soon as the driver pans the map, back on with the button
+     */
+    private void setupFollowMode() {
+        followController = new FollowController(new FollowController.Renderer() {
+            @Override
+            public void onFollowFrame(double lat, double lon, float bearing, boolean moveCamera,
+                                      double cameraLat, double cameraLon) {
+                MapFragment.this.onFollowFrame(lat, lon, bearing, moveCamera, cameraLat, cameraLon);
+            }
+
+            @Override
+            public double offCenter(double lat, double lon) {
+                return MapFragment.this.offCenter(lat, lon);
+            }
+
+            @Override
+            public IGeoPoint getMapCenter() {
+                return mapView.getMapCenter();
+            }
+        });
+        final int touchSlop = ViewConfiguration.get(requireContext()).getScaledTouchSlop();
+        mapView.getOverlays().add(new Overlay() {
+            private float downX;
+            private float downY;
+
+            @Override
+            public boolean onTouchEvent(MotionEvent event, MapView map) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    downX = event.getX();
+                    downY = event.getY();
+                } else if (event.getActionMasked() == MotionEvent.ACTION_MOVE && event.getPointerCount() == 1
+                        && followController.isFollowing()
+                        && Math.hypot(event.getX() - downX, event.getY() - downY) > touchSlop) {
+                    setFollowing(false); // Pinch zoom keeps following, a one-finger pan stops it
+                }
+                return false; // Never consume: the map still pans
+            }
+        });
+        binding.followButton.setOnClickListener(v -> setFollowing(true));
+    }
+
+    private void setFollowing(boolean following) {
+        IGeoPoint center = mapView.getMapCenter();
+        followController.setFollowing(following, center.getLatitude(), center.getLongitude());
+        binding.followButton.setVisibility(following ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Create the current-location marker once; later fixes only move it
+     */
+    private void setupLocationMarker() {
         currentLocationMarker = new Marker(mapView);
-        currentLocationMarker.setPosition(currentLocation);
         currentLocationMarker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
         currentLocationMarker.setTitle("Your Location");
-        currentLocationMarker.setSnippet(String.format("Lat: %.6f, Lon: %.6f", latitude, longitude));
-        
-        // Set a custom icon
         currentLocationMarker.setIcon(ContextCompat.getDrawable(requireContext(), android.R.drawable.ic_menu_mylocation));
+        currentLocationMarker.setOnMarkerClickListener((marker, map) -> {
+            // Snippet is only formatted when the info window is opened
+            GeoPoint position = marker.getPosition();
+            marker.setSnippet(String.format(Locale.US, "Lat: %.6f, Lon: %.6f",
+                    position.getLatitude(), position.getLongitude()));
+            marker.showInfoWindow();
+            return true;
+        });
+    }
+
+    /**
+     * Move the current-location marker (no allocation per fix)
+     * Only the screen area covered by the old and new marker positions (and new trail) is redrawn
+     */
+    private void updateMapWithLocation(double latitude, double longitude) {
+        if (mapView == null || mapController == null || currentLocationMarker == null) {
+            return;
+        }
+        GeoPoint position = currentLocationMarker.getPosition();
+        if (markerShown && position.getLatitude() == latitude && position.getLongitude() == longitude) {
+            return; // Same position: nothing to redraw
+        }
         
-        mapView.getOverlays().add(currentLocationMarker);
+        boolean wasShown = markerShown;
+        if (wasShown) {
+            markerBounds(position, dirtyRect);
+        }
+        position.setCoords(latitude, longitude); // Moved in place instead of a new GeoPoint
+        if (!markerShown) {
+            mapView.getOverlays().add(currentLocationMarker);
+            markerShown = true;
+        }
+        if (currentLocationMarker.isInfoWindowShown()) {
+            currentLocationMarker.showInfoWindow(); // Keep an open info window on the marker
+        }
         
         // Center map on current location (only on first update)
         if (!isMapReady) {
-            mapController.setCenter(currentLocation);
+            mapController.setCenter(new GeoPoint(latitude, longitude));
             isMapReady = true;
+            mapView.invalidate();
+            return;
         }
         
-        // Enable my location overlay to show blue dot
-        if (myLocationOverlay != null) {
-            myLocationOverlay.enableMyLocation();
+        markerBounds(position, newMarkerRect);
+        if (wasShown) {
+            dirtyRect.union(newMarkerRect);
+        } else {
+            dirtyRect.set(newMarkerRect);
+        }
+        if (breadcrumbOverlay != null && breadcrumbOverlay.takeDirtyRect(mapView, trailRect)) {
+            dirtyRect.union(trailRect); // New trail segments
+        }
+        if (dirtyRect.intersect(0, 0, mapView.getWidth(), mapView.getHeight())) {
+            // Hardware-accelerated windows may still redraw more than this rectangle
+            mapView.invalidate(dirtyRect);
         }
-        
-        mapView.invalidate(); // Refresh map
     }
-}
 
+    /**
+     * Screen bounds of the marker icon (anchored center/bottom) at the given position,
+     * whatever its rotation around the anchor
+     */
+    private void markerBounds(GeoPoint position, Rect out) {
+        mapView.getProjection().toPixels(position, markerPixels);
+        Drawable icon = currentLocationMarker.getIcon();
+        int reach = icon != null
+                ? (int) Math.ceil(Math.hypot(icon.getIntrinsicWidth() / 2.0, icon.getIntrinsicHeight())) + 1 : 0;
+        out.set(markerPixels.x - reach, markerPixels.y - reach, markerPixels.x + reach, markerPixels.y + reach);
+    }
+}
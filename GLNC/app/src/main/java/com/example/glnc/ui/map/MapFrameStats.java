@@ -0,0 +1,79 @@
+package com.example.glnc.ui.map;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+/**
+ * Frame time and GC count of the map screen, logged when the map view goes away
+ * Frame durations come from FrameMetrics (TOTAL_DURATION); the GC count is the ART counter
+ * read at start and stop, so it covers the whole process while the map is shown
+ * Camera moves are counted apart: each one redraws the whole map instead of the marker area
+ */
+class MapFrameStats implements Window.OnFrameMetricsAvailableListener {
+    private static final long JANK_NS = 16_666_667; // One frame at 60 Hz
+
+    private Window window;
+    private long startGcCount;
+    private int frames = 0;
+    private int jankFrames = 0;
+    private long totalNs = 0;
+    private long maxNs = 0;
+    private int cameraMoves = 0;
+
+    void start(Window window) {
+        this.window = window;
+        startGcCount = gcCount();
+        frames = 0;
+        jankFrames = 0;
+        totalNs = 0;
+        maxNs = 0;
+        cameraMoves = 0;
+        window.addOnFrameMetricsAvailableListener(this, new Handler(Looper.getMainLooper()));
+    }
+
+    void stop() {
+        if (window == null) {
+            return;
+        }
+        try {
+            window.removeOnFrameMetricsAvailableListener(this);
+        } catch (IllegalArgumentException e) {
+            // Already removed with the window
+        }
+        window = null;
+        long gcs = gcCount() - startGcCount;
+        Log.d("MapFrameStats", "Map screen: " + frames + " frames, mean "
+                + (frames > 0 ? totalNs / frames / 1000 : 0) + " us, max " + maxNs / 1000 + " us, "
+                + jankFrames + " over 16 ms, " + cameraMoves + " camera moves, " + (startGcCount >= 0 ? gcs + " GCs" : "GC count unavailable"));
+    }
+
+    /**
+     * The follow camera moved the map center (full redraw)
+     */
+    void onCameraMove() {
+        cameraMoves++;
+    }
+
+    @Override
+    public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+        long durationNs = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        frames++;
+        totalNs += durationNs;
+        maxNs = Math.max(maxNs, durationNs);
+        if (durationNs > JANK_NS) {
+            jankFrames++;
+        }
+    }
+
+    private static long gcCount() {
+        try {
+            return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+        } catch (NumberFormatException | NullPointerException e) {
+            return -1;
+        }
+    }
+}
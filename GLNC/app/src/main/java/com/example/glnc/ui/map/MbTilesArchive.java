@@ -0,0 +1,152 @@
+package com.example.glnc.ui.map;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only MBTiles archive (SQLite) served to osmdroid as an archive file
+ * - Only zoom levels in [minZoom, maxZoom] of the archive metadata are looked up;
+ *   other zooms and missing tiles return null so the next provider (online) fills the gap
+ * - MBTiles rows use the TMS scheme: tile_row is flipped against the osmdroid Y
+ * - Hit/miss counters for the offline coverage report
+ * Thread-safe: osmdroid reads tiles from several worker threads
+ */
+public class MbTilesArchive implements IArchiveFile {
+    private static final String[] TILE_COLUMNS = {"tile_data"};
+    private static final String TILE_WHERE = "zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private SQLiteDatabase db;
+    private int minZoom = 0;
+    private int maxZoom = 22;
+    private int version = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outOfRange = new AtomicLong();
+
+    /**
+     * Open an archive, or return null if the file is missing or unreadable
+     */
+    public static MbTilesArchive open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        MbTilesArchive archive = new MbTilesArchive();
+        try {
+            archive.init(file);
+            return archive;
+        } catch (Exception e) {
+            Log.e("MbTilesArchive", "Error opening tile archive " + file, e);
+            archive.close();
+            return null;
+        }
+    }
+
+    @Override
+    public void init(File pFile) throws Exception {
+        db = SQLiteDatabase.openDatabase(pFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try (Cursor cursor = db.rawQuery("SELECT name, value FROM metadata", null)) {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                String value = cursor.getString(1);
+                if ("minzoom".equals(name)) {
+                    minZoom = parseInt(value, minZoom);
+                } else if ("maxzoom".equals(name)) {
+                    maxZoom = parseInt(value, maxZoom);
+                } else if ("version".equals(name)) {
+                    version = parseInt(value, version);
+                }
+            }
+        }
+        Log.d("MbTilesArchive", "Opened " + pFile.getName() + " v" + version + ", zoom " + minZoom + "-" + maxZoom);
+    }
+
+    @Override
+    public InputStream getInputStream(ITileSource tileSource, long pMapTileIndex) {
+        int zoom = MapTileIndex.getZoom(pMapTileIndex);
+        if (zoom < minZoom || zoom > maxZoom) {
+            outOfRange.incrementAndGet();
+            return null;
+        }
+        SQLiteDatabase database = db;
+        if (database == null) {
+            return null;
+        }
+        int x = MapTileIndex.getX(pMapTileIndex);
+        int tmsY = (1 << zoom) - 1 - MapTileIndex.getY(pMapTileIndex);
+        String[] args = {String.valueOf(zoom), String.valueOf(x), String.valueOf(tmsY)};
+        try (Cursor cursor = database.query("tiles", TILE_COLUMNS, TILE_WHERE, args, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                hits.incrementAndGet();
+                return new ByteArrayInputStream(cursor.getBlob(0));
+            }
+        } catch (Exception e) {
+            Log.e("MbTilesArchive", "Error reading tile " + MapTileIndex.toString(pMapTileIndex), e);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void close() {
+        if (db != null) {
+            db.close();
+            db = null;
+        }
+    }
+
+    @Override
+    public Set<String> getTileSources() {
+        return Collections.emptySet(); // One raster layer, served for any tile source
+    }
+
+    @Override
+    public void setIgnoreTileSource(boolean pIgnoreTileSource) {
+        // Tile source is always ignored
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getOutOfRange() {
+        return outOfRange.get();
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            return fallback;
+        }
+    }
+}
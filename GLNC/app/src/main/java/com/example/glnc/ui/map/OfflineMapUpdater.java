@@ -0,0 +1,273 @@
+package com.example.glnc.ui.map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import com.example.glnc.geocode.Geocoding;
+import com.example.glnc.routing.Routing;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Versioned updates of the offline tile archive and of the offline data of the service area
+ * (address index, road graph), over Wi-Fi only
+ * GET /app/offline_map returns {"version": n, "variants": [{"max_zoom", "url", "size", "sha256"}],
+ * "tile_base_url"} (the backend serves OfflineMap/manifest.json, 404 until one is published,
+ * and the listed files under /app/offline_map/{name}); the optional tile_base_url serves single
+ * tiles of the same rendering ({z}/{x}/{y}.png) and is the only server TilePrefetcher bulk-downloads from
+ * (when the manifest sets none, the backend announces its own /app/offline_map/tiles route, served from
+ * the deepest published archive); the optional "geocode" entry
+ * ({"version", "url", "sha256"}) is the address index of the offline geocoder, the optional
+ * "routing" entry (same fields) the road graph of the offline router
+ * - Checked at most every CHECK_INTERVAL_MS (failed checks included), and only on an unmetered Wi-Fi network
+ * - Manifest and downloads run on a dedicated thread, not on the OkHttp dispatcher
+ * - Zoom-range selection: the deepest variant that fits in half of the free storage
+ * - Downloaded to a temp file, verified (SHA-256) and renamed over the archive, so a failed
+ *   download never leaves a broken archive; an open map keeps reading the old file until reopened
+ */
+public class OfflineMapUpdater {
+    private static final long CHECK_INTERVAL_MS = 12 * 60 * 60 * 1000;
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(); // Downloads off the OkHttp threads
+
+    private OfflineMapUpdater() {
+    }
+
+    /**
+     * Check the backend for a newer archive and download it in the background
+     * @param client Shared HTTP client (read timeout is extended for the download)
+     * @param baseUrl Backend base URL (Global.serverUrl)
+     */
+    public static void checkForUpdate(Context context, OkHttpClient client, String baseUrl) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences prefs = appContext.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong("offline_map_checked_at", 0) < CHECK_INTERVAL_MS) {
+            return;
+        }
+        if (!isOnUnmeteredWifi(appContext)) {
+            Log.d("OfflineMapUpdater", "Not on Wi-Fi, offline map update postponed");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        // Attempt time, not success time: a failing backend is not asked again on every start
+        prefs.edit().putLong("offline_map_checked_at", now).apply();
+
+        final OkHttpClient downloadClient = client.newBuilder()
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+        executor.execute(() -> {
+            try {
+                check(appContext, prefs, downloadClient, baseUrl);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    /**
+     * Fetch the manifest and install what is newer (runs on the updater thread)
+     */
+    private static void check(Context context, SharedPreferences prefs, OkHttpClient client, String baseUrl) {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/app/offline_map")
+                .get()
+                .build();
+        String body;
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                Log.e("OfflineMapUpdater", "Offline map check failed: " + response.code());
+                return;
+            }
+            body = response.body().string();
+        } catch (IOException e) {
+            Log.e("OfflineMapUpdater", "Error checking offline map version: " + e.getMessage());
+            return;
+        }
+        try {
+            JSONObject manifest = new JSONObject(body);
+            String tileBaseUrl = manifest.optString("tile_base_url", "");
+            if (tileBaseUrl.startsWith("/")) {
+                tileBaseUrl = baseUrl + tileBaseUrl;
+            }
+            prefs.edit()
+                    .putString(TilePrefetcher.TILE_BASE_URL_PREF, tileBaseUrl)
+                    .apply();
+            JSONObject geocode = manifest.optJSONObject("geocode");
+            if (geocode != null && updateDataFile(prefs, client, baseUrl, geocode,
+                    Geocoding.getIndexFile(context), "geocode_index_version")) {
+                Geocoding.invalidate();
+            }
+            JSONObject routing = manifest.optJSONObject("routing");
+            if (routing != null && updateDataFile(prefs, client, baseUrl, routing,
+                    Routing.getGraphFile(context), "road_graph_version")) {
+                Routing.invalidate();
+            }
+            update(context, prefs, client, baseUrl, manifest);
+        } catch (JSONException e) {
+            Log.e("OfflineMapUpdater", "Invalid offline map manifest", e);
+        }
+    }
+
+    private static void update(Context context, SharedPreferences prefs, OkHttpClient client, String baseUrl,
+                               JSONObject manifest) throws JSONException {
+        File archive = OfflineMaps.getArchiveFile(context);
+        int installed = archive.isFile() ? prefs.getInt("offline_map_version", 0) : 0;
+        int available = manifest.getInt("version");
+        if (available <= installed) {
+            Log.d("OfflineMapUpdater", "Offline map v" + installed + " is up to date");
+            return;
+        }
+
+        File dir = archive.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("OfflineMapUpdater", "Cannot create " + dir);
+            return;
+        }
+        // Room for the temp file next to the current archive
+        long budget = (dir.getUsableSpace() + archive.length()) / 2;
+        JSONObject variant = selectVariant(manifest.getJSONArray("variants"), budget);
+        if (variant == null) {
+            Log.w("OfflineMapUpdater", "No offline map variant fits in " + (budget >> 20) + " MB");
+            return;
+        }
+
+        String url = variant.getString("url");
+        if (url.startsWith("/")) {
+            url = baseUrl + url;
+        }
+        File temp = new File(dir, OfflineMaps.ARCHIVE_NAME + ".tmp");
+        try {
+            download(client, url, temp, variant.optString("sha256", null));
+            if (!temp.renameTo(archive)) {
+                throw new IOException("Cannot replace " + archive);
+            }
+            prefs.edit().putInt("offline_map_version", available).apply();
+            Log.d("OfflineMapUpdater", "Offline map updated to v" + available + " (zoom <= "
+                    + variant.getInt("max_zoom") + ", " + (archive.length() >> 20) + " MB)");
+        } catch (IOException e) {
+            Log.e("OfflineMapUpdater", "Error downloading offline map: " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * Install a data file of the manifest if it is newer than the installed one
+     * Same temp file, checksum and rename as the archive
+     * @return true if a new file was installed
+     */
+    private static boolean updateDataFile(SharedPreferences prefs, OkHttpClient client, String baseUrl,
+                                          JSONObject entry, File target, String versionKey) throws JSONException {
+        int installed = target.isFile() ? prefs.getInt(versionKey, 0) : 0;
+        int available = entry.getInt("version");
+        if (available <= installed) {
+            return false;
+        }
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("OfflineMapUpdater", "Cannot create " + dir);
+            return false;
+        }
+        String url = entry.getString("url");
+        if (url.startsWith("/")) {
+            url = baseUrl + url;
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        try {
+            download(client, url, temp, entry.optString("sha256", null));
+            if (!temp.renameTo(target)) {
+                throw new IOException("Cannot replace " + target);
+            }
+            prefs.edit().putInt(versionKey, available).apply();
+            Log.d("OfflineMapUpdater", target.getName() + " updated to v" + available + " (" + (target.length() >> 10) + " KB)");
+            return true;
+        } catch (IOException e) {
+            Log.e("OfflineMapUpdater", "Error downloading " + target.getName() + ": " + e.getMessage());
+            temp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Deepest zoom variant whose size fits the storage budget
+     */
+    private static JSONObject selectVariant(JSONArray variants, long budgetBytes) throws JSONException {
+        JSONObject best = null;
+        for (int i = 0; i < variants.length(); i++) {
+            JSONObject variant = variants.getJSONObject(i);
+            if (variant.getLong("size") > budgetBytes) {
+                continue;
+            }
+            if (best == null || variant.getInt("max_zoom") > best.getInt("max_zoom")) {
+                best = variant;
+            }
+        }
+        return best;
+    }
+
+    private static void download(OkHttpClient client, String url, File target, String sha256) throws IOException {
+        Request request = new Request.Builder().url(url).get().build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = response.body().byteStream();
+                 OutputStream out = new FileOutputStream(target)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (sha256 != null && !sha256.equalsIgnoreCase(toHex(digest.digest()))) {
+                throw new IOException("Checksum mismatch");
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isOnUnmeteredWifi(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null || cm.isActiveNetworkMetered()) {
+            return false;
+        }
+        Network network = cm.getActiveNetwork();
+        NetworkCapabilities caps = network != null ? cm.getNetworkCapabilities(network) : null;
+        return caps != null && caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
+    }
+}
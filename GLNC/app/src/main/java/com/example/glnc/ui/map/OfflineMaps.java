@@ -0,0 +1,76 @@
+package com.example.glnc.ui.map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.osmdroid.tileprovider.IRegisterReceiver;
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.modules.MapTileDownloader;
+import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.modules.NetworkAvailabliltyCheck;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline map tiles for the delivery area
+ * The MBTiles archive lives in the app files directory and is replaced by OfflineMapUpdater;
+ * without an archive the map reads the managed cache and MAPNIK only
+ */
+public class OfflineMaps {
+    static final String ARCHIVE_DIR = "maps";
+    static final String ARCHIVE_NAME = "service_area.mbtiles";
+
+    private OfflineMaps() {
+    }
+
+    public static File getArchiveFile(Context context) {
+        return new File(new File(context.getFilesDir(), ARCHIVE_DIR), ARCHIVE_NAME);
+    }
+
+    /**
+     * Tile provider chain: offline archive (if installed), then the managed tile cache,
+     * then MAPNIK downloads written through that cache
+     * Tiles outside the archive zoom range or area fall through to the cache and online source
+     */
+    public static MapTileProviderArray createTileProvider(Context context, MbTilesArchive archive) {
+        Context appContext = context.getApplicationContext();
+        IRegisterReceiver receiver = new SimpleRegisterReceiver(appContext);
+        ITileSource source = TileSourceFactory.MAPNIK;
+        TileCacheManager cacheManager = TileCacheManager.get(appContext);
+        List<MapTileModuleProviderBase> modules = new ArrayList<>();
+        if (archive != null) {
+            modules.add(new MapTileFileArchiveProvider(receiver, source, new IArchiveFile[]{archive}));
+        }
+        modules.add(cacheManager.createCacheProvider(source));
+        modules.add(new MapTileDownloader(source, cacheManager.getWriter(), new NetworkAvailabliltyCheck(appContext)));
+        return new MapTileProviderArray(source, receiver, modules.toArray(new MapTileModuleProviderBase[0]));
+    }
+
+    /**
+     * Add the archive hit/miss counters of one map session to the stored totals
+     */
+    public static void recordStats(Context context, MbTilesArchive archive) {
+        if (archive == null) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        long hits = prefs.getLong("offline_tile_hits", 0) + archive.getHits();
+        long misses = prefs.getLong("offline_tile_misses", 0) + archive.getMisses();
+        long outOfRange = prefs.getLong("offline_tile_out_of_range", 0) + archive.getOutOfRange();
+        prefs.edit()
+                .putLong("offline_tile_hits", hits)
+                .putLong("offline_tile_misses", misses)
+                .putLong("offline_tile_out_of_range", outOfRange)
+                .apply();
+        Log.d("OfflineMaps", "Offline tiles this session: " + archive.getHits() + " hits, " + archive.getMisses()
+                + " misses, " + archive.getOutOfRange() + " outside zoom range (total " + hits + "/" + misses + ")");
+    }
+}
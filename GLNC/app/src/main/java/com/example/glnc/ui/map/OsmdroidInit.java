@@ -0,0 +1,79 @@
+package com.example.glnc.ui.map;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.osmdroid.config.Configuration;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * One-time osmdroid configuration (preferences load, user agent, tile cache directory),
+ * done on a background thread the first time something needs osmdroid
+ * App start no longer pays for it: only the map screen, the tile cache and the prefetcher
+ * wait for it (whenReady on the main thread, await elsewhere)
+ */
+public final class OsmdroidInit {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static Future<?> task;
+    private static volatile boolean ready = false;
+
+    private OsmdroidInit() {
+    }
+
+    /**
+     * Start the configuration if it has not been started yet (idempotent)
+     */
+    public static synchronized Future<?> start(Context context) {
+        if (task == null) {
+            final Context appContext = context.getApplicationContext();
+            task = executor.submit(() -> {
+                long start = System.nanoTime();
+                Configuration.getInstance().load(appContext, appContext.getSharedPreferences("osmdroid", Context.MODE_PRIVATE));
+                Configuration.getInstance().setUserAgentValue(appContext.getPackageName());
+                Configuration.getInstance().getOsmdroidTileCache().mkdirs(); // Cache directory setup, off the main thread too
+                ready = true;
+                Log.d("OsmdroidInit", "osmdroid configured in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            });
+        }
+        return task;
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Block until osmdroid is configured (background threads only)
+     */
+    public static void await(Context context) {
+        if (ready) {
+            return;
+        }
+        try {
+            start(context).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e("OsmdroidInit", "osmdroid configuration failed", e.getCause());
+        }
+    }
+
+    /**
+     * Run the callback on the main thread once osmdroid is configured (right away if it is)
+     */
+    public static void whenReady(Context context, Runnable callback) {
+        if (ready) {
+            callback.run();
+            return;
+        }
+        start(context);
+        executor.execute(() -> mainHandler.post(callback)); // Queued behind the configuration task
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.glnc.ui.map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Managed osmdroid tile cache (the SQLite cache.db shared with osmdroid)
+ * - Byte budget: GLNC_Prefs tile_cache_budget_mb, capped to a tenth of the free storage
+ * - Eviction on a background thread: least recently read tiles first, tiles never read since
+ *   the access log started by oldest expiry; trimmed down to TRIM_RATIO of the budget
+ * - Pinning: tiles around the pending delivery stops are never evicted
+ * - Metrics: hit ratio of the cache provider, evicted tiles/bytes, tile bytes and file size
+ * Read accesses are kept in memory and written to the tile_access table before each trim
+ */
+public class TileCacheManager {
+    private static final long DEFAULT_BUDGET_MB = 150;
+    private static final long MIN_BUDGET_BYTES = 20L * 1024 * 1024;
+    private static final double TRIM_RATIO = 0.8;
+    private static final int PIN_MIN_ZOOM = 13;
+    private static final int PIN_MAX_ZOOM = 17;
+    private static final double PIN_RADIUS_M = 500.0;
+    private static final int MAX_PINNED = 20000;
+    private static final int MAX_PENDING_ACCESSES = 5000;
+    private static final long TRIM_INTERVAL_MS = 10 * 60 * 1000;
+
+    private static TileCacheManager instance;
+
+    private final Context context;
+    private final Writer writer = new Writer();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Map<Long, Long> pendingAccesses = new ConcurrentHashMap<>();
+    private volatile Set<Long> pinned = new HashSet<>();
+    private volatile boolean trimQueued = false;
+    private volatile long lastTrimMs = 0;
+    private long budgetBytes;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile long evictedTiles = 0;
+    private volatile long evictedBytes = 0;
+    private volatile long tileBytes = -1;
+    private volatile long fileBytes = -1;
+
+    /**
+     * Gives access to the cache database
+     */
+    private static final class Writer extends SqlTileWriter {
+        SQLiteDatabase database() {
+            return getDb();
+        }
+    }
+
+    private TileCacheManager(Context context) {
+        this.context = context.getApplicationContext();
+        applyBudget();
+    }
+
+    /**
+     * Get the shared manager; the first call waits for the osmdroid configuration (OsmdroidInit),
+     * since the cache location and the budget it overrides come from it
+     */
+    public static synchronized TileCacheManager get(Context context) {
+        if (instance == null) {
+            OsmdroidInit.await(context);
+            instance = new TileCacheManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * The shared manager if something already created it, else null (never waits for osmdroid)
+     */
+    public static synchronized TileCacheManager getIfCreated() {
+        return instance;
+    }
+
+    /**
+     * Cache used by the map provider chain and the prefetcher (tiles are written through it)
+     */
+    public SqlTileWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Read the budget from the preferences; osmdroid's own trim stays as a backstop above it
+     */
+    public synchronized void applyBudget() {
+        long configured = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                .getLong("tile_cache_budget_mb", DEFAULT_BUDGET_MB) * 1024 * 1024;
+        File cacheDir = Configuration.getInstance().getOsmdroidTileCache();
+        long free = cacheDir != null ? cacheDir.getUsableSpace() : configured;
+        budgetBytes = Math.max(MIN_BUDGET_BYTES, Math.min(configured, free / 10));
+        Configuration.getInstance().setTileFileSystemCacheMaxBytes(budgetBytes * 3 / 2);
+        Configuration.getInstance().setTileFileSystemCacheTrimBytes(budgetBytes);
+    }
+
+    /**
+     * Pin the tiles around the pending delivery stops (replaces the previous pins)
+     */
+    public void setPinnedStops(double[] lats, double[] lons) {
+        Set<Long> keys = new HashSet<>();
+        for (int zoom = PIN_MIN_ZOOM; zoom <= PIN_MAX_ZOOM; zoom++) {
+            for (int i = 0; i < lats.length && keys.size() < MAX_PINNED; i++) {
+                double dLat = PIN_RADIUS_M / 111320.0;
+                double dLon = PIN_RADIUS_M / (111320.0 * Math.cos(Math.toRadians(lats[i])));
+                int minX = TilePrefetcher.tileX(lons[i] - dLon, zoom);
+                int maxX = TilePrefetcher.tileX(lons[i] + dLon, zoom);
+                int minY = TilePrefetcher.tileY(lats[i] + dLat, zoom);
+                int maxY = TilePrefetcher.tileY(lats[i] - dLat, zoom);
+                for (int x = minX; x <= maxX; x++) {
+                    for (int y = minY; y <= maxY; y++) {
+                        keys.add(SqlTileWriter.getIndex(MapTileIndex.getTileIndex(zoom, x, y)));
+                    }
+                }
+            }
+        }
+        pinned = keys;
+        Log.d("TileCacheManager", keys.size() + " tiles pinned around " + lats.length + " stops");
+    }
+
+    /**
+     * Tile provider module reading the managed cache (counts hits and records accesses)
+     */
+    public MapTileModuleProviderBase createCacheProvider(ITileSource source) {
+        return new CacheProvider(source);
+    }
+
+    /**
+     * Evict in the background if the last trim is older than TRIM_INTERVAL_MS
+     */
+    public void trimAsync() {
+        trimAsync(false);
+    }
+
+    /**
+     * @param force Ignore TRIM_INTERVAL_MS (the access log is full)
+     */
+    private void trimAsync(boolean force) {
+        if (trimQueued || (!force && System.currentTimeMillis() - lastTrimMs < TRIM_INTERVAL_MS)) {
+            return;
+        }
+        trimQueued = true;
+        executor.execute(() -> {
+            try {
+                trim();
+            } catch (Exception e) {
+                Log.e("TileCacheManager", "Error trimming tile cache", e);
+            } finally {
+                lastTrimMs = System.currentTimeMillis();
+                trimQueued = false;
+            }
+        });
+    }
+
+    private void trim() {
+        SQLiteDatabase db = writer.database();
+        if (db == null) {
+            return;
+        }
+        db.execSQL("CREATE TABLE IF NOT EXISTS tile_access (key INTEGER NOT NULL, provider TEXT NOT NULL, "
+                + "accessed INTEGER NOT NULL, PRIMARY KEY (key, provider))");
+        String provider = TileSourceFactory.MAPNIK.name();
+        flushAccesses(db, provider);
+
+        long total;
+        try (Cursor cursor = db.rawQuery("SELECT COALESCE(SUM(LENGTH(tile)), 0) FROM tiles", null)) {
+            total = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        long target = (long) (budgetBytes * TRIM_RATIO);
+        long tiles = 0;
+        long bytes = 0;
+        if (total > budgetBytes) {
+            Set<Long> keep = pinned;
+            // Least recently read first; never-read tiles (accessed 0) by oldest expiry
+            String query = "SELECT t.key, t.provider, LENGTH(t.tile) FROM tiles t LEFT JOIN tile_access a"
+                    + " ON a.key = t.key AND a.provider = t.provider"
+                    + " ORDER BY COALESCE(a.accessed, 0), t.expires";
+            // Pick the victims first: deleting while the cursor window is refilled would skip rows
+            List<Long> victimKeys = new ArrayList<>();
+            List<String> victimProviders = new ArrayList<>();
+            try (Cursor cursor = db.rawQuery(query, null)) {
+                while (total - bytes > target && cursor.moveToNext()) {
+                    long key = cursor.getLong(0);
+                    if (keep.contains(key) && provider.equals(cursor.getString(1))) {
+                        continue; // Delivery area
+                    }
+                    victimKeys.add(key);
+                    victimProviders.add(cursor.getString(1));
+                    bytes += cursor.getLong(2);
+                }
+            }
+            SQLiteStatement delete = db.compileStatement("DELETE FROM tiles WHERE key = ? AND provider = ?");
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < victimKeys.size(); i++) {
+                    delete.bindLong(1, victimKeys.get(i));
+                    delete.bindString(2, victimProviders.get(i));
+                    delete.executeUpdateDelete();
+                }
+                db.execSQL("DELETE FROM tile_access WHERE NOT EXISTS (SELECT 1 FROM tiles t"
+                        + " WHERE t.key = tile_access.key AND t.provider = tile_access.provider)");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                delete.close();
+            }
+            tiles = victimKeys.size();
+            evictedTiles += tiles;
+            evictedBytes += bytes;
+        }
+        tileBytes = total - bytes;
+        fileBytes = new File(db.getPath()).length();
+        Log.d("TileCacheManager", "Tile cache " + (tileBytes >> 20) + " MB of " + (budgetBytes >> 20) + " MB budget, "
+                + tiles + " tiles evicted (" + (bytes >> 10) + " KB), hit ratio " + hitRatio());
+    }
+
+    private void flushAccesses(SQLiteDatabase db, String provider) {
+        if (pendingAccesses.isEmpty()) {
+            return;
+        }
+        SQLiteStatement upsert = db.compileStatement(
+                "INSERT OR REPLACE INTO tile_access (key, provider, accessed) VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (Map.Entry<Long, Long> entry : pendingAccesses.entrySet()) {
+                upsert.bindLong(1, entry.getKey());
+                upsert.bindString(2, provider);
+                upsert.bindLong(3, entry.getValue());
+                upsert.executeInsert();
+                pendingAccesses.remove(entry.getKey(), entry.getValue());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            upsert.close();
+        }
+    }
+
+    private double hitRatio() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : Math.round(1000.0 * hits.get() / lookups) / 1000.0;
+    }
+
+    /**
+     * Cache metrics (sizes are those of the last trim, -1 before the first one)
+     */
+    public JSONObject statsToJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("budget_bytes", budgetBytes);
+        json.put("tile_bytes", tileBytes);
+        json.put("file_bytes", fileBytes);
+        json.put("hits", hits.get());
+        json.put("misses", misses.get());
+        json.put("hit_ratio", hitRatio());
+        json.put("evicted_tiles", evictedTiles);
+        json.put("evicted_bytes", evictedBytes);
+        json.put("pinned_tiles", pinned.size());
+        return json;
+    }
+
+    /**
+     * Replaces osmdroid's MapTileSqlCacheProvider so reads go through the managed cache
+     */
+    private final class CacheProvider extends MapTileModuleProviderBase {
+        private volatile ITileSource source;
+
+        CacheProvider(ITileSource source) {
+            super(Configuration.getInstance().getTileFileSystemThreads(),
+                    Configuration.getInstance().getTileFileSystemMaxQueueSize());
+            this.source = source;
+        }
+
+        @Override
+        public boolean getUsesDataConnection() {
+            return false;
+        }
+
+        @Override
+        protected String getName() {
+            return "Managed SQL cache provider";
+        }
+
+        @Override
+        protected String getThreadGroupName() {
+            return "managedcache";
+        }
+
+        @Override
+        public TileLoader getTileLoader() {
+            return new TileLoader() {
+                @Override
+                public Drawable loadTile(long pMapTileIndex) {
+                    ITileSource tileSource = source;
+                    if (tileSource == null) {
+                        return null;
+                    }
+                    try {
+                        Drawable drawable = writer.loadTile(tileSource, pMapTileIndex);
+                        if (drawable == null) {
+                            misses.incrementAndGet();
+                            return null;
+                        }
+                        hits.incrementAndGet();
+                        pendingAccesses.put(SqlTileWriter.getIndex(pMapTileIndex), System.currentTimeMillis());
+                        if (pendingAccesses.size() > MAX_PENDING_ACCESSES) {
+                            trimAsync(true);
+                        }
+                        return drawable;
+                    } catch (Exception e) {
+                        Log.e("TileCacheManager", "Error reading cached tile " + MapTileIndex.toString(pMapTileIndex), e);
+                        misses.incrementAndGet();
+                        return null;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int getMinimumZoomLevel() {
+            ITileSource tileSource = source;
+            return tileSource != null ? tileSource.getMinimumZoomLevel() : 0;
+        }
+
+        @Override
+        public int getMaximumZoomLevel() {
+            ITileSource tileSource = source;
+            return tileSource != null ? tileSource.getMaximumZoomLevel() : 22;
+        }
+
+        @Override
+        public void setTileSource(ITileSource tileSource) {
+            source = tileSource;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.glnc.ui.map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import com.example.glnc.location.GeofenceEngine;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.tilesource.TileSourcePolicy;
+import org.osmdroid.tileprovider.tilesource.XYTileSource;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Background download of the map tiles along the day's route
+ * - Expected route: current position, then the stops in nearest-neighbour order
+ * - Corridor: every tile within CORRIDOR_M of the route, zoom MIN_ZOOM..MAX_ZOOM (coarse zooms first)
+ * - Downloaded only from the backend tile server announced with the offline archive
+ *   (OfflineMapUpdater), never from tile.openstreetmap.org: the OSM tile usage policy forbids
+ *   bulk downloads (MAPNIK's TileSourcePolicy). The backend serves the tiles of its published
+ *   archive (/app/offline_map/tiles); until an archive is published nothing is prefetched
+ * - Tiles already in the offline archive or the tile cache are skipped; downloads go into the
+ *   managed tile cache (TileCacheManager) under the MAPNIK name the map reads, so the map finds
+ *   them without a network round trip
+ * - Only on a good link (unmetered, or a fast cellular downlink), checked again while running;
+ *   without one the run waits for the default network to become good (NetworkCallback) and resumes
+ * - Stops at the byte budget; a new delivery list cancels the running prefetch
+ * - Configures osmdroid (OsmdroidInit) on the prefetch thread when the map has not been shown
+ *   yet, so a delivery fetch prefetches the route before the driver opens the map
+ */
+public class TilePrefetcher {
+    static final int MIN_ZOOM = 13;
+    static final int MAX_ZOOM = 16;
+    static final double CORRIDOR_M = 400.0;
+    static final int MAX_ROUTE_STOPS = 60;
+    static final int MAX_TILES = 4000;
+    static final String TILE_BASE_URL_PREF = "map_prefetch_tile_base_url";
+    private static final long DEFAULT_BUDGET_BYTES = 20L * 1024 * 1024;
+    private static final int MIN_DOWNLINK_KBPS = 5000;
+    private static final int LINK_CHECK_EVERY = 25; // Tiles between two link checks
+    private static final long CACHE_EXPIRY_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final double EARTH_CIRCUMFERENCE_M = 40075016.686;
+
+    private static TilePrefetcher instance;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .build();
+    private Job current;
+    private Job last; // Kept after cancel() for the shift report
+    private ConnectivityManager.NetworkCallback linkCallback; // Waiting run, guarded by this
+
+    // Last stop list not yet applied by the prefetch thread
+    private boolean hasPendingStops = false;
+    private double pendingLat;
+    private double pendingLon;
+    private double[] pendingStopLats;
+    private double[] pendingStopLons;
+
+    /**
+     * One prefetch run; fields are written by the worker and read from any thread
+     */
+    private static final class Job {
+        volatile boolean cancelled = false;
+        volatile Call call;
+        volatile String state = "queued";
+        volatile int tilesTotal = 0;
+        volatile int tilesDone = 0;
+        volatile int tilesSkipped = 0;
+        volatile int tilesFailed = 0;
+        volatile long bytes = 0;
+    }
+
+    private TilePrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized TilePrefetcher get(Context context) {
+        if (instance == null) {
+            instance = new TilePrefetcher(context);
+        }
+        return instance;
+    }
+
+    /**
+     * New stop list: pin its tiles in the cache and prefetch its corridor, on the prefetch
+     * thread once osmdroid is configured (cancels the previous run)
+     * Only the last list is applied when several arrive while the thread waits for osmdroid
+     * @param lat Current latitude
+     * @param lon Current longitude
+     * @param stopLats Stop latitudes
+     * @param stopLons Stop longitudes
+     */
+    public void setStops(double lat, double lon, double[] stopLats, double[] stopLons) {
+        synchronized (this) {
+            cancel();
+            hasPendingStops = true;
+            pendingLat = lat;
+            pendingLon = lon;
+            pendingStopLats = stopLats;
+            pendingStopLons = stopLons;
+        }
+        executor.execute(this::applyPendingStops);
+    }
+
+    private void applyPendingStops() {
+        OsmdroidInit.await(context); // Configured here if the map has not been shown yet
+        double lat;
+        double lon;
+        double[] stopLats;
+        double[] stopLons;
+        synchronized (this) {
+            if (!hasPendingStops) {
+                return;
+            }
+            hasPendingStops = false;
+            lat = pendingLat;
+            lon = pendingLon;
+            stopLats = pendingStopLats;
+            stopLons = pendingStopLons;
+            pendingStopLats = null;
+            pendingStopLons = null;
+        }
+        TileCacheManager.get(context).setPinnedStops(stopLats, stopLons);
+        prefetch(lat, lon, stopLats, stopLons);
+    }
+
+    /**
+     * Prefetch the corridor for a new stop list (cancels the previous run)
+     * @param lat Current latitude
+     * @param lon Current longitude
+     * @param stopLats Stop latitudes
+     * @param stopLons Stop longitudes
+     */
+    public synchronized void prefetch(double lat, double lon, double[] stopLats, double[] stopLons) {
+        cancel();
+        if (stopLats.length == 0) {
+            return;
+        }
+        final double[] routeLats = new double[Math.min(stopLats.length, MAX_ROUTE_STOPS) + 1];
+        final double[] routeLons = new double[routeLats.length];
+        orderRoute(lat, lon, stopLats, stopLons, routeLats, routeLons);
+        final Job job = new Job();
+        current = job;
+        last = job;
+        executor.execute(() -> run(job, routeLats, routeLons));
+    }
+
+    /**
+     * Stop the running prefetch (the tile being downloaded is abandoned)
+     */
+    public synchronized void cancel() {
+        unregisterLinkCallback();
+        Job job = current;
+        if (job != null) {
+            job.cancelled = true;
+            Call call = job.call;
+            if (call != null) {
+                call.cancel();
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * Progress of the last run, cancelled or not
+     */
+    public synchronized JSONObject statsToJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+        json.put("total_bytes", prefs.getLong("map_prefetch_bytes", 0));
+        Job job = last;
+        if (job != null) {
+            json.put("state", job.state);
+            json.put("tiles_total", job.tilesTotal);
+            json.put("tiles_done", job.tilesDone);
+            json.put("tiles_skipped", job.tilesSkipped);
+            json.put("tiles_failed", job.tilesFailed);
+            json.put("bytes", job.bytes);
+        }
+        return json;
+    }
+
+    private void run(Job job, double[] routeLats, double[] routeLons) {
+        if (job.cancelled) {
+            return;
+        }
+        if (!isLinkGood()) {
+            job.state = "waiting_for_link";
+            Log.d("TilePrefetcher", "Link too slow or metered, prefetch waits for a better one");
+            waitForLink(job, routeLats, routeLons);
+            return;
+        }
+        OnlineTileSourceBase server = bulkSource();
+        if (server == null || !server.getTileSourcePolicy().acceptsBulkDownload()) {
+            job.state = "no_bulk_source";
+            Log.d("TilePrefetcher", "No tile server allowing bulk downloads, prefetch skipped");
+            return;
+        }
+        List<Long> tiles = corridorTiles(routeLats, routeLons, CORRIDOR_M, MIN_ZOOM, MAX_ZOOM, MAX_TILES);
+        job.tilesTotal = tiles.size();
+        job.tilesDone = 0; // A resumed run counts again; the cached tiles are skipped
+        job.tilesSkipped = 0;
+        job.tilesFailed = 0;
+        long startBytes = job.bytes;
+        job.state = "running";
+        long budget = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                .getLong("map_prefetch_budget_bytes", DEFAULT_BUDGET_BYTES);
+        Log.d("TilePrefetcher", "Prefetching " + tiles.size() + " corridor tiles, budget " + (budget >> 20) + " MB");
+
+        OnlineTileSourceBase source = TileSourceFactory.MAPNIK; // Cache and archive key
+        TileCacheManager cacheManager = TileCacheManager.get(context);
+        SqlTileWriter cache = cacheManager.getWriter();
+        MbTilesArchive archive = MbTilesArchive.open(OfflineMaps.getArchiveFile(context));
+        String userAgent = Configuration.getInstance().getUserAgentValue();
+        try {
+            for (long tile : tiles) {
+                if (job.cancelled) {
+                    job.state = "cancelled";
+                    break;
+                }
+                if (job.bytes >= budget) {
+                    job.state = "budget_reached";
+                    break;
+                }
+                if (job.tilesDone > 0 && job.tilesDone % LINK_CHECK_EVERY == 0 && !isLinkGood()) {
+                    job.state = "link_lost";
+                    break;
+                }
+                job.tilesDone++;
+                if (cache.exists(source, tile) || (archive != null && archive.getInputStream(source, tile) != null)) {
+                    job.tilesSkipped++;
+                    continue;
+                }
+                byte[] data = download(job, server.getTileURLString(tile), userAgent);
+                if (data == null) {
+                    job.tilesFailed++;
+                    continue;
+                }
+                job.bytes += data.length;
+                cache.saveFile(source, tile, new ByteArrayInputStream(data), System.currentTimeMillis() + CACHE_EXPIRY_MS);
+            }
+            if ("running".equals(job.state)) {
+                job.state = "done";
+            }
+        } finally {
+            if ("link_lost".equals(job.state)) {
+                waitForLink(job, routeLats, routeLons);
+            }
+            if (archive != null) {
+                archive.close();
+            }
+            SharedPreferences prefs = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE);
+            prefs.edit().putLong("map_prefetch_bytes", prefs.getLong("map_prefetch_bytes", 0) + job.bytes - startBytes).apply();
+            cacheManager.trimAsync(); // Keep the cache within its budget after the downloads
+            Log.d("TilePrefetcher", "Prefetch " + job.state + ": " + job.tilesDone + "/" + job.tilesTotal + " tiles, "
+                    + job.tilesSkipped + " cached, " + job.tilesFailed + " failed, " + (job.bytes >> 10) + " KB");
+        }
+    }
+
+    /**
+     * Resume the run on the prefetch thread once the default network is good again
+     * Only the current job waits; a new stop list or cancel() drops the callback
+     */
+    private synchronized void waitForLink(final Job job, final double[] routeLats, final double[] routeLons) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null || job.cancelled || job != current) {
+            return;
+        }
+        unregisterLinkCallback();
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                if (!isLinkGood()) {
+                    return;
+                }
+                synchronized (TilePrefetcher.this) {
+                    if (linkCallback != this) {
+                        return; // Already resumed or cancelled
+                    }
+                    unregisterLinkCallback();
+                }
+                Log.d("TilePrefetcher", "Good link, prefetch resumed");
+                executor.execute(() -> run(job, routeLats, routeLons));
+            }
+        };
+        try {
+            cm.registerDefaultNetworkCallback(callback);
+            linkCallback = callback;
+        } catch (RuntimeException e) {
+            Log.e("TilePrefetcher", "Error waiting for a good link", e);
+        }
+    }
+
+    private synchronized void unregisterLinkCallback() {
+        if (linkCallback == null) {
+            return;
+        }
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            if (cm != null) {
+                cm.unregisterNetworkCallback(linkCallback);
+            }
+        } catch (RuntimeException e) {
+            Log.e("TilePrefetcher", "Error unregistering the link callback", e);
+        }
+        linkCallback = null;
+    }
+
+    private byte[] download(Job job, String url, String userAgent) {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", userAgent)
+                .build();
+        Call call = client.newCall(request);
+        job.call = call;
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.w("TilePrefetcher", "Tile download failed: " + response.code());
+                return null;
+            }
+            return response.body().bytes();
+        } catch (IOException e) {
+            if (!job.cancelled) {
+                Log.w("TilePrefetcher", "Tile download failed: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            job.call = null;
+        }
+    }
+
+    /**
+     * Backend tile server of the offline archive, null if the backend does not announce one
+     */
+    private OnlineTileSourceBase bulkSource() {
+        String baseUrl = context.getSharedPreferences("GLNC_Prefs", Context.MODE_PRIVATE)
+                .getString(TILE_BASE_URL_PREF, "");
+        if (baseUrl.isEmpty()) {
+            return null;
+        }
+        if (!baseUrl.endsWith("/")) {
+            baseUrl += "/";
+        }
+        return new XYTileSource("GlncTiles", MIN_ZOOM, MAX_ZOOM, 256, ".png", new String[]{baseUrl},
+                "© OpenStreetMap contributors", new TileSourcePolicy(2, 0)); // Our server: bulk allowed
+    }
+
+    private boolean isLinkGood() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return false;
+        }
+        Network network = cm.getActiveNetwork();
+        NetworkCapabilities caps = network != null ? cm.getNetworkCapabilities(network) : null;
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return false;
+        }
+        return !cm.isActiveNetworkMetered() || caps.getLinkDownstreamBandwidthKbps() >= MIN_DOWNLINK_KBPS;
+    }
+
+    /**
+     * Greedy nearest-neighbour visiting order from the current position
+     * Writes the position and the first routeLats.length - 1 stops into routeLats/routeLons
+     */
+    static void orderRoute(double lat, double lon, double[] stopLats, double[] stopLons,
+                           double[] routeLats, double[] routeLons) {
+        boolean[] visited = new boolean[stopLats.length];
+        routeLats[0] = lat;
+        routeLons[0] = lon;
+        for (int r = 1; r < routeLats.length; r++) {
+            int best = -1;
+            double bestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < stopLats.length; i++) {
+                if (visited[i]) {
+                    continue;
+                }
+                double distance = GeofenceEngine.distanceMeters(routeLats[r - 1], routeLons[r - 1], stopLats[i], stopLons[i]);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+            visited[best] = true;
+            routeLats[r] = stopLats[best];
+            routeLons[r] = stopLons[best];
+        }
+    }
+
+    /**
+     * Tiles within corridorM of the route polyline, coarse zoom levels first and in route order
+     * Each leg is sampled at most every half tile (and half corridor), and the tiles covering
+     * the corridor box around each sample are collected
+     */
+    static List<Long> corridorTiles(double[] lats, double[] lons, double corridorM, int minZoom, int maxZoom,
+                                    int maxTiles) {
+        LinkedHashSet<Long> tiles = new LinkedHashSet<>();
+        for (int zoom = minZoom; zoom <= maxZoom && tiles.size() < maxTiles; zoom++) {
+            for (int leg = 0; leg < lats.length && tiles.size() < maxTiles; leg++) {
+                int next = Math.min(leg + 1, lats.length - 1);
+                double legM = GeofenceEngine.distanceMeters(lats[leg], lons[leg], lats[next], lons[next]);
+                double tileM = EARTH_CIRCUMFERENCE_M * Math.cos(Math.toRadians(lats[leg])) / (1 << zoom);
+                double stepM = Math.min(tileM, corridorM) / 2;
+                int steps = Math.max(1, (int) Math.ceil(legM / stepM));
+                for (int s = 0; s <= steps && tiles.size() < maxTiles; s++) {
+                    double f = (double) s / steps;
+                    double lat = lats[leg] + (lats[next] - lats[leg]) * f;
+                    double lon = lons[leg] + (lons[next] - lons[leg]) * f;
+                    addBox(tiles, lat, lon, corridorM, zoom, maxTiles);
+                }
+            }
+        }
+        return new ArrayList<>(tiles);
+    }
+
+    private static void addBox(LinkedHashSet<Long> tiles, double lat, double lon, double radiusM, int zoom,
+                               int maxTiles) {
+        double dLat = radiusM / 111320.0;
+        double dLon = radiusM / (111320.0 * Math.cos(Math.toRadians(lat)));
+        int minX = tileX(lon - dLon, zoom);
+        int maxX = tileX(lon + dLon, zoom);
+        int minY = tileY(lat + dLat, zoom); // Tile Y grows southwards
+        int maxY = tileY(lat - dLat, zoom);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                if (tiles.size() >= maxTiles) {
+                    return;
+                }
+                tiles.add(MapTileIndex.getTileIndex(zoom, x, y));
+            }
+        }
+    }
+
+    static int tileX(double lon, int zoom) {
+        int n = 1 << zoom;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor((lon + 180.0) / 360.0 * n)));
+    }
+
+    static int tileY(double lat, int zoom) {
+        int n = 1 << zoom;
+        double rad = Math.toRadians(lat);
+        double y = (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0 * n;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(y)));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.glnc.geocode;
+
+import com.example.glnc.location.GeofenceEngine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Offline geocoder on a synthetic Noumea/Dumbea index: binary round trip, forward lookups
+ * (abbreviations, accents, truncated names, cities), reverse lookups against a linear scan
+ * and the persistent cache
+ */
+public class OfflineGeocoderTest {
+    private static final String[] STREETS = {
+            "Rue de Sébastopol", "Avenue du Maréchal Foch", "Boulevard Vauban", "Rue Jean Jaurès",
+            "Route de la Baie des Dames", "Allée des Cocotiers", "Impasse des Flamboyants", "Rue Georges Clemenceau"
+    };
+    private static final double BASE_LAT = -22.28;
+    private static final double BASE_LON = 166.44;
+
+    /**
+     * Each street runs east from its own latitude; number n is n * 10 m along it
+     * The last street also exists in Dumbea, 10 km north
+     */
+    private static AddressIndex buildIndex() {
+        AddressIndex.Builder builder = new AddressIndex.Builder("test-1");
+        for (int s = 0; s < STREETS.length; s++) {
+            for (int n = 1; n <= 60; n++) {
+                builder.add(STREETS[s], Integer.toString(n), "Nouméa", streetLat(s, n), streetLon(n));
+            }
+        }
+        builder.add(STREETS[0], "12 bis", "Nouméa", streetLat(0, 12), streetLon(12) + 0.00005);
+        for (int n = 1; n <= 20; n++) {
+            builder.add(STREETS[7], Integer.toString(n), "Dumbéa", streetLat(7, n) + 0.09, streetLon(n));
+        }
+        return builder.build();
+    }
+
+    private static double streetLat(int street, int number) {
+        return BASE_LAT + street * 0.002 + (number % 2 == 0 ? 0.00005 : 0); // Even numbers across the street
+    }
+
+    private static double streetLon(int number) {
+        return BASE_LON + number * 10 / (111320.0 * Math.cos(Math.toRadians(BASE_LAT)));
+    }
+
+    private static AddressIndex roundTrip(AddressIndex index) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        return AddressIndex.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertAt(OfflineGeocoder.Result result, double lat, double lon) {
+        assertNotNull(result);
+        assertTrue("off by " + GeofenceEngine.distanceMeters(lat, lon, result.latitude, result.longitude) + " m",
+                GeofenceEngine.distanceMeters(lat, lon, result.latitude, result.longitude) < 1);
+    }
+
+    @Test
+    public void binaryFormat_roundTrips() throws Exception {
+        AddressIndex index = buildIndex();
+        AddressIndex read = roundTrip(index);
+        assertEquals("test-1", read.getVersion());
+        assertEquals(index.addressCount(), read.addressCount());
+        assertEquals(index.streetCount(), read.streetCount());
+        for (int i = 0; i < index.addressCount(); i++) {
+            assertEquals(index.latitude(i), read.latitude(i), 0);
+            assertEquals(index.longitude(i), read.longitude(i), 0);
+            assertEquals(index.houseNumbers[i], read.houseNumbers[i]);
+            assertEquals(index.streetLabels[index.addressStreet[i]], read.streetLabels[read.addressStreet[i]]);
+        }
+    }
+
+    @Test
+    public void forward_findsAddresses() throws Exception {
+        OfflineGeocoder geocoder = new OfflineGeocoder(roundTrip(buildIndex()), null);
+
+        OfflineGeocoder.Result exact = geocoder.forward("15 Rue de Sébastopol, 98800 Nouméa");
+        assertAt(exact, streetLat(0, 15), streetLon(15));
+        assertEquals(OfflineGeocoder.Precision.ADDRESS, exact.precision);
+        assertEquals("15 Rue de Sébastopol, Nouméa", exact.label);
+
+        // Abbreviations, no accents, city without a comma
+        assertAt(geocoder.forward("7 av. du mal foch noumea"), streetLat(1, 7), streetLon(7));
+        assertAt(geocoder.forward("22 BD VAUBAN"), streetLat(2, 22), streetLon(22));
+        // Bis numbers, number before the comma
+        assertAt(geocoder.forward("12 bis rue de Sebastopol"), streetLat(0, 12), streetLon(12) + 0.00005);
+        assertAt(geocoder.forward("30, rue Jean Jaures"), streetLat(3, 30), streetLon(30));
+        // Street known by its distinctive words only, or truncated
+        assertAt(geocoder.forward("9 Sébastopol"), streetLat(0, 9), streetLon(9));
+        assertAt(geocoder.forward("4 all des cocot"), streetLat(5, 4), streetLon(4));
+
+        // Same street name in two cities
+        assertAt(geocoder.forward("3 rue Georges Clemenceau, Dumbéa"), streetLat(7, 3) + 0.09, streetLon(3));
+        assertAt(geocoder.forward("3 rue Georges Clemenceau, Nouméa"), streetLat(7, 3), streetLon(3));
+
+        // Unknown number: closest on the same side; no number: a point of the street
+        OfflineGeocoder.Result nearest = geocoder.forward("75 boulevard Vauban");
+        assertEquals(OfflineGeocoder.Precision.NEAREST_NUMBER, nearest.precision);
+        assertAt(nearest, streetLat(2, 59), streetLon(59));
+        OfflineGeocoder.Result street = geocoder.forward("Impasse des Flamboyants");
+        assertEquals(OfflineGeocoder.Precision.STREET, street.precision);
+        assertTrue(street.label.startsWith("Impasse des Flamboyants"));
+
+        assertNull(geocoder.forward("1 rue inconnue"));
+        assertNull(geocoder.forward("   "));
+    }
+
+    @Test
+    public void reverse_matchesLinearScan() throws Exception {
+        AddressIndex index = roundTrip(buildIndex());
+        OfflineGeocoder geocoder = new OfflineGeocoder(index, null);
+        Random random = new Random(7);
+        for (int q = 0; q < 500; q++) {
+            double lat = BASE_LAT - 0.001 + random.nextDouble() * 0.02;
+            double lon = BASE_LON - 0.001 + random.nextDouble() * 0.008;
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < index.addressCount(); i++) {
+                best = Math.min(best, GeofenceEngine.distanceMeters(lat, lon, index.latitude(i), index.longitude(i)));
+            }
+            OfflineGeocoder.Result result = geocoder.reverse(lat, lon);
+            if (best > OfflineGeocoder.MAX_REVERSE_METERS) {
+                assertNull(result);
+            } else {
+                assertNotNull(result);
+                assertEquals(best, result.distanceMeters, 0.01);
+            }
+        }
+        OfflineGeocoder.Result onAddress = geocoder.reverse(streetLat(3, 41), streetLon(41));
+        assertEquals("41 Rue Jean Jaurès, Nouméa", onAddress.label);
+        assertNull(geocoder.reverse(-21.0, 165.0));
+    }
+
+    @Test
+    public void csv_isParsed() throws Exception {
+        String csv = "lon,lat,street,housenumber,city,postcode\n"
+                + "166.45,-22.27,\"Rue de l'Alma, Haut\",3,Nouméa,98800\n"
+                + "166.46,-22.26,Rue Anatole France,,Nouméa,98800\n";
+        AddressIndex index = new AddressIndex.Builder("csv").addCsv(new StringReader(csv)).build();
+        assertEquals(2, index.addressCount());
+        OfflineGeocoder geocoder = new OfflineGeocoder(index, null);
+        assertAt(geocoder.forward("3 rue de l alma haut"), -22.27, 166.45);
+        assertEquals(OfflineGeocoder.Precision.STREET, geocoder.forward("8 rue anatole france").precision);
+    }
+
+    @Test
+    public void cache_persistsResultsAndMisses() throws Exception {
+        File file = File.createTempFile("geocode_cache", ".tsv");
+        file.delete();
+        try {
+            AddressIndex index = buildIndex();
+            OfflineGeocoder geocoder = new OfflineGeocoder(index, new GeocodeCache(file));
+            OfflineGeocoder.Result first = geocoder.forward("15 Rue de Sébastopol");
+            assertNull(geocoder.forward("1 rue inconnue"));
+
+            // Another process: served from the file, keyed by normalized address
+            GeocodeCache reopened = new GeocodeCache(file);
+            assertEquals(2, reopened.size());
+            OfflineGeocoder.Result cached = reopened.get(AddressNormalizer.normalize("15, rue de SEBASTOPOL"), "test-1");
+            assertNotNull(cached);
+            assertEquals(first.latitude, cached.latitude, 0);
+            assertEquals(first.longitude, cached.longitude, 0);
+            assertEquals(first.label, cached.label);
+            assertSame(OfflineGeocoder.MISS_RESULT, reopened.get("1 rue inconnue", "test-1"));
+            assertNull(reopened.get("1 rue inconnue", "test-2")); // Misses are retried with a new index
+
+            // Repeated updates of one key compact the file
+            for (int i = 0; i < 200; i++) {
+                reopened.put("key", "test-1", first);
+            }
+            assertEquals(3, new GeocodeCache(file).size());
+            assertTrue(file.length() < 100 * 150);
+        } finally {
+            file.delete();
+        }
+    }
+}
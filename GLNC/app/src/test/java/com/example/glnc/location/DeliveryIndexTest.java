@@ -0,0 +1,97 @@
+package com.example.glnc.location;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * DeliveryIndex against a linear scan, for 100 to 10,000 stops
+ * Stops are spread over the Noumea area (about 20 x 20 km)
+ * Query timings: DeliveryIndexBenchmark in the benchmark module (JMH)
+ */
+public class DeliveryIndexTest {
+    private static final double BASE_LAT = -22.35;
+    private static final double BASE_LON = 166.35;
+    private static final double SPAN_DEG = 0.2;
+    private static final int[] SIZES = {100, 1000, 10000};
+
+    private static final class Stops {
+        final String[] ids;
+        final double[] lats;
+        final double[] lons;
+
+        Stops(int count, Random random) {
+            ids = new String[count];
+            lats = new double[count];
+            lons = new double[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = "D" + i;
+                lats[i] = BASE_LAT + random.nextDouble() * SPAN_DEG;
+                lons[i] = BASE_LON + random.nextDouble() * SPAN_DEG;
+            }
+        }
+    }
+
+    private static double[] scanDistances(Stops stops, double lat, double lon) {
+        double[] distances = new double[stops.ids.length];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = GeofenceEngine.distanceMeters(lat, lon, stops.lats[i], stops.lons[i]);
+        }
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    @Test
+    public void queries_matchLinearScan() {
+        Random random = new Random(42);
+        for (int size : SIZES) {
+            Stops stops = new Stops(size, random);
+            DeliveryIndex index = new DeliveryIndex();
+            index.update(stops.ids, stops.lats, stops.lons);
+            assertEquals(size, index.size());
+
+            for (int q = 0; q < 50; q++) {
+                // Some queries fall outside the area to exercise the isolated-query path
+                double lat = BASE_LAT - 0.1 + random.nextDouble() * (SPAN_DEG + 0.2);
+                double lon = BASE_LON - 0.1 + random.nextDouble() * (SPAN_DEG + 0.2);
+                double[] expected = scanDistances(stops, lat, lon);
+
+                List<DeliveryIndex.Neighbor> nearest = index.nearest(lat, lon, 5);
+                assertEquals(5, nearest.size());
+                for (int i = 0; i < 5; i++) {
+                    assertEquals(expected[i], nearest.get(i).distanceM, 1e-6);
+                }
+
+                double radius = 300 + random.nextDouble() * 2000;
+                int inside = 0;
+                while (inside < expected.length && expected[inside] <= radius) {
+                    inside++;
+                }
+                assertEquals(inside, index.withinRadius(lat, lon, radius).size());
+            }
+        }
+    }
+
+    @Test
+    public void update_isIncremental() {
+        DeliveryIndex index = new DeliveryIndex();
+        index.update(new String[]{"A", "B", "C"},
+            new double[]{-22.27, -22.28, -22.29}, new double[]{166.45, 166.45, 166.45});
+        // B delivered, C moved, D added
+        index.update(new String[]{"A", "C", "D"},
+            new double[]{-22.27, -22.30, -22.26}, new double[]{166.45, 166.45, 166.45});
+
+        assertEquals(3, index.size());
+        List<DeliveryIndex.Neighbor> nearest = index.nearest(-22.28, 166.45, 1);
+        assertEquals("A", nearest.get(0).id);
+        assertTrue(index.withinRadius(-22.28, 166.45, 500).isEmpty());
+        assertEquals("C", index.nearest(-22.301, 166.45, 1).get(0).id);
+        assertFalse(index.remove("B"));
+        assertTrue(index.remove("D"));
+        assertEquals(2, index.nearest(-22.26, 166.45, 10).size());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.glnc.location;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeofenceEngine transitions: enter/exit hysteresis, dwell, dwell without fixes, accuracy cutoff,
+ * stop list updates
+ */
+public class GeofenceEngineTest {
+    private static final double LAT = -22.2763;
+    private static final double LON = 166.4572;
+    private static final double METERS_PER_DEGREE = 111195.0; // Haversine sphere
+    private static final long T0 = 1700000000000L;
+
+    private GeofenceEngine engine;
+    private List<GeofenceEngine.Event> events;
+
+    @Before
+    public void setUp() {
+        engine = new GeofenceEngine();
+        events = new ArrayList<>();
+        engine.addListener(events::add);
+        engine.setStops(new String[]{"A"}, new double[]{LAT}, new double[]{LON});
+    }
+
+    /**
+     * Fix the given distance north of a point
+     */
+    private void fixNorthOf(double lat, double meters, float accuracy, long timeMs) {
+        engine.onLocation(lat + meters / METERS_PER_DEGREE, LON, accuracy, timeMs);
+    }
+
+    private void assertEvent(int index, String stopId, GeofenceEngine.Transition transition, long enteredAtMs) {
+        GeofenceEngine.Event event = events.get(index);
+        assertEquals(stopId, event.stopId);
+        assertEquals(transition, event.transition);
+        assertEquals(enteredAtMs, event.enteredAtMs);
+    }
+
+    @Test
+    public void enterDwellExit_withHysteresis() {
+        fixNorthOf(LAT, 120, 10, T0); // Outside the enter radius
+        assertTrue(events.isEmpty());
+
+        fixNorthOf(LAT, 90, 10, T0 + 10000);
+        assertEquals(1, events.size());
+        assertEvent(0, "A", GeofenceEngine.Transition.ENTER, T0 + 10000);
+
+        // Between the enter and exit radii: still inside
+        fixNorthOf(LAT, 130, 10, T0 + 60000);
+        assertEquals(1, events.size());
+        fixNorthOf(LAT, 130, 10, T0 + 10000 + GeofenceEngine.DEFAULT_DWELL_MS - 1);
+        assertEquals(1, events.size());
+        fixNorthOf(LAT, 130, 10, T0 + 10000 + GeofenceEngine.DEFAULT_DWELL_MS);
+        assertEquals(2, events.size());
+        assertEvent(1, "A", GeofenceEngine.Transition.DWELL, T0 + 10000);
+
+        // DWELL fires once, EXIT only beyond the exit radius
+        fixNorthOf(LAT, 50, 10, T0 + 300000);
+        assertEquals(2, events.size());
+        fixNorthOf(LAT, 160, 10, T0 + 400000);
+        assertEquals(3, events.size());
+        assertEvent(2, "A", GeofenceEngine.Transition.EXIT, T0 + 10000);
+
+        // Between the radii on the way back: not entered yet
+        fixNorthOf(LAT, 130, 10, T0 + 500000);
+        assertEquals(3, events.size());
+        fixNorthOf(LAT, 20, 10, T0 + 600000);
+        assertEquals(4, events.size());
+        assertEvent(3, "A", GeofenceEngine.Transition.ENTER, T0 + 600000);
+    }
+
+    @Test
+    public void inaccurateFixes_areIgnored() {
+        fixNorthOf(LAT, 0, GeofenceEngine.MAX_ACCURACY_M + 1, T0);
+        assertTrue(events.isEmpty());
+
+        fixNorthOf(LAT, 0, GeofenceEngine.MAX_ACCURACY_M, T0 + 1000);
+        assertEquals(1, events.size());
+
+        // An inaccurate fix far away does not exit either
+        fixNorthOf(LAT, 1000, GeofenceEngine.MAX_ACCURACY_M + 1, T0 + 2000);
+        assertEquals(1, events.size());
+        fixNorthOf(LAT, 0, -1, T0 + 1000 + GeofenceEngine.DEFAULT_DWELL_MS); // Unknown accuracy is used
+        assertEquals(2, events.size());
+        assertEvent(1, "A", GeofenceEngine.Transition.DWELL, T0 + 1000);
+    }
+
+    @Test
+    public void setStops_replacesStopsAndKeepsStateOfUnchangedOnes() {
+        double latB = LAT + 0.01; // About 1.1 km north
+        engine.setStops(new String[]{"A", "B"}, new double[]{LAT, latB}, new double[]{LON, LON});
+        fixNorthOf(LAT, 0, 10, T0);
+        assertEquals(1, events.size());
+
+        // Refreshed list: A unchanged (no second ENTER, dwell still counted from T0), B removed, C added
+        double latC = LAT - 0.01;
+        engine.setStops(new String[]{"C", "A"}, new double[]{latC, LAT}, new double[]{LON, LON});
+        assertEquals(2, engine.getStopCount());
+        fixNorthOf(LAT, 0, 10, T0 + GeofenceEngine.DEFAULT_DWELL_MS);
+        assertEquals(2, events.size());
+        assertEvent(1, "A", GeofenceEngine.Transition.DWELL, T0);
+
+        fixNorthOf(latB, 0, 10, T0 + 400000); // B is no longer monitored; leaving A
+        assertEquals(3, events.size());
+        assertEvent(2, "A", GeofenceEngine.Transition.EXIT, T0);
+        fixNorthOf(latC, 0, 10, T0 + 500000);
+        assertEquals(4, events.size());
+        assertEvent(3, "C", GeofenceEngine.Transition.ENTER, T0 + 500000);
+
+        // A stop that moved starts over: entered again from the next fix
+        engine.setStops(new String[]{"C"}, new double[]{latC + 0.0001}, new double[]{LON});
+        fixNorthOf(latC, 0, 10, T0 + 510000);
+        assertEquals(5, events.size());
+        assertEvent(4, "C", GeofenceEngine.Transition.ENTER, T0 + 510000);
+
+        engine.clear();
+        assertEquals(0, engine.getStopCount());
+        fixNorthOf(LAT, 0, 10, T0 + 600000);
+        assertEquals(5, events.size());
+    }
+
+    @Test
+    public void dwell_isConfirmedWithoutFurtherFixes() {
+        VirtualScheduler scheduler = new VirtualScheduler(T0);
+        LocationPipeline pipeline = new LocationPipeline(
+            new MockRuleEngine(MockRuleConfig.defaults(), () -> false), scheduler, engine);
+        pipeline.start("gps", false);
+
+        // One fix inside the stop, then silence: the truck is parked (no fix below the minimum distance)
+        LocationSnapshot fix = new LocationSnapshot(LAT, LON, 0, 10.0f, 0, 0, "gps", T0, 0, false);
+        assertTrue(pipeline.onFix(fix, false));
+        assertEquals(1, events.size());
+        assertEvent(0, "A", GeofenceEngine.Transition.ENTER, T0);
+
+        scheduler.advanceBy(GeofenceEngine.DEFAULT_DWELL_MS - 1);
+        assertEquals(1, events.size());
+        scheduler.advanceBy(1);
+        assertEquals(2, events.size());
+        assertEvent(1, "A", GeofenceEngine.Transition.DWELL, T0);
+        assertEquals(T0 + GeofenceEngine.DEFAULT_DWELL_MS, events.get(1).timeMs);
+
+        // Fires once; stopping the pipeline cancels a pending dwell timer
+        scheduler.runAll();
+        assertEquals(2, events.size());
+        engine.checkDwell(T0 + 3 * GeofenceEngine.DEFAULT_DWELL_MS);
+        assertEquals(2, events.size());
+        assertEquals(-1, engine.getNextDwellTimeMs());
+        pipeline.stop();
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.glnc.location;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays recorded traces through LocationPipeline on the JVM with a simulated clock
+ */
+public class LocationReplayTest {
+    private static final long START_WALL_MS = 1700000000000L;
+
+    private VirtualScheduler scheduler;
+    private LocationPipeline pipeline;
+    private GeofenceEngine geofences;
+    private List<LocationSnapshot> accepted;
+    private int networkSwitches;
+    private int gpsProbes;
+    private int gpsPromotions;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler(START_WALL_MS);
+        geofences = new GeofenceEngine();
+        pipeline = new LocationPipeline(
+            new MockRuleEngine(MockRuleConfig.defaults(), () -> false), scheduler, geofences);
+        pipeline.setProviderController(new LocationPipeline.ProviderController() {
+            @Override
+            public void switchToNetwork() {
+                networkSwitches++;
+                pipeline.onSwitchedToNetwork();
+            }
+
+            @Override
+            public void startGpsProbe() {
+                gpsProbes++;
+            }
+
+            @Override
+            public void stopGpsProbe() {
+            }
+
+            @Override
+            public void switchToGps() {
+                gpsPromotions++;
+            }
+        });
+        accepted = new ArrayList<>();
+        networkSwitches = 0;
+        gpsProbes = 0;
+        gpsPromotions = 0;
+    }
+
+    private void replay(LocationTrace trace, double speed, Conflator uploads) {
+        pipeline.start("gps", false);
+        pipeline.startGpsTimeoutIfWaiting();
+        TraceReplaySource source = new TraceReplaySource(trace, scheduler, speed);
+        source.start(fix -> {
+            if (pipeline.onFix(fix, false)) {
+                accepted.add(fix);
+                if (uploads != null) {
+                    uploads.offer(fix);
+                }
+            }
+        });
+        // Probe timers rearm after a network fallback: stop the pipeline at the end of the trace
+        scheduler.advanceBy((long) (trace.getDurationMs() / speed));
+        assertTrue(source.isFinished());
+        pipeline.stop();
+        scheduler.runAll();
+    }
+
+    @Test
+    public void csvTrace_rejectsMockFix() throws Exception {
+        LocationTrace trace;
+        try (InputStream in = getClass().getResourceAsStream("/traces/noumea_short.csv")) {
+            trace = LocationTrace.fromCsv(in, "gps");
+        }
+        assertEquals(6, trace.size());
+        assertEquals(100000, trace.getDurationMs());
+
+        replay(trace, 1.0, null);
+
+        assertEquals(5, accepted.size());
+        assertEquals(100000, scheduler.elapsedRealtimeMs());
+        assertEquals(0, networkSwitches);
+    }
+
+    @Test
+    public void gpxTrace_gpsSilenceTriggersNetworkSwitch() throws Exception {
+        String gpx = "<?xml version=\"1.0\"?><gpx><trk><trkseg>"
+            + "<trkpt lat=\"-22.2763\" lon=\"166.4572\"><time>2023-11-14T22:13:20Z</time><hdop>2</hdop></trkpt>"
+            + "<trkpt lat=\"-22.2761\" lon=\"166.4576\"><time>2023-11-14T22:14:05.500Z</time><hdop>1.5</hdop></trkpt>"
+            + "</trkseg></trk></gpx>";
+        LocationTrace trace = LocationTrace.fromGpx(
+            new ByteArrayInputStream(gpx.getBytes(StandardCharsets.UTF_8)), "gps");
+        assertEquals(2, trace.size());
+        assertEquals(1700000000000L, trace.getFixes().get(0).timeMs);
+        assertEquals(10.0f, trace.getFixes().get(0).accuracy, 0.001f);
+
+        // Tracking starts 45 s before the first recorded fix: the 30 s GPS timeout fires first
+        pipeline.start("gps", false);
+        pipeline.startGpsTimeoutIfWaiting();
+        scheduler.advanceBy(45000);
+        assertEquals(1, networkSwitches);
+
+        TraceReplaySource source = new TraceReplaySource(trace, scheduler, 1.0);
+        source.start(fix -> {
+            if (pipeline.onFix(fix, false)) {
+                accepted.add(fix);
+            }
+        });
+        scheduler.advanceBy(trace.getDurationMs());
+
+        assertEquals(1, networkSwitches);
+        assertTrue(pipeline.hasSwitchedToNetwork());
+        assertEquals(2, accepted.size());
+        assertEquals(45000 + 45500, scheduler.elapsedRealtimeMs());
+    }
+
+    @Test
+    public void fullShift_uploadsConflatedToFiveMinutes() {
+        // 8 hour shift, one fix every 10 s, replayed instantly on the virtual clock
+        List<LocationSnapshot> fixes = new ArrayList<>();
+        for (int i = 0; i <= 8 * 360; i++) {
+            fixes.add(new LocationSnapshot(-22.2763 + i * 0.0001, 166.4572, 0, 10.0f, 0, 0, "gps",
+                START_WALL_MS + i * 10000L, 0, false));
+        }
+        List<LocationSnapshot> uploaded = new ArrayList<>();
+        Conflator uploads = new Conflator(5 * 60 * 1000, 0, scheduler, uploaded::add);
+        ShiftTrackingStats stats = new ShiftTrackingStats();
+        stats.startShift(0);
+        pipeline.setTrackingStats(stats);
+
+        replay(new LocationTrace(fixes), 1.0, uploads);
+
+        assertEquals(fixes.size(), accepted.size());
+        // One upload per 5 min window, plus the last fix flushed one window after the shift
+        assertEquals(8 * 12 + 2, uploaded.size());
+        assertEquals(fixes.get(fixes.size() - 1).latitude, uploaded.get(uploaded.size() - 1).latitude, 1e-9);
+        assertEquals(0, stats.getGapCount());
+    }
+
+    @Test
+    public void tripAnalytics_countsDistanceAndMatchesStopToDelivery() {
+        // 20 fixes driving north (~111 m per 10 s), 5 minutes parked with jitter, 20 fixes driving on
+        double stopLat = -22.2763 + 20 * 0.001;
+        List<LocationSnapshot> fixes = new ArrayList<>();
+        for (int i = 0; i <= 70; i++) {
+            double lat;
+            if (i <= 20) {
+                lat = -22.2763 + i * 0.001;
+            } else if (i <= 50) {
+                lat = stopLat + (i % 2 == 0 ? 0.00002 : -0.00002);
+            } else {
+                lat = stopLat + (i - 50) * 0.001;
+            }
+            fixes.add(new LocationSnapshot(lat, 166.4572, 0, 8.0f, 0, 0, "gps",
+                START_WALL_MS + i * 10000L, 0, false));
+        }
+        geofences.setStops(new String[]{"D42"}, new double[]{stopLat}, new double[]{166.4572});
+        TripAnalytics trip = new TripAnalytics();
+        geofences.addListener(trip);
+        pipeline.setTripAnalytics(trip);
+
+        replay(new LocationTrace(fixes), 1.0, null);
+        trip.finish();
+
+        assertEquals(40 * GeofenceEngine.distanceMeters(0, 0, 0.001, 0), trip.getOdometerMeters(), 10.0);
+        assertEquals(400000, trip.getMovingMs());
+        assertEquals(300000, trip.getStationaryMs());
+        assertEquals(1, trip.getStopCount());
+        TripAnalytics.Stop stop = trip.getStops().get(0);
+        assertEquals("D42", stop.deliveryId);
+        assertEquals(START_WALL_MS + 200000, stop.arrivedMs);
+        assertEquals(300000, stop.getDwellMs());
+    }
+
+    @Test
+    public void energyPolicy_parksWithoutBatchingAndSavesOnCriticalBattery() {
+        // 10 minutes parked at the same place, one fix per minute
+        List<LocationSnapshot> fixes = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            fixes.add(new LocationSnapshot(-22.2763, 166.4572, 0, 8.0f, 0, 0, "gps",
+                START_WALL_MS + i * 60000L, 0, false));
+        }
+        EnergyPolicy policy = new EnergyPolicy();
+        List<EnergyPolicy.Profile> changes = new ArrayList<>();
+        policy.setListener(changes::add);
+        pipeline.setEnergyPolicy(policy);
+
+        replay(new LocationTrace(fixes), 1.0, null);
+
+        // Parked from minute 5: reported, but the request is unchanged (no batching delay on departure)
+        assertEquals(EnergyPolicy.ShiftPhase.PARKED, policy.getPhase());
+        assertEquals(5 * 60000, policy.getParkedMs(scheduler.elapsedRealtimeMs()));
+        assertSame(EnergyPolicy.DEFAULT_PROFILE, policy.getProfile());
+        assertEquals(0, changes.size());
+
+        policy.onBatteryChanged(10, false, scheduler.elapsedRealtimeMs());
+        assertFalse(policy.getProfile().useGps);
+        policy.onBatteryChanged(10, true, scheduler.elapsedRealtimeMs());
+        assertSame(EnergyPolicy.DEFAULT_PROFILE, policy.getProfile());
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void energyPolicy_parksWhenFixesStop() {
+        // Driving 200 m per minute, then parked: the 30 m minimum distance suppresses all fixes
+        EnergyPolicy policy = new EnergyPolicy();
+        pipeline.setEnergyPolicy(policy);
+        pipeline.start("gps", false);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pipeline.onFix(new LocationSnapshot(-22.2763 + i * 0.0018, 166.4572, 0, 8.0f, 10, 0, "gps",
+                scheduler.currentTimeMillis(), 0, false), false));
+            scheduler.advanceBy(60000);
+        }
+        assertEquals(EnergyPolicy.ShiftPhase.DRIVING, policy.getPhase());
+
+        scheduler.advanceBy(EnergyPolicy.PARKED_AFTER_MS - 60000 - 1);
+        assertEquals(EnergyPolicy.ShiftPhase.DRIVING, policy.getPhase());
+        scheduler.advanceBy(1);
+        assertEquals(EnergyPolicy.ShiftPhase.PARKED, policy.getPhase());
+        assertEquals(0, policy.getProfile().maxUpdateDelayMs);
+
+        // Moving again a minute later
+        scheduler.advanceBy(60000);
+        assertTrue(pipeline.onFix(new LocationSnapshot(-22.2663, 166.4572, 0, 8.0f, 10, 0, "gps",
+            scheduler.currentTimeMillis(), 0, false), false));
+        assertEquals(EnergyPolicy.ShiftPhase.DRIVING, policy.getPhase());
+        pipeline.stop();
+        scheduler.runAll();
+        assertEquals(EnergyPolicy.ShiftPhase.DRIVING, policy.getPhase());
+        assertEquals(60000, policy.getParkedMs(scheduler.elapsedRealtimeMs()));
+    }
+
+    @Test
+    public void providerStates_probeBacksOffThenPromotesGps() {
+        LocationMetrics metrics = new LocationMetrics();
+        pipeline.setMetrics(metrics);
+        pipeline.start("gps", false);
+        pipeline.startGpsTimeoutIfWaiting();
+        scheduler.advanceBy(LocationPipeline.GPS_TIMEOUT_MS);
+        assertEquals(ProviderStateMachine.State.NETWORK, pipeline.getProviderState());
+
+        // First probe: GPS still poor (indoor accuracy), window expires and the backoff doubles
+        scheduler.advanceBy(ProviderStateMachine.PROBE_BACKOFF_MS);
+        assertEquals(ProviderStateMachine.State.PROBING, pipeline.getProviderState());
+        pipeline.onFix(fixAt("gps", 80.0f), false);
+        scheduler.advanceBy(ProviderStateMachine.PROBE_WINDOW_MS);
+        assertEquals(ProviderStateMachine.State.NETWORK, pipeline.getProviderState());
+
+        // Second probe after 10 minutes: one poor fix resets the count, then 3 good ones promote
+        scheduler.advanceBy(2 * ProviderStateMachine.PROBE_BACKOFF_MS);
+        assertEquals(2, gpsProbes);
+        pipeline.onFix(fixAt("gps", 10.0f), false);
+        pipeline.onFix(fixAt("gps", 60.0f), false);
+        pipeline.onFix(fixAt("gps", 10.0f), false);
+        pipeline.onFix(fixAt("gps", 8.0f), false);
+        assertEquals(0, gpsPromotions);
+        pipeline.onFix(fixAt("gps", 6.0f), false);
+
+        assertEquals(1, gpsPromotions);
+        assertEquals(ProviderStateMachine.State.GPS, pipeline.getProviderState());
+        assertEquals("gps", pipeline.getProvider());
+        assertFalse(pipeline.hasSwitchedToNetwork());
+        pipeline.stop();
+        // Only the failed probe lasted its full window
+        assertEquals(ProviderStateMachine.PROBE_WINDOW_MS, metrics.getProviderStateMs("PROBING"));
+    }
+
+    @Test
+    public void providerStates_silentGpsAfterPromotionFallsBackWithLongerBackoff() {
+        pipeline.start("gps", false);
+        pipeline.startGpsTimeoutIfWaiting();
+        scheduler.advanceBy(LocationPipeline.GPS_TIMEOUT_MS);
+        scheduler.advanceBy(ProviderStateMachine.PROBE_BACKOFF_MS);
+        for (int i = 0; i < ProviderStateMachine.PROMOTE_GOOD_FIXES; i++) {
+            pipeline.onFix(fixAt("gps", 8.0f), false);
+        }
+        assertEquals(1, gpsPromotions);
+
+        // GPS keeps delivering for a while, then the driver walks into a warehouse
+        scheduler.advanceBy(4 * 60 * 1000);
+        pipeline.onFix(fixAt("gps", 8.0f), false);
+        scheduler.advanceBy(LocationPipeline.GPS_SILENCE_MS - 1);
+        assertEquals(1, networkSwitches);
+        scheduler.advanceBy(1);
+        assertEquals(2, networkSwitches);
+        assertEquals(ProviderStateMachine.State.NETWORK, pipeline.getProviderState());
+        assertTrue(pipeline.hasSwitchedToNetwork());
+
+        // The promotion did not hold for STABLE_MS: next probe only after twice the backoff
+        scheduler.advanceBy(2 * ProviderStateMachine.PROBE_BACKOFF_MS - 1);
+        assertEquals(1, gpsProbes);
+        scheduler.advanceBy(1);
+        assertEquals(2, gpsProbes);
+        pipeline.stop();
+    }
+
+    @Test
+    public void providerStates_promotedGpsStaysWhileParked() {
+        EnergyPolicy policy = new EnergyPolicy();
+        pipeline.setEnergyPolicy(policy);
+        pipeline.start("gps", false);
+        pipeline.startGpsTimeoutIfWaiting();
+        scheduler.advanceBy(LocationPipeline.GPS_TIMEOUT_MS);
+        scheduler.advanceBy(ProviderStateMachine.PROBE_BACKOFF_MS);
+        for (int i = 0; i < ProviderStateMachine.PROMOTE_GOOD_FIXES; i++) {
+            pipeline.onFix(fixAt("gps", 8.0f), false);
+        }
+        assertEquals(1, gpsPromotions);
+        assertEquals(1, networkSwitches);
+
+        // Parked 15 minutes: the minimum distance suppresses every fix, GPS is kept
+        scheduler.advanceBy(15 * 60 * 1000);
+        assertEquals(EnergyPolicy.ShiftPhase.PARKED, policy.getPhase());
+        assertEquals(1, networkSwitches);
+        assertEquals(ProviderStateMachine.State.GPS, pipeline.getProviderState());
+
+        // Moving again: the watchdog restarts from the new fix
+        pipeline.onFix(new LocationSnapshot(-22.2663, 166.4572, 0, 8.0f, 10, 0, "gps",
+            scheduler.currentTimeMillis(), 0, false), false);
+        assertEquals(EnergyPolicy.ShiftPhase.DRIVING, policy.getPhase());
+        assertEquals(1, networkSwitches);
+
+        // A disabled GPS falls back without waiting
+        pipeline.onProviderDisabled("gps");
+        assertEquals(2, networkSwitches);
+        assertTrue(pipeline.hasSwitchedToNetwork());
+        pipeline.stop();
+    }
+
+    private LocationSnapshot fixAt(String provider, float accuracy) {
+        return new LocationSnapshot(-22.2763, 166.4572, 0, accuracy, 0, 0, provider,
+            scheduler.currentTimeMillis(), scheduler.elapsedRealtimeMs() * 1000000L, false);
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.glnc.routing;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RoutingEngine against a plain Dijkstra on synthetic street grids around Noumea
+ * (random speeds, one-way streets, missing blocks)
+ * Query timings: RoutingEngineBenchmark in the benchmark module (JMH)
+ */
+public class RoutingEngineTest {
+    private static final double BASE_LAT = -22.35;
+    private static final double BASE_LON = 166.35;
+    private static final double SPACING_DEG = 0.001; // About 100 m
+
+    /**
+     * side x side grid; one edge in ten is one-way, one in twenty is missing
+     */
+    private static RoadGraph buildGrid(int side, Random random) throws Exception {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                // Jitter so that straight-line and road distances differ
+                builder.addNode(BASE_LAT + r * SPACING_DEG + (random.nextDouble() - 0.5) * SPACING_DEG / 4,
+                        BASE_LON + c * SPACING_DEG + (random.nextDouble() - 0.5) * SPACING_DEG / 4);
+            }
+        }
+        double[] speeds = {30, 50, 50, 70, 110};
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                int node = r * side + c;
+                if (c + 1 < side && random.nextInt(20) != 0) {
+                    addRoad(builder, random, node, node + 1, speeds);
+                }
+                if (r + 1 < side && random.nextInt(20) != 0) {
+                    addRoad(builder, random, node, node + side, speeds);
+                }
+            }
+        }
+        File file = File.createTempFile("road_graph", ".bin");
+        file.deleteOnExit();
+        builder.write(file);
+        return RoadGraph.map(file);
+    }
+
+    private static void addRoad(RoadGraph.Builder builder, Random random, int a, int b, double[] speeds) {
+        double speed = speeds[random.nextInt(speeds.length)];
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            builder.addRoad(a, b, speed, true);
+        } else if (kind == 1) {
+            builder.addRoad(b, a, speed, true);
+        } else {
+            builder.addRoad(a, b, speed, false);
+        }
+    }
+
+    /**
+     * Reference: travel time in ms from source to every node
+     */
+    private static double[] dijkstra(RoadGraph graph, int source) {
+        double[] cost = new double[graph.nodeCount()];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        cost[source] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        queue.add(new double[]{0, source});
+        while (!queue.isEmpty()) {
+            double[] top = queue.poll();
+            int u = (int) top[1];
+            if (top[0] > cost[u]) {
+                continue;
+            }
+            for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+                int v = graph.edgeTarget(e);
+                if (cost[u] + graph.edgeTimeMs(e) < cost[v]) {
+                    cost[v] = cost[u] + graph.edgeTimeMs(e);
+                    queue.add(new double[]{cost[v], v});
+                }
+            }
+        }
+        return cost;
+    }
+
+    @Test
+    public void route_matchesDijkstra() throws Exception {
+        Random random = new Random(42);
+        RoadGraph graph = buildGrid(60, random);
+        RoutingEngine engine = new RoutingEngine(graph);
+        for (int q = 0; q < 100; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            double expected = dijkstra(graph, source)[target];
+            RoutingEngine.Route route = engine.route(graph.latitude(source), graph.longitude(source),
+                    graph.latitude(target), graph.longitude(target));
+            if (Double.isInfinite(expected)) {
+                assertNull(route);
+                continue;
+            }
+            assertNotNull(route);
+            assertEquals(expected / 1000, route.durationSeconds, 1e-6);
+
+            // The path is made of real edges and adds up to the reported time and distance
+            assertEquals(graph.latitude(source), route.lats[0], 0);
+            assertEquals(graph.longitude(target), route.lons[route.lons.length - 1], 0);
+            double time = 0;
+            double length = 0;
+            int u = source;
+            for (int i = 1; i < route.lats.length; i++) {
+                int best = -1;
+                for (int e = graph.firstEdge(u); e < graph.firstEdge(u + 1); e++) {
+                    int v = graph.edgeTarget(e);
+                    if (graph.latitude(v) == route.lats[i] && graph.longitude(v) == route.lons[i]
+                            && (best < 0 || graph.edgeTimeMs(e) < graph.edgeTimeMs(best))) {
+                        best = e;
+                    }
+                }
+                assertTrue("no edge at step " + i, best >= 0);
+                time += graph.edgeTimeMs(best);
+                length += graph.edgeLengthDm(best) / 10.0;
+                u = graph.edgeTarget(best);
+            }
+            assertEquals(target, u);
+            assertEquals(route.durationSeconds, time / 1000, 1e-6);
+            assertEquals(route.distanceMeters, length, 1e-6);
+        }
+    }
+
+    @Test
+    public void oneToMany_matchesDijkstra() throws Exception {
+        Random random = new Random(3);
+        RoadGraph graph = buildGrid(60, random);
+        RoutingEngine engine = new RoutingEngine(graph);
+        for (int q = 0; q < 20; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            double[] expected = dijkstra(graph, source);
+            int[] targets = new int[25];
+            double[] lats = new double[targets.length];
+            double[] lons = new double[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = random.nextInt(graph.nodeCount());
+                lats[i] = graph.latitude(targets[i]);
+                lons[i] = graph.longitude(targets[i]);
+            }
+            RoutingEngine.Table table = engine.oneToMany(graph.latitude(source), graph.longitude(source), lats, lons);
+            for (int i = 0; i < targets.length; i++) {
+                if (Double.isInfinite(expected[targets[i]])) {
+                    assertTrue(Double.isNaN(table.durationSeconds[i]));
+                } else {
+                    assertEquals(expected[targets[i]] / 1000, table.durationSeconds[i], 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void positions_areSnappedToRoads() throws Exception {
+        RoadGraph graph = buildGrid(30, new Random(5));
+        RoutingEngine engine = new RoutingEngine(graph);
+        int node = 31;
+        int nearest = graph.nearestNode(graph.latitude(node) + 0.0001, graph.longitude(node), RoutingEngine.MAX_SNAP_METERS);
+        assertEquals(node, nearest);
+
+        // 11 m off the road on both ends: driven at the access speed
+        RoutingEngine.Route direct = engine.route(graph.latitude(node), graph.longitude(node),
+                graph.latitude(node), graph.longitude(node));
+        assertEquals(0, direct.durationSeconds, 1e-9);
+        RoutingEngine.Route offset = engine.route(graph.latitude(node) + 0.0001, graph.longitude(node),
+                graph.latitude(node) + 0.0001, graph.longitude(node));
+        assertEquals(2 * 11.13, offset.distanceMeters, 0.1);
+        assertEquals(offset.distanceMeters / RoutingEngine.ACCESS_SPEED_MPS, offset.durationSeconds, 1e-9);
+
+        assertNull(engine.route(-21.0, 165.0, graph.latitude(node), graph.longitude(node)));
+        assertTrue(Double.isNaN(engine.oneToMany(-21.0, 165.0, new double[]{graph.latitude(node)},
+                new double[]{graph.longitude(node)}).durationSeconds[0]));
+    }
+
+    /**
+     * The bidirectional A* search settles fewer nodes than a one-way Dijkstra to the same target
+     */
+    @Test
+    public void route_settlesFewerNodesThanDijkstra() throws Exception {
+        Random random = new Random(11);
+        RoadGraph graph = buildGrid(100, random);
+        RoutingEngine engine = new RoutingEngine(graph);
+        long routeSettled = 0;
+        long dijkstraSettled = 0;
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            engine.route(graph.latitude(source), graph.longitude(source), graph.latitude(target), graph.longitude(target));
+            routeSettled += engine.getLastSettled();
+            engine.oneToMany(graph.latitude(source), graph.longitude(source),
+                    new double[]{graph.latitude(target)}, new double[]{graph.longitude(target)});
+            dijkstraSettled += engine.getLastSettled();
+        }
+        assertTrue(routeSettled + " vs " + dijkstraSettled, routeSettled < dijkstraSettled);
+    }
+}
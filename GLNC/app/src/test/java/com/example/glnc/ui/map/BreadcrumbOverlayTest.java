@@ -0,0 +1,110 @@
+package com.example.glnc.ui.map;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BreadcrumbOverlay.Level simplification: every recorded point stays within the level's
+ * tolerance of the simplified polyline
+ */
+public class BreadcrumbOverlayTest {
+    private static final double METERS_PER_DEGREE = 111320.0;
+    private static final double CENTER_LAT = -22.27;
+    private static final double CENTER_LON = 166.45;
+
+    private static double mercatorX(double lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+    private static double mercatorY(double lat) {
+        double rad = Math.toRadians(lat);
+        return (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0;
+    }
+
+    /**
+     * Half circle of the given radius sampled every stepM meters, in normalized Mercator
+     */
+    private static double[][] halfCircle(double radiusM, double stepM) {
+        int count = (int) Math.ceil(Math.PI * radiusM / stepM) + 1;
+        double[][] points = new double[count][2];
+        for (int i = 0; i < count; i++) {
+            double angle = Math.PI * i / (count - 1);
+            double lat = CENTER_LAT + radiusM * Math.sin(angle) / METERS_PER_DEGREE;
+            double lon = CENTER_LON + radiusM * Math.cos(angle) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(CENTER_LAT)));
+            points[i][0] = mercatorX(lon);
+            points[i][1] = mercatorY(lat);
+        }
+        return points;
+    }
+
+    /**
+     * Largest distance from a recorded point to the drawn polyline (kept points, then the candidate)
+     */
+    private static double maxError(BreadcrumbOverlay.Level level, double[][] points) {
+        int count = level.pointCount();
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        System.arraycopy(level.x, 0, xs, 0, level.size);
+        System.arraycopy(level.y, 0, ys, 0, level.size);
+        if (level.hasCandidate) {
+            xs[count - 1] = level.candidateX;
+            ys[count - 1] = level.candidateY;
+        }
+        double max = 0;
+        for (double[] point : points) {
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i + 1 < count; i++) {
+                best = Math.min(best, BreadcrumbOverlay.Level.deviation(point[0], point[1], xs[i], ys[i], xs[i + 1], ys[i + 1]));
+            }
+            max = Math.max(max, best);
+        }
+        return max;
+    }
+
+    private static void assertWithinTolerance(double[][] points) {
+        for (int zoom : BreadcrumbOverlay.LEVEL_ZOOMS) {
+            BreadcrumbOverlay.Level level = new BreadcrumbOverlay.Level(zoom);
+            for (double[] point : points) {
+                level.append(point[0], point[1]);
+            }
+            assertTrue("zoom " + zoom + " kept " + level.pointCount() + " of " + points.length,
+                    level.pointCount() <= points.length);
+            double error = maxError(level, points);
+            assertTrue("zoom " + zoom + ": error " + error / level.tolerance + " x tolerance",
+                    error <= level.tolerance * (1 + 1e-9));
+        }
+    }
+
+    @Test
+    public void halfCircles_stayWithinTolerance() {
+        assertWithinTolerance(halfCircle(2000, 30));
+        assertWithinTolerance(halfCircle(1000, 30));
+        assertWithinTolerance(halfCircle(100, 5));
+    }
+
+    @Test
+    public void noisyStopAndGo_staysWithinToleranceAndSimplifies() {
+        // Driving with GPS jitter, parked with jitter, U-turn, driving back
+        Random random = new Random(7);
+        double[][] points = new double[1500][2];
+        double lat = CENTER_LAT;
+        double lon = CENTER_LON;
+        for (int i = 0; i < points.length; i++) {
+            double stepM = i < 500 ? 15 : i < 900 ? 0 : -12;
+            lat += stepM / METERS_PER_DEGREE;
+            lon += (i % 200 < 100 ? stepM : -stepM / 2) / METERS_PER_DEGREE;
+            points[i][0] = mercatorX(lon + random.nextGaussian() * 5 / METERS_PER_DEGREE);
+            points[i][1] = mercatorY(lat + random.nextGaussian() * 5 / METERS_PER_DEGREE);
+        }
+        assertWithinTolerance(points);
+
+        BreadcrumbOverlay.Level coarse = new BreadcrumbOverlay.Level(BreadcrumbOverlay.LEVEL_ZOOMS[0]);
+        for (double[] point : points) {
+            coarse.append(point[0], point[1]);
+        }
+        assertTrue(coarse.pointCount() < points.length / 20);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.glnc.location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeliveryIndex queries vs a linear scan, for 100 to 10,000 stops
+ * Stops and query points are spread over the Noumea area (about 20 x 20 km), as in DeliveryIndexTest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeliveryIndexBenchmark {
+    private static final double BASE_LAT = -22.35;
+    private static final double BASE_LON = 166.35;
+    private static final double SPAN_DEG = 0.2;
+    private static final int QUERY_COUNT = 1024; // Power of two for the cycling mask
+
+    @Param({"100", "1000", "10000"})
+    public int stops;
+
+    private DeliveryIndex index;
+    private double[] stopLats;
+    private double[] stopLons;
+    private double[] queryLats;
+    private double[] queryLons;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        String[] ids = new String[stops];
+        stopLats = new double[stops];
+        stopLons = new double[stops];
+        for (int i = 0; i < stops; i++) {
+            ids[i] = "D" + i;
+            stopLats[i] = BASE_LAT + random.nextDouble() * SPAN_DEG;
+            stopLons[i] = BASE_LON + random.nextDouble() * SPAN_DEG;
+        }
+        index = new DeliveryIndex();
+        index.update(ids, stopLats, stopLons);
+        queryLats = new double[QUERY_COUNT];
+        queryLons = new double[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queryLats[i] = BASE_LAT + random.nextDouble() * SPAN_DEG;
+            queryLons[i] = BASE_LON + random.nextDouble() * SPAN_DEG;
+        }
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERY_COUNT - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Object nearest3() {
+        int q = nextQuery();
+        return index.nearest(queryLats[q], queryLons[q], 3);
+    }
+
+    @Benchmark
+    public Object withinRadius1km() {
+        int q = nextQuery();
+        return index.withinRadius(queryLats[q], queryLons[q], 1000);
+    }
+
+    /**
+     * Baseline: nearest stop by scanning every destination
+     */
+    @Benchmark
+    public double linearScanNearest() {
+        int q = nextQuery();
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < stops; i++) {
+            min = Math.min(min, GeofenceEngine.distanceMeters(queryLats[q], queryLons[q], stopLats[i], stopLons[i]));
+        }
+        return min;
+    }
+}
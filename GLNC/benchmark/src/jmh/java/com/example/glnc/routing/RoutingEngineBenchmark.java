@@ -0,0 +1,131 @@
+package com.example.glnc.routing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RoutingEngine queries on synthetic street grids around Noumea, up to 300 x 300 (90,000 nodes)
+ * Same grid as RoutingEngineTest: random speeds, one edge in ten one-way, one in twenty missing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoutingEngineBenchmark {
+    private static final double BASE_LAT = -22.35;
+    private static final double BASE_LON = 166.35;
+    private static final double SPACING_DEG = 0.001; // About 100 m
+    private static final int PAIR_COUNT = 256; // Power of two for the cycling mask
+    private static final int STOP_COUNT = 30;
+
+    @Param({"100", "300"})
+    public int side;
+
+    private RoadGraph graph;
+    private RoutingEngine engine;
+    private int[][] pairs;
+    private double[] stopLats;
+    private double[] stopLons;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(7);
+        graph = buildGrid(side, random);
+        engine = new RoutingEngine(graph);
+        pairs = new int[PAIR_COUNT][2];
+        for (int[] pair : pairs) {
+            pair[0] = random.nextInt(graph.nodeCount());
+            pair[1] = random.nextInt(graph.nodeCount());
+        }
+        stopLats = new double[STOP_COUNT];
+        stopLons = new double[STOP_COUNT];
+        for (int i = 0; i < STOP_COUNT; i++) {
+            int stop = random.nextInt(graph.nodeCount());
+            stopLats[i] = graph.latitude(stop);
+            stopLons[i] = graph.longitude(stop);
+        }
+    }
+
+    private static RoadGraph buildGrid(int side, Random random) throws IOException {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                builder.addNode(BASE_LAT + r * SPACING_DEG + (random.nextDouble() - 0.5) * SPACING_DEG / 4,
+                        BASE_LON + c * SPACING_DEG + (random.nextDouble() - 0.5) * SPACING_DEG / 4);
+            }
+        }
+        double[] speeds = {30, 50, 50, 70, 110};
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                int node = r * side + c;
+                if (c + 1 < side && random.nextInt(20) != 0) {
+                    addRoad(builder, random, node, node + 1, speeds);
+                }
+                if (r + 1 < side && random.nextInt(20) != 0) {
+                    addRoad(builder, random, node, node + side, speeds);
+                }
+            }
+        }
+        File file = File.createTempFile("road_graph", ".bin");
+        file.deleteOnExit();
+        builder.write(file);
+        return RoadGraph.map(file);
+    }
+
+    private static void addRoad(RoadGraph.Builder builder, Random random, int a, int b, double[] speeds) {
+        double speed = speeds[random.nextInt(speeds.length)];
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            builder.addRoad(a, b, speed, true);
+        } else if (kind == 1) {
+            builder.addRoad(b, a, speed, true);
+        } else {
+            builder.addRoad(a, b, speed, false);
+        }
+    }
+
+    private int[] nextPair() {
+        next = (next + 1) & (PAIR_COUNT - 1);
+        return pairs[next];
+    }
+
+    /**
+     * Point to point: bidirectional A*
+     */
+    @Benchmark
+    public Object route() {
+        int[] pair = nextPair();
+        return engine.route(graph.latitude(pair[0]), graph.longitude(pair[0]),
+                graph.latitude(pair[1]), graph.longitude(pair[1]));
+    }
+
+    /**
+     * Baseline for route(): one-way Dijkstra to the same single target
+     */
+    @Benchmark
+    public Object oneToOneDijkstra() {
+        int[] pair = nextPair();
+        return engine.oneToMany(graph.latitude(pair[0]), graph.longitude(pair[0]),
+                new double[]{graph.latitude(pair[1])}, new double[]{graph.longitude(pair[1])});
+    }
+
+    /**
+     * Truck to the day's stops, as HomeViewModel asks for the ETAs
+     */
+    @Benchmark
+    public Object oneToThirtyStops() {
+        int[] pair = nextPair();
+        return engine.oneToMany(graph.latitude(pair[0]), graph.longitude(pair[0]), stopLats, stopLons);
+    }
+}
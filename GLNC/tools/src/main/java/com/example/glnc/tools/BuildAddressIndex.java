@@ -0,0 +1,122 @@
+package com.example.glnc.tools;
+
+import com.example.glnc.geocode.AddressIndex;
+import com.example.glnc.geocode.AddressNormalizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the address index of the offline geocoder (AddressIndex) from an OSM XML extract
+ * - Nodes tagged addr:housenumber and addr:street (or addr:place) at their position
+ * - Ways with the same tags (buildings) at the centroid of their nodes
+ * - Named roads without any address on them as plain street points at their middle node,
+ *   so that a street-only address still finds its street
+ * Usage: BuildAddressIndex extract.osm addresses.bin version
+ */
+public final class BuildAddressIndex {
+
+    private BuildAddressIndex() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || args[0].isEmpty() || !args[2].matches("\\d+")) {
+            System.err.println("Usage: BuildAddressIndex <extract.osm> <addresses.bin> <version>");
+            System.exit(2);
+        }
+        int version = Integer.parseInt(args[2]);
+        File output = new File(args[1]);
+
+        AddressIndex.Builder builder = new AddressIndex.Builder(String.valueOf(version));
+        Set<String> addressStreets = new HashSet<>(); // Normalized street names with addresses
+        List<String> roadNames = new ArrayList<>();
+        List<double[]> roadPoints = new ArrayList<>();
+        OsmXmlReader reader = new OsmXmlReader();
+        int[] counts = new int[2]; // Node addresses, way addresses
+        reader.read(args[0], new OsmXmlReader.Handler() {
+            @Override
+            public void node(long id, double lat, double lon, Map<String, String> tags) {
+                String street = street(tags);
+                if (street != null && tags.containsKey("addr:housenumber")) {
+                    builder.add(street, tags.get("addr:housenumber"), tags.get("addr:city"), lat, lon);
+                    addressStreets.add(AddressNormalizer.normalize(street));
+                    counts[0]++;
+                }
+            }
+
+            @Override
+            public void way(long id, long[] refs, Map<String, String> tags) {
+                String street = street(tags);
+                if (street != null && tags.containsKey("addr:housenumber")) {
+                    double[] centroid = centroid(reader, refs);
+                    if (centroid != null) {
+                        builder.add(street, tags.get("addr:housenumber"), tags.get("addr:city"), centroid[0], centroid[1]);
+                        addressStreets.add(AddressNormalizer.normalize(street));
+                        counts[1]++;
+                    }
+                } else if (tags.containsKey("highway") && tags.containsKey("name") && refs.length > 0) {
+                    int middle = reader.nodeIndex(refs[refs.length / 2]);
+                    if (middle >= 0) {
+                        roadNames.add(tags.get("name"));
+                        roadPoints.add(new double[]{reader.latitude(middle), reader.longitude(middle)});
+                    }
+                }
+            }
+        });
+
+        // Roads come after the addresses: keep only the streets no address names
+        Set<String> streetPoints = new HashSet<>();
+        for (int i = 0; i < roadNames.size(); i++) {
+            String name = AddressNormalizer.normalize(roadNames.get(i));
+            if (!addressStreets.contains(name) && streetPoints.add(name)) {
+                double[] point = roadPoints.get(i);
+                builder.add(roadNames.get(i), "", "", point[0], point[1]);
+            }
+        }
+
+        AddressIndex index = builder.build();
+        File dir = output.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        try (OutputStream out = new FileOutputStream(output)) {
+            index.write(out);
+        }
+        System.out.println(counts[0] + " address nodes, " + counts[1] + " address ways, "
+                + streetPoints.size() + " street points: " + index.addressCount() + " addresses on "
+                + index.streetCount() + " streets");
+        ManifestEntry.print("geocode", output, version);
+    }
+
+    private static String street(Map<String, String> tags) {
+        String street = tags.get("addr:street");
+        return street != null ? street : tags.get("addr:place");
+    }
+
+    /**
+     * Mean position of the way's nodes (the closing node of an area counted once), null if
+     * none of them is in the extract
+     */
+    private static double[] centroid(OsmXmlReader reader, long[] refs) {
+        int end = refs.length > 1 && refs[0] == refs[refs.length - 1] ? refs.length - 1 : refs.length;
+        double latSum = 0;
+        double lonSum = 0;
+        int found = 0;
+        for (int i = 0; i < end; i++) {
+            int node = reader.nodeIndex(refs[i]);
+            if (node >= 0) {
+                latSum += reader.latitude(node);
+                lonSum += reader.longitude(node);
+                found++;
+            }
+        }
+        return found == 0 ? null : new double[]{latSum / found, lonSum / found};
+    }
+}
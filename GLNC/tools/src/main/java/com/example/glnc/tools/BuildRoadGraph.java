@@ -0,0 +1,166 @@
+package com.example.glnc.tools;
+
+import com.example.glnc.routing.RoadGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the road graph of the offline router (RoadGraph) from an OSM XML extract
+ * - Drivable highway ways only, those closed to cars (access=no/private, motor_vehicle or
+ *   motorcar=no) skipped
+ * - Every node of a way becomes a graph node shared by the ways through it, each consecutive
+ *   pair a road segment, so junctions connect and curves keep their length
+ * - Speed from maxspeed when it is a plain km/h (or mph) value, else the default of the class
+ * - oneway=yes/1/true, roundabouts and motorways directed, oneway=-1 reversed
+ * Usage: BuildRoadGraph extract.osm road_graph.bin version
+ */
+public final class BuildRoadGraph {
+    private static final Map<String, Integer> DEFAULT_SPEEDS_KMH = new HashMap<>();
+
+    static {
+        DEFAULT_SPEEDS_KMH.put("motorway", 90);
+        DEFAULT_SPEEDS_KMH.put("trunk", 80);
+        DEFAULT_SPEEDS_KMH.put("primary", 70);
+        DEFAULT_SPEEDS_KMH.put("secondary", 60);
+        DEFAULT_SPEEDS_KMH.put("tertiary", 50);
+        DEFAULT_SPEEDS_KMH.put("unclassified", 40);
+        DEFAULT_SPEEDS_KMH.put("residential", 30);
+        DEFAULT_SPEEDS_KMH.put("service", 20);
+        DEFAULT_SPEEDS_KMH.put("living_street", 10);
+        DEFAULT_SPEEDS_KMH.put("motorway_link", 60);
+        DEFAULT_SPEEDS_KMH.put("trunk_link", 50);
+        DEFAULT_SPEEDS_KMH.put("primary_link", 50);
+        DEFAULT_SPEEDS_KMH.put("secondary_link", 40);
+        DEFAULT_SPEEDS_KMH.put("tertiary_link", 30);
+    }
+
+    private BuildRoadGraph() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || args[0].isEmpty() || !args[2].matches("\\d+")) {
+            System.err.println("Usage: BuildRoadGraph <extract.osm> <road_graph.bin> <version>");
+            System.exit(2);
+        }
+        int version = Integer.parseInt(args[2]);
+        File output = new File(args[1]);
+
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        OsmXmlReader reader = new OsmXmlReader();
+        int[][] graphNodes = new int[1][]; // OSM node index -> graph node, -1 until a road uses it
+        int[] counts = new int[3]; // Ways, segments, graph nodes
+        reader.read(args[0], new OsmXmlReader.Handler() {
+            @Override
+            public void node(long id, double lat, double lon, Map<String, String> tags) {
+            }
+
+            @Override
+            public void way(long id, long[] refs, Map<String, String> tags) {
+                Integer defaultSpeed = DEFAULT_SPEEDS_KMH.get(tags.get("highway"));
+                if (defaultSpeed == null || refs.length < 2 || isClosedToCars(tags)) {
+                    return;
+                }
+                if (graphNodes[0] == null) {
+                    // Nodes all come before the ways
+                    graphNodes[0] = new int[reader.nodeCount()];
+                    Arrays.fill(graphNodes[0], -1);
+                }
+                double speedKmh = parseSpeedKmh(tags.get("maxspeed"), defaultSpeed);
+                int direction = direction(tags);
+                int previous = -1;
+                for (long ref : refs) {
+                    int index = reader.nodeIndex(ref);
+                    if (index < 0) {
+                        previous = -1; // Way leaves the extract
+                        continue;
+                    }
+                    int node = graphNodes[0][index];
+                    if (node < 0) {
+                        node = builder.addNode(reader.latitude(index), reader.longitude(index));
+                        graphNodes[0][index] = node;
+                        counts[2]++;
+                    }
+                    if (previous >= 0 && previous != node) {
+                        if (direction < 0) {
+                            builder.addRoad(node, previous, speedKmh, true);
+                        } else {
+                            builder.addRoad(previous, node, speedKmh, direction > 0);
+                        }
+                        counts[1]++;
+                    }
+                    previous = node;
+                }
+                counts[0]++;
+            }
+        });
+
+        File dir = output.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        builder.write(output);
+        System.out.println(counts[0] + " roads, " + counts[1] + " segments, " + counts[2] + " nodes");
+        ManifestEntry.print("routing", output, version);
+    }
+
+    private static boolean isClosedToCars(Map<String, String> tags) {
+        return "no".equals(tags.get("access")) || "private".equals(tags.get("access"))
+                || "no".equals(tags.get("motor_vehicle")) || "no".equals(tags.get("motorcar"))
+                || "construction".equals(tags.get("highway"));
+    }
+
+    /**
+     * @return 1 if the way may only be driven in its node order, -1 only against it, 0 both ways
+     */
+    private static int direction(Map<String, String> tags) {
+        String oneway = tags.get("oneway");
+        if (oneway != null) {
+            switch (oneway) {
+                case "yes":
+                case "1":
+                case "true":
+                    return 1;
+                case "-1":
+                case "reverse":
+                    return -1;
+                case "no":
+                case "false":
+                case "0":
+                    return 0;
+                default:
+                    break;
+            }
+        }
+        String highway = tags.get("highway");
+        return "roundabout".equals(tags.get("junction")) || "motorway".equals(highway)
+                || "motorway_link".equals(highway) ? 1 : 0;
+    }
+
+    /**
+     * @return maxspeed in km/h ("50", "30 mph"), defaultKmh for anything else ("FR:urban", "none")
+     */
+    static double parseSpeedKmh(String maxspeed, double defaultKmh) {
+        if (maxspeed == null) {
+            return defaultKmh;
+        }
+        String value = maxspeed.trim().toLowerCase(Locale.ROOT);
+        double factor = 1;
+        if (value.endsWith("mph")) {
+            factor = 1.609344;
+            value = value.substring(0, value.length() - 3).trim();
+        } else if (value.endsWith("km/h")) {
+            value = value.substring(0, value.length() - 4).trim();
+        }
+        try {
+            double speed = Double.parseDouble(value) * factor;
+            return speed > 0 ? speed : defaultKmh;
+        } catch (NumberFormatException e) {
+            return defaultKmh;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.glnc.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Manifest entry ({"version", "url", "sha256"}) of a built data file, as read by OfflineMapUpdater
+ */
+final class ManifestEntry {
+
+    private ManifestEntry() {
+    }
+
+    /**
+     * Print the entry to add under the given key of OfflineMap/manifest.json
+     * The file is expected to be published next to the manifest, under its own name
+     */
+    static void print(String key, File file, int version) throws IOException {
+        System.out.println("Wrote " + file + " (" + (file.length() >> 10) + " KB)");
+        System.out.println("Copy it to the backend's OfflineMap directory and set in manifest.json:");
+        System.out.println("  \"" + key + "\": {\"version\": " + version + ", \"url\": \"/app/offline_map/"
+                + file.getName() + "\", \"sha256\": \"" + sha256(file) + "\"}");
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.glnc.tools;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming reader of an OSM XML extract (StAX, no dependency)
+ * Nodes must come before ways and be sorted by id, as written by osmium
+ * (osmium cat extract.osm.pbf -o extract.osm); node positions are kept in primitive arrays
+ * so ways can be resolved with nodeIndex, relations are skipped
+ */
+final class OsmXmlReader {
+
+    interface Handler {
+        /**
+         * @param tags Reused between calls: copy what must be kept
+         */
+        void node(long id, double lat, double lon, Map<String, String> tags);
+
+        /**
+         * @param refs Node ids of the way, in order
+         * @param tags Reused between calls: copy what must be kept
+         */
+        void way(long id, long[] refs, Map<String, String> tags);
+    }
+
+    private long[] nodeIds = new long[1 << 20];
+    private double[] nodeLats = new double[1 << 20];
+    private double[] nodeLons = new double[1 << 20];
+    private int nodeCount = 0;
+
+    /**
+     * Read the whole file, calling the handler for every node and way
+     */
+    void read(String path, Handler handler) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16)) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            Map<String, String> tags = new HashMap<>();
+            long[] refs = new long[256];
+            int refCount = 0;
+            String element = null; // "node" or "way" while inside one
+            long id = 0;
+            double lat = 0;
+            double lon = 0;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    switch (name) {
+                        case "node":
+                            element = name;
+                            id = Long.parseLong(xml.getAttributeValue(null, "id"));
+                            lat = Double.parseDouble(xml.getAttributeValue(null, "lat"));
+                            lon = Double.parseDouble(xml.getAttributeValue(null, "lon"));
+                            tags.clear();
+                            addNode(id, lat, lon);
+                            break;
+                        case "way":
+                            element = name;
+                            id = Long.parseLong(xml.getAttributeValue(null, "id"));
+                            tags.clear();
+                            refCount = 0;
+                            break;
+                        case "nd":
+                            if (refCount == refs.length) {
+                                refs = Arrays.copyOf(refs, refCount * 2);
+                            }
+                            refs[refCount++] = Long.parseLong(xml.getAttributeValue(null, "ref"));
+                            break;
+                        case "tag":
+                            if (element != null) {
+                                tags.put(xml.getAttributeValue(null, "k"), xml.getAttributeValue(null, "v"));
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if ("node".equals(name)) {
+                        handler.node(id, lat, lon, tags);
+                        element = null;
+                    } else if ("way".equals(name)) {
+                        handler.way(id, Arrays.copyOf(refs, refCount), tags);
+                        element = null;
+                    }
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Invalid OSM XML " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void addNode(long id, double lat, double lon) throws IOException {
+        if (nodeCount > 0 && id <= nodeIds[nodeCount - 1]) {
+            throw new IOException("Nodes are not sorted by id (run osmium sort first): " + id);
+        }
+        if (nodeCount == nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+            nodeLats = Arrays.copyOf(nodeLats, nodeCount * 2);
+            nodeLons = Arrays.copyOf(nodeLons, nodeCount * 2);
+        }
+        nodeIds[nodeCount] = id;
+        nodeLats[nodeCount] = lat;
+        nodeLons[nodeCount] = lon;
+        nodeCount++;
+    }
+
+    /**
+     * @return Index of the node for latitude/longitude, -1 if it is not in the extract
+     *         (ways cut at the extract boundary)
+     */
+    int nodeIndex(long id) {
+        int index = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        return index >= 0 ? index : -1;
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    double latitude(int index) {
+        return nodeLats[index];
+    }
+
+    double longitude(int index) {
+        return nodeLons[index];
+    }
+}
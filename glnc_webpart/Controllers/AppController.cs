@@ -2,6 +2,10 @@ using glnc_webpart.Models;
 using glnc_webpart.Services;
 using Microsoft.AspNetCore.Mvc;
 using System.Globalization;
+using System.Net.WebSockets;
+using System.Text;
+using System.Text.Json;
+using System.Text.Json.Nodes;
 using System.Text.Json.Serialization;
 using static glnc_webpart.Services.TimezoneHelper;
 
@@ -15,6 +19,8 @@ namespace glnc_webpart.Controllers
         private readonly IPointageService _pointageService;
         private readonly IDeliveryService _deliveryService;
         private readonly IGeolocationService _geolocationService;
+        private readonly IOfflineTileService _offlineTileService;
+        private readonly IWebHostEnvironment _environment;
         private readonly ILogger<AppController> _logger;
 
         public AppController(
@@ -22,12 +28,16 @@ namespace glnc_webpart.Controllers
             IPointageService pointageService,
             IDeliveryService deliveryService,
             IGeolocationService geolocationService,
+            IOfflineTileService offlineTileService,
+            IWebHostEnvironment environment,
             ILogger<AppController> logger)
         {
             _authenticationService = authenticationService;
             _pointageService = pointageService;
             _deliveryService = deliveryService;
             _geolocationService = geolocationService;
+            _offlineTileService = offlineTileService;
+            _environment = environment;
             _logger = logger;
         }
 
@@ -260,17 +270,28 @@ namespace glnc_webpart.Controllers
 
                 _logger.LogInformation("Retrieved {Count} deliveries for user {UserId} (next 3 days)", deliveries.Count, request.UserId);
 
+                // Stop position for the app's arrival detection: where the last delivery to the same
+                // address was signed (null for addresses never delivered with the app)
+                var signLocations = await _geolocationService.GetLastSignLocationsByAddressAsync(
+                    deliveries.Select(d => d.Address));
+
                 // Format deliveries for Android app - only required fields
-                var deliveryList = deliveries.Select(d => new
-                {
-                    id = d.Id,
-                    date_time_leave = d.DateTimeLeave.ToString("yyyy-MM-dd HH:mm:ss"),
-                    date_time_arrival = d.DateTimeArrival?.ToString("yyyy-MM-dd HH:mm:ss") ?? string.Empty,
-                    return_flag = d.ReturnFlag ? 1 : 0,
-                    client = d.Client ?? string.Empty,
-                    Address = d.Address ?? string.Empty,
-                    Contact = d.Contacts ?? string.Empty,
-                    Detail = d.Description ?? string.Empty
+                var deliveryList = deliveries.Select(d =>
+                {
+                    signLocations.TryGetValue(d.Address ?? string.Empty, out var signLocation);
+                    return new
+                    {
+                        id = d.Id,
+                        date_time_leave = d.DateTimeLeave.ToString("yyyy-MM-dd HH:mm:ss"),
+                        date_time_arrival = d.DateTimeArrival?.ToString("yyyy-MM-dd HH:mm:ss") ?? string.Empty,
+                        return_flag = d.ReturnFlag ? 1 : 0,
+                        client = d.Client ?? string.Empty,
+                        Address = d.Address ?? string.Empty,
+                        Contact = d.Contacts ?? string.Empty,
+                        Detail = d.Description ?? string.Empty,
+                        latitude = signLocation?.SignLati,
+                        longitude = signLocation?.SignLongi
+                    };
                 }).ToList();
 
                 return Ok(deliveryList);
@@ -364,6 +385,25 @@ namespace glnc_webpart.Controllers
                     return BadRequest(new { success = false, message = "Weight must be greater than 0." });
                 }
 
+                // Arrival detected by the app (optional, format "yyyy-MM-dd HH:mm:ss"); ignored if
+                // unreadable or implausible, the signature time is used instead
+                DateTime? arrivalTime = null;
+                if (!string.IsNullOrWhiteSpace(request.ArrivalTime))
+                {
+                    var now = TimezoneHelper.GetNewCaledoniaTime();
+                    if (DateTime.TryParseExact(request.ArrivalTime, "yyyy-MM-dd HH:mm:ss", CultureInfo.InvariantCulture,
+                            DateTimeStyles.None, out var parsed)
+                        && parsed <= now.AddMinutes(5) && parsed >= now.AddHours(-24))
+                    {
+                        arrivalTime = parsed;
+                    }
+                    else
+                    {
+                        _logger.LogWarning("Ignoring arrival time {ArrivalTime} for delivery {DeliveryId}",
+                            request.ArrivalTime, request.DeliveryId);
+                    }
+                }
+
                 // Complete the delivery
                 var result = await _deliveryService.CompleteDeliveryAsync(
                     request.DeliveryId,
@@ -371,7 +411,8 @@ namespace glnc_webpart.Controllers
                     request.InvoicePhoto ?? string.Empty,
                     request.Comment ?? string.Empty,
                     request.Weight,
-                    request.Satisfaction
+                    request.Satisfaction,
+                    arrivalTime
                 );
 
                 if (result)
@@ -490,6 +531,258 @@ namespace glnc_webpart.Controllers
                 return StatusCode(500, new { success = false, message = "An error occurred while saving location. Please try again later." });
             }
         }
+
+        // Live tracking: one WebSocket per driver (ws(s)://.../api/app/live_location?user_id=),
+        // one fix per text message ({"seq", "latitude", "longitude", "altitude", "accuracy", "speed", "bearing", "time"})
+        [Route("live_location")]
+        public async Task<IActionResult> LiveLocation([FromQuery(Name = "user_id")] int userId)
+        {
+            if (!HttpContext.WebSockets.IsWebSocketRequest)
+            {
+                return BadRequest(new { success = false, message = "WebSocket connection required." });
+            }
+            if (userId <= 0)
+            {
+                _logger.LogWarning("Invalid live location request: UserId={UserId}", userId);
+                return BadRequest(new { success = false, message = "Valid user_id is required." });
+            }
+
+            var user = await _authenticationService.GetUserByIdAsync(userId);
+            if (user == null)
+            {
+                _logger.LogWarning("User not found for live location: UserId={UserId}", userId);
+                return BadRequest(new { success = false, message = "User not found." });
+            }
+
+            using var socket = await HttpContext.WebSockets.AcceptWebSocketAsync();
+            _logger.LogInformation("Live location stream opened for user {UserId}", userId);
+            var buffer = new byte[4096];
+            var message = new MemoryStream();
+            int received = 0;
+            try
+            {
+                while (socket.State == WebSocketState.Open)
+                {
+                    var result = await socket.ReceiveAsync(new ArraySegment<byte>(buffer), HttpContext.RequestAborted);
+                    if (result.MessageType == WebSocketMessageType.Close)
+                    {
+                        await socket.CloseAsync(WebSocketCloseStatus.NormalClosure, "closed", CancellationToken.None);
+                        break;
+                    }
+
+                    message.Write(buffer, 0, result.Count);
+                    if (message.Length > 16 * 1024)
+                    {
+                        await socket.CloseAsync(WebSocketCloseStatus.MessageTooBig, "fix too large", CancellationToken.None);
+                        break;
+                    }
+                    if (!result.EndOfMessage)
+                        continue;
+
+                    var text = Encoding.UTF8.GetString(message.GetBuffer(), 0, (int)message.Length);
+                    message.SetLength(0);
+                    if (result.MessageType != WebSocketMessageType.Text)
+                        continue;
+
+                    LocationFixDto? fix;
+                    try
+                    {
+                        fix = JsonSerializer.Deserialize<LocationFixDto>(text);
+                    }
+                    catch (JsonException ex)
+                    {
+                        _logger.LogWarning(ex, "Invalid live location message from user {UserId}", userId);
+                        continue;
+                    }
+                    if (fix == null)
+                        continue;
+
+                    await _geolocationService.CreateDriverLocationsAsync(new List<DriverGeolocation> { fix.ToDriverLocation() });
+                    received++;
+                }
+            }
+            catch (OperationCanceledException)
+            {
+                // Request aborted: the app lost its link and will reconnect
+            }
+            catch (WebSocketException ex)
+            {
+                _logger.LogDebug(ex, "Live location stream of user {UserId} dropped", userId);
+            }
+
+            _logger.LogInformation("Live location stream closed for user {UserId}: {Received} fixes", userId, received);
+            return new EmptyResult();
+        }
+
+        // Fixes buffered by the app while its live stream was disconnected
+        [HttpPost("location_batch")]
+        public async Task<IActionResult> SaveLocationBatch([FromBody] LocationBatchRequest request)
+        {
+            try
+            {
+                // Validate request
+                if (request == null || request.UserId <= 0)
+                {
+                    _logger.LogWarning("Invalid location batch request: UserId={UserId}", request?.UserId ?? 0);
+                    return BadRequest(new { success = false, message = "Valid user_id is required." });
+                }
+                if (request.Fixes == null || request.Fixes.Count > LocationBatchRequest.MaxFixes)
+                {
+                    _logger.LogWarning("Invalid location batch from user {UserId}: {Count} fixes", request.UserId, request.Fixes?.Count ?? 0);
+                    return BadRequest(new { success = false, message = "Between 0 and " + LocationBatchRequest.MaxFixes + " fixes are accepted." });
+                }
+
+                // Verify user exists
+                var user = await _authenticationService.GetUserByIdAsync(request.UserId);
+                if (user == null)
+                {
+                    _logger.LogWarning("User not found for location batch: UserId={UserId}", request.UserId);
+                    return BadRequest(new { success = false, message = "User not found." });
+                }
+
+                var locations = request.Fixes.Select(f => f.ToDriverLocation()).ToList();
+                await _geolocationService.CreateDriverLocationsAsync(locations);
+
+                _logger.LogDebug("Location batch saved for user {UserId}: {Count} fixes", request.UserId, locations.Count);
+
+                return Ok(new { success = true, message = "Locations saved successfully.", count = locations.Count });
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error occurred while saving location batch");
+                return StatusCode(500, new { success = false, message = "An error occurred while saving locations. Please try again later." });
+            }
+        }
+
+        // Offline data published for the app: OfflineMap/manifest.json next to the files it lists
+        // ({"version", "variants": [{"max_zoom", "url", "size", "sha256"}], "tile_base_url", "geocode", "routing"}),
+        // with urls such as "/app/offline_map/glnc-z16.mbtiles". Without a tile_base_url, the single tiles
+        // served below from the published archive are announced, so the app can prefetch route tiles
+        [HttpGet("offline_map")]
+        public IActionResult GetOfflineMapManifest()
+        {
+            try
+            {
+                var path = Path.Combine(_environment.ContentRootPath, "OfflineMap", "manifest.json");
+                if (!System.IO.File.Exists(path))
+                {
+                    _logger.LogDebug("No offline map manifest at {Path}", path);
+                    return NotFound(new { success = false, message = "No offline map published." });
+                }
+
+                var manifest = JsonNode.Parse(System.IO.File.ReadAllText(path)) as JsonObject;
+                if (manifest == null)
+                {
+                    _logger.LogError("Offline map manifest at {Path} is not a JSON object", path);
+                    return StatusCode(500, new { success = false, message = "An error occurred while reading the offline map. Please try again later." });
+                }
+                if (!manifest.ContainsKey("tile_base_url") && _offlineTileService.HasArchive())
+                {
+                    manifest["tile_base_url"] = "/app/offline_map/tiles";
+                }
+
+                return Content(manifest.ToJsonString(), "application/json");
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error occurred while reading the offline map manifest");
+                return StatusCode(500, new { success = false, message = "An error occurred while reading the offline map. Please try again later." });
+            }
+        }
+
+        [HttpGet("offline_map/{fileName}")]
+        public IActionResult GetOfflineMapFile(string fileName)
+        {
+            try
+            {
+                // File names only: no path outside the OfflineMap directory
+                if (string.IsNullOrEmpty(fileName) || fileName != Path.GetFileName(fileName) || fileName == "manifest.json")
+                {
+                    _logger.LogWarning("Invalid offline map file request: {FileName}", fileName);
+                    return BadRequest(new { success = false, message = "Invalid file name." });
+                }
+
+                var path = Path.Combine(_environment.ContentRootPath, "OfflineMap", fileName);
+                if (!System.IO.File.Exists(path))
+                {
+                    _logger.LogWarning("Offline map file not found: {FileName}", fileName);
+                    return NotFound(new { success = false, message = "File not found." });
+                }
+
+                return PhysicalFile(path, "application/octet-stream", enableRangeProcessing: true);
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error occurred while sending offline map file {FileName}", fileName);
+                return StatusCode(500, new { success = false, message = "An error occurred while sending the file. Please try again later." });
+            }
+        }
+
+        // Single tiles ({z}/{x}/{y}.png, XYZ numbering) of the deepest published archive, for route prefetching
+        [HttpGet("offline_map/tiles/{z:int}/{x:int}/{y:int}.png")]
+        public async Task<IActionResult> GetOfflineMapTile(int z, int x, int y)
+        {
+            try
+            {
+                var tile = await _offlineTileService.GetTileAsync(z, x, y);
+                if (tile == null)
+                {
+                    return NotFound(new { success = false, message = "Tile not found." });
+                }
+
+                Response.Headers.CacheControl = "public, max-age=604800";
+                return File(tile, "image/png");
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error occurred while sending offline map tile {Z}/{X}/{Y}", z, x, y);
+                return StatusCode(500, new { success = false, message = "An error occurred while sending the tile. Please try again later." });
+            }
+        }
+
+        [HttpPost("shift_report")]
+        public async Task<IActionResult> SaveShiftReport([FromBody] JsonElement report)
+        {
+            try
+            {
+                // user_id is sent as a string by the app; accept a number too
+                int userId = 0;
+                if (report.ValueKind == JsonValueKind.Object && report.TryGetProperty("user_id", out var userIdElement))
+                {
+                    if (userIdElement.ValueKind == JsonValueKind.Number)
+                    {
+                        userIdElement.TryGetInt32(out userId);
+                    }
+                    else if (userIdElement.ValueKind == JsonValueKind.String)
+                    {
+                        int.TryParse(userIdElement.GetString(), NumberStyles.Integer, CultureInfo.InvariantCulture, out userId);
+                    }
+                }
+                if (userId <= 0)
+                {
+                    _logger.LogWarning("Invalid shift report: missing user_id");
+                    return BadRequest(new { success = false, message = "Valid user_id is required." });
+                }
+
+                var user = await _authenticationService.GetUserByIdAsync(userId);
+                if (user == null)
+                {
+                    _logger.LogWarning("User not found for shift report: UserId={UserId}", userId);
+                    return BadRequest(new { success = false, message = "User not found." });
+                }
+
+                // No table for shift reports yet: kept in the application log for diagnostics
+                _logger.LogInformation("Shift report from user {UserId} at {DateTime}: {Report}",
+                    userId, TimezoneHelper.GetNewCaledoniaTime(), report.GetRawText());
+
+                return Ok(new { success = true, message = "Shift report received." });
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error occurred while saving shift report");
+                return StatusCode(500, new { success = false, message = "An error occurred while saving the shift report. Please try again later." });
+            }
+        }
     }
 
     // Request DTO
@@ -582,6 +875,9 @@ namespace glnc_webpart.Controllers
 
         [JsonPropertyName("satisfaction")]
         public int Satisfaction { get; set; }
+
+        [JsonPropertyName("arrival_time")]
+        public string? ArrivalTime { get; set; } // Format: "yyyy-MM-dd HH:mm:ss", detected by the app
     }
 
     // Sign Coordinate Request DTO
@@ -618,5 +914,59 @@ namespace glnc_webpart.Controllers
         [JsonPropertyName("altitude")]
         public double Altitude { get; set; }
     }
-}
 
+    // Location fix sent by the live stream and in location batches
+    public class LocationFixDto
+    {
+        [JsonPropertyName("seq")]
+        public long Seq { get; set; }
+
+        [JsonPropertyName("latitude")]
+        public double Latitude { get; set; }
+
+        [JsonPropertyName("longitude")]
+        public double Longitude { get; set; }
+
+        [JsonPropertyName("altitude")]
+        public double Altitude { get; set; }
+
+        [JsonPropertyName("accuracy")]
+        public double? Accuracy { get; set; } // Omitted when unknown
+
+        [JsonPropertyName("speed")]
+        public double Speed { get; set; }
+
+        [JsonPropertyName("bearing")]
+        public double Bearing { get; set; }
+
+        [JsonPropertyName("time")]
+        public long Time { get; set; } // Fix time, Unix milliseconds
+
+        // Stored with the fix time, in New Caledonia time like current_location
+        public DriverGeolocation ToDriverLocation()
+        {
+            return new DriverGeolocation
+            {
+                Lati = Latitude,
+                Longi = Longitude,
+                Alti = Altitude,
+                DateTime = Time > 0
+                    ? TimezoneHelper.ToNewCaledoniaTime(DateTimeOffset.FromUnixTimeMilliseconds(Time).UtcDateTime)
+                    : TimezoneHelper.GetNewCaledoniaTime()
+            };
+        }
+    }
+
+    // Location Batch Request DTO
+    public class LocationBatchRequest
+    {
+        public const int MaxFixes = 1000; // The app buffers at most one hour (720 fixes)
+
+        [JsonPropertyName("user_id")]
+        [JsonNumberHandling(JsonNumberHandling.AllowReadingFromString)] // Sent as a string by the app
+        public int UserId { get; set; }
+
+        [JsonPropertyName("fixes")]
+        public List<LocationFixDto>? Fixes { get; set; }
+    }
+}
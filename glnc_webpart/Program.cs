@@ -44,6 +44,7 @@ builder.Services.AddScoped<IGeolocationService, GeolocationService>();
 builder.Services.AddScoped<IPointageService, PointageService>();
 builder.Services.AddScoped<IEmailService, EmailService>();
 builder.Services.AddScoped<IApiKeyService, ApiKeyService>();
+builder.Services.AddSingleton<IOfflineTileService, OfflineTileService>();
 
 var app = builder.Build();
 
@@ -67,6 +68,11 @@ else
 }
 
 app.UseStaticFiles();
+// Live location stream of the app (/api/app/live_location)
+app.UseWebSockets(new WebSocketOptions
+{
+    KeepAliveInterval = TimeSpan.FromSeconds(30)
+});
 app.UseRouting();
 app.UseSession();
 app.UseAuthorization();
@@ -84,7 +84,7 @@ namespace glnc_webpart.Services
             return existingDelivery;
         }
 
-        public async Task<bool> CompleteDeliveryAsync(int deliveryId, string signature, string invoiceImage, string comment, double weight, int satisfaction)
+        public async Task<bool> CompleteDeliveryAsync(int deliveryId, string signature, string invoiceImage, string comment, double weight, int satisfaction, DateTime? arrivalTime = null)
         {
             var delivery = await _context.Deliveries
                 .Include(d => d.Supplier)
@@ -96,7 +96,7 @@ namespace glnc_webpart.Services
 
             var currentTime = TimezoneHelper.GetNewCaledoniaTime();
             delivery.DateTimeAccept = currentTime;
-            delivery.DateTimeArrival = currentTime;
+            delivery.DateTimeArrival = arrivalTime ?? currentTime; // Arrival detected by the app, if any
             delivery.SignClient = signature;
             delivery.InvoiceImage = invoiceImage;
             delivery.Comment = comment;
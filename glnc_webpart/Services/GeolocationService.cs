@@ -34,6 +34,21 @@ namespace glnc_webpart.Services
             return location;
         }
 
+        public async Task<int> CreateDriverLocationsAsync(IList<DriverGeolocation> locations)
+        {
+            if (locations.Count == 0)
+                return 0;
+
+            _context.DriverGeolocations.AddRange(locations);
+            var saved = await _context.SaveChangesAsync();
+            // Live tracking keeps one context for a whole shift: do not let it track every fix
+            foreach (var location in locations)
+            {
+                _context.Entry(location).State = EntityState.Detached;
+            }
+            return saved;
+        }
+
         public async Task<List<DriverGeolocation>> GetDriverLocationsByDateRangeAsync(DateTime startDate, DateTime endDate)
         {
             return await _context.DriverGeolocations
@@ -86,6 +101,36 @@ namespace glnc_webpart.Services
                 .OrderByDescending(d => d.Delivery != null ? d.Delivery.DateTimeArrival : DateTime.MinValue)
                 .ToListAsync();
         }
+
+        public async Task<Dictionary<string, DeliveryGeolocation>> GetLastSignLocationsByAddressAsync(IEnumerable<string> addresses)
+        {
+            var wanted = addresses
+                .Where(a => !string.IsNullOrWhiteSpace(a))
+                .Distinct()
+                .ToList();
+            var result = new Dictionary<string, DeliveryGeolocation>();
+            if (wanted.Count == 0)
+                return result;
+
+            // Latest signature per address, selected in the query; (0, 0) means the app had no fix when signing
+            var signed = _context.DeliveryGeolocations
+                .Where(g => g.SignLati != 0 || g.SignLongi != 0)
+                .Join(_context.Deliveries.Where(d => wanted.Contains(d.Address)),
+                    g => g.DeliveryId, d => d.Id, (g, d) => new { d.Address, g.Id });
+            var latestIds = signed
+                .GroupBy(x => x.Address)
+                .Select(group => group.Max(x => x.Id));
+            var locations = await _context.DeliveryGeolocations
+                .AsNoTracking()
+                .Where(g => latestIds.Contains(g.Id))
+                .Join(_context.Deliveries, g => g.DeliveryId, d => d.Id, (g, d) => new { d.Address, Location = g })
+                .ToListAsync();
+            foreach (var row in locations)
+            {
+                result[row.Address] = row.Location;
+            }
+            return result;
+        }
     }
 }
 
@@ -9,7 +9,7 @@ namespace glnc_webpart.Services
         Task<List<Delivery>> GetDeliveriesByUserIdAsync(int userId);
         Task<Delivery> CreateDeliveryAsync(Delivery delivery);
         Task<Delivery> UpdateDeliveryAsync(Delivery delivery);
-        Task<bool> CompleteDeliveryAsync(int deliveryId, string signature, string invoiceImage, string comment, double weight, int satisfaction);
+        Task<bool> CompleteDeliveryAsync(int deliveryId, string signature, string invoiceImage, string comment, double weight, int satisfaction, DateTime? arrivalTime = null);
         Task<bool> CancelDeliveryAsync(int deliveryId, string? comment = null);
         Task<bool> DeleteDeliveryAsync(int id);
     }
@@ -7,12 +7,14 @@ namespace glnc_webpart.Services
         Task<List<DriverGeolocation>> GetAllDriverLocationsAsync();
         Task<DriverGeolocation?> GetLatestDriverLocationAsync();
         Task<DriverGeolocation> CreateDriverLocationAsync(DriverGeolocation location);
+        Task<int> CreateDriverLocationsAsync(IList<DriverGeolocation> locations);
         Task<List<DriverGeolocation>> GetDriverLocationsByDateRangeAsync(DateTime startDate, DateTime endDate);
         Task<DeliveryGeolocation> CreateDeliveryGeolocationAsync(DeliveryGeolocation deliveryGeolocation);
         Task<DriverGeolocation?> GetLatestDriverLocationByUserIdAsync(int userId);
         Task<List<DriverGeolocation>> GetDriverLocationHistoryByUserIdAsync(int userId);
         Task<DeliveryGeolocation?> GetLatestDeliveryLocationByUserIdAsync(int userId);
         Task<List<DeliveryGeolocation>> GetDeliveryLocationHistoryByUserIdAsync(int userId);
+        Task<Dictionary<string, DeliveryGeolocation>> GetLastSignLocationsByAddressAsync(IEnumerable<string> addresses);
     }
 }
 
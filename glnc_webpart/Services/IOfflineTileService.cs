@@ -0,0 +1,8 @@
+namespace glnc_webpart.Services
+{
+    public interface IOfflineTileService
+    {
+        bool HasArchive();
+        Task<byte[]?> GetTileAsync(int z, int x, int y);
+    }
+}
@@ -0,0 +1,99 @@
+using System.Text.Json;
+using Microsoft.Data.Sqlite;
+
+namespace glnc_webpart.Services
+{
+    /// <summary>
+    /// Serves single map tiles from the deepest MBTiles variant listed in OfflineMap/manifest.json,
+    /// so that the app can prefetch route tiles from our server (bulk downloads are not allowed
+    /// on tile.openstreetmap.org)
+    /// </summary>
+    public class OfflineTileService : IOfflineTileService
+    {
+        private readonly string _directory;
+        private readonly ILogger<OfflineTileService> _logger;
+        private readonly object _lock = new object();
+        private DateTime _manifestWriteTime = DateTime.MinValue;
+        private string? _archivePath;
+
+        public OfflineTileService(IWebHostEnvironment environment, ILogger<OfflineTileService> logger)
+        {
+            _directory = Path.Combine(environment.ContentRootPath, "OfflineMap");
+            _logger = logger;
+        }
+
+        public bool HasArchive()
+        {
+            return GetArchivePath() != null;
+        }
+
+        public async Task<byte[]?> GetTileAsync(int z, int x, int y)
+        {
+            var path = GetArchivePath();
+            if (path == null || z < 0 || z > 22 || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z))
+                return null;
+
+            var connectionString = new SqliteConnectionStringBuilder
+            {
+                DataSource = path,
+                Mode = SqliteOpenMode.ReadOnly
+            }.ToString();
+            await using var connection = new SqliteConnection(connectionString);
+            await connection.OpenAsync();
+            await using var command = connection.CreateCommand();
+            // MBTiles rows are in TMS order (y counted from the south)
+            command.CommandText = "SELECT tile_data FROM tiles WHERE zoom_level = $z AND tile_column = $x AND tile_row = $row";
+            command.Parameters.AddWithValue("$z", z);
+            command.Parameters.AddWithValue("$x", x);
+            command.Parameters.AddWithValue("$row", (1 << z) - 1 - y);
+            return await command.ExecuteScalarAsync() as byte[];
+        }
+
+        /// <summary>
+        /// Archive of the variant with the highest max_zoom, re-read when the manifest changes
+        /// </summary>
+        private string? GetArchivePath()
+        {
+            var manifestPath = Path.Combine(_directory, "manifest.json");
+            if (!File.Exists(manifestPath))
+                return null;
+
+            var writeTime = File.GetLastWriteTimeUtc(manifestPath);
+            lock (_lock)
+            {
+                if (writeTime == _manifestWriteTime)
+                    return _archivePath;
+
+                string? best = null;
+                int bestZoom = -1;
+                try
+                {
+                    using var manifest = JsonDocument.Parse(File.ReadAllText(manifestPath));
+                    if (manifest.RootElement.TryGetProperty("variants", out var variants) && variants.ValueKind == JsonValueKind.Array)
+                    {
+                        foreach (var variant in variants.EnumerateArray())
+                        {
+                            if (!variant.TryGetProperty("max_zoom", out var zoomElement) || !zoomElement.TryGetInt32(out var zoom)
+                                || !variant.TryGetProperty("url", out var urlElement) || urlElement.ValueKind != JsonValueKind.String)
+                                continue;
+                            var file = Path.Combine(_directory, Path.GetFileName(urlElement.GetString() ?? string.Empty));
+                            if (zoom > bestZoom && File.Exists(file))
+                            {
+                                best = file;
+                                bestZoom = zoom;
+                            }
+                        }
+                    }
+                }
+                catch (JsonException ex)
+                {
+                    _logger.LogError(ex, "Invalid offline map manifest at {Path}", manifestPath);
+                }
+
+                _manifestWriteTime = writeTime;
+                _archivePath = best;
+                return best;
+            }
+        }
+    }
+}